@@ -0,0 +1,47 @@
+package fr.univlyon1.m1if.m1if13.users.config;
+
+import fr.univlyon1.m1if.m1if13.users.dao.Dao;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.util.ClusterMembership;
+import fr.univlyon1.m1if.m1if13.users.util.PasswordHasher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import javax.naming.NameAlreadyBoundException;
+
+/**
+ * Crée l'utilisateur ADMIN au démarrage, quel que soit le DAO utilisé.
+ * Dans un cluster, seule l'instance responsable du login <code>admin</code> le crée.
+ */
+@Component
+public class AdminUserInitializer implements CommandLineRunner {
+    @Autowired
+    private Dao<User> userDao;
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Value("${users.replication.role:none}")
+    private String replicationRole;
+
+    @Override
+    public void run(String... args) {
+        if (!membership.isLocal("admin") || "follower".equals(replicationRole)) {
+            return;
+        }
+        User adminUser = new User("admin", passwordHasher.encode("admin"), Species.ADMIN, "12.png");
+        try {
+            userDao.add(adminUser);
+            System.out.println("✅ Utilisateur ADMIN ajouté avec succès !");
+        } catch (NameAlreadyBoundException e) {
+            // Utilisateur rechargé depuis le stockage persistant
+            System.out.println("✅ Utilisateur ADMIN déjà présent.");
+        }
+    }
+}
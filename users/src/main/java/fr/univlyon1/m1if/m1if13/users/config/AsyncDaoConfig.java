@@ -0,0 +1,29 @@
+package fr.univlyon1.m1if.m1if13.users.config;
+
+import fr.univlyon1.m1if.m1if13.users.dao.AsyncDao;
+import fr.univlyon1.m1if.m1if13.users.dao.AsyncDaoAdapter;
+import fr.univlyon1.m1if.m1if13.users.dao.UserQueryDao;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Fournit la version asynchrone du DAO d'utilisateurs, utilisée par les handlers pour ne pas bloquer les threads
+ * des requêtes pendant les accès au stockage.<br>
+ * Les opérations bloquantes (base de données, journal sur disque) sont exécutées par des threads virtuels.
+ */
+@Configuration
+public class AsyncDaoConfig {
+    @Bean(destroyMethod = "close")
+    public ExecutorService userDaoExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @Bean
+    public AsyncDao<User> asyncUserDao(UserQueryDao userDao, ExecutorService userDaoExecutor) {
+        return new AsyncDaoAdapter<>(userDao, userDaoExecutor);
+    }
+}
@@ -1,9 +1,12 @@
 package fr.univlyon1.m1if.m1if13.users.config;
 
-import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
+import fr.univlyon1.m1if.m1if13.users.dao.Dao;
 import fr.univlyon1.m1if.m1if13.users.model.Species;
 import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.util.ClusterMembership;
+import fr.univlyon1.m1if.m1if13.users.util.PasswordHasher;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Profile;
 import org.springframework.context.event.EventListener;
@@ -13,25 +16,34 @@ import org.springframework.stereotype.Component;
 @Profile("dev")
 public class DevUserInitializer {
     @Autowired
-    private UserDao userDao;
+    private Dao<User> userDao;
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Value("${users.replication.role:none}")
+    private String replicationRole;
 
     @EventListener(ApplicationReadyEvent.class)
     public void initializeDevUsers() {
         try {
-            if (!userExists("a")) {
-                User userA = new User("a", "a", Species.VOLEUR, "user-a.png");
+            if (shouldCreate("a")) {
+                User userA = new User("a", passwordHasher.encode("a"), Species.VOLEUR, "user-a.png");
                 userDao.add(userA);
             }
-            if (!userExists("b")) {
-                User userB = new User("b", "b", Species.VOLEUR, "user-b.png");
+            if (shouldCreate("b")) {
+                User userB = new User("b", passwordHasher.encode("b"), Species.VOLEUR, "user-b.png");
                 userDao.add(userB);
             }
-            if (!userExists("c")) {
-                User userC = new User("c", "c", Species.POLICIER, "user-c.png");
+            if (shouldCreate("c")) {
+                User userC = new User("c", passwordHasher.encode("c"), Species.POLICIER, "user-c.png");
                 userDao.add(userC);
             }
-            if (!userExists("d")) {
-                User userD = new User("d", "d", Species.POLICIER, "user-d.png");
+            if (shouldCreate("d")) {
+                User userD = new User("d", passwordHasher.encode("d"), Species.POLICIER, "user-d.png");
                 userDao.add(userD);
             }
 
@@ -41,12 +53,11 @@ public class DevUserInitializer {
         }
     }
 
-    private boolean userExists(String login) {
-        try {
-            userDao.findOne(login);
-            return true;
-        } catch (Exception e) {
+    // Dans un cluster, seule l'instance responsable d'un login le crée ; une réplique les reçoit du leader
+    private boolean shouldCreate(String login) {
+        if (!membership.isLocal(login) || "follower".equals(replicationRole)) {
             return false;
         }
+        return userDao.find(login).isEmpty();
     }
 }
\ No newline at end of file
@@ -1,7 +1,7 @@
 package fr.univlyon1.m1if.m1if13.users.config;
 
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
 import fr.univlyon1.m1if.m1if13.users.model.User;
-import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
 import fr.univlyon1.m1if.m1if13.users.util.UserTokenProvider;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -12,29 +12,32 @@ import org.springframework.web.servlet.ModelAndView;
 
 /**
  * Interceptor pour générer un token JWT.
+ * L'utilisateur pour lequel générer le token est placé en attribut de requête par les services : aucune recherche dans le DAO n'est nécessaire.
  * */
 @Component
 public class GenerateTokenInterceptor implements HandlerInterceptor {
     @Autowired
     private UserTokenProvider userTokenProvider;
 
-    @Autowired
-    private UserDao userDao;
-
     @Override
     public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler, ModelAndView modelAndView) throws Exception {
         if (request.getAttribute("generateToken") != null &&
-            request.getAttribute("userLogin") != null &&
-            request.getHeader("Origin") != null) {
-
-            String userLogin = (String) request.getAttribute("userLogin");
-            String origin = request.getHeader("Origin");
+            request.getAttribute("user") instanceof User user) {
 
-            try {
-                User user = userDao.findOne(userLogin);
-                String token = userTokenProvider.generateToken(user, origin);
+            // Si la requête est déjà authentifiée, le nouveau token reste dans la session (et l'origine) de l'ancien
+            AuthenticatedUser authenticatedUser = (AuthenticatedUser) request.getAttribute(AuthenticatedUser.REQUEST_ATTRIBUTE);
+            String token = null;
+            if (authenticatedUser != null) {
+                token = userTokenProvider.renewToken(user, authenticatedUser);
+            } else if (request.getHeader("Origin") != null) {
+                // Nouvelle session : le client reçoit aussi le refresh token qui lui permettra de la prolonger
+                UserTokenProvider.IssuedTokens tokens = userTokenProvider.openSession(user, request.getHeader("Origin"));
+                token = tokens.accessToken();
+                response.setHeader(UserTokenProvider.REFRESH_TOKEN_HEADER, tokens.refreshToken());
+            }
+            if (token != null) {
                 response.setHeader("Authorization", "Bearer " + token);
-            } catch (Exception ignored) { }
+            }
         }
     }
 }
@@ -0,0 +1,13 @@
+package fr.univlyon1.m1if.m1if13.users.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Active l'exécution des tâches périodiques (méthodes annotées <code>@Scheduled</code>),
+ * comme le nettoyage des sessions expirées.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
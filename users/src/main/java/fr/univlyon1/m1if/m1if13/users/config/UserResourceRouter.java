@@ -1,14 +1,20 @@
 package fr.univlyon1.m1if.m1if13.users.config;
 
+import fr.univlyon1.m1if.m1if13.users.exception.ForbiddenOperationException;
+import fr.univlyon1.m1if.m1if13.users.exception.OverloadedException;
 import fr.univlyon1.m1if.m1if13.users.handler.UserResourceHandler;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.servlet.function.RouterFunction;
@@ -23,6 +29,7 @@ import org.springdoc.core.annotations.RouterOperations;
 
 import static org.springframework.web.servlet.function.RequestPredicates.DELETE;
 import static org.springframework.web.servlet.function.RequestPredicates.GET;
+import static org.springframework.web.servlet.function.RequestPredicates.PATCH;
 import static org.springframework.web.servlet.function.RequestPredicates.POST;
 import static org.springframework.web.servlet.function.RequestPredicates.PUT;
 
@@ -34,6 +41,7 @@ import static org.springframework.web.servlet.function.RequestPredicates.PUT;
     @Tag(name = "User Resource Controller")
 })
 public class UserResourceRouter {
+    private static final MediaType MERGE_PATCH_JSON = MediaType.valueOf("application/merge-patch+json");
 
     @Bean
     @RouterOperations({
@@ -46,10 +54,20 @@ public class UserResourceRouter {
         beanMethod = "getAllUsers",
         operation = @Operation(
             summary = "Obtenir tous les utilisateurs",
-            description = "Récupère la liste de tous les utilisateurs.",
+            description = "Récupère la liste de tous les utilisateurs, ou de ceux qui correspondent aux critères indiqués. " +
+                    "Avec limit, la liste est paginée par ordre de login : le lien vers la page suivante est renvoyé dans " +
+                    "le champ next et dans le header Link. La recherche par espèce ou par état de connexion exige d'être authentifié.",
+            parameters = {
+                @Parameter(name = "species", in = ParameterIn.QUERY, description = "Espèce des utilisateurs (VOLEUR, POLICIER, ADMIN)"),
+                @Parameter(name = "connected", in = ParameterIn.QUERY, description = "État de connexion des utilisateurs (true ou false)"),
+                @Parameter(name = "limit", in = ParameterIn.QUERY, description = "Nombre maximal d'utilisateurs par page (1 à 1000)"),
+                @Parameter(name = "cursor", in = ParameterIn.QUERY, description = "Curseur opaque de la page, issu du lien next de la page précédente")
+            },
             responses = {
                 @ApiResponse(responseCode = "200", description = "Liste d'utilisateurs récupérée avec succès",
-                        content = @Content(mediaType = "application/json")),
+                        content = {@Content(mediaType = "application/json"), @Content(mediaType = "application/xml")}),
+                @ApiResponse(responseCode = "400", description = "Critère de recherche, taille de page ou curseur invalide"),
+                @ApiResponse(responseCode = "401", description = "Recherche par critères d'un utilisateur non authentifié"),
                 @ApiResponse(responseCode = "500", description = "Erreur interne du serveur")
             }
         )
@@ -66,12 +84,75 @@ public class UserResourceRouter {
             description = "Crée un nouvel utilisateur",
             responses = {
                 @ApiResponse(responseCode = "201", description = "Utilisateur créé avec succès"),
+                @ApiResponse(responseCode = "403", description = "L'espèce ADMIN est demandée par un utilisateur qui n'est pas administrateur"),
                 @ApiResponse(responseCode = "409", description = "Un utilisateur avec ce login existe déjà")
             }
         )
     ),
 
-    // 3) GET /users/{userId}
+    // 3) POST /users/bulk
+    @RouterOperation(
+        path = "/users/bulk",
+        method = {org.springframework.web.bind.annotation.RequestMethod.POST},
+        beanClass = UserResourceHandler.class,
+        beanMethod = "importUsers",
+        operation = @Operation(
+            summary = "Importer des utilisateurs",
+            description = "Crée des utilisateurs décrits au format NDJSON (un objet JSON par ligne, comme pour POST /users). " +
+                    "Les lignes invalides ou dont le login existe déjà sont rejetées sans interrompre l'import. Réservé aux administrateurs.",
+            responses = {
+                @ApiResponse(responseCode = "200", description = "Import terminé : nombre d'utilisateurs créés et détail des lignes rejetées",
+                        content = @Content(mediaType = "application/json")),
+                @ApiResponse(responseCode = "401", description = "Utilisateur non authentifié"),
+                @ApiResponse(responseCode = "403", description = "L'utilisateur n'est pas administrateur")
+            }
+        )
+    ),
+
+    // 4) GET /users/export
+    @RouterOperation(
+        path = "/users/export",
+        method = {org.springframework.web.bind.annotation.RequestMethod.GET},
+        beanClass = UserResourceHandler.class,
+        beanMethod = "exportUsers",
+        operation = @Operation(
+            summary = "Exporter les utilisateurs",
+            description = "Renvoie tous les utilisateurs au format NDJSON (login, espèce et image ; sans les mots de passe). " +
+                    "Réservé aux administrateurs.",
+            responses = {
+                @ApiResponse(responseCode = "200", description = "Utilisateurs exportés",
+                        content = @Content(mediaType = "application/x-ndjson")),
+                @ApiResponse(responseCode = "401", description = "Utilisateur non authentifié"),
+                @ApiResponse(responseCode = "403", description = "L'utilisateur n'est pas administrateur")
+            }
+        )
+    ),
+
+    // 5) GET /users/events
+    @RouterOperation(
+        path = "/users/events",
+        method = {org.springframework.web.bind.annotation.RequestMethod.GET},
+        beanClass = UserResourceHandler.class,
+        beanMethod = "streamEvents",
+        operation = @Operation(
+            summary = "Suivre les modifications des utilisateurs",
+            description = "Flux Server-Sent Events des créations, mises à jour, suppressions, authentifications et déconnexions " +
+                    "d'utilisateurs. Chaque événement porte un numéro de séquence ; avec le header Last-Event-ID, le flux reprend " +
+                    "après l'événement indiqué. Un événement reset indique que la reprise est impossible. Réservé aux administrateurs.",
+            parameters = {
+                @Parameter(name = "Last-Event-ID", in = ParameterIn.HEADER, description = "Numéro du dernier événement reçu")
+            },
+            responses = {
+                @ApiResponse(responseCode = "200", description = "Flux d'événements",
+                        content = @Content(mediaType = "text/event-stream")),
+                @ApiResponse(responseCode = "400", description = "Last-Event-ID invalide"),
+                @ApiResponse(responseCode = "401", description = "Utilisateur non authentifié"),
+                @ApiResponse(responseCode = "403", description = "L'utilisateur n'est pas administrateur")
+            }
+        )
+    ),
+
+    // 6) GET /users/{userId}
     @RouterOperation(
         path = "/users/{userId}",
         method = {org.springframework.web.bind.annotation.RequestMethod.GET},
@@ -81,13 +162,14 @@ public class UserResourceRouter {
             summary = "Obtenir un utilisateur par son ID",
             description = "Récupère un utilisateur spécifique en fonction de son identifiant et affiche ces informations.",
             responses = {
-                @ApiResponse(responseCode = "200", description = "Utilisateur trouvé", content = @Content(mediaType = "application/json")),
+                @ApiResponse(responseCode = "200", description = "Utilisateur trouvé (header ETag : version de l'utilisateur)",
+                        content = @Content(mediaType = "application/json")),
                 @ApiResponse(responseCode = "404", description = "Utilisateur non trouvé")
             }
         )
     ),
 
-    // 4) PUT /users/{userId}
+    // 7) PUT /users/{userId}
     @RouterOperation(
         path = "/users/{userId}",
         method = {org.springframework.web.bind.annotation.RequestMethod.PUT},
@@ -98,12 +180,34 @@ public class UserResourceRouter {
             description = "Met à jour les informations d'un utilisateur existant.",
             responses = {
                 @ApiResponse(responseCode = "201", description = "Utilisateur mis à jour avec succès"),
-                @ApiResponse(responseCode = "204", description = "Aucune modification nécessaire")
+                @ApiResponse(responseCode = "204", description = "Aucune modification nécessaire"),
+                @ApiResponse(responseCode = "403", description = "L'espèce ADMIN est demandée par un utilisateur qui n'est pas administrateur"),
+                @ApiResponse(responseCode = "412", description = "L'utilisateur a été modifié depuis la version indiquée dans If-Match")
+            }
+        )
+    ),
+
+    // 8) PATCH /users/{userId}
+    @RouterOperation(
+        path = "/users/{userId}",
+        method = {org.springframework.web.bind.annotation.RequestMethod.PATCH},
+        beanClass = UserResourceHandler.class,
+        beanMethod = "patchUser",
+        operation = @Operation(
+            summary = "Modification partielle d'un utilisateur",
+            description = "Modifie les champs d'un utilisateur indiqués dans un document JSON Merge Patch (RFC 7396) ; " +
+                    "un champ null est effacé (sauf le mot de passe et l'espèce), les champs absents sont conservés.",
+            responses = {
+                @ApiResponse(responseCode = "204", description = "Utilisateur modifié (header ETag : nouvelle version de l'utilisateur)"),
+                @ApiResponse(responseCode = "400", description = "Document invalide (champ inconnu, login modifié, mot de passe vide, espèce effacée...)"),
+                @ApiResponse(responseCode = "403", description = "L'espèce ADMIN est demandée par un utilisateur qui n'est pas administrateur"),
+                @ApiResponse(responseCode = "404", description = "Utilisateur non trouvé"),
+                @ApiResponse(responseCode = "412", description = "L'utilisateur a été modifié depuis la version indiquée dans If-Match")
             }
         )
     ),
 
-    // 5) DELETE /users/{userId}
+    // 9) DELETE /users/{userId}
     @RouterOperation(
         path = "/users/{userId}",
         method = {org.springframework.web.bind.annotation.RequestMethod.DELETE},
@@ -126,11 +230,33 @@ public class UserResourceRouter {
                         userHandler::getAllUsers)
                 .andRoute(POST("/users").and(contentType(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML)),
                         userHandler::createUser)
+                // Avant /users/{userId}, qui correspondrait aussi à ces URLs
+                .andRoute(POST("/users/bulk").and(contentType(MediaType.APPLICATION_NDJSON)),
+                        userHandler::importUsers)
+                .andRoute(GET("/users/export"),
+                        userHandler::exportUsers)
+                .andRoute(GET("/users/events"),
+                        userHandler::streamEvents)
                 .andRoute(GET("/users/{userId}").and(accept(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML)),
                         userHandler::getUser)
                 .andRoute(PUT("/users/{userId}").and(contentType(MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML)),
                         userHandler::updateUser)
+                .andRoute(PATCH("/users/{userId}").and(contentType(MERGE_PATCH_JSON, MediaType.APPLICATION_JSON)),
+                        userHandler::patchUser)
                 .andRoute(DELETE("/users/{userId}"),
-                        userHandler::deleteUser);
+                        userHandler::deleteUser)
+                // Hachage des mots de passe saturé (voir PasswordHasher) : le client peut réessayer
+                // Espèce ADMIN demandée par un utilisateur qui n'est pas administrateur : refus
+                .filter((request, next) -> {
+                    try {
+                        return next.handle(request);
+                    } catch (ForbiddenOperationException e) {
+                        return ServerResponse.status(HttpStatus.FORBIDDEN).body("Opération interdite : " + e.getMessage());
+                    } catch (OverloadedException e) {
+                        return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                .header(HttpHeaders.RETRY_AFTER, "1")
+                                .body("Service saturé : " + e.getMessage());
+                    }
+                });
     }
 }
@@ -28,9 +28,9 @@ public class WebMvcConfig implements WebMvcConfigurer {
                                "http://localhost:8080", "http://localhost:8081",
                                "http://192.168.75.94", "https://192.168.75.94",
                                "http://192.168.75.94:8080", "https://192.168.75.94:8443")
-                .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
+                .allowedMethods("GET", "POST", "PUT", "PATCH", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
-                .exposedHeaders("Authorization", "Location")
+                .exposedHeaders("Authorization", "Location", "Refresh-Token")
                 .allowCredentials(true);
     }
     
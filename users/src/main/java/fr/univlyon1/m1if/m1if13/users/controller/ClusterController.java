@@ -0,0 +1,80 @@
+package fr.univlyon1.m1if.m1if13.users.controller;
+
+import fr.univlyon1.m1if.m1if13.users.service.ClusterService;
+import fr.univlyon1.m1if.m1if13.users.util.ClusterMembership;
+import io.swagger.v3.oas.annotations.Hidden;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.naming.AuthenticationException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Contrôleur des opérations internes au cluster : composition du cluster et réception des utilisateurs déplacés.<br>
+ * Réservé aux instances et aux outils d'administration, qui présentent le secret partagé dans le header
+ * <code>X-Cluster-Secret</code> (ces URLs ne passent pas par le filtre d'authentification).
+ */
+@Hidden
+@RestController
+@RequestMapping("/cluster")
+public class ClusterController {
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    /**
+     * Renvoie la composition du cluster vue par cette instance.
+     * @param secret Le secret partagé
+     * @return Les URLs de base des instances
+     */
+    @GetMapping(value = "/nodes", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Set<String> getNodes(@RequestHeader(value = ClusterMembership.SECRET_HEADER, required = false) String secret)
+            throws AuthenticationException {
+        membership.checkSecret(secret);
+        return membership.getNodes();
+    }
+
+    /**
+     * Change la composition du cluster. Les utilisateurs qui changent d'instance sont déplacés avant la réponse.
+     * @param secret Le secret partagé
+     * @param propagate Si <code>true</code> (par défaut), la composition est aussi envoyée aux autres instances
+     * @param nodes Les URLs de base des instances
+     * @return Une réponse vide (204)
+     */
+    @PutMapping(value = "/nodes", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Void> setNodes(@RequestHeader(value = ClusterMembership.SECRET_HEADER, required = false) String secret,
+                                         @RequestParam(defaultValue = "true") boolean propagate,
+                                         @RequestBody List<String> nodes) throws AuthenticationException, IOException {
+        membership.checkSecret(secret);
+        clusterService.changeNodes(nodes, propagate);
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Reçoit des utilisateurs déplacés depuis une autre instance (NDJSON).
+     * @param secret Le secret partagé
+     * @param request La requête, dont le corps est lu au fil de l'eau
+     * @return Une réponse vide (204)
+     */
+    @PostMapping(value = "/users", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Void> receiveUsers(@RequestHeader(value = ClusterMembership.SECRET_HEADER, required = false) String secret,
+                                             HttpServletRequest request) throws AuthenticationException, IOException {
+        membership.checkSecret(secret);
+        clusterService.receiveUsers(request.getReader());
+        return ResponseEntity.noContent().build();
+    }
+}
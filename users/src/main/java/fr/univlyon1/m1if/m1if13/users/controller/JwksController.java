@@ -0,0 +1,100 @@
+package fr.univlyon1.m1if.m1if13.users.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.univlyon1.m1if.m1if13.users.util.TokenSigningKeys;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Contrôleur qui publie les clés publiques de vérification des tokens (JWK Set, RFC 7517).<br>
+ * Permet aux autres services (serveur Express, etc.) de vérifier la signature des tokens localement,
+ * sans appeler <code>/authenticate</code> à chaque requête.
+ */
+@Controller
+public class JwksController {
+    /**
+     * Type MIME d'un JWK Set.
+     */
+    public static final String JWK_SET_MEDIA_TYPE = "application/jwk-set+json";
+
+    @Autowired
+    private TokenSigningKeys signingKeys;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${jwt.jwks.maxAgeSeconds:300}")
+    private long maxAgeSeconds;
+
+    // Document sérialisé, recalculé uniquement lorsque l'ensemble des clés change
+    private volatile SerializedJwks serialized;
+
+    /**
+     * JWK Set sérialisé, avec son ETag.
+     * @param source L'ensemble de clés à partir duquel le document a été produit
+     * @param body Le document JSON
+     * @param etag L'ETag du document (condensat de son contenu)
+     */
+    private record SerializedJwks(Map<String, Object> source, byte[] body, String etag) {
+    }
+
+    /**
+     * Renvoie les clés publiques de vérification des tokens.
+     * La réponse peut être mise en cache par les clients et les proxys ; une requête conditionnelle (<code>If-None-Match</code>)
+     * reçoit une réponse 304 si les clés n'ont pas changé.
+     * @return Le JWK Set, vide si les tokens sont signés avec une clé secrète
+     */
+    @Operation(summary = "Clés publiques de vérification des tokens",
+            description = "Renvoie le JWK Set permettant de vérifier localement la signature des tokens émis par cette API.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "JWK Set"),
+            @ApiResponse(responseCode = "304", description = "Les clés n'ont pas changé")
+    })
+    @CrossOrigin(origins = {"http://localhost", "http://127.0.0.1", "http://localhost:8080", "http://localhost:8081", "http://192.168.75.94", "https://192.168.75.94", "http://192.168.75.94:8080", "https://192.168.75.94:8443"})
+    @GetMapping(value = "/.well-known/jwks.json", produces = {JWK_SET_MEDIA_TYPE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<byte[]> getJwks() throws JsonProcessingException {
+        SerializedJwks current = serialize();
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(Duration.ofSeconds(maxAgeSeconds)).cachePublic())
+                .eTag(current.etag())
+                .contentType(MediaType.parseMediaType(JWK_SET_MEDIA_TYPE))
+                .body(current.body());
+    }
+
+    private SerializedJwks serialize() throws JsonProcessingException {
+        Map<String, Object> jwks = signingKeys.getJwks();
+        SerializedJwks current = serialized;
+        if (current == null || current.source() != jwks) {
+            byte[] body = objectMapper.writeValueAsBytes(jwks);
+            current = new SerializedJwks(jwks, body, "\"" + digest(body) + "\"");
+            serialized = current;
+        }
+        return current;
+    }
+
+    private static String digest(byte[] body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 fait partie des algorithmes que toute JVM doit fournir
+            throw new IllegalStateException(e);
+        }
+    }
+}
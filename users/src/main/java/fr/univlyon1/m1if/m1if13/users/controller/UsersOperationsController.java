@@ -1,7 +1,13 @@
 package fr.univlyon1.m1if.m1if13.users.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import fr.univlyon1.m1if.m1if13.users.dto.LoginRequestDto;
+import fr.univlyon1.m1if.m1if13.users.dto.RefreshTokenRequestDto;
+import fr.univlyon1.m1if.m1if13.users.dto.TokenValidationRequestDto;
+import fr.univlyon1.m1if.m1if13.users.dto.TokenValidationResultDto;
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
 import fr.univlyon1.m1if.m1if13.users.service.UserOperationService;
+import fr.univlyon1.m1if.m1if13.users.util.UserTokenProvider;
 import io.swagger.v3.oas.annotations.Hidden;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -19,9 +25,12 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.naming.AuthenticationException;
 import javax.naming.NameNotFoundException;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Contrôleur d'opérations métier.
@@ -32,6 +41,9 @@ public class UsersOperationsController {
     @Autowired
     private UserOperationService userOperationService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * Procédure de login via un formulaire HTML.
      * TODO: cette méthode ne doit pas apparaître dans la documentation de l'API.
@@ -41,7 +53,7 @@ public class UsersOperationsController {
      */
     @Hidden
     @CrossOrigin(origins = {"http://localhost", "http://127.0.0.1", "http://localhost:8080", "http://localhost:8081", "http://192.168.75.94", "https://192.168.75.94", "http://192.168.75.94:8080", "https://192.168.75.94:8443"}, 
-                exposedHeaders = {"Authorization"},
+                exposedHeaders = {"Authorization", "Refresh-Token"},
                 allowCredentials = "true")
     @PostMapping(value = "/login", consumes = MediaType.APPLICATION_FORM_URLENCODED_VALUE)
     public ResponseEntity<Void> login(
@@ -63,7 +75,7 @@ public class UsersOperationsController {
             @ApiResponse(responseCode = "404", description = "Utilisateur non trouvé")
     })
     @CrossOrigin(origins = {"http://localhost", "http://127.0.0.1", "http://localhost:8080", "http://localhost:8081", "http://192.168.75.94", "https://192.168.75.94", "http://192.168.75.94:8080", "https://192.168.75.94:8443"},
-                exposedHeaders = {"Authorization"},
+                exposedHeaders = {"Authorization", "Refresh-Token"},
                 allowCredentials = "true")
     @PostMapping(value = "/login", consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Void> login(
@@ -77,6 +89,7 @@ public class UsersOperationsController {
 
     /**
      * Réalise la déconnexion.
+     * @param authenticatedUser L'utilisateur authentifié par les filtres (attribut de requête)
      */
     @Operation(summary = "Déconnexion de l'utilisateur", description = "Met fin à la session de l'utilisateur en invalidant son token.")
     @ApiResponses(value = {
@@ -86,11 +99,38 @@ public class UsersOperationsController {
                 allowCredentials = "true")
     @PostMapping("/logout")
     public ResponseEntity<Void> logout(
-            @Parameter(description = "Nom d'utilisateur") @RequestAttribute("username") String username) {
-        userOperationService.logout(username);
+            @Parameter(hidden = true) @RequestAttribute(AuthenticatedUser.REQUEST_ATTRIBUTE) AuthenticatedUser authenticatedUser) {
+        userOperationService.logout(authenticatedUser);
         return ResponseEntity.noContent().build();
     }
 
+    /**
+     * Renouvelle la session d'un utilisateur sans refaire de login.
+     * @param refreshTokenDto Un objet JSON contenant le refresh token reçu lors du login ou du dernier renouvellement
+     * @return Une ResponseEntity avec le nouveau JWT dans le header "Authorization" et le nouveau refresh token dans le header "Refresh-Token",
+     * et le code de statut approprié (204 ou 401).
+     */
+    @Operation(summary = "Renouvellement de la session",
+            description = "Échange un refresh token contre un nouveau JWT et un nouveau refresh token. Un refresh token ne peut être utilisé qu'une fois : " +
+                    "sa réutilisation révoque la session.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "204", description = "Session renouvelée"),
+            @ApiResponse(responseCode = "401", description = "Refresh token invalide, déjà utilisé ou session fermée")
+    })
+    @CrossOrigin(origins = {"http://localhost", "http://127.0.0.1", "http://localhost:8080", "http://localhost:8081", "http://192.168.75.94", "https://192.168.75.94", "http://192.168.75.94:8080", "https://192.168.75.94:8443"},
+                exposedHeaders = {"Authorization", "Refresh-Token"},
+                allowCredentials = "true")
+    @PostMapping(value = "/token/refresh", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Void> refresh(
+            @Parameter(description = "Refresh token de la session") @RequestBody RefreshTokenRequestDto refreshTokenDto)
+            throws AuthenticationException {
+        UserTokenProvider.IssuedTokens tokens = userOperationService.refresh(refreshTokenDto.refreshToken());
+        return ResponseEntity.noContent()
+                .header("Authorization", "Bearer " + tokens.accessToken())
+                .header(UserTokenProvider.REFRESH_TOKEN_HEADER, tokens.refreshToken())
+                .build();
+    }
+
     /**
      * Méthode destinée au serveur Express pour valider l'authentification d'un utilisateur.
      * @param jwt Le token JWT qui se trouve dans le header "Authorization" de la requête
@@ -118,4 +158,35 @@ public class UsersOperationsController {
         }
         return ResponseEntity.noContent().build();
     }
+
+    /**
+     * Méthode destinée au serveur Express pour valider en un seul appel les tokens de tous les joueurs d'une partie.
+     * Les tokens sont vérifiés en parallèle et les résultats sont envoyés au fil de l'eau, au format NDJSON (un objet JSON par ligne),
+     * dans l'ordre de la requête.
+     * @param tokens La liste des couples token / origine à vérifier
+     * @return Un flux de résultats de vérification (validité, login, espèce et durée de validité restante de chaque token)
+     */
+    @Operation(summary = "Vérification d'un lot de tokens",
+            description = "Vérifie plusieurs tokens JWT en une seule requête et renvoie un résultat par token, dans l'ordre de la requête (NDJSON).")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Résultats de la vérification"),
+            @ApiResponse(responseCode = "400", description = "Lot vide ou trop volumineux")
+    })
+    @CrossOrigin(origins = {"http://localhost", "http://127.0.0.1", "http://localhost:8080", "http://localhost:8081", "http://192.168.75.94", "https://192.168.75.94", "http://192.168.75.94:8080", "https://192.168.75.94:8443"},
+                allowCredentials = "true")
+    @PostMapping(value = "/authenticate/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> authenticateBatch(
+            @Parameter(description = "Tokens JWT et origines à vérifier") @RequestBody List<TokenValidationRequestDto> tokens) {
+        Stream<TokenValidationResultDto> results = userOperationService.authenticateBatch(tokens);
+        StreamingResponseBody body = outputStream -> {
+            for (TokenValidationResultDto result : (Iterable<TokenValidationResultDto>) results::iterator) {
+                outputStream.write(objectMapper.writeValueAsBytes(result));
+                outputStream.write('\n');
+                outputStream.flush();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
 }
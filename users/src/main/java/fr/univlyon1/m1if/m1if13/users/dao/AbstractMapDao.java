@@ -1,29 +1,89 @@
 package fr.univlyon1.m1if.m1if13.users.dao;
 
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+
 import javax.naming.NameAlreadyBoundException;
 import javax.naming.NameNotFoundException;
 import java.io.Serializable;
+import java.lang.ref.Cleaner;
+import java.util.AbstractCollection;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Début d'implémentation de l'interface DAO sous forme d'une Map d'objets.
- * Classe abstraite qui doit être instanciée en fonction du type d'objet stocké et de clé.
+ * Classe abstraite qui doit être instanciée en fonction du type d'objet stocké et de clé.<br>
+ * La Map est une <code>ConcurrentHashMap</code> (verrouillage par case, lectures sans verrou) : le DAO peut être utilisé
+ * par les threads de traitement des requêtes sans synchronisation supplémentaire. Chaque opération est atomique,
+ * et chaque élément est stocké avec un numéro de version (voir <code>Versioned</code>) incrémenté à chaque mise à jour.
+ * Un élément recréé après sa suppression reprend la numérotation après sa dernière version : une version de l'élément
+ * supprimé ne désigne jamais un état de l'élément recréé. Ces versions ne sont conservées qu'en mémoire.<br>
+ * Multi-versions : une écriture ne modifie jamais un élément stocké, elle publie une nouvelle version (voir <code>Revision</code>)
+ * qui remplace la précédente. Les lectures d'un élément renvoient sa dernière version ; les parcours (<code>findAll</code>)
+ * voient l'état de tous les éléments à la date où ils commencent, sans verrou ni copie, même pendant des écritures.
+ * Les éléments stockés doivent donc être immuables.<br>
+ * Les sous-classes qui indexent les éléments redéfinissent <code>index</code> ; celles qui les persistent redéfinissent
+ * <code>journal</code> et <code>commit</code>.<br>
+ * Déchargement : une sous-classe peut remplacer l'état en mémoire d'un élément peu utilisé par une référence vers une copie
+ * sur disque (<code>spill</code>, <code>readSpilled</code>). La clé reste dans la Map ; l'élément est rechargé en mémoire
+ * à sa prochaine lecture par clé ou écriture, et lu sur disque (sans être rechargé) par les parcours.
  * @param <T> Le type d'objet auquel s'applique le DAO ; défini dans une sous-classe
  *
  * @author Lionel Médini
  */
 
 public abstract class AbstractMapDao<T> implements Dao<T> {
-    protected Map<Serializable, T> collection = new HashMap<>();
+    /**
+     * Valeur renvoyée par <code>journal</code> lorsqu'aucune écriture n'est à attendre.
+     */
+    protected static final long NO_TICKET = 0;
+
+    // Au-delà, une écriture fait avancer l'horizon pour raccourcir la chaîne des versions de l'élément
+    private static final int MAX_REVISIONS = 16;
+    // Libère les parcours abandonnés avant la fin (exception, client déconnecté...)
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    // Dernière version de chaque élément ; une suppression est une version sans état, retirée par vacuum
+    private final ConcurrentMap<Serializable, Revision<T>> collection = new ConcurrentHashMap<>();
+    // Dernière version des éléments supprimés dont la suppression a été retirée de la Map par vacuum
+    private final ConcurrentMap<Serializable, Long> retired = new ConcurrentHashMap<>();
+    private final Snapshots snapshots = new Snapshots();
+    // Nombre d'éléments non supprimés, mis à jour pendant l'opération atomique de chaque écriture qui en crée ou en supprime un
+    private final AtomicInteger count = new AtomicInteger();
 
     public Serializable add(T element) throws NameAlreadyBoundException {
         Serializable key = getKeyForElement(element);
-        if(this.collection.containsKey(key)) {
+        long[] ticket = {NO_TICKET};
+        Revision<T> head = this.collection.compute(key, (id, stored) -> {
+            Revision<T> current = resident(id, stored);
+            if(current != null && current.value() != null) {
+                return current;
+            }
+            Versioned<T> created = created(id, current, element);
+            index(id, null, element);
+            ticket[0] = journal(id, created, true);
+            count.incrementAndGet();
+            return new Revision<>(created, current);
+        });
+        if(ticket[0] == NO_TICKET) {
             throw new NameAlreadyBoundException(key.toString());
         }
-        this.collection.put(key, element);
+        publish(head, ticket[0]);
         return key;
     }
 
@@ -33,14 +93,117 @@ public abstract class AbstractMapDao<T> implements Dao<T> {
     }
 
     public void deleteById(Serializable id) throws NameNotFoundException {
-        if(!this.collection.containsKey(id)) {
+        remove(id, key -> journal(key, null, false));
+    }
+
+    /**
+     * Retire un élément qui continue d'exister ailleurs (par exemple déplacé vers une autre instance) : il disparaît de la Map
+     * et des index comme lors d'une suppression, mais la modification est enregistrée par <code>forget</code> au lieu de
+     * <code>journal</code>.
+     * @param id la clé de l'élément
+     * @throws NameNotFoundException si l'élément n'existe pas
+     */
+    protected void evict(Serializable id) throws NameNotFoundException {
+        remove(id, this::forget);
+    }
+
+    private void remove(Serializable id, ToLongFunction<Serializable> record) throws NameNotFoundException {
+        long[] ticket = {NO_TICKET};
+        Revision<T> head = this.collection.computeIfPresent(id, (key, stored) -> {
+            Revision<T> current = resident(key, stored);
+            if(current.value() == null) {
+                return current;
+            }
+            index(key, current.value().element(), null);
+            ticket[0] = record.applyAsLong(key);
+            count.decrementAndGet();
+            return Revision.deletion(current);
+        });
+        if(ticket[0] == NO_TICKET) {
             throw new NameNotFoundException(id.toString());
         }
-        this.collection.remove(id);
+        publish(head, ticket[0]);
     }
 
     public void update(Serializable id, T element) {
-        this.collection.put(id, element);
+        long[] ticket = {NO_TICKET};
+        Revision<T> head = this.collection.compute(id, (key, stored) -> {
+            Revision<T> current = resident(key, stored);
+            Versioned<T> before = current == null ? null : current.value();
+            Versioned<T> updated = before == null ? created(key, current, element) : before.next(element);
+            index(key, before == null ? null : before.element(), element);
+            ticket[0] = journal(key, updated, before == null);
+            if(before == null) {
+                count.incrementAndGet();
+            }
+            return new Revision<>(updated, current);
+        });
+        publish(head, ticket[0]);
+    }
+
+    public long update(Serializable id, T element, long expectedVersion) throws NameNotFoundException, StaleVersionException {
+        long[] ticket = {NO_TICKET};
+        Revision<T> head = this.collection.computeIfPresent(id, (key, stored) -> {
+            Revision<T> current = resident(key, stored);
+            if(current.value() == null || current.value().version() != expectedVersion) {
+                return current;
+            }
+            Versioned<T> updated = current.value().next(element);
+            index(key, current.value().element(), element);
+            ticket[0] = journal(key, updated, false);
+            return new Revision<>(updated, current);
+        });
+        if(head == null || head.value() == null) {
+            throw new NameNotFoundException(id.toString());
+        }
+        if(ticket[0] == NO_TICKET) {
+            throw new StaleVersionException(id, expectedVersion, head.value().version());
+        }
+        publish(head, ticket[0]);
+        return head.value().version();
+    }
+
+    public Versioned<T> compute(Serializable id, UnaryOperator<T> update) throws NameNotFoundException {
+        long[] ticket = {NO_TICKET};
+        Revision<T> head = this.collection.computeIfPresent(id, (key, stored) -> {
+            Revision<T> current = resident(key, stored);
+            if(current.value() == null) {
+                return current;
+            }
+            Versioned<T> next = current.value().next(update.apply(current.value().element()));
+            index(key, current.value().element(), next.element());
+            ticket[0] = journal(key, next, false);
+            return new Revision<>(next, current);
+        });
+        if(ticket[0] == NO_TICKET) {
+            throw new NameNotFoundException(id.toString());
+        }
+        publish(head, ticket[0]);
+        return head.value();
+    }
+
+    /**
+     * Crée ou met à jour l'élément sous le verrou de sa case de la Map : la fonction n'est appelée qu'une fois.
+     */
+    @Override
+    public Upserted<T> upsert(Serializable id, UnaryOperator<T> merge) {
+        long[] ticket = {NO_TICKET};
+        boolean[] created = {false};
+        Revision<T> head = this.collection.compute(id, (key, stored) -> {
+            Revision<T> current = resident(key, stored);
+            Versioned<T> before = current == null ? null : current.value();
+            created[0] = before == null;
+            T merged = merge.apply(before == null ? null : before.element());
+            Versioned<T> after = before == null ? created(key, current, merged) : before.next(merged);
+            index(key, before == null ? null : before.element(), merged);
+            ticket[0] = journal(key, after, created[0]);
+            if(created[0]) {
+                count.incrementAndGet();
+            }
+            return new Revision<>(after, current);
+        });
+        publish(head, ticket[0]);
+        return new Upserted<>(head.value(), created[0]);
     }
 
     public Serializable getId(T element) {
@@ -48,14 +211,281 @@ public abstract class AbstractMapDao<T> implements Dao<T> {
     }
 
     public T findOne(Serializable id) throws NameNotFoundException {
-        if(!this.collection.containsKey(id)) {
-            throw new NameNotFoundException(id.toString());
+        return findVersioned(id).element();
+    }
+
+    /**
+     * Renvoie la dernière version d'un élément ; un élément déchargé est rechargé en mémoire.
+     */
+    public Versioned<T> findVersioned(Serializable id) throws NameNotFoundException {
+        return find(id).orElseThrow(() -> new NameNotFoundException(id.toString()));
+    }
+
+    /**
+     * Renvoie la dernière version d'un élément, sans exception si la clé est inconnue ; un élément déchargé est rechargé en mémoire.
+     */
+    @Override
+    public Optional<Versioned<T>> find(Serializable id) {
+        while(true) {
+            Revision<T> head = collection.get(id);
+            if(head == null || !head.isSpilled()) {
+                return head == null ? Optional.empty() : Optional.ofNullable(head.value());
+            }
+            Versioned<T> value = readSpilled(id, head.handle());
+            // Sinon l'élément a été modifié ou rechargé entre-temps : nouvelle lecture de la Map
+            if(value != null && collection.replace(id, head, Revision.reloaded(head, value))) {
+                reloaded(id);
+                return Optional.of(value);
+            }
         }
-        return this.collection.get(id);
     }
 
+    /**
+     * Renvoie une vue non modifiable des éléments, sans les copier. Chaque parcours de la vue (itérateur ou stream) voit
+     * un état cohérent : celui de tous les éléments à la date où il commence, sans être bloqué ni affecté par les écritures
+     * concurrentes. Les versions dont il a besoin sont conservées jusqu'à la fin du parcours, ou jusqu'à la fermeture
+     * du stream renvoyé par <code>stream()</code> s'il est abandonné avant la fin.<br>
+     * <code>size()</code> ne parcourt pas les éléments : elle renvoie leur nombre courant, qui peut différer du nombre
+     * d'éléments vus par un parcours commencé avant des écritures concurrentes.
+     * @return Les éléments
+     */
     public Collection<T> findAll() {
-        return this.collection.values();
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<T> iterator() {
+                return new SnapshotIterator();
+            }
+
+            @Override
+            public Spliterator<T> spliterator() {
+                // Le nombre d'éléments du parcours n'est connu qu'à sa fin
+                return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.NONNULL);
+            }
+
+            @Override
+            public Stream<T> stream() {
+                SnapshotIterator iterator = new SnapshotIterator();
+                return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                        .onClose(iterator::close);
+            }
+
+            @Override
+            public int size() {
+                return count.get();
+            }
+        };
+    }
+
+    /**
+     * Les éléments sont stockés en mémoire : les opérations n'attendent que les verrous des cases de la Map.
+     * Les sous-classes qui persistent les écritures (<code>commit</code>) redéfinissent cette méthode.
+     */
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
+
+    /**
+     * Retire les suppressions et oublie les versions dont plus aucun parcours n'a besoin.
+     * @return Le nombre d'éléments supprimés retirés de la Map
+     */
+    public int vacuum() {
+        long horizon = snapshots.advance();
+        int removed = 0;
+        for (var entry : collection.entrySet()) {
+            Revision<T> head = entry.getValue();
+            if(head.isObsoleteTombstone(horizon)) {
+                // Enregistrée avant le retrait : une création qui ne trouve plus la suppression trouve sa version
+                retired.merge(entry.getKey(), head.deletedVersion(), Math::max);
+                // Ne retire la suppression que si aucune écriture ne l'a remplacée entre-temps
+                if(collection.remove(entry.getKey(), head)) {
+                    removed++;
+                }
+            } else {
+                head.prune(horizon);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Renvoie le nombre de parcours en cours (pour les tests).
+     */
+    int activeSnapshots() {
+        return snapshots.activeReaders();
+    }
+
+    /**
+     * Renvoie la dernière version d'un élément. Un élément déchargé est lu sur disque sans être rechargé en mémoire.
+     * @param id la clé de l'élément
+     * @return l'élément et sa version, ou <code>null</code> s'il n'existe pas
+     */
+    protected Versioned<T> latest(Serializable id) {
+        while(true) {
+            Revision<T> head = collection.get(id);
+            if(head == null || !head.isSpilled()) {
+                return head == null ? null : head.value();
+            }
+            Versioned<T> value = readSpilled(id, head.handle());
+            if(value != null) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Décharge un élément : son état est écrit par <code>writer</code>, puis remplacé dans la Map par la référence renvoyée.
+     * Seuls les éléments dont aucun parcours en cours n'a besoin d'une version précédente peuvent être déchargés.
+     * L'écriture a lieu pendant l'opération atomique sur l'élément.
+     * @param id la clé de l'élément
+     * @param writer écrit l'état sur disque et renvoie sa référence (non nulle), qui sera passée à <code>readSpilled</code>
+     * @return <code>true</code> si l'élément a été déchargé
+     */
+    protected boolean spill(Serializable id, ToLongFunction<Versioned<T>> writer) {
+        long horizon = snapshots.horizon();
+        boolean[] spilled = {false};
+        collection.computeIfPresent(id, (key, current) -> {
+            // Version visible par tous les parcours : les versions précédentes ne sont plus utiles
+            if(current.isSpilled() || current.value() == null || !current.isSettled(horizon)) {
+                return current;
+            }
+            current.prune(horizon);
+            spilled[0] = true;
+            return Revision.spilled(current, writer.applyAsLong(current.value()));
+        });
+        return spilled[0];
+    }
+
+    /**
+     * Indique si un élément est déchargé.
+     * @param id la clé de l'élément
+     * @return <code>true</code> si sa dernière version est sur disque
+     */
+    protected boolean isSpilled(Serializable id) {
+        Revision<T> head = collection.get(id);
+        return head != null && head.isSpilled();
+    }
+
+    /**
+     * Indique si une référence renvoyée par le <code>writer</code> de <code>spill</code> est toujours utilisée par la Map.
+     * La vérification est ordonnée par rapport aux opérations sur l'élément : une référence qui n'est plus utilisée
+     * ne le sera plus jamais, et la copie correspondante peut être libérée.
+     * @param id la clé de l'élément
+     * @param handle la référence
+     * @return <code>true</code> si la dernière version de l'élément est déchargée avec cette référence
+     */
+    protected boolean holds(Serializable id, long handle) {
+        boolean[] held = {false};
+        collection.computeIfPresent(id, (key, current) -> {
+            held[0] = current.isSpilled() && current.handle() == handle;
+            return current;
+        });
+        return held[0];
+    }
+
+    /**
+     * Relit l'état d'un élément déchargé. Peut être appelée hors de l'opération atomique sur l'élément (lectures, parcours),
+     * donc avec une référence que la sous-classe a déjà libérée.
+     * @param id la clé de l'élément
+     * @param handle la référence renvoyée par le <code>writer</code> de <code>spill</code>
+     * @return l'élément et sa version, ou <code>null</code> si la référence a été libérée
+     */
+    protected Versioned<T> readSpilled(Serializable id, long handle) {
+        throw new IllegalStateException("Élément déchargé sans stockage secondaire : " + id);
+    }
+
+    /**
+     * Appelée lorsqu'un élément déchargé vient d'être rechargé en mémoire.
+     * @param id la clé de l'élément
+     */
+    protected void reloaded(Serializable id) {
+    }
+
+    /**
+     * Recharge en mémoire un élément déchargé, pendant l'opération atomique sur l'élément (la référence ne peut donc pas
+     * avoir été libérée).
+     * @return la version rechargée, ou <code>stored</code> si elle n'était pas déchargée
+     */
+    private Revision<T> resident(Serializable id, Revision<T> stored) {
+        if(stored == null || !stored.isSpilled()) {
+            return stored;
+        }
+        Revision<T> loaded = Revision.reloaded(stored, readSpilled(id, stored.handle()));
+        reloaded(id);
+        return loaded;
+    }
+
+    /**
+     * Renvoie les clés de la Map, qui peuvent inclure des éléments supprimés (à vérifier avec <code>latest</code>).
+     * @return une vue non modifiable des clés
+     */
+    protected Set<Serializable> keys() {
+        return Collections.unmodifiableSet(collection.keySet());
+    }
+
+    /**
+     * Charge un élément sans l'enregistrer (reconstruction de l'état au démarrage, avant toute lecture).
+     * @param id la clé de l'élément
+     * @param value l'élément et sa version
+     */
+    protected void restore(Serializable id, Versioned<T> value) {
+        Revision<T> previous = collection.put(id, Revision.initial(value));
+        if(previous == null || (!previous.isSpilled() && previous.value() == null)) {
+            count.incrementAndGet();
+        }
+        index(id, null, value.element());
+    }
+
+    /**
+     * Installe l'état d'un élément décidé ailleurs (réplication) : la version reçue est conservée telle quelle.
+     * La modification est indexée, enregistrée et publiée comme une écriture.
+     * @param id la clé de l'élément
+     * @param value l'élément et sa version, ou <code>null</code> pour le supprimer
+     * @return <code>false</code> s'il n'y avait rien à supprimer
+     */
+    protected boolean install(Serializable id, Versioned<T> value) {
+        long[] ticket = {NO_TICKET};
+        Revision<T> head = this.collection.compute(id, (key, stored) -> {
+            Revision<T> current = resident(key, stored);
+            Versioned<T> before = current == null ? null : current.value();
+            if(before == null && value == null) {
+                return current;
+            }
+            index(key, before == null ? null : before.element(), value == null ? null : value.element());
+            ticket[0] = journal(key, value, before == null);
+            if(before == null) {
+                count.incrementAndGet();
+            } else if(value == null) {
+                count.decrementAndGet();
+                return Revision.deletion(current);
+            }
+            return new Revision<>(value, current);
+        });
+        if(ticket[0] == NO_TICKET) {
+            return false;
+        }
+        publish(head, ticket[0]);
+        return true;
+    }
+
+    /**
+     * Exécute une action pendant l'opération atomique sur un élément, sans le modifier : l'action est ordonnée par rapport
+     * aux écritures de cet élément (et aux appels à <code>index</code> qu'elles provoquent).
+     * @param id la clé de l'élément
+     * @param action reçoit l'élément
+     * @return <code>false</code> si l'élément n'existe pas (l'action n'est alors pas exécutée)
+     */
+    protected boolean atomically(Serializable id, Consumer<T> action) {
+        boolean[] found = {false};
+        collection.computeIfPresent(id, (key, stored) -> {
+            Revision<T> current = resident(key, stored);
+            if(current.value() != null) {
+                action.accept(current.value().element());
+                found[0] = true;
+            }
+            return current;
+        });
+        return found[0];
     }
 
     /**
@@ -65,4 +495,124 @@ public abstract class AbstractMapDao<T> implements Dao<T> {
      * @return une clé qui est une instance d'une sous-classe de <code>Serializable</code>
      */
     protected abstract Serializable getKeyForElement(T element);
+
+    /**
+     * Met à jour les index secondaires d'une sous-classe. Appelée pendant l'opération atomique sur la Map, avant que le nouvel
+     * état ne soit visible : les index d'un élément sont donc mis à jour dans l'ordre des modifications de cet élément.
+     * Les lectures qui passent par un index doivent vérifier l'élément trouvé, qui peut ne pas encore refléter la modification.
+     * @param id la clé de l'élément modifié
+     * @param previous l'état précédent de l'élément, ou <code>null</code> s'il est créé
+     * @param value le nouvel état de l'élément, ou <code>null</code> s'il est supprimé
+     */
+    protected void index(Serializable id, T previous, T value) {
+    }
+
+    /**
+     * Enregistre une modification. Appelée pendant l'opération atomique sur la Map (la case de l'élément est verrouillée) :
+     * deux modifications d'un même élément sont donc enregistrées dans l'ordre où elles sont appliquées.
+     * Ne doit pas bloquer : l'attente de l'écriture se fait dans <code>commit</code>.
+     * @param id la clé de l'élément modifié
+     * @param value le nouvel état de l'élément, ou <code>null</code> s'il est supprimé
+     * @param created <code>true</code> si l'élément n'existait pas (sa version n'est pas forcément la version initiale)
+     * @return un ticket à passer à <code>commit</code> (différent de <code>NO_TICKET</code>)
+     */
+    protected long journal(Serializable id, Versioned<T> value, boolean created) {
+        return 1;
+    }
+
+    /**
+     * Enregistre le retrait d'un élément par <code>evict</code>, dans les mêmes conditions que <code>journal</code>.
+     * Par défaut, comme une suppression.
+     * @param id la clé de l'élément retiré
+     * @return un ticket à passer à <code>commit</code> (différent de <code>NO_TICKET</code>)
+     */
+    protected long forget(Serializable id) {
+        return journal(id, null, false);
+    }
+
+    /**
+     * Renvoie l'état d'un élément créé, dont la version suit la dernière version d'un élément supprimé de même clé.
+     * Appelée pendant l'opération atomique sur la Map.
+     * @param current la version courante de la clé (une suppression), ou <code>null</code>
+     */
+    private Versioned<T> created(Serializable id, Revision<T> current, T element) {
+        long deleted = current != null ? current.deletedVersion() : retired.getOrDefault(id, 0L);
+        return new Versioned<>(element, Math.max(Versioned.INITIAL_VERSION, deleted + 1));
+    }
+
+    /**
+     * Attend que la modification correspondant au ticket soit durable. Appelée après l'opération atomique, hors verrou.
+     * @param ticket le ticket renvoyé par <code>journal</code>
+     */
+    protected void commit(long ticket) {
+    }
+
+    /**
+     * Valide une version qui vient d'être publiée dans la Map : la date, raccourcit la chaîne des versions de l'élément,
+     * puis attend que la modification soit durable.
+     */
+    private void publish(Revision<T> revision, long ticket) {
+        revision.commit(snapshots);
+        if(revision.prune(snapshots.horizon()) > MAX_REVISIONS) {
+            revision.prune(snapshots.advance());
+        }
+        commit(ticket);
+    }
+
+    private static Runnable release(Snapshots snapshots, Snapshots.Reader reader) {
+        return () -> snapshots.close(reader);
+    }
+
+    /**
+     * Parcours des éléments à une date fixée. Le parcours est désinscrit dès qu'il est terminé ou fermé (<code>close</code>),
+     * et en dernier recours par le <code>Cleaner</code> s'il est abandonné avant la fin sans être fermé.
+     */
+    private final class SnapshotIterator implements Iterator<T> {
+        private final Snapshots.Reader reader = snapshots.open();
+        private final Cleaner.Cleanable cleanable = CLEANER.register(this, release(snapshots, reader));
+        private final Iterator<Map.Entry<Serializable, Revision<T>>> heads = collection.entrySet().iterator();
+        private T next;
+
+        @Override
+        public boolean hasNext() {
+            while(next == null && heads.hasNext()) {
+                var entry = heads.next();
+                Revision<T> visible = entry.getValue().visibleAt(reader.snapshot(), snapshots);
+                while(visible != null && visible.isSpilled()) {
+                    Versioned<T> value = readSpilled(entry.getKey(), visible.handle());
+                    if(value != null) {
+                        next = value.element();
+                        break;
+                    }
+                    // Référence libérée : l'élément a été rechargé avec la même date, ou modifié
+                    Revision<T> head = collection.get(entry.getKey());
+                    visible = head == null ? null : head.visibleAt(reader.snapshot(), snapshots);
+                }
+                if(visible != null && !visible.isSpilled() && visible.value() != null) {
+                    next = visible.value().element();
+                }
+            }
+            if(next == null) {
+                cleanable.clean();
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T element = next;
+            next = null;
+            return element;
+        }
+
+        /**
+         * Termine le parcours avant la fin : les versions qu'il retenait peuvent être oubliées.
+         */
+        void close() {
+            cleanable.clean();
+        }
+    }
 }
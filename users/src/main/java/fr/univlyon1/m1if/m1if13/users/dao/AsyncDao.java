@@ -0,0 +1,78 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
+
+/**
+ * Version asynchrone de l'interface <code>Dao</code> : les opérations renvoient un <code>CompletableFuture</code>,
+ * et un élément absent est signalé par un <code>Optional</code> vide plutôt que par une exception.<br>
+ * Les erreurs (clé déjà utilisée, version périmée...) sont transmises par le future, complété avec l'exception
+ * correspondante du DAO synchrone (<code>NameAlreadyBoundException</code>, <code>NameNotFoundException</code>,
+ * <code>StaleVersionException</code>).
+ * @param <T> Le type des éléments stockés
+ */
+public interface AsyncDao<T> {
+    /**
+     * Ajoute un élément.
+     * @param element L'élément à ajouter
+     * @return La clé de l'élément ajouté, ou un future en erreur (<code>NameAlreadyBoundException</code>) si la clé existe déjà
+     */
+    CompletableFuture<Serializable> add(T element);
+
+    /**
+     * Supprime un élément à partir de sa clé.
+     * @param id La clé de l'élément à supprimer
+     * @return <code>true</code> si l'élément a été supprimé, <code>false</code> s'il n'existait pas
+     */
+    CompletableFuture<Boolean> deleteById(Serializable id);
+
+    /**
+     * Crée ou remplace un élément.
+     * @param id La clé de l'élément
+     * @param element Le nouvel état de l'élément
+     * @return Un future complété après l'écriture
+     */
+    CompletableFuture<Void> update(Serializable id, T element);
+
+    /**
+     * Met à jour un élément s'il est toujours dans la version attendue.
+     * @param id La clé de l'élément
+     * @param element Le nouvel état de l'élément
+     * @param expectedVersion La version lue avant la modification
+     * @return La nouvelle version, ou un future en erreur (<code>NameNotFoundException</code> ou <code>StaleVersionException</code>)
+     */
+    CompletableFuture<Long> update(Serializable id, T element, long expectedVersion);
+
+    /**
+     * Applique une modification à un élément de manière atomique.
+     * @param id La clé de l'élément
+     * @param update La fonction qui calcule le nouvel état à partir de l'état courant
+     * @return Le nouvel état avec sa version, ou un <code>Optional</code> vide si l'élément n'existe pas
+     */
+    CompletableFuture<Optional<Versioned<T>>> compute(Serializable id, UnaryOperator<T> update);
+
+    /**
+     * Renvoie un élément à partir de sa clé.
+     * @param id La clé de l'élément
+     * @return L'élément, ou un <code>Optional</code> vide s'il n'existe pas
+     */
+    CompletableFuture<Optional<T>> findOne(Serializable id);
+
+    /**
+     * Renvoie un élément et sa version à partir de sa clé.
+     * @param id La clé de l'élément
+     * @return L'élément avec sa version, ou un <code>Optional</code> vide s'il n'existe pas
+     */
+    CompletableFuture<Optional<Versioned<T>>> findVersioned(Serializable id);
+
+    /**
+     * Renvoie plusieurs éléments à partir de leurs clés, en une seule opération.
+     * @param ids Les clés des éléments cherchés
+     * @return Les éléments trouvés, avec leur version, indexés par leur clé (les clés inconnues sont absentes)
+     */
+    CompletableFuture<Map<Serializable, Versioned<T>>> findMany(Collection<? extends Serializable> ids);
+}
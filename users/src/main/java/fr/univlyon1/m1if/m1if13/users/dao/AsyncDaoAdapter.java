@@ -0,0 +1,117 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import javax.naming.NameNotFoundException;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.UnaryOperator;
+
+/**
+ * Adapte un <code>Dao</code> synchrone à l'interface <code>AsyncDao</code>.<br>
+ * Si le DAO ne fait pas d'entrée/sortie (<code>Dao.isNonBlocking()</code>, par exemple les DAOs en Map), les opérations
+ * sont exécutées immédiatement par le thread appelant et les futures renvoyés sont déjà complétés : pas de changement
+ * de thread pour des opérations de quelques microsecondes. Sinon (base de données, journal sur disque), elles sont
+ * exécutées par l'executor fourni, et le thread appelant n'attend pas.
+ * @param <T> Le type des éléments stockés
+ */
+public class AsyncDaoAdapter<T> implements AsyncDao<T> {
+    private final Dao<T> dao;
+    private final Executor executor;
+
+    /**
+     * Crée l'adaptateur.
+     * @param dao Le DAO synchrone
+     * @param executor L'executor des opérations bloquantes (non utilisé si le DAO ne bloque pas)
+     */
+    public AsyncDaoAdapter(Dao<T> dao, Executor executor) {
+        this.dao = dao;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Serializable> add(T element) {
+        return call(() -> dao.add(element));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteById(Serializable id) {
+        return call(() -> {
+            try {
+                dao.deleteById(id);
+                return true;
+            } catch (NameNotFoundException e) {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> update(Serializable id, T element) {
+        return call(() -> {
+            dao.update(id, element);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> update(Serializable id, T element, long expectedVersion) {
+        return call(() -> dao.update(id, element, expectedVersion));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Versioned<T>>> compute(Serializable id, UnaryOperator<T> update) {
+        return call(() -> {
+            try {
+                return Optional.of(dao.compute(id, update));
+            } catch (NameNotFoundException e) {
+                return Optional.empty();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<T>> findOne(Serializable id) {
+        return findVersioned(id).thenApply(versioned -> versioned.map(Versioned::element));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Versioned<T>>> findVersioned(Serializable id) {
+        return call(() -> dao.find(id));
+    }
+
+    @Override
+    public CompletableFuture<Map<Serializable, Versioned<T>>> findMany(Collection<? extends Serializable> ids) {
+        return call(() -> dao.findMany(ids));
+    }
+
+    /**
+     * Exécute une opération du DAO, immédiatement ou sur l'executor.
+     * @return Un future complété avec le résultat de l'opération, ou avec l'exception qu'elle a levée
+     */
+    private <R> CompletableFuture<R> call(Callable<R> operation) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        if (dao.isNonBlocking()) {
+            run(operation, result);
+            return result;
+        }
+        try {
+            executor.execute(() -> run(operation, result));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private static <R> void run(Callable<R> operation, CompletableFuture<R> result) {
+        try {
+            result.complete(operation.call());
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+}
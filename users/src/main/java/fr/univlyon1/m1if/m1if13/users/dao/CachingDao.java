@@ -0,0 +1,475 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Décorateur qui ajoute un cache en mémoire devant un <code>Dao</code> plus lent (base de données), pour que les éléments
+ * les plus demandés soient lus sans accès au stockage.<br>
+ * Politique W-TinyLFU : les nouveaux éléments entrent dans une petite fenêtre LRU (1 % du cache) ; un élément qui en sort
+ * n'est admis dans la partie principale (LRU segmenté : probation, puis protégée après un second accès) que si sa fréquence
+ * d'accès estimée (<code>FrequencySketch</code>) dépasse celle de l'élément qu'il évincerait. Un parcours ponctuel de
+ * nombreux éléments ne chasse donc pas les éléments fréquemment lus.<br>
+ * Les entrées expirent un temps fixe après leur écriture : c'est la durée maximale pendant laquelle une modification
+ * faite par une autre instance (même base) peut ne pas être vue.<br>
+ * Les écritures sont transmises au DAO décoré, puis le cache reçoit le nouvel état (ou l'entrée est invalidée s'il est
+ * inconnu). Un compteur d'écritures empêche d'installer dans le cache un état lu ou écrit pendant une autre écriture,
+ * qui pourrait déjà être périmé : l'entrée est alors simplement relue au prochain accès.<br>
+ * Seules les lectures par clé passent par le cache ; les parcours (<code>findAll</code>) sont délégués.
+ * @param <T> Le type des éléments stockés
+ */
+public class CachingDao<T> implements Dao<T> {
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final Dao<T> delegate;
+
+    private final int maxSize;
+    private final int windowMax;
+    private final int protectedMax;
+    private final long expireAfterWriteNanos;
+    private final LongSupplier clock;
+
+    private final Map<Serializable, Node<T>> entries = new HashMap<>();
+    private final FrequencySketch sketch;
+    private final AccessQueue<T> window = new AccessQueue<>();
+    private final AccessQueue<T> probation = new AccessQueue<>();
+    private final AccessQueue<T> protectedQueue = new AccessQueue<>();
+    private final Object lock = new Object();
+    // Incrémenté à chaque écriture : un état lu pendant une écriture n'est pas mis en cache
+    private long writes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Crée le cache.
+     * @param delegate Le DAO décoré
+     * @param maxSize Le nombre maximal d'éléments en cache
+     * @param expireAfterWriteMs La durée de vie d'une entrée après sa lecture ou son écriture, en millisecondes
+     */
+    public CachingDao(Dao<T> delegate, int maxSize, long expireAfterWriteMs) {
+        this(delegate, maxSize, expireAfterWriteMs, System::nanoTime);
+    }
+
+    CachingDao(Dao<T> delegate, int maxSize, long expireAfterWriteMs, LongSupplier clock) {
+        if (maxSize < 2) {
+            throw new IllegalArgumentException("La taille du cache doit être au moins 2 : " + maxSize);
+        }
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+        this.windowMax = Math.max(1, maxSize * WINDOW_PERCENT / 100);
+        this.protectedMax = (maxSize - windowMax) * PROTECTED_PERCENT / 100;
+        this.expireAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(expireAfterWriteMs);
+        this.clock = clock;
+        this.sketch = new FrequencySketch(maxSize);
+    }
+
+    /**
+     * La version de l'élément créé n'est pas connue (un élément recréé après sa suppression ne reprend pas à la version
+     * initiale) : l'entrée est invalidée et sera relue au prochain accès.
+     */
+    @Override
+    public Serializable add(T element) throws NameAlreadyBoundException {
+        long stamp = writeStamp();
+        Serializable id = null;
+        try {
+            id = delegate.add(element);
+            return id;
+        } finally {
+            // Clé déjà utilisée : l'élément existant n'a pas été modifié
+            written(id, null, stamp);
+        }
+    }
+
+    @Override
+    public void delete(T element) throws NameNotFoundException {
+        deleteById(delegate.getId(element));
+    }
+
+    @Override
+    public void deleteById(Serializable id) throws NameNotFoundException {
+        long stamp = writeStamp();
+        try {
+            delegate.deleteById(id);
+        } finally {
+            written(id, null, stamp);
+        }
+    }
+
+    /**
+     * La version écrite n'est pas connue : l'entrée est invalidée et sera relue au prochain accès.
+     */
+    @Override
+    public void update(Serializable id, T element) {
+        long stamp = writeStamp();
+        try {
+            delegate.update(id, element);
+        } finally {
+            written(id, null, stamp);
+        }
+    }
+
+    @Override
+    public long update(Serializable id, T element, long expectedVersion) throws NameNotFoundException, StaleVersionException {
+        long stamp = writeStamp();
+        Versioned<T> updated = null;
+        try {
+            long version = delegate.update(id, element, expectedVersion);
+            updated = new Versioned<>(element, version);
+            return version;
+        } finally {
+            written(id, updated, stamp);
+        }
+    }
+
+    @Override
+    public Versioned<T> compute(Serializable id, UnaryOperator<T> update) throws NameNotFoundException {
+        long stamp = writeStamp();
+        Versioned<T> updated = null;
+        try {
+            updated = delegate.compute(id, update);
+            return updated;
+        } finally {
+            written(id, updated, stamp);
+        }
+    }
+
+    @Override
+    public Upserted<T> upsert(Serializable id, UnaryOperator<T> merge) {
+        long stamp = writeStamp();
+        Versioned<T> updated = null;
+        try {
+            Upserted<T> upserted = delegate.upsert(id, merge);
+            updated = upserted.value();
+            return upserted;
+        } finally {
+            written(id, updated, stamp);
+        }
+    }
+
+    @Override
+    public Serializable getId(T element) throws NameNotFoundException {
+        return delegate.getId(element);
+    }
+
+    @Override
+    public T findOne(Serializable id) throws NameNotFoundException {
+        return findVersioned(id).element();
+    }
+
+    @Override
+    public Versioned<T> findVersioned(Serializable id) throws NameNotFoundException {
+        return find(id).orElseThrow(() -> new NameNotFoundException(id.toString()));
+    }
+
+    /**
+     * Les clés inconnues ne sont pas mises en cache : elles sont relues dans le DAO décoré à chaque accès.
+     */
+    @Override
+    public Optional<Versioned<T>> find(Serializable id) {
+        Versioned<T> cached = lookup(id);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+        long stamp = writeStamp();
+        Optional<Versioned<T>> loaded = delegate.find(id);
+        loaded.ifPresent(value -> fill(id, value, stamp));
+        return loaded;
+    }
+
+    /**
+     * Lit les éléments en cache, puis les autres en un seul appel au DAO décoré.
+     */
+    @Override
+    public Map<Serializable, Versioned<T>> findMany(Collection<? extends Serializable> ids) {
+        Map<Serializable, Versioned<T>> found = new LinkedHashMap<>();
+        List<Serializable> missing = new ArrayList<>();
+        for (Serializable id : ids) {
+            Versioned<T> cached = lookup(id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long stamp = writeStamp();
+            Map<Serializable, Versioned<T>> loaded = delegate.findMany(missing);
+            loaded.forEach((id, value) -> fill(id, value, stamp));
+            found.putAll(loaded);
+        }
+        return found;
+    }
+
+    @Override
+    public Collection<T> findAll() {
+        return delegate.findAll();
+    }
+
+    /**
+     * Un accès au cache ne bloque pas, mais un défaut de cache accède au DAO décoré.
+     */
+    @Override
+    public boolean isNonBlocking() {
+        return delegate.isNonBlocking();
+    }
+
+    /**
+     * Vide le cache (par exemple après une modification du stockage faite hors de ce DAO).
+     */
+    public void invalidateAll() {
+        synchronized (lock) {
+            writes++;
+            evictions.add(entries.size());
+            entries.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Renvoie la proportion des lectures servies par le cache.
+     * @return Un nombre entre 0 et 1 (0 s'il n'y a pas encore eu de lecture)
+     */
+    public double getHitRate() {
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Cherche un élément dans le cache et enregistre l'accès (fréquence et ordre des files).
+     * @return L'élément, ou <code>null</code> s'il n'est pas en cache ou a expiré
+     */
+    private Versioned<T> lookup(Serializable id) {
+        synchronized (lock) {
+            sketch.increment(id);
+            Node<T> node = entries.get(id);
+            if (node == null) {
+                misses.increment();
+                return null;
+            }
+            if (clock.getAsLong() - node.writtenAt >= expireAfterWriteNanos) {
+                remove(node);
+                evictions.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            onAccess(node);
+            return node.value;
+        }
+    }
+
+    /**
+     * Invalide l'entrée d'un élément modifié sans passer par ce cache (directement dans le DAO décoré).
+     * @param id La clé de l'élément
+     */
+    protected void invalidate(Serializable id) {
+        written(id, null, writeStamp());
+    }
+
+    private long writeStamp() {
+        synchronized (lock) {
+            return writes;
+        }
+    }
+
+    /**
+     * Met en cache un élément lu dans le DAO décoré, sauf si une écriture a eu lieu depuis le début de la lecture.
+     */
+    private void fill(Serializable id, Versioned<T> value, long stamp) {
+        synchronized (lock) {
+            if (writes == stamp) {
+                install(id, value);
+            }
+        }
+    }
+
+    /**
+     * Enregistre le résultat d'une écriture : le nouvel état est mis en cache si aucune autre écriture n'a eu lieu pendant
+     * celle-ci, sinon (ou s'il est inconnu) l'entrée est invalidée.
+     */
+    private void written(Serializable id, Versioned<T> value, long stamp) {
+        synchronized (lock) {
+            if (value != null && writes == stamp) {
+                install(id, value);
+            } else if (id != null) {
+                Node<T> node = entries.get(id);
+                if (node != null) {
+                    remove(node);
+                }
+            }
+            writes++;
+        }
+    }
+
+    private void install(Serializable id, Versioned<T> value) {
+        Node<T> node = entries.get(id);
+        if (node != null) {
+            node.value = value;
+            node.writtenAt = clock.getAsLong();
+            onAccess(node);
+            return;
+        }
+        node = new Node<>(id, value, clock.getAsLong());
+        entries.put(id, node);
+        node.queue = window;
+        window.addLast(node);
+        if (window.size > windowMax) {
+            // L'élément le plus ancien de la fenêtre devient candidat à l'entrée dans la partie principale
+            Node<T> candidate = window.removeFirst();
+            candidate.queue = probation;
+            probation.addLast(candidate);
+            if (entries.size() > maxSize) {
+                evictFromProbation(candidate);
+            }
+        }
+    }
+
+    /**
+     * Admission TinyLFU : le candidat n'est conservé que s'il est plus fréquent que la victime (tête de la file de probation).
+     */
+    private void evictFromProbation(Node<T> candidate) {
+        Node<T> victim = probation.first();
+        if (victim == candidate) {
+            // Pas d'autre élément en probation : la victime est le plus ancien élément protégé
+            victim = protectedQueue.first();
+        }
+        Node<T> evicted = victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key) ? victim : candidate;
+        remove(evicted);
+        evictions.increment();
+    }
+
+    /**
+     * Déplace un élément lu : en fin de fenêtre, ou vers la file protégée (dont l'élément le plus ancien retourne en probation).
+     */
+    private void onAccess(Node<T> node) {
+        if (node.queue == probation) {
+            probation.remove(node);
+            node.queue = protectedQueue;
+            protectedQueue.addLast(node);
+            if (protectedQueue.size > protectedMax) {
+                Node<T> demoted = protectedQueue.removeFirst();
+                demoted.queue = probation;
+                probation.addLast(demoted);
+            }
+        } else {
+            node.queue.remove(node);
+            node.queue.addLast(node);
+        }
+    }
+
+    private void remove(Node<T> node) {
+        entries.remove(node.key);
+        node.queue.remove(node);
+    }
+
+    /**
+     * Entrée du cache, chaînée dans la file (fenêtre, probation ou protégée) à laquelle elle appartient.
+     * @param <T> Le type de l'élément
+     */
+    private static final class Node<T> {
+        private final Serializable key;
+        private Versioned<T> value;
+        private long writtenAt;
+        private AccessQueue<T> queue;
+        private Node<T> previous;
+        private Node<T> next;
+
+        Node(Serializable key, Versioned<T> value, long writtenAt) {
+            this.key = key;
+            this.value = value;
+            this.writtenAt = writtenAt;
+        }
+    }
+
+    /**
+     * Liste doublement chaînée d'entrées, de la moins récemment utilisée (tête) à la plus récemment utilisée (fin).
+     * @param <T> Le type des éléments
+     */
+    private static final class AccessQueue<T> {
+        private Node<T> head;
+        private Node<T> tail;
+        private int size;
+
+        Node<T> first() {
+            return head;
+        }
+
+        void addLast(Node<T> node) {
+            node.previous = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        Node<T> removeFirst() {
+            Node<T> node = head;
+            remove(node);
+            return node;
+        }
+
+        void remove(Node<T> node) {
+            if (node.previous == null) {
+                head = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            size--;
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            size = 0;
+        }
+    }
+}
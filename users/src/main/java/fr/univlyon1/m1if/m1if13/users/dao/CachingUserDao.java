@@ -0,0 +1,92 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import javax.naming.NameNotFoundException;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Cache des utilisateurs devant le DAO en base de données (<code>users.store.type=jdbc</code>, désactivable avec
+ * <code>users.cache.enabled=false</code>) : la connexion, le renouvellement des tokens et <code>GET /users/{userId}</code>
+ * lisent les utilisateurs les plus actifs en mémoire.<br>
+ * Remplace <code>JdbcUserDao</code> dans les services (<code>@Primary</code>). Les recherches par critères, la pagination
+ * et l'état de connexion ne sont pas mis en cache.
+ */
+@Component
+@Primary
+@ConditionalOnExpression("'${users.store.type:memory}' == 'jdbc' && ${users.cache.enabled:true}")
+public class CachingUserDao extends CachingDao<User> implements UserQueryDao, MeterBinder {
+    private final UserQueryDao store;
+
+    /**
+     * Crée le cache devant le DAO en base de données.
+     * @param store Le DAO en base de données
+     * @param maxSize Le nombre maximal d'utilisateurs en cache
+     * @param expireAfterWriteMs La durée de vie d'une entrée, en millisecondes
+     */
+    public CachingUserDao(@Qualifier("jdbcUserDao") UserQueryDao store,
+                          @Value("${users.cache.maxSize:10000}") int maxSize,
+                          @Value("${users.cache.expireAfterWriteMs:60000}") long expireAfterWriteMs) {
+        super(store, maxSize, expireAfterWriteMs);
+        this.store = store;
+    }
+
+    @Override
+    public List<User> findBy(Species species, Boolean connected) {
+        return store.findBy(species, connected);
+    }
+
+    @Override
+    public List<User> findPage(String after, int limit) {
+        return store.findPage(after, limit);
+    }
+
+    @Override
+    public void setConnected(Serializable id, boolean connected) throws NameNotFoundException {
+        store.setConnected(id, connected);
+    }
+
+    @Override
+    public boolean isConnected(Serializable id) {
+        return store.isConnected(id);
+    }
+
+    @Override
+    public void evict(Serializable id) throws NameNotFoundException {
+        try {
+            store.evict(id);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.cache.hits", this, CachingDao::getHitCount)
+                .description("Nombre de lectures d'utilisateurs servies par le cache")
+                .register(registry);
+        FunctionCounter.builder("users.cache.misses", this, CachingDao::getMissCount)
+                .description("Nombre de lectures d'utilisateurs absents du cache (lus dans la base)")
+                .register(registry);
+        FunctionCounter.builder("users.cache.evictions", this, CachingDao::getEvictionCount)
+                .description("Nombre d'utilisateurs évincés du cache (taille maximale ou expiration)")
+                .register(registry);
+        Gauge.builder("users.cache.hitRate", this, CachingDao::getHitRate)
+                .description("Proportion des lectures d'utilisateurs servies par le cache")
+                .register(registry);
+        Gauge.builder("users.cache.size", this, CachingDao::size)
+                .description("Nombre d'utilisateurs actuellement en cache")
+                .register(registry);
+    }
+}
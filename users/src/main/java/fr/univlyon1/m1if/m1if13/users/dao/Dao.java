@@ -1,9 +1,14 @@
 package fr.univlyon1.m1if.m1if13.users.dao;
-import javax.naming.InvalidNameException;
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+
 import javax.naming.NameAlreadyBoundException;
 import javax.naming.NameNotFoundException;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
 
 /**
  * Interface de DAO générique : indépendante du type d'objet, de la structure de stockage (liste ou map) et du type des identifiants (string ou entier).<br>
@@ -34,14 +39,63 @@ public interface Dao<T> {
      * @param id La clé de l'élément à supprimer
      * @throws NameNotFoundException Si l'élément à supprimer n'a pas été trouvé
      */
-    void deleteById(Serializable id) throws NameNotFoundException, InvalidNameException;
+    void deleteById(Serializable id) throws NameNotFoundException;
 
     /**
      * Met à jour un élément ou le crée s'il n'existe pas.
      * @param id La clé de l'élément à mettre à jour
      * @param element L'élément par lequel remplacer l'ancien élément
      */
-    void update(Serializable id, T element) throws InvalidNameException;
+    void update(Serializable id, T element);
+
+    /**
+     * Met à jour un élément seulement s'il n'a pas été modifié depuis sa lecture (compare-and-set sur la version).
+     * @param id La clé de l'élément à mettre à jour
+     * @param element L'élément par lequel remplacer l'ancien élément
+     * @param expectedVersion La version de l'élément lue avant la mise à jour
+     * @return La nouvelle version de l'élément
+     * @throws NameNotFoundException Si l'élément à mettre à jour n'a pas été trouvé
+     * @throws StaleVersionException Si l'élément a été modifié depuis sa lecture
+     */
+    long update(Serializable id, T element, long expectedVersion) throws NameNotFoundException, StaleVersionException;
+
+    /**
+     * Met à jour un élément de façon atomique, à partir de son état courant.
+     * Aucune autre modification de l'élément ne peut s'intercaler entre la lecture de l'état courant et l'écriture du nouvel état.
+     * @param id La clé de l'élément à mettre à jour
+     * @param update La fonction qui calcule le nouvel état de l'élément à partir de l'état courant
+     * @return Le nouvel état de l'élément, avec sa version
+     * @throws NameNotFoundException Si l'élément à mettre à jour n'a pas été trouvé
+     */
+    Versioned<T> compute(Serializable id, UnaryOperator<T> update) throws NameNotFoundException;
+
+    /**
+     * Crée un élément ou le met à jour, à partir de son état courant, en une seule opération.
+     * Aucune autre modification de l'élément ne peut s'intercaler entre la lecture de l'état courant et l'écriture du nouvel état.<br>
+     * L'implémentation par défaut lit l'élément, puis le crée ou le met à jour de façon conditionnelle (version), et recommence
+     * si une autre écriture s'est intercalée : la fonction peut donc être appelée plusieurs fois. Les DAOs qui peuvent lire et
+     * écrire l'élément sous un même verrou redéfinissent cette méthode.
+     * @param id La clé de l'élément
+     * @param merge La fonction qui calcule le nouvel état de l'élément à partir de l'état courant (<code>null</code> si
+     *              l'élément n'existe pas) ; l'élément renvoyé doit avoir la clé <code>id</code>
+     * @return Le nouvel état de l'élément, avec sa version, et s'il a été créé
+     */
+    default Upserted<T> upsert(Serializable id, UnaryOperator<T> merge) {
+        while (true) {
+            Optional<Versioned<T>> current = find(id);
+            try {
+                if (current.isEmpty()) {
+                    T created = merge.apply(null);
+                    add(created);
+                    return new Upserted<>(new Versioned<>(created, Versioned.INITIAL_VERSION), true);
+                }
+                T updated = merge.apply(current.get().element());
+                return new Upserted<>(new Versioned<>(updated, update(id, updated, current.get().version())), false);
+            } catch (NameAlreadyBoundException | NameNotFoundException | StaleVersionException e) {
+                // Créé, modifié ou supprimé par une autre requête depuis la lecture : on recommence
+            }
+        }
+    }
 
     /**
      * Renvoie la clé d'un élément.
@@ -57,11 +111,58 @@ public interface Dao<T> {
      * @return L'élément dont la clé est celle passée en paramètre
      * @throws NameNotFoundException Si la clé de l'élément à rechercher n'a pas été trouvée
      */
-    T findOne(Serializable id) throws NameNotFoundException, InvalidNameException;
+    T findOne(Serializable id) throws NameNotFoundException;
+
+    /**
+     * Renvoie un élément et sa version à partir de sa clé.
+     * @param id La clé de l'élément cherché
+     * @return L'élément dont la clé est celle passée en paramètre, avec sa version
+     * @throws NameNotFoundException Si la clé de l'élément à rechercher n'a pas été trouvée
+     */
+    Versioned<T> findVersioned(Serializable id) throws NameNotFoundException;
+
+    /**
+     * Renvoie un élément et sa version à partir de sa clé, sans lever d'exception si la clé est inconnue
+     * (cas normal, par exemple avant une création). L'implémentation par défaut s'appuie sur <code>findVersioned</code> ;
+     * les DAOs la redéfinissent pour qu'une clé inconnue ne coûte pas la création d'une exception.
+     * @param id La clé de l'élément cherché
+     * @return L'élément et sa version, ou un <code>Optional</code> vide si la clé est inconnue
+     */
+    default Optional<Versioned<T>> find(Serializable id) {
+        try {
+            return Optional.of(findVersioned(id));
+        } catch (NameNotFoundException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Renvoie plusieurs éléments à partir de leurs clés. Les implémentations qui accèdent à un support distant
+     * redéfinissent cette méthode pour lire tous les éléments en une seule requête.
+     * @param ids Les clés des éléments cherchés
+     * @return Les éléments trouvés, avec leur version, indexés par leur clé (les clés inconnues sont absentes)
+     */
+    default Map<Serializable, Versioned<T>> findMany(Collection<? extends Serializable> ids) {
+        Map<Serializable, Versioned<T>> found = new LinkedHashMap<>();
+        for (Serializable id : ids) {
+            // Clé inconnue : absente du résultat
+            find(id).ifPresent(value -> found.put(id, value));
+        }
+        return found;
+    }
 
     /**
      * Renvoie tous les éléments.
      * @return La collection (potentiellement vide) d'éléments stockés
      */
     Collection<T> findAll();
+
+    /**
+     * Indique si les opérations du DAO s'exécutent sans attendre d'entrée/sortie (stockage en mémoire uniquement).
+     * Utilisé par <code>AsyncDaoAdapter</code> pour choisir entre une exécution immédiate et une exécution sur un autre thread.
+     * @return <code>false</code> par défaut
+     */
+    default boolean isNonBlocking() {
+        return false;
+    }
 }
@@ -0,0 +1,89 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+/**
+ * Estimation approchée de la fréquence d'accès des clés (count-min sketch), utilisée par <code>CachingDao</code>
+ * pour décider quelles entrées admettre dans le cache.<br>
+ * Quatre lignes de compteurs saturant à 15, indexées par quatre fonctions de hachage : la fréquence estimée est le plus
+ * petit des quatre compteurs d'une clé. Les compteurs sont divisés par deux après un nombre d'accès proportionnel à la
+ * taille du cache, pour que les clés anciennement populaires ne restent pas indéfiniment favorisées.<br>
+ * Pas thread-safe : utilisé sous le verrou du cache.
+ */
+final class FrequencySketch {
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int SAMPLE_FACTOR = 10;
+    // Compteurs par entrée du cache et par ligne : assez pour que les clés lues une seule fois se partagent peu de compteurs
+    private static final int COUNTERS_PER_ENTRY = 8;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Crée un sketch dimensionné pour un cache.
+     * @param maxSize Le nombre maximal d'entrées du cache
+     */
+    FrequencySketch(int maxSize) {
+        int width = Integer.highestOneBit(Math.max(16, COUNTERS_PER_ENTRY * maxSize - 1) * 2);
+        counters = new byte[ROWS][width];
+        mask = width - 1;
+        sampleSize = SAMPLE_FACTOR * Math.max(1, maxSize);
+    }
+
+    /**
+     * Enregistre un accès à une clé.
+     * @param key La clé
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean incremented = false;
+        for (int row = 0; row < ROWS; row++) {
+            int index = index(hash, row);
+            if (counters[row][index] < MAX_COUNT) {
+                counters[row][index]++;
+                incremented = true;
+            }
+        }
+        if (incremented && ++additions >= sampleSize) {
+            age();
+        }
+    }
+
+    /**
+     * Renvoie la fréquence estimée d'une clé (jamais sous-estimée, sauf après un vieillissement).
+     * @param key La clé
+     * @return Le nombre d'accès estimé, entre 0 et 15
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            frequency = Math.min(frequency, counters[row][index(hash, row)]);
+        }
+        return frequency;
+    }
+
+    /**
+     * Divise tous les compteurs par deux.
+     */
+    private void age() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int index(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return (int) (h >>> 32) & mask;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,682 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.util.RevocationBus;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
+import fr.univlyon1.m1if.m1if13.users.util.UserEventLog;
+import fr.univlyon1.m1if.m1if13.users.util.VerifiedTokenCache;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import javax.sql.DataSource;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implémentation de l'interface DAO pour la classe <code>User</code> dans une base de données relationnelle
+ * (<code>users.store.type=jdbc</code>), ce qui permet à plusieurs instances du service de partager les comptes.<br>
+ * Les connexions sont fournies par un pool (HikariCP). Le pool ne met pas les requêtes préparées en cache : c'est le rôle
+ * du driver (pour H2, paramètre <code>QUERY_CACHE_SIZE</code> de l'URL).<br>
+ * Écritures groupées : les écritures des threads concurrents sont placées dans une file ; le premier thread qui attend
+ * son résultat exécute toutes les écritures en attente dans une seule transaction, les écritures consécutives de même type
+ * étant envoyées en un seul lot (<code>executeBatch</code>). Si le lot échoue, chaque écriture est rejouée séparément,
+ * pour que seules les écritures fautives échouent.<br>
+ * Le numéro de version de chaque utilisateur est stocké dans la table : les mises à jour conditionnelles sont vérifiées
+ * par la base, donc entre toutes les instances. La dernière version de chaque utilisateur supprimé est conservée dans la table
+ * <code>retired_users</code> : un utilisateur recréé reprend la numérotation après elle.<br>
+ * L'espèce et l'état de connexion sont indexés par la base (index créés avec la table).<br>
+ * Les modifications faites par cette instance sont publiées dans le journal des événements (<code>UserEventLog</code>)
+ * après leur écriture, avec la version de l'utilisateur.
+ */
+@Component
+@ConditionalOnProperty(name = "users.store.type", havingValue = "jdbc")
+public class JdbcUserDao implements UserQueryDao {
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS users (login VARCHAR(255) PRIMARY KEY, " +
+            "password VARCHAR(255), species VARCHAR(32), image VARCHAR(255), version BIGINT NOT NULL)";
+    // Tables créées avant l'ajout de l'état de connexion
+    private static final String ADD_CONNECTED = "ALTER TABLE users ADD COLUMN IF NOT EXISTS connected BOOLEAN DEFAULT FALSE NOT NULL";
+    private static final String CREATE_SPECIES_INDEX = "CREATE INDEX IF NOT EXISTS users_species ON users (species)";
+    private static final String CREATE_CONNECTED_INDEX = "CREATE INDEX IF NOT EXISTS users_connected ON users (connected)";
+    private static final String CREATE_RETIRED_TABLE = "CREATE TABLE IF NOT EXISTS retired_users (login VARCHAR(255) PRIMARY KEY, " +
+            "version BIGINT NOT NULL)";
+    // Insertion avec la version lue dans retired_users, si elle n'a pas changé depuis
+    private static final String INSERT = "INSERT INTO users (login, password, species, image, version) SELECT ?, ?, ?, ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM users WHERE login = ?) " +
+            "AND COALESCE((SELECT version FROM retired_users WHERE login = ?), 0) = ?";
+    private static final String UPSERT = "MERGE INTO users u USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS VARCHAR(255)), " +
+            "CAST(? AS VARCHAR(32)), CAST(? AS VARCHAR(255)))) v (login, password, species, image) ON u.login = v.login " +
+            "WHEN MATCHED THEN UPDATE SET password = v.password, species = v.species, image = v.image, version = u.version + 1 " +
+            "WHEN NOT MATCHED THEN INSERT (login, password, species, image, version) VALUES (v.login, v.password, v.species, v.image, " +
+            "COALESCE((SELECT r.version FROM retired_users r WHERE r.login = v.login), 0) + 1)";
+    private static final String UPDATE_IF_VERSION = "UPDATE users SET password = ?, species = ?, image = ?, version = version + 1 " +
+            "WHERE login = ? AND version = ?";
+    private static final String RETIRE = "MERGE INTO retired_users r USING (VALUES (CAST(? AS VARCHAR(255)), CAST(? AS BIGINT))) " +
+            "v (login, version) ON r.login = v.login WHEN MATCHED THEN UPDATE SET version = GREATEST(r.version, v.version) " +
+            "WHEN NOT MATCHED THEN INSERT (login, version) VALUES (v.login, v.version)";
+    private static final String DELETE_IF_VERSION = "DELETE FROM users WHERE login = ? AND version = ?";
+    private static final String SELECT_RETIRED = "SELECT version FROM retired_users WHERE login = ?";
+    private static final String SELECT_ONE = "SELECT login, password, species, image, version FROM users WHERE login = ?";
+    private static final String SELECT_ALL = "SELECT login, password, species, image, version FROM users";
+    private static final String COUNT = "SELECT COUNT(*) FROM users";
+    private static final String SELECT_PAGE = SELECT_ALL + " WHERE login > ? ORDER BY login FETCH FIRST ? ROWS ONLY";
+    private static final String SELECT_FIRST_PAGE = SELECT_ALL + " ORDER BY login FETCH FIRST ? ROWS ONLY";
+    // Nombre maximal de logins par requête IN de findMany
+    private static final int MAX_IN_PARAMETERS = 500;
+    private static final String SELECT_CONNECTED = "SELECT connected FROM users WHERE login = ?";
+    private static final String SET_CONNECTED = "UPDATE users SET connected = ? WHERE login = ?";
+
+    /**
+     * Écriture en attente d'exécution.
+     * @param sql La requête
+     * @param parameters Ses paramètres
+     * @param result Le nombre de lignes modifiées, une fois la requête exécutée
+     */
+    private record Write(String sql, Object[] parameters, CompletableFuture<Integer> result) {
+    }
+
+    private final DataSource dataSource;
+    private final int maxBatchSize;
+    private final int fetchSize;
+    private final Queue<Write> pending = new ConcurrentLinkedQueue<>();
+    // Un seul thread exécute les écritures en attente à la fois
+    private final Object flushLock = new Object();
+    private volatile long batches;
+
+    @Autowired(required = false)
+    private SessionRegistry sessionRegistry;
+    @Autowired(required = false)
+    private VerifiedTokenCache verifiedTokenCache;
+    @Autowired(required = false)
+    private UserEventLog userEvents;
+    @Autowired(required = false)
+    private RevocationBus revocationBus;
+
+    /**
+     * Crée le DAO sur une source de connexions existante et crée la table si elle n'existe pas.
+     * @param dataSource La source de connexions
+     * @param maxBatchSize Le nombre maximal d'écritures exécutées dans une même transaction
+     * @param fetchSize Le nombre de lignes lues à la fois lors du parcours de la table
+     */
+    public JdbcUserDao(DataSource dataSource, int maxBatchSize, int fetchSize) {
+        this.dataSource = dataSource;
+        this.maxBatchSize = maxBatchSize;
+        this.fetchSize = fetchSize;
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_TABLE);
+            statement.execute(ADD_CONNECTED);
+            statement.execute(CREATE_SPECIES_INDEX);
+            statement.execute(CREATE_CONNECTED_INDEX);
+            statement.execute(CREATE_RETIRED_TABLE);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Impossible de créer la table des utilisateurs", e);
+        }
+    }
+
+    /**
+     * Crée le DAO et son pool de connexions à partir de la configuration.
+     * @param url L'URL JDBC de la base
+     * @param username L'utilisateur de la base
+     * @param password Son mot de passe
+     * @param poolSize Le nombre maximal de connexions du pool
+     * @param maxBatchSize Le nombre maximal d'écritures exécutées dans une même transaction
+     * @param fetchSize Le nombre de lignes lues à la fois lors du parcours de la table
+     */
+    @Autowired
+    public JdbcUserDao(@Value("${users.store.jdbc.url}") String url,
+                       @Value("${users.store.jdbc.username:}") String username,
+                       @Value("${users.store.jdbc.password:}") String password,
+                       @Value("${users.store.jdbc.poolSize:10}") int poolSize,
+                       @Value("${users.store.jdbc.maxBatchSize:500}") int maxBatchSize,
+                       @Value("${users.store.jdbc.fetchSize:1000}") int fetchSize) {
+        this(pool(url, username, password, poolSize), maxBatchSize, fetchSize);
+    }
+
+    private static DataSource pool(String url, String username, String password, int poolSize) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("users");
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMaximumPoolSize(poolSize);
+        return new HikariDataSource(config);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (dataSource instanceof HikariDataSource pool) {
+            pool.close();
+        }
+    }
+
+    @Override
+    public Serializable add(User user) throws NameAlreadyBoundException {
+        create(user);
+        return user.getLogin();
+    }
+
+    /**
+     * Insère un utilisateur avec la version qui suit la dernière version d'un utilisateur supprimé de même login.
+     * L'insertion est recommencée si cet utilisateur a été recréé puis supprimé entre la lecture de sa version et l'insertion.
+     * @return La version de l'utilisateur créé
+     */
+    private long create(User user) throws NameAlreadyBoundException {
+        while (true) {
+            long retired = retiredVersion(user.getLogin());
+            long version = retired + 1;
+            if (write(INSERT, user.getLogin(), user.getPassword(), species(user), user.getImage(), version,
+                    user.getLogin(), user.getLogin(), retired) == 1) {
+                if (userEvents != null) {
+                    userEvents.userCreated(user.getLogin(), new Versioned<>(user, version));
+                }
+                return version;
+            }
+            if (find(user.getLogin()).isPresent()) {
+                throw new NameAlreadyBoundException(user.getLogin());
+            }
+        }
+    }
+
+    private long retiredVersion(String login) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_RETIRED)) {
+            statement.setString(1, login);
+            try (ResultSet row = statement.executeQuery()) {
+                return row.next() ? row.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Erreur de lecture de l'utilisateur " + login, e);
+        }
+    }
+
+    /**
+     * Supprime la ligne d'un utilisateur après avoir enregistré sa version dans <code>retired_users</code>.
+     * La suppression ne porte que sur la version enregistrée : elle est recommencée si l'utilisateur a été modifié entre-temps.
+     */
+    private void retire(Serializable id) throws NameNotFoundException {
+        while (true) {
+            long version = findVersioned(id).version();
+            write(RETIRE, id.toString(), version);
+            if (write(DELETE_IF_VERSION, id.toString(), version) == 1) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void delete(User user) throws NameNotFoundException {
+        deleteById(user.getLogin());
+    }
+
+    @Override
+    public void evict(Serializable id) throws NameNotFoundException {
+        retire(id);
+    }
+
+    /**
+     * Supprime un utilisateur, révoque ses sessions et évince du cache les tokens qui lui ont été délivrés.
+     * @param id Le login de l'utilisateur à supprimer
+     * @throws NameNotFoundException Si l'utilisateur n'existe pas
+     */
+    @Override
+    public void deleteById(Serializable id) throws NameNotFoundException {
+        retire(id);
+        if (userEvents != null) {
+            userEvents.userChanged(id.toString(), null);
+        }
+        if (sessionRegistry != null) {
+            sessionRegistry.revokeAll(id.toString());
+        }
+        if (verifiedTokenCache != null) {
+            verifiedTokenCache.evictSubject(id.toString());
+        }
+        if (revocationBus != null) {
+            revocationBus.revokeSubject(id.toString());
+        }
+    }
+
+    /**
+     * Crée ou met à jour un utilisateur. La requête ne renvoie pas la version écrite : l'événement publié est construit
+     * à partir d'une relecture de l'utilisateur (une création est donc publiée comme une mise à jour).
+     */
+    @Override
+    public void update(Serializable id, User user) {
+        write(UPSERT, id.toString(), user.getPassword(), species(user), user.getImage());
+        if (userEvents != null) {
+            // Supprimé entre-temps : il n'y a plus d'état à publier
+            find(id).ifPresent(value -> userEvents.userChanged(id.toString(), value));
+        }
+    }
+
+    @Override
+    public long update(Serializable id, User user, long expectedVersion) throws NameNotFoundException, StaleVersionException {
+        if (write(UPDATE_IF_VERSION, user.getPassword(), species(user), user.getImage(), id.toString(), expectedVersion) == 0) {
+            throw new StaleVersionException(id, expectedVersion, findVersioned(id).version());
+        }
+        if (userEvents != null) {
+            userEvents.userChanged(id.toString(), new Versioned<>(user, expectedVersion + 1));
+        }
+        return expectedVersion + 1;
+    }
+
+    /**
+     * Applique une modification par lecture puis mise à jour conditionnelle, recommencées si une autre écriture s'est intercalée :
+     * la fonction de modification peut donc être appelée plusieurs fois.
+     */
+    @Override
+    public Versioned<User> compute(Serializable id, UnaryOperator<User> update) throws NameNotFoundException {
+        while (true) {
+            Versioned<User> current = findVersioned(id);
+            User updated = update.apply(current.element());
+            try {
+                return new Versioned<>(updated, update(id, updated, current.version()));
+            } catch (StaleVersionException e) {
+                // Modifié par une autre requête ou une autre instance depuis la lecture : on recommence
+            }
+        }
+    }
+
+    /**
+     * Crée ou met à jour un utilisateur par insertion ou mise à jour conditionnelle, recommencées si une autre écriture
+     * s'est intercalée : la fonction de fusion peut donc être appelée plusieurs fois.
+     */
+    @Override
+    public Upserted<User> upsert(Serializable id, UnaryOperator<User> merge) {
+        while (true) {
+            Optional<Versioned<User>> current = find(id);
+            try {
+                if (current.isEmpty()) {
+                    User created = merge.apply(null);
+                    return new Upserted<>(new Versioned<>(created, create(created)), true);
+                }
+                User updated = merge.apply(current.get().element());
+                return new Upserted<>(new Versioned<>(updated, update(id, updated, current.get().version())), false);
+            } catch (NameAlreadyBoundException | NameNotFoundException | StaleVersionException e) {
+                // Créé, modifié ou supprimé par une autre requête ou une autre instance depuis la lecture : on recommence
+            }
+        }
+    }
+
+    @Override
+    public Serializable getId(User user) {
+        return user.getLogin();
+    }
+
+    @Override
+    public User findOne(Serializable id) throws NameNotFoundException {
+        return findVersioned(id).element();
+    }
+
+    @Override
+    public Versioned<User> findVersioned(Serializable id) throws NameNotFoundException {
+        return find(id).orElseThrow(() -> new NameNotFoundException(id.toString()));
+    }
+
+    @Override
+    public Optional<Versioned<User>> find(Serializable id) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_ONE)) {
+            statement.setString(1, id.toString());
+            try (ResultSet row = statement.executeQuery()) {
+                return row.next() ? Optional.of(read(row)) : Optional.empty();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Erreur de lecture de l'utilisateur " + id, e);
+        }
+    }
+
+    /**
+     * Lit les utilisateurs demandés avec une requête <code>IN</code> par paquet de <code>MAX_IN_PARAMETERS</code> logins,
+     * au lieu d'une requête par utilisateur.
+     */
+    @Override
+    public Map<Serializable, Versioned<User>> findMany(Collection<? extends Serializable> ids) {
+        List<String> logins = ids.stream().map(Serializable::toString).distinct().toList();
+        Map<Serializable, Versioned<User>> found = new LinkedHashMap<>();
+        for (int start = 0; start < logins.size(); start += MAX_IN_PARAMETERS) {
+            List<String> chunk = logins.subList(start, Math.min(logins.size(), start + MAX_IN_PARAMETERS));
+            String sql = SELECT_ALL + " WHERE login IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+                bind(statement, chunk.toArray());
+                try (ResultSet rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        Versioned<User> user = read(rows);
+                        found.put(user.element().getLogin(), user);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Erreur de lecture des utilisateurs", e);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Renvoie une vue de la table, sans la charger en mémoire : chaque parcours exécute une requête dont les lignes sont lues
+     * par paquets de <code>fetchSize</code>. La connexion est rendue au pool à la fin du parcours, ou à la fermeture
+     * du stream renvoyé par <code>stream()</code>.
+     * @return Les utilisateurs
+     */
+    @Override
+    public Collection<User> findAll() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<User> iterator() {
+                return stream().iterator();
+            }
+
+            @Override
+            public Stream<User> stream() {
+                return streamAll();
+            }
+
+            @Override
+            public int size() {
+                try (Connection connection = dataSource.getConnection();
+                     Statement statement = connection.createStatement();
+                     ResultSet row = statement.executeQuery(COUNT)) {
+                    row.next();
+                    return row.getInt(1);
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Erreur de lecture des utilisateurs", e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public List<User> findBy(Species species, Boolean connected) {
+        List<Object> parameters = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(SELECT_ALL).append(" WHERE 1 = 1");
+        if (species != null) {
+            sql.append(" AND species = ?");
+            parameters.add(species.name());
+        }
+        if (connected != null) {
+            sql.append(" AND connected = ?");
+            parameters.add(connected);
+        }
+        return query(sql.toString(), parameters.toArray());
+    }
+
+    /**
+     * Lit une page dans l'ordre de la clé primaire : la base parcourt son index à partir du curseur, sans OFFSET.
+     */
+    @Override
+    public List<User> findPage(String after, int limit) {
+        return after == null ? query(SELECT_FIRST_PAGE, limit) : query(SELECT_PAGE, after, limit);
+    }
+
+    private List<User> query(String sql, Object... parameters) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            bind(statement, parameters);
+            List<User> users = new ArrayList<>();
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    users.add(read(rows).element());
+                }
+            }
+            return users;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Erreur de recherche des utilisateurs", e);
+        }
+    }
+
+    @Override
+    public void setConnected(Serializable id, boolean connected) throws NameNotFoundException {
+        if (write(SET_CONNECTED, connected, id.toString()) == 0) {
+            throw new NameNotFoundException(id.toString());
+        }
+        if (userEvents != null) {
+            userEvents.connectionChanged(id.toString(), connected);
+        }
+    }
+
+    @Override
+    public boolean isConnected(Serializable id) {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_CONNECTED)) {
+            statement.setString(1, id.toString());
+            try (ResultSet row = statement.executeQuery()) {
+                return row.next() && row.getBoolean(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Erreur de lecture de l'utilisateur " + id, e);
+        }
+    }
+
+    public long getBatchCount() {
+        return batches;
+    }
+
+    private Stream<User> streamAll() {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            // Certains drivers ne lisent les lignes par paquets qu'en dehors du mode auto-commit
+            connection.setAutoCommit(false);
+            PreparedStatement statement = connection.prepareStatement(SELECT_ALL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            ResultSet rows = statement.executeQuery();
+            Connection borrowed = connection;
+            RowIterator iterator = new RowIterator(rows, () -> release(borrowed));
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(iterator::close);
+        } catch (SQLException e) {
+            if (connection != null) {
+                release(connection);
+            }
+            throw new IllegalStateException("Erreur de lecture des utilisateurs", e);
+        }
+    }
+
+    private static void release(Connection connection) {
+        try {
+            connection.rollback();
+            connection.setAutoCommit(true);
+            connection.close();
+        } catch (SQLException ignored) {
+            // La connexion est de toute façon rendue au pool, qui la vérifiera
+        }
+    }
+
+    /**
+     * Parcours des lignes d'un résultat, qui libère la connexion une fois la dernière ligne lue.
+     */
+    private static final class RowIterator implements Iterator<User>, AutoCloseable {
+        private final ResultSet rows;
+        private final Runnable release;
+        private Boolean hasNext;
+        private boolean closed;
+
+        RowIterator(ResultSet rows, Runnable release) {
+            this.rows = rows;
+            this.release = release;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (hasNext == null) {
+                try {
+                    hasNext = !closed && rows.next();
+                } catch (SQLException e) {
+                    close();
+                    throw new IllegalStateException("Erreur de lecture des utilisateurs", e);
+                }
+                if (!hasNext) {
+                    close();
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        public User next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            hasNext = null;
+            try {
+                return read(rows).element();
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("Erreur de lecture des utilisateurs", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release.run();
+            }
+        }
+    }
+
+    private static Versioned<User> read(ResultSet row) throws SQLException {
+        String species = row.getString("species");
+        User user = new User(row.getString("login"), row.getString("password"),
+                species == null ? null : Species.valueOf(species), row.getString("image"));
+        return new Versioned<>(user, row.getLong("version"));
+    }
+
+    private static String species(User user) {
+        return user.getSpecies() == null ? null : user.getSpecies().name();
+    }
+
+    /**
+     * Place une écriture dans la file et attend son exécution.
+     * @return Le nombre de lignes modifiées
+     */
+    private int write(String sql, Object... parameters) {
+        Write write = new Write(sql, parameters, new CompletableFuture<>());
+        pending.add(write);
+        synchronized (flushLock) {
+            // Un autre thread a pu exécuter cette écriture pendant l'attente du verrou
+            if (!write.result().isDone()) {
+                flush();
+            }
+        }
+        try {
+            return write.result().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Erreur d'écriture dans la table des utilisateurs", e.getCause());
+        }
+    }
+
+    /**
+     * Exécute les écritures en attente. Doit être appelée avec <code>flushLock</code>.
+     */
+    private void flush() {
+        List<Write> writes = new ArrayList<>();
+        for (Write write = pending.poll(); write != null; write = pending.poll()) {
+            writes.add(write);
+            if (writes.size() == maxBatchSize) {
+                executeBatches(writes);
+                writes.clear();
+            }
+        }
+        if (!writes.isEmpty()) {
+            executeBatches(writes);
+        }
+    }
+
+    private void executeBatches(List<Write> writes) {
+        int[] counts = new int[writes.size()];
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int start = 0;
+                while (start < writes.size()) {
+                    // Écritures consécutives de même type : un seul lot, dans l'ordre d'arrivée
+                    int end = start;
+                    String sql = writes.get(start).sql();
+                    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                        for (; end < writes.size() && writes.get(end).sql().equals(sql); end++) {
+                            bind(statement, writes.get(end).parameters());
+                            statement.addBatch();
+                        }
+                        System.arraycopy(statement.executeBatch(), 0, counts, start, end - start);
+                    }
+                    start = end;
+                }
+                connection.commit();
+                batches++;
+            } catch (SQLException e) {
+                connection.rollback();
+                executeSeparately(connection, writes);
+                return;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            writes.forEach(write -> write.result().completeExceptionally(e));
+            return;
+        }
+        for (int i = 0; i < writes.size(); i++) {
+            writes.get(i).result().complete(counts[i]);
+        }
+    }
+
+    /**
+     * Exécute les écritures une par une, chacune dans sa propre transaction. Une insertion concurrente du même login
+     * par une autre instance (violation de clé primaire) est traitée comme une insertion refusée.
+     */
+    private static void executeSeparately(Connection connection, List<Write> writes) throws SQLException {
+        connection.setAutoCommit(true);
+        for (Write write : writes) {
+            try (PreparedStatement statement = connection.prepareStatement(write.sql())) {
+                bind(statement, write.parameters());
+                write.result().complete(statement.executeUpdate());
+            } catch (SQLException e) {
+                if (INSERT.equals(write.sql()) && e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                    write.result().complete(0);
+                } else {
+                    write.result().completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object[] parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            statement.setObject(i + 1, parameters[i]);
+        }
+    }
+}
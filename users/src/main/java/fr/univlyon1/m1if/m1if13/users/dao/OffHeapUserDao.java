@@ -0,0 +1,437 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.util.RevocationBus;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
+import fr.univlyon1.m1if.m1if13.users.util.UserEventLog;
+import fr.univlyon1.m1if.m1if13.users.util.VerifiedTokenCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Implémentation de l'interface DAO pour la classe <code>User</code> dont les données sont stockées hors du tas Java
+ * (<code>users.store.type=offheap</code>), dans un format compact (voir <code>OffHeapUserTable</code>) : pas d'objet par
+ * utilisateur, donc une occupation mémoire réduite et aucun travail pour le ramasse-miettes, quel que soit le nombre d'utilisateurs.<br>
+ * Les objets <code>User</code> ne sont créés qu'à la lecture (vues). Les recherches par critères comparent directement
+ * les enregistrements et ne créent des vues que pour les utilisateurs trouvés.<br>
+ * Les accès sont protégés par un verrou lecture/écriture ; un parcours de <code>findAll()</code> ne prend le verrou
+ * que pour lire un paquet d'enregistrements à la fois (parcours faiblement cohérent, comme celui d'une Map concurrente).<br>
+ * Les modifications sont publiées dans le journal des événements (<code>UserEventLog</code>) sous le verrou d'écriture.<br>
+ * La dernière version de chaque utilisateur supprimé est conservée : un utilisateur recréé reprend la numérotation après elle.
+ */
+@Component
+@ConditionalOnProperty(name = "users.store.type", havingValue = "offheap")
+public class OffHeapUserDao implements UserQueryDao, MeterBinder {
+    private static final int BATCH_SIZE = 256;
+
+    private final OffHeapUserTable table = new OffHeapUserTable();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Dernière version des utilisateurs supprimés (protégée par le verrou d'écriture)
+    private final Map<String, Long> retired = new HashMap<>();
+
+    @Autowired(required = false)
+    private SessionRegistry sessionRegistry;
+    @Autowired(required = false)
+    private VerifiedTokenCache verifiedTokenCache;
+    @Autowired(required = false)
+    private UserEventLog userEvents;
+    @Autowired(required = false)
+    private RevocationBus revocationBus;
+
+    @Override
+    public Serializable add(User user) throws NameAlreadyBoundException {
+        lock.writeLock().lock();
+        try {
+            if (table.find(user.getLogin()) >= 0) {
+                throw new NameAlreadyBoundException(user.getLogin());
+            }
+            long version = createdVersion(user.getLogin());
+            table.insert(user.getLogin(), user, version);
+            publish(user.getLogin(), new Versioned<>(user, version), true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return user.getLogin();
+    }
+
+    @Override
+    public void delete(User user) throws NameNotFoundException {
+        deleteById(user.getLogin());
+    }
+
+    /**
+     * Supprime un utilisateur, révoque ses sessions et évince du cache les tokens qui lui ont été délivrés.
+     * @param id Le login de l'utilisateur à supprimer
+     * @throws NameNotFoundException Si l'utilisateur n'existe pas
+     */
+    @Override
+    public void deleteById(Serializable id) throws NameNotFoundException {
+        lock.writeLock().lock();
+        try {
+            retire(record(id));
+            publish(id.toString(), null, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (sessionRegistry != null) {
+            sessionRegistry.revokeAll(id.toString());
+        }
+        if (verifiedTokenCache != null) {
+            verifiedTokenCache.evictSubject(id.toString());
+        }
+        if (revocationBus != null) {
+            revocationBus.revokeSubject(id.toString());
+        }
+    }
+
+    @Override
+    public void evict(Serializable id) throws NameNotFoundException {
+        lock.writeLock().lock();
+        try {
+            retire(record(id));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void update(Serializable id, User user) {
+        lock.writeLock().lock();
+        try {
+            int record = table.find(id.toString());
+            long version = record < 0 ? createdVersion(id.toString()) : table.version(record) + 1;
+            if (record < 0) {
+                table.insert(id.toString(), user, version);
+            } else {
+                table.update(record, user, version);
+            }
+            publish(id.toString(), new Versioned<>(user, version), record < 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long update(Serializable id, User user, long expectedVersion) throws NameNotFoundException, StaleVersionException {
+        lock.writeLock().lock();
+        try {
+            int record = record(id);
+            long version = table.version(record);
+            if (version != expectedVersion) {
+                throw new StaleVersionException(id, expectedVersion, version);
+            }
+            table.update(record, user, version + 1);
+            publish(id.toString(), new Versioned<>(user, version + 1), false);
+            return version + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Versioned<User> compute(Serializable id, UnaryOperator<User> update) throws NameNotFoundException {
+        lock.writeLock().lock();
+        try {
+            int record = record(id);
+            User updated = update.apply(table.view(record));
+            long version = table.version(record) + 1;
+            table.update(record, updated, version);
+            publish(id.toString(), new Versioned<>(updated, version), false);
+            return new Versioned<>(updated, version);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Upserted<User> upsert(Serializable id, UnaryOperator<User> merge) {
+        lock.writeLock().lock();
+        try {
+            int record = table.find(id.toString());
+            User merged = merge.apply(record < 0 ? null : table.view(record));
+            long version = record < 0 ? createdVersion(id.toString()) : table.version(record) + 1;
+            if (record < 0) {
+                table.insert(id.toString(), merged, version);
+            } else {
+                table.update(record, merged, version);
+            }
+            publish(id.toString(), new Versioned<>(merged, version), record < 0);
+            return new Upserted<>(new Versioned<>(merged, version), record < 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Serializable getId(User user) {
+        return user.getLogin();
+    }
+
+    @Override
+    public User findOne(Serializable id) throws NameNotFoundException {
+        return findVersioned(id).element();
+    }
+
+    @Override
+    public Versioned<User> findVersioned(Serializable id) throws NameNotFoundException {
+        return find(id).orElseThrow(() -> new NameNotFoundException(id.toString()));
+    }
+
+    @Override
+    public Optional<Versioned<User>> find(Serializable id) {
+        lock.readLock().lock();
+        try {
+            int record = table.find(id.toString());
+            return record < 0 ? Optional.empty() : Optional.of(new Versioned<>(table.view(record), table.version(record)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Renvoie une vue de la table : les utilisateurs sont lus par paquets pendant le parcours, sans copie de la table.
+     * @return Les utilisateurs
+     */
+    @Override
+    public Collection<User> findAll() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<User> iterator() {
+                return new BatchIterator();
+            }
+
+            @Override
+            public int size() {
+                lock.readLock().lock();
+                try {
+                    return table.size();
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Parcourt les enregistrements sans créer de vue pour ceux qui ne correspondent pas aux critères.
+     */
+    @Override
+    public List<User> findBy(Species species, Boolean connected) {
+        List<User> users = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int record = 0; record < table.recordLimit(); record++) {
+                if (table.matches(record, species, connected)) {
+                    users.add(table.view(record));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return users;
+    }
+
+    /**
+     * Parcourt les logins et conserve les <code>limit</code> plus petits qui suivent le curseur (tas borné) :
+     * seuls les utilisateurs de la page sont lus entièrement.
+     */
+    @Override
+    public List<User> findPage(String after, int limit) {
+        PriorityQueue<String> smallest = new PriorityQueue<>(limit + 1, Comparator.reverseOrder());
+        lock.readLock().lock();
+        try {
+            for (int record = 0; record < table.recordLimit(); record++) {
+                if (!table.isLive(record)) {
+                    continue;
+                }
+                String login = table.login(record);
+                if ((after == null || login.compareTo(after) > 0) && (smallest.size() < limit || login.compareTo(smallest.peek()) < 0)) {
+                    smallest.add(login);
+                    if (smallest.size() > limit) {
+                        smallest.poll();
+                    }
+                }
+            }
+            List<User> page = new ArrayList<>(smallest.size());
+            for (String login : smallest) {
+                page.add(table.view(table.find(login)));
+            }
+            page.sort(Comparator.comparing(User::getLogin));
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setConnected(Serializable id, boolean connected) throws NameNotFoundException {
+        lock.writeLock().lock();
+        try {
+            table.setConnected(record(id), connected);
+            if (userEvents != null) {
+                userEvents.connectionChanged(id.toString(), connected);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isConnected(Serializable id) {
+        lock.readLock().lock();
+        try {
+            int record = table.find(id.toString());
+            return record >= 0 && table.isConnected(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
+
+    /**
+     * Renvoie la mémoire utilisée hors du tas par les utilisateurs (enregistrements, chaînes et index).
+     * @return La taille en octets
+     */
+    public long getUsedBytes() {
+        lock.readLock().lock();
+        try {
+            return table.usedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Renvoie la mémoire réservée hors du tas (buffers alloués, y compris leur partie encore libre).
+     * @return La taille en octets
+     */
+    public long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            return table.allocatedBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.store.offheap.used", this, OffHeapUserDao::getUsedBytes)
+                .description("Mémoire utilisée hors du tas par les utilisateurs")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder("users.store.offheap.allocated", this, OffHeapUserDao::getAllocatedBytes)
+                .description("Mémoire réservée hors du tas pour les utilisateurs")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Publie une modification. Doit être appelée avec le verrou d'écriture, pour que l'ordre des événements soit celui des écritures.
+     */
+    private void publish(String login, Versioned<User> value, boolean created) {
+        if (userEvents == null) {
+            return;
+        }
+        if (created) {
+            userEvents.userCreated(login, value);
+        } else {
+            userEvents.userChanged(login, value);
+        }
+    }
+
+    /**
+     * Supprime un enregistrement en conservant la dernière version de l'utilisateur. Doit être appelée avec le verrou d'écriture.
+     */
+    private void retire(int record) {
+        retired.put(table.login(record), table.version(record));
+        table.remove(record);
+    }
+
+    /**
+     * Renvoie la version d'un utilisateur créé : celle qui suit la dernière version d'un utilisateur supprimé de même login.
+     * Doit être appelée avec le verrou d'écriture.
+     */
+    private long createdVersion(String login) {
+        Long deleted = retired.remove(login);
+        return deleted == null ? Versioned.INITIAL_VERSION : deleted + 1;
+    }
+
+    /**
+     * Recherche l'enregistrement d'un utilisateur. Doit être appelée avec le verrou.
+     */
+    private int record(Serializable id) throws NameNotFoundException {
+        int record = table.find(id.toString());
+        if (record < 0) {
+            throw new NameNotFoundException(id.toString());
+        }
+        return record;
+    }
+
+    /**
+     * Parcours des enregistrements par paquets de <code>BATCH_SIZE</code>, chacun lu sous le verrou de lecture.
+     * Les enregistrements ne changent pas de place : un utilisateur présent pendant tout le parcours est lu exactement une fois.
+     */
+    private final class BatchIterator implements Iterator<User> {
+        private final ArrayDeque<User> batch = new ArrayDeque<>(BATCH_SIZE);
+        private int nextRecord;
+
+        @Override
+        public boolean hasNext() {
+            while (batch.isEmpty()) {
+                lock.readLock().lock();
+                try {
+                    int end = Math.min(table.recordLimit(), nextRecord + BATCH_SIZE);
+                    if (nextRecord >= end) {
+                        return false;
+                    }
+                    for (; nextRecord < end; nextRecord++) {
+                        if (table.isLive(nextRecord)) {
+                            batch.add(table.view(nextRecord));
+                        }
+                    }
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public User next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.poll();
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Table d'utilisateurs stockée hors du tas Java (buffers directs), pour <code>OffHeapUserDao</code>. Non thread-safe.<br>
+ * Trois zones :
+ * <ul>
+ *     <li>les enregistrements, de taille fixe (24 octets) : version, adresse des chaînes, numéro d'image, espèce (un octet)
+ *     et état de connexion. Un enregistrement ne change jamais de place ; les enregistrements libérés sont chaînés
+ *     et réutilisés ;</li>
+ *     <li>les chaînes (login et mot de passe en UTF-8, précédés de leurs longueurs), ajoutées à la suite les unes des autres.
+ *     Les chaînes remplacées sont compactées lorsqu'elles occupent plus de place que les chaînes utiles ;</li>
+ *     <li>l'index des logins : table de hachage à adressage ouvert (sondage linéaire), dont chaque case contient le hash
+ *     du login et le numéro de l'enregistrement.</li>
+ * </ul>
+ * Les noms d'images, peu nombreux et partagés par de nombreux utilisateurs, sont stockés une seule fois (dictionnaire sur le tas).
+ */
+final class OffHeapUserTable {
+    private static final int RECORD_BYTES = 24;
+    private static final int RECORDS_PER_CHUNK = 4096;
+    private static final int VERSION = 0;
+    private static final int STRINGS = 8;
+    private static final int IMAGE = 16;
+    private static final int SPECIES = 20;
+    private static final int CONNECTED = 21;
+    private static final long FREE = 0;
+    private static final int STRINGS_CHUNK_BYTES = 1 << 20;
+    private static final int SLOT_BYTES = 2 * Integer.BYTES;
+    private static final int MIN_INDEX_CAPACITY = 1024;
+    // Contenu d'une case de l'index : numéro d'enregistrement + 1, ou l'une de ces deux valeurs
+    private static final int EMPTY = 0;
+    private static final int REMOVED = -1;
+    private static final int NONE = -1;
+
+    private final List<ByteBuffer> records = new ArrayList<>();
+    private int recordLimit;
+    // Premier enregistrement libre ; les suivants sont chaînés par le champ STRINGS
+    private int firstFree = NONE;
+    private int size;
+
+    private final List<ByteBuffer> strings = new ArrayList<>();
+    private int stringsPosition;
+    private long liveStringBytes;
+    private long garbageStringBytes;
+
+    private ByteBuffer index = ByteBuffer.allocateDirect(MIN_INDEX_CAPACITY * SLOT_BYTES);
+    private int indexCapacity = MIN_INDEX_CAPACITY;
+    // Cases occupées, y compris par des suppressions
+    private int indexUsed;
+
+    private final Map<String, Integer> imageIds = new HashMap<>();
+    private final List<String> images = new ArrayList<>();
+
+    /**
+     * Recherche un utilisateur.
+     * @param login Le login
+     * @return Le numéro de son enregistrement, ou -1 s'il n'existe pas
+     */
+    int find(String login) {
+        int position = position(hash(login), utf8(login));
+        return position < 0 ? NONE : index.getInt(position * SLOT_BYTES + Integer.BYTES) - 1;
+    }
+
+    /**
+     * Ajoute un utilisateur, qui ne doit pas déjà exister.
+     * @return Le numéro de son enregistrement
+     */
+    int insert(String login, User user, long version) {
+        byte[] key = utf8(login);
+        int record = allocateRecord();
+        write(record, key, user, version);
+        if ((indexUsed + 1) * 2 > indexCapacity) {
+            rehash();
+        }
+        int mask = indexCapacity - 1;
+        int hash = hash(login);
+        int position = hash & mask;
+        while (true) {
+            int content = index.getInt(position * SLOT_BYTES + Integer.BYTES);
+            if (content == EMPTY || content == REMOVED) {
+                if (content == EMPTY) {
+                    indexUsed++;
+                }
+                index.putInt(position * SLOT_BYTES, hash).putInt(position * SLOT_BYTES + Integer.BYTES, record + 1);
+                break;
+            }
+            position = (position + 1) & mask;
+        }
+        size++;
+        return record;
+    }
+
+    /**
+     * Remplace l'état d'un utilisateur (l'enregistrement et l'état de connexion sont conservés).
+     */
+    void update(int record, User user, long version) {
+        ByteBuffer chunk = records.get(record / RECORDS_PER_CHUNK);
+        int offset = offset(record);
+        long address = chunk.getLong(offset + STRINGS);
+        // Le plus souvent, seuls l'espèce ou l'image changent : les chaînes sont alors conservées
+        if (user.getPassword() != null && user.getPassword().equals(password(address))) {
+            chunk.putLong(offset + VERSION, version)
+                    .putInt(offset + IMAGE, imageId(user.getImage()))
+                    .put(offset + SPECIES, species(user.getSpecies()));
+            return;
+        }
+        byte[] login = new byte[strings(address).getShort(stringOffset(address))];
+        strings(address).get(stringOffset(address) + 2 * Short.BYTES, login);
+        garbageStringBytes += stringBytes(address);
+        liveStringBytes -= stringBytes(address);
+        boolean connected = isConnected(record);
+        write(record, login, user, version);
+        setConnected(record, connected);
+        compactStringsIfNeeded();
+    }
+
+    /**
+     * Supprime un utilisateur.
+     */
+    void remove(int record) {
+        long address = records.get(record / RECORDS_PER_CHUNK).getLong(offset(record) + STRINGS);
+        String login = login(address);
+        int position = position(hash(login), utf8(login));
+        index.putInt(position * SLOT_BYTES + Integer.BYTES, REMOVED);
+        garbageStringBytes += stringBytes(address);
+        liveStringBytes -= stringBytes(address);
+        records.get(record / RECORDS_PER_CHUNK).putLong(offset(record) + VERSION, FREE).putLong(offset(record) + STRINGS, firstFree);
+        firstFree = record;
+        size--;
+        compactStringsIfNeeded();
+    }
+
+    /**
+     * Crée une vue de l'utilisateur sur le tas.
+     */
+    User view(int record) {
+        ByteBuffer chunk = records.get(record / RECORDS_PER_CHUNK);
+        int offset = offset(record);
+        long address = chunk.getLong(offset + STRINGS);
+        int image = chunk.getInt(offset + IMAGE);
+        byte species = chunk.get(offset + SPECIES);
+        return new User(login(address), password(address), species < 0 ? null : Species.values()[species],
+                image < 0 ? null : images.get(image));
+    }
+
+    long version(int record) {
+        return records.get(record / RECORDS_PER_CHUNK).getLong(offset(record) + VERSION);
+    }
+
+    boolean isLive(int record) {
+        return version(record) != FREE;
+    }
+
+    /**
+     * Indique si l'enregistrement correspond aux critères, sans créer de vue.
+     */
+    boolean matches(int record, Species species, Boolean connected) {
+        ByteBuffer chunk = records.get(record / RECORDS_PER_CHUNK);
+        int offset = offset(record);
+        return chunk.getLong(offset + VERSION) != FREE &&
+                (species == null || chunk.get(offset + SPECIES) == species(species)) &&
+                (connected == null || (chunk.get(offset + CONNECTED) != 0) == connected);
+    }
+
+    String login(int record) {
+        return login(records.get(record / RECORDS_PER_CHUNK).getLong(offset(record) + STRINGS));
+    }
+
+    boolean isConnected(int record) {
+        return records.get(record / RECORDS_PER_CHUNK).get(offset(record) + CONNECTED) != 0;
+    }
+
+    void setConnected(int record, boolean connected) {
+        records.get(record / RECORDS_PER_CHUNK).put(offset(record) + CONNECTED, (byte) (connected ? 1 : 0));
+    }
+
+    /**
+     * Renvoie la borne des numéros d'enregistrements (utilisés ou libres).
+     */
+    int recordLimit() {
+        return recordLimit;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Renvoie la mémoire réservée hors du tas.
+     * @return La taille totale des buffers, en octets
+     */
+    long allocatedBytes() {
+        long bytes = (long) index.capacity();
+        for (ByteBuffer chunk : records) {
+            bytes += chunk.capacity();
+        }
+        for (ByteBuffer chunk : strings) {
+            bytes += chunk.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Renvoie la mémoire utilisée hors du tas : enregistrements, chaînes (y compris celles qui attendent la compaction) et index.
+     * @return La taille en octets
+     */
+    long usedBytes() {
+        return (long) recordLimit * RECORD_BYTES + liveStringBytes + garbageStringBytes + (long) indexCapacity * SLOT_BYTES;
+    }
+
+    private int allocateRecord() {
+        if (firstFree != NONE) {
+            int record = firstFree;
+            firstFree = (int) records.get(record / RECORDS_PER_CHUNK).getLong(offset(record) + STRINGS);
+            return record;
+        }
+        if (recordLimit == records.size() * RECORDS_PER_CHUNK) {
+            records.add(ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * RECORD_BYTES));
+        }
+        return recordLimit++;
+    }
+
+    private void write(int record, byte[] login, User user, long version) {
+        byte[] password = user.getPassword() == null ? null : utf8(user.getPassword());
+        if (login.length > Short.MAX_VALUE || password != null && password.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Login ou mot de passe trop long : " + user.getLogin());
+        }
+        records.get(record / RECORDS_PER_CHUNK)
+                .putLong(offset(record) + VERSION, version)
+                .putLong(offset(record) + STRINGS, appendStrings(login, password))
+                .putInt(offset(record) + IMAGE, imageId(user.getImage()))
+                .put(offset(record) + SPECIES, species(user.getSpecies()))
+                .put(offset(record) + CONNECTED, (byte) 0);
+    }
+
+    /**
+     * Ajoute un login et un mot de passe à la zone des chaînes.
+     * @return L'adresse des chaînes : numéro du buffer (32 bits de poids fort) et position dans le buffer
+     */
+    private long appendStrings(byte[] login, byte[] password) {
+        int length = 2 * Short.BYTES + login.length + (password == null ? 0 : password.length);
+        ByteBuffer chunk = reserveStrings(length);
+        int offset = stringsPosition;
+        chunk.putShort(offset, (short) login.length)
+                .putShort(offset + Short.BYTES, (short) (password == null ? -1 : password.length))
+                .put(offset + 2 * Short.BYTES, login);
+        if (password != null) {
+            chunk.put(offset + 2 * Short.BYTES + login.length, password);
+        }
+        stringsPosition += length;
+        liveStringBytes += length;
+        return ((long) (strings.size() - 1) << Integer.SIZE) | offset;
+    }
+
+    private ByteBuffer reserveStrings(int length) {
+        ByteBuffer chunk = strings.isEmpty() ? null : strings.get(strings.size() - 1);
+        if (chunk == null || stringsPosition + length > chunk.capacity()) {
+            chunk = ByteBuffer.allocateDirect(Math.max(STRINGS_CHUNK_BYTES, length));
+            strings.add(chunk);
+            stringsPosition = 0;
+        }
+        return chunk;
+    }
+
+    /**
+     * Recopie les chaînes utiles dans de nouveaux buffers lorsque les chaînes remplacées occupent plus de place qu'elles.
+     * Les anciens buffers sont libérés par le ramasse-miettes.
+     */
+    private void compactStringsIfNeeded() {
+        if (garbageStringBytes < STRINGS_CHUNK_BYTES || garbageStringBytes < liveStringBytes) {
+            return;
+        }
+        List<ByteBuffer> previous = new ArrayList<>(strings);
+        strings.clear();
+        stringsPosition = 0;
+        liveStringBytes = 0;
+        garbageStringBytes = 0;
+        for (int record = 0; record < recordLimit; record++) {
+            if (!isLive(record)) {
+                continue;
+            }
+            ByteBuffer chunk = records.get(record / RECORDS_PER_CHUNK);
+            long address = chunk.getLong(offset(record) + STRINGS);
+            ByteBuffer source = previous.get((int) (address >>> Integer.SIZE));
+            int length = stringBytes(source, stringOffset(address));
+            ByteBuffer target = reserveStrings(length);
+            target.put(stringsPosition, source, stringOffset(address), length);
+            chunk.putLong(offset(record) + STRINGS, ((long) (strings.size() - 1) << Integer.SIZE) | stringsPosition);
+            stringsPosition += length;
+            liveStringBytes += length;
+        }
+    }
+
+    /**
+     * Recherche la case de l'index d'un login.
+     * @return La position de la case, ou -1
+     */
+    private int position(int hash, byte[] login) {
+        int mask = indexCapacity - 1;
+        for (int position = hash & mask; ; position = (position + 1) & mask) {
+            int content = index.getInt(position * SLOT_BYTES + Integer.BYTES);
+            if (content == EMPTY) {
+                return NONE;
+            }
+            if (content != REMOVED && index.getInt(position * SLOT_BYTES) == hash && sameLogin(content - 1, login)) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Reconstruit l'index, agrandi si nécessaire (taux de remplissage d'au plus 1/4 après reconstruction) et sans les suppressions.
+     */
+    private void rehash() {
+        int capacity = MIN_INDEX_CAPACITY;
+        while (capacity < (size + 1) * 4) {
+            capacity *= 2;
+        }
+        ByteBuffer rebuilt = ByteBuffer.allocateDirect(capacity * SLOT_BYTES);
+        int mask = capacity - 1;
+        for (int old = 0; old < indexCapacity; old++) {
+            int content = index.getInt(old * SLOT_BYTES + Integer.BYTES);
+            if (content == EMPTY || content == REMOVED) {
+                continue;
+            }
+            int hash = index.getInt(old * SLOT_BYTES);
+            int position = hash & mask;
+            while (rebuilt.getInt(position * SLOT_BYTES + Integer.BYTES) != EMPTY) {
+                position = (position + 1) & mask;
+            }
+            rebuilt.putInt(position * SLOT_BYTES, hash).putInt(position * SLOT_BYTES + Integer.BYTES, content);
+        }
+        index = rebuilt;
+        indexCapacity = capacity;
+        indexUsed = size;
+    }
+
+    private boolean sameLogin(int record, byte[] login) {
+        long address = records.get(record / RECORDS_PER_CHUNK).getLong(offset(record) + STRINGS);
+        ByteBuffer chunk = strings(address);
+        int offset = stringOffset(address);
+        return chunk.getShort(offset) == login.length &&
+                chunk.slice(offset + 2 * Short.BYTES, login.length).mismatch(ByteBuffer.wrap(login)) == -1;
+    }
+
+    private String login(long address) {
+        ByteBuffer chunk = strings(address);
+        int offset = stringOffset(address);
+        return decode(chunk, offset + 2 * Short.BYTES, chunk.getShort(offset));
+    }
+
+    private String password(long address) {
+        ByteBuffer chunk = strings(address);
+        int offset = stringOffset(address);
+        short length = chunk.getShort(offset + Short.BYTES);
+        return length < 0 ? null : decode(chunk, offset + 2 * Short.BYTES + chunk.getShort(offset), length);
+    }
+
+    private ByteBuffer strings(long address) {
+        return strings.get((int) (address >>> Integer.SIZE));
+    }
+
+    private int stringBytes(long address) {
+        return stringBytes(strings(address), stringOffset(address));
+    }
+
+    private static int stringBytes(ByteBuffer chunk, int offset) {
+        return 2 * Short.BYTES + chunk.getShort(offset) + Math.max(0, chunk.getShort(offset + Short.BYTES));
+    }
+
+    private static int stringOffset(long address) {
+        return (int) address;
+    }
+
+    private static String decode(ByteBuffer chunk, int offset, int length) {
+        byte[] bytes = new byte[length];
+        chunk.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int imageId(String image) {
+        if (image == null) {
+            return NONE;
+        }
+        return imageIds.computeIfAbsent(image, name -> {
+            images.add(name);
+            return images.size() - 1;
+        });
+    }
+
+    private static byte species(Species species) {
+        return species == null ? -1 : (byte) species.ordinal();
+    }
+
+    private static int offset(int record) {
+        return (record % RECORDS_PER_CHUNK) * RECORD_BYTES;
+    }
+
+    private static int hash(String login) {
+        int hash = login.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,245 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Réplique en lecture seule (<code>users.replication.role=follower</code>) : reçoit le journal de réplication du leader
+ * (voir <code>ReplicationServer</code>) et l'applique au DAO en mémoire, en conservant les versions du leader.<br>
+ * Retard : la réplique est à jour lorsqu'elle a appliqué le dernier offset annoncé par un battement du leader ;
+ * son retard est la durée écoulée depuis le dernier battement reçu à jour (il augmente donc aussi lorsque le leader
+ * est injoignable). Les lectures sont refusées au-delà de <code>users.replication.maxLagMs</code> (voir <code>ReplicaFilter</code>).<br>
+ * Reprise : si la persistance est activée (<code>users.store.path</code>), l'époque du leader et le dernier offset appliqué
+ * sont enregistrés dans ce répertoire ; après un redémarrage, la réplique reprend à cet offset au lieu de recevoir un snapshot.
+ * L'offset est enregistré après les modifications qu'il couvre : une reprise peut rejouer des modifications déjà appliquées,
+ * ce qui est sans effet puisque chacune donne l'état complet de l'utilisateur.
+ */
+@Component
+@ConditionalOnProperty(name = "users.replication.role", havingValue = "follower")
+public class ReplicationFollower implements MeterBinder {
+    private static final String OFFSET_FILE = "replication.offset";
+    private static final long OFFSET_SAVE_INTERVAL_MS = 1000;
+
+    private final UserDao userDao;
+    private final InetSocketAddress leader;
+    private final long retryMs;
+    private final Path offsetFile;
+    private final LongAdder snapshots = new LongAdder();
+
+    private volatile boolean running;
+    private volatile Socket socket;
+    private Thread thread;
+    private volatile long epoch;
+    private volatile long appliedOffset;
+    private volatile long leaderOffset;
+    // Date (horloge locale) du dernier battement reçu alors que la réplique était à jour ; 0 si elle ne l'a jamais été
+    private volatile long upToDateAt;
+    private long offsetSavedAt;
+
+    /**
+     * Crée la réplique.
+     * @param userDao Le DAO en mémoire auquel appliquer les modifications
+     * @param leader L'adresse du serveur de réplication du leader (<code>hôte:port</code>)
+     * @param storePath Le répertoire de persistance du DAO, où est enregistré l'offset (vide : pas de reprise)
+     * @param retryMs Le délai avant une nouvelle tentative de connexion
+     */
+    public ReplicationFollower(UserDao userDao,
+                               @Value("${users.replication.leader:127.0.0.1:7400}") String leader,
+                               @Value("${users.store.path:}") String storePath,
+                               @Value("${users.replication.retryMs:1000}") long retryMs) {
+        this.userDao = userDao;
+        int separator = leader.lastIndexOf(':');
+        this.leader = InetSocketAddress.createUnresolved(leader.substring(0, separator), Integer.parseInt(leader.substring(separator + 1)));
+        this.retryMs = retryMs;
+        this.offsetFile = storePath.isEmpty() ? null : Path.of(storePath, OFFSET_FILE);
+    }
+
+    /**
+     * Relit l'offset enregistré et lance la connexion au leader.
+     * @throws IOException Si le fichier de l'offset ne peut pas être lu
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        if (offsetFile != null && Files.exists(offsetFile)) {
+            ByteBuffer saved = ByteBuffer.wrap(Files.readAllBytes(offsetFile));
+            epoch = saved.getLong();
+            appliedOffset = saved.getLong();
+        }
+        running = true;
+        thread = Thread.ofPlatform().daemon().name("replication-follower").start(this::run);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        running = false;
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+        thread.interrupt();
+        thread.join();
+        saveOffset();
+    }
+
+    public long getAppliedOffset() {
+        return appliedOffset;
+    }
+
+    /**
+     * Renvoie le nombre de modifications du leader qui ne sont pas encore appliquées (d'après le dernier battement reçu).
+     */
+    public long getLagRecords() {
+        return Math.max(0, leaderOffset - appliedOffset);
+    }
+
+    /**
+     * Renvoie le retard de la réplique, en millisecondes.
+     * @return La durée écoulée depuis le dernier battement reçu à jour, ou <code>Long.MAX_VALUE</code> si la réplique
+     *         n'a jamais été à jour depuis son démarrage
+     */
+    public long getLagMs() {
+        long at = upToDateAt;
+        return at == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - at;
+    }
+
+    /**
+     * Renvoie le nombre de snapshots reçus (synchronisations complètes) depuis le démarrage.
+     */
+    public long getSnapshotCount() {
+        return snapshots.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.replication.lag", this, follower -> Math.min(follower.getLagMs(), Integer.MAX_VALUE))
+                .description("Retard de la réplique sur le leader, en millisecondes")
+                .register(registry);
+        Gauge.builder("users.replication.lagRecords", this, ReplicationFollower::getLagRecords)
+                .description("Nombre de modifications du leader que la réplique n'a pas encore appliquées")
+                .register(registry);
+        Gauge.builder("users.replication.appliedOffset", this, ReplicationFollower::getAppliedOffset)
+                .description("Numéro de la dernière modification du leader appliquée par la réplique")
+                .register(registry);
+        FunctionCounter.builder("users.replication.snapshots", this, ReplicationFollower::getSnapshotCount)
+                .description("Nombre de synchronisations complètes reçues du leader")
+                .register(registry);
+    }
+
+    /**
+     * Se connecte au leader et applique ses modifications, en se reconnectant après chaque interruption.
+     */
+    private void run() {
+        while (running) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(new InetSocketAddress(leader.getHostString(), leader.getPort()), (int) Math.max(retryMs, 1000));
+                connection.setTcpNoDelay(true);
+                follow(connection);
+            } catch (IOException | UncheckedIOException e) {
+                // Leader injoignable ou connexion interrompue : nouvelle tentative
+            }
+            try {
+                Thread.sleep(retryMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Socket connection) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        out.writeInt(ReplicationServer.MAGIC);
+        out.writeLong(epoch);
+        out.writeLong(appliedOffset + 1);
+        out.flush();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 1 << 16));
+        while (running) {
+            byte type = in.readByte();
+            if (type == ReplicationServer.SNAPSHOT) {
+                applySnapshot(in);
+            } else if (type == ReplicationServer.RECORD) {
+                long offset = in.readLong();
+                UserStore.decode(readRecord(in), userDao::applyReplicated);
+                appliedOffset = offset;
+            } else if (type == ReplicationServer.HEARTBEAT) {
+                leaderOffset = in.readLong();
+                if (appliedOffset >= leaderOffset) {
+                    upToDateAt = System.currentTimeMillis();
+                }
+                if (System.currentTimeMillis() - offsetSavedAt >= OFFSET_SAVE_INTERVAL_MS) {
+                    saveOffset();
+                }
+            } else {
+                throw new IOException("Message de réplication inconnu : " + type);
+            }
+        }
+    }
+
+    /**
+     * Remplace l'état de la réplique par celui du leader : les utilisateurs absents du snapshot sont supprimés.
+     */
+    private void applySnapshot(DataInputStream in) throws IOException {
+        long snapshotEpoch = in.readLong();
+        long offset = in.readLong();
+        int count = in.readInt();
+        Set<String> logins = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            UserStore.decode(readRecord(in), (login, value) -> {
+                logins.add(login);
+                userDao.applyReplicated(login, value);
+            });
+        }
+        for (User user : userDao.findAll()) {
+            if (!logins.contains(user.getLogin())) {
+                userDao.applyReplicated(user.getLogin(), null);
+            }
+        }
+        epoch = snapshotEpoch;
+        appliedOffset = offset;
+        snapshots.increment();
+        saveOffset();
+    }
+
+    private static ByteBuffer readRecord(DataInputStream in) throws IOException {
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+        return ByteBuffer.wrap(record);
+    }
+
+    /**
+     * Enregistre l'époque et l'offset appliqué (écriture dans un fichier temporaire, puis renommage atomique).
+     */
+    private synchronized void saveOffset() throws IOException {
+        offsetSavedAt = System.currentTimeMillis();
+        if (offsetFile == null) {
+            return;
+        }
+        Path temporary = offsetFile.resolveSibling(OFFSET_FILE + ".tmp");
+        Files.write(temporary, ByteBuffer.allocate(2 * Long.BYTES).putLong(epoch).putLong(appliedOffset).array());
+        Files.move(temporary, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,149 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal de réplication du leader (<code>users.replication.role=leader</code>) : chaque modification enregistrée par
+ * <code>UserDao</code> reçoit un numéro (offset) croissant, et les <code>users.replication.retention</code> dernières
+ * sont conservées pour les répliques qui reprennent après une déconnexion (voir <code>ReplicationServer</code>).<br>
+ * Le journal tient aussi le dernier état de chaque utilisateur : un snapshot et l'offset de la dernière modification
+ * qu'il contient sont lus ensemble, sous le verrou du journal, sans parcourir ni bloquer le DAO.
+ * Cet état partage les instances d'utilisateurs du DAO (immuables) ; il les garde en mémoire même si elles sont déchargées.<br>
+ * L'époque identifie le journal : elle change à chaque démarrage du leader, qui recommence la numérotation.
+ */
+@Component
+@ConditionalOnProperty(name = "users.replication.role", havingValue = "leader")
+public class ReplicationLog implements MeterBinder {
+    /**
+     * Modification numérotée.
+     * @param offset Le numéro de la modification
+     * @param login Le login de l'utilisateur modifié
+     * @param state Son nouvel état, ou null s'il a été supprimé
+     */
+    record Change(long offset, String login, Versioned<User> state) {
+    }
+
+    /**
+     * État complet à un offset donné.
+     * @param offset Le numéro de la dernière modification prise en compte
+     * @param users Le dernier état de chaque utilisateur
+     */
+    record Snapshot(long offset, List<Map.Entry<String, Versioned<User>>> users) {
+    }
+
+    private final Object lock = new Object();
+    private final long epoch;
+    private final Change[] history;
+    private long lastOffset;
+    private final Map<String, Versioned<User>> latest = new HashMap<>();
+
+    /**
+     * Crée le journal.
+     * @param retention Le nombre de modifications conservées pour les reprises
+     */
+    public ReplicationLog(@Value("${users.replication.retention:100000}") int retention) {
+        this.history = new Change[retention];
+        long random;
+        do {
+            random = new SecureRandom().nextLong();
+        } while (random == 0);
+        // 0 désigne une réplique vide
+        this.epoch = random;
+    }
+
+    /**
+     * Enregistre une modification. Appelée par le DAO pendant l'opération atomique sur l'utilisateur : les modifications
+     * d'un utilisateur sont numérotées dans l'ordre où elles sont appliquées.
+     * @param login Le login de l'utilisateur
+     * @param value Son nouvel état, ou <code>null</code> s'il a été supprimé
+     */
+    public void append(String login, Versioned<User> value) {
+        synchronized (lock) {
+            lastOffset++;
+            history[(int) (lastOffset % history.length)] = new Change(lastOffset, login, value);
+            if (value == null) {
+                latest.remove(login);
+            } else {
+                latest.put(login, value);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Ajoute à l'état un utilisateur rechargé au démarrage (sans le numéroter : il fait partie de l'état initial).
+     * @param login Le login de l'utilisateur
+     * @param value Son état
+     */
+    public void restored(String login, Versioned<User> value) {
+        synchronized (lock) {
+            latest.put(login, value);
+        }
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getLastOffset() {
+        synchronized (lock) {
+            return lastOffset;
+        }
+    }
+
+    /**
+     * Renvoie l'état complet et l'offset correspondant.
+     */
+    Snapshot snapshot() {
+        synchronized (lock) {
+            return new Snapshot(lastOffset, latest.entrySet().stream().map(user -> Map.entry(user.getKey(), user.getValue())).toList());
+        }
+    }
+
+    /**
+     * Renvoie les modifications à partir d'un offset, en attendant qu'il y en ait si nécessaire.
+     * @param from Le numéro de la première modification voulue
+     * @param max Le nombre maximal de modifications renvoyées
+     * @param timeoutMs La durée maximale d'attente (0 pour ne pas attendre)
+     * @return Les modifications (liste vide si aucune n'est arrivée pendant l'attente), ou <code>null</code> si la première
+     *         n'est plus conservée : la réplique doit alors repartir d'un snapshot
+     * @throws InterruptedException Si l'attente est interrompue
+     */
+    List<Change> await(long from, int max, long timeoutMs) throws InterruptedException {
+        synchronized (lock) {
+            if (from <= lastOffset - history.length || from > lastOffset + 1) {
+                return null;
+            }
+            if (from > lastOffset && timeoutMs > 0) {
+                lock.wait(timeoutMs);
+                if (from <= lastOffset - history.length) {
+                    return null;
+                }
+            }
+            List<Change> entries = new ArrayList<>((int) Math.min(max, Math.max(0, lastOffset - from + 1)));
+            for (long offset = from; offset <= lastOffset && entries.size() < max; offset++) {
+                entries.add(history[(int) (offset % history.length)]);
+            }
+            return entries;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.replication.offset", this, ReplicationLog::getLastOffset)
+                .description("Numéro de la dernière modification enregistrée par le leader")
+                .register(registry);
+    }
+}
@@ -0,0 +1,180 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serveur de réplication du leader : envoie le journal de réplication (voir <code>ReplicationLog</code>) aux répliques
+ * connectées (voir <code>ReplicationFollower</code>), chacune sur une connexion TCP persistante.<br>
+ * Protocole : la réplique envoie son époque et l'offset de la prochaine modification qu'elle attend. Si le journal est
+ * le même et contient encore cette modification, le leader reprend à cet offset ; sinon il envoie d'abord un snapshot.
+ * Il envoie ensuite les modifications au fil de l'eau, chaque lot étant suivi d'un battement qui indique le dernier offset
+ * du leader (envoyé aussi périodiquement en l'absence de modification) : la réplique en déduit son retard.<br>
+ * Le serveur écoute par défaut sur l'interface locale : le flux contient les données des utilisateurs.
+ */
+@Component
+@ConditionalOnProperty(name = "users.replication.role", havingValue = "leader")
+public class ReplicationServer implements MeterBinder {
+    // "USRP"
+    static final int MAGIC = 0x55535250;
+    static final byte SNAPSHOT = 'S';
+    static final byte RECORD = 'R';
+    static final byte HEARTBEAT = 'H';
+
+    private final ReplicationLog log;
+    private final String host;
+    private final int port;
+    private final long heartbeatMs;
+    private final int batchSize;
+    private final Set<Socket> followers = ConcurrentHashMap.newKeySet();
+    private ServerSocket server;
+
+    /**
+     * Crée le serveur.
+     * @param log Le journal de réplication
+     * @param host L'interface d'écoute
+     * @param port Le port d'écoute (0 pour un port libre)
+     * @param heartbeatMs L'intervalle des battements en l'absence de modification
+     * @param batchSize Le nombre maximal de modifications envoyées avant un battement
+     */
+    public ReplicationServer(ReplicationLog log,
+                             @Value("${users.replication.host:127.0.0.1}") String host,
+                             @Value("${users.replication.port:7400}") int port,
+                             @Value("${users.replication.heartbeatMs:1000}") long heartbeatMs,
+                             @Value("${users.replication.batchSize:500}") int batchSize) {
+        this.log = log;
+        this.host = host;
+        this.port = port;
+        this.heartbeatMs = heartbeatMs;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Ouvre le port d'écoute et accepte les répliques.
+     * @throws IOException Si le port ne peut pas être ouvert
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(host, port));
+        Thread.ofPlatform().daemon().name("replication-server").start(this::accept);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        server.close();
+        for (Socket follower : followers) {
+            follower.close();
+        }
+    }
+
+    /**
+     * Renvoie le port d'écoute effectif.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getFollowerCount() {
+        return followers.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.replication.followers", this, ReplicationServer::getFollowerCount)
+                .description("Nombre de répliques connectées au leader")
+                .register(registry);
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket follower = server.accept();
+                followers.add(follower);
+                Thread.ofVirtual().name("replication-" + follower.getRemoteSocketAddress()).start(() -> serve(follower));
+            } catch (IOException e) {
+                // Serveur fermé
+            }
+        }
+    }
+
+    /**
+     * Alimente une réplique jusqu'à sa déconnexion.
+     */
+    private void serve(Socket follower) {
+        try (follower) {
+            follower.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(follower.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(follower.getOutputStream(), 1 << 16));
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            long epoch = in.readLong();
+            long next = in.readLong();
+            List<ReplicationLog.Change> entries = epoch == log.getEpoch() ? log.await(next, batchSize, 0) : null;
+            while (true) {
+                if (entries == null) {
+                    next = sendSnapshot(out) + 1;
+                } else {
+                    for (ReplicationLog.Change entry : entries) {
+                        out.writeByte(RECORD);
+                        out.writeLong(entry.offset());
+                        writeRecord(out, UserStore.encode(entry.login(), entry.state()));
+                        next = entry.offset() + 1;
+                    }
+                }
+                out.writeByte(HEARTBEAT);
+                out.writeLong(log.getLastOffset());
+                out.flush();
+                entries = log.await(next, batchSize, heartbeatMs);
+            }
+        } catch (IOException e) {
+            // Réplique déconnectée (ou serveur arrêté)
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followers.remove(follower);
+        }
+    }
+
+    /**
+     * Envoie l'état complet du leader.
+     * @return L'offset de la dernière modification contenue dans le snapshot
+     */
+    private long sendSnapshot(DataOutputStream out) throws IOException {
+        ReplicationLog.Snapshot snapshot = log.snapshot();
+        out.writeByte(SNAPSHOT);
+        out.writeLong(log.getEpoch());
+        out.writeLong(snapshot.offset());
+        out.writeInt(snapshot.users().size());
+        for (Map.Entry<String, Versioned<User>> user : snapshot.users()) {
+            writeRecord(out, UserStore.encode(user.getKey(), user.getValue()));
+        }
+        return snapshot.offset();
+    }
+
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        out.writeInt(record.length);
+        out.write(record);
+    }
+}
@@ -0,0 +1,186 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Version d'un élément dans un <code>AbstractMapDao</code> : l'état publié par une écriture, la date (logique) à laquelle
+ * l'écriture a été validée, et la version précédente. La Map associe à chaque clé la dernière version publiée ;
+ * les versions précédentes ne sont conservées que tant qu'un parcours en cours peut encore en avoir besoin.<br>
+ * Une version est publiée dans la Map avant de recevoir sa date : toute version datée est donc déjà visible dans la Map.
+ * Une version sans date est datée par le premier thread qui la rencontre (l'écrivain, ou un lecteur qui l'aide) ;
+ * les versions d'une chaîne sont toujours datées de la plus ancienne à la plus récente.<br>
+ * Une version peut être déchargée sur disque (voir <code>AbstractMapDao.spill</code>) : elle ne contient alors plus l'état,
+ * seulement la référence (<code>handle</code>) qui permet de le relire. Seule la dernière version d'un élément, sans versions
+ * précédentes, peut être déchargée ; une version déchargée n'est pas une suppression.<br>
+ * Une suppression conserve la dernière version de l'élément supprimé : un élément recréé reprend la numérotation après elle.
+ * @param <T> Le type d'élément
+ */
+final class Revision<T> {
+    private static final long PENDING = Long.MAX_VALUE;
+    private static final long RESIDENT = 0;
+    private static final VarHandle TIMESTAMP;
+
+    static {
+        try {
+            TIMESTAMP = MethodHandles.lookup().findVarHandle(Revision.class, "timestamp", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Versioned<T> value;
+    private final long handle;
+    // Dernière version de l'élément supprimé (suppression uniquement)
+    private final long deletedVersion;
+    private volatile long timestamp = PENDING;
+    private volatile Revision<T> previous;
+
+    /**
+     * Crée une version, pas encore datée.
+     * @param value L'état publié, ou <code>null</code> si l'élément est supprimé
+     * @param previous La version remplacée, ou <code>null</code>
+     */
+    Revision(Versioned<T> value, Revision<T> previous) {
+        this(value, previous, RESIDENT, 0);
+    }
+
+    private Revision(Versioned<T> value, Revision<T> previous, long handle, long deletedVersion) {
+        this.value = value;
+        this.previous = previous;
+        this.handle = handle;
+        this.deletedVersion = deletedVersion;
+    }
+
+    /**
+     * Crée la suppression d'un élément, pas encore datée.
+     * @param current La version supprimée (résidente, avec un état)
+     */
+    static <T> Revision<T> deletion(Revision<T> current) {
+        return new Revision<>(null, current, RESIDENT, current.value.version());
+    }
+
+    /**
+     * Crée une version visible par tous les parcours (chargement initial du DAO).
+     */
+    static <T> Revision<T> initial(Versioned<T> value) {
+        Revision<T> revision = new Revision<>(value, null);
+        revision.timestamp = 0;
+        return revision;
+    }
+
+    /**
+     * Crée la version déchargée d'une version datée, sans versions précédentes : même date, état remplacé par sa référence.
+     * @param resident La version dont l'état vient d'être écrit sur disque
+     * @param handle La référence de l'état sur disque (non nulle)
+     */
+    static <T> Revision<T> spilled(Revision<T> resident, long handle) {
+        Revision<T> revision = new Revision<>(null, null, handle, 0);
+        revision.timestamp = resident.timestamp;
+        return revision;
+    }
+
+    /**
+     * Crée la version rechargée en mémoire d'une version déchargée, avec la même date.
+     * @param spilled La version déchargée
+     * @param value L'état relu sur disque
+     */
+    static <T> Revision<T> reloaded(Revision<T> spilled, Versioned<T> value) {
+        Revision<T> revision = new Revision<>(value, null);
+        revision.timestamp = spilled.timestamp;
+        return revision;
+    }
+
+    boolean isSpilled() {
+        return handle != RESIDENT;
+    }
+
+    /**
+     * Renvoie la référence de l'état d'une version déchargée.
+     */
+    long handle() {
+        return handle;
+    }
+
+    /**
+     * Renvoie la dernière version de l'élément supprimé par cette version.
+     * @return La version, ou 0 si ce n'est pas une suppression
+     */
+    long deletedVersion() {
+        return deletedVersion;
+    }
+
+    /**
+     * Renvoie l'état courant : celui de la dernière écriture publiée, datée ou non.
+     * @return L'état, ou <code>null</code> si l'élément a été supprimé ou si la version est déchargée
+     */
+    Versioned<T> value() {
+        return value;
+    }
+
+    /**
+     * Date cette version si ce n'est pas déjà fait, après avoir daté les versions précédentes.
+     * @param clock L'horloge du DAO
+     * @return La date de la version
+     */
+    long commit(Snapshots clock) {
+        if (timestamp == PENDING) {
+            Revision<T> before = previous;
+            if (before != null) {
+                before.commit(clock);
+            }
+            // En cas d'échec, un autre thread a daté la version : sa date est aussi postérieure à celles des versions précédentes
+            TIMESTAMP.compareAndSet(this, PENDING, clock.tick());
+        }
+        return timestamp;
+    }
+
+    /**
+     * Renvoie la version vue par un parcours : la dernière version validée au plus tard à la date du parcours.
+     * @param snapshot La date du parcours
+     * @param clock L'horloge du DAO (pour dater les versions en attente)
+     * @return La version (dont l'état peut être une suppression, ou être déchargé), ou <code>null</code> si l'élément
+     * n'existait pas à cette date
+     */
+    Revision<T> visibleAt(long snapshot, Snapshots clock) {
+        for (Revision<T> revision = this; revision != null; revision = revision.previous) {
+            // Une version datée maintenant l'est après le début du parcours : elle lui est invisible
+            if (revision.commit(clock) <= snapshot) {
+                return revision;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Oublie les versions dont aucun parcours n'a plus besoin : celles qui précèdent la dernière version validée
+     * au plus tard à l'horizon.
+     * @param horizon La date du plus ancien parcours en cours (ou à venir)
+     * @return Le nombre de versions conservées
+     */
+    int prune(long horizon) {
+        int kept = 0;
+        for (Revision<T> revision = this; revision != null; revision = revision.previous) {
+            kept++;
+            if (revision.timestamp <= horizon) {
+                revision.previous = null;
+                break;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Indique si la version est datée au plus tard à l'horizon, donc visible par tous les parcours en cours ou à venir.
+     */
+    boolean isSettled(long horizon) {
+        return timestamp <= horizon;
+    }
+
+    /**
+     * Indique si la version est une suppression que tous les parcours, en cours ou à venir, voient déjà.
+     */
+    boolean isObsoleteTombstone(long horizon) {
+        return value == null && handle == RESIDENT && timestamp <= horizon;
+    }
+}
@@ -0,0 +1,91 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Horloge logique et registre des parcours d'un <code>AbstractMapDao</code> multi-versions (voir <code>Revision</code>).<br>
+ * Chaque écriture validée reçoit une date de l'horloge ; un parcours lit, pour chaque élément, la dernière version validée
+ * au plus tard à sa date. Les parcours en cours sont enregistrés (sans verrou) pour que les versions dont ils ont encore
+ * besoin ne soient pas oubliées.<br>
+ * L'horizon (date avant laquelle les versions peuvent être oubliées) est calculé avec un tour de retard sur l'horloge :
+ * un parcours qui commence a toujours une date postérieure à la barrière, et n'a donc jamais à recommencer son inscription,
+ * sauf s'il a lu l'horloge avant le tour précédent.
+ */
+final class Snapshots {
+    /**
+     * Parcours en cours.
+     * @param snapshot La date du parcours
+     * @param id Un identifiant unique (deux parcours peuvent avoir la même date)
+     */
+    record Reader(long snapshot, long id) implements Comparable<Reader> {
+        @Override
+        public int compareTo(Reader other) {
+            int bySnapshot = Long.compare(snapshot, other.snapshot);
+            return bySnapshot != 0 ? bySnapshot : Long.compare(id, other.id);
+        }
+    }
+
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong ids = new AtomicLong();
+    private final ConcurrentSkipListSet<Reader> readers = new ConcurrentSkipListSet<>();
+    // Les parcours dont la date est antérieure à la barrière doivent se réinscrire
+    private final AtomicLong barrier = new AtomicLong();
+    // Date de l'horloge lors du calcul précédent de l'horizon
+    private final AtomicLong lastClock = new AtomicLong();
+    private final AtomicLong horizon = new AtomicLong();
+
+    /**
+     * Attribue une date à une écriture.
+     * @return Une date postérieure à toutes celles déjà attribuées
+     */
+    long tick() {
+        return clock.incrementAndGet();
+    }
+
+    /**
+     * Inscrit un parcours, à la date courante.
+     * @return Le parcours, à passer à <code>close</code> à la fin de la lecture
+     */
+    Reader open() {
+        long id = ids.incrementAndGet();
+        while (true) {
+            Reader reader = new Reader(clock.get(), id);
+            readers.add(reader);
+            // Inscription puis lecture de la barrière ; publication de la barrière puis lecture des inscriptions
+            // dans advance : l'un des deux voit forcément l'autre
+            if (barrier.get() <= reader.snapshot()) {
+                return reader;
+            }
+            readers.remove(reader);
+        }
+    }
+
+    void close(Reader reader) {
+        readers.remove(reader);
+    }
+
+    /**
+     * Renvoie l'horizon : aucun parcours, en cours ou à venir, n'a une date antérieure.
+     */
+    long horizon() {
+        return horizon.get();
+    }
+
+    /**
+     * Fait avancer l'horizon jusqu'au plus ancien parcours en cours, sans dépasser la date de l'horloge lors de l'appel précédent.
+     * @return Le nouvel horizon
+     */
+    long advance() {
+        long candidate = lastClock.getAndSet(clock.get());
+        barrier.accumulateAndGet(candidate, Math::max);
+        Iterator<Reader> oldest = readers.iterator();
+        long bound = oldest.hasNext() ? Math.min(candidate, oldest.next().snapshot()) : candidate;
+        return horizon.accumulateAndGet(bound, Math::max);
+    }
+
+    int activeReaders() {
+        return readers.size();
+    }
+}
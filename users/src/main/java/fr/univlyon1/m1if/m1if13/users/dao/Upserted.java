@@ -0,0 +1,10 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+/**
+ * Résultat d'une création ou mise à jour (voir <code>Dao.upsert</code>).
+ * @param value Le nouvel état de l'élément, avec sa version
+ * @param created true si l'élément n'existait pas et a été créé, false s'il a été mis à jour
+ * @param <T> Le type de l'élément
+ */
+public record Upserted<T>(Versioned<T> value, boolean created) {
+}
@@ -2,31 +2,418 @@ package fr.univlyon1.m1if.m1if13.users.dao;
 
 import fr.univlyon1.m1if.m1if13.users.model.Species;
 import fr.univlyon1.m1if.m1if13.users.model.User;
-import org.springframework.boot.CommandLineRunner;
-import org.springframework.context.annotation.Bean;
+import fr.univlyon1.m1if.m1if13.users.util.RevocationBus;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
+import fr.univlyon1.m1if.m1if13.users.util.UserEventLog;
+import fr.univlyon1.m1if.m1if13.users.util.VerifiedTokenCache;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import javax.naming.NameNotFoundException;
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
- * Implémentation (basique) de l'interface DAO pour la classe <code>User</code>.
+ * Implémentation (basique) de l'interface DAO pour la classe <code>User</code>.<br>
+ * Si <code>users.store.path</code> est renseigné, les utilisateurs sont persistés dans ce répertoire (voir <code>UserStore</code>) :
+ * chaque modification est écrite dans le journal avant que l'appel au DAO ne se termine, et l'état est rechargé au démarrage.
+ * Sinon, ils ne sont conservés qu'en mémoire. Le journal n'enregistre pas la version des utilisateurs supprimés : la numérotation
+ * d'un utilisateur recréé ne reprend après celle de l'utilisateur supprimé que si la suppression a eu lieu depuis le démarrage.<br>
+ * Utilisée par défaut ; remplacée par <code>JdbcUserDao</code> si <code>users.store.type=jdbc</code>.<br>
+ * Index secondaires : ensemble des logins par espèce, ensemble des logins connectés et logins triés (pour la pagination),
+ * mis à jour lors de chaque modification. L'état de connexion n'est conservé que dans l'index : les utilisateurs stockés sont immuables.<br>
+ * Chaque modification est publiée dans le journal des événements (<code>UserEventLog</code>) pendant l'opération atomique
+ * sur l'utilisateur.<br>
+ * Si <code>users.tiering.path</code> est renseigné, les utilisateurs qui ne se sont pas authentifiés depuis
+ * <code>users.tiering.idleMs</code> sont déchargés dans un fichier (voir <code>UserSpillFile</code>) : seul leur login reste
+ * en mémoire, dans la Map et les index. Au-delà de <code>users.tiering.maxResident</code> utilisateurs en mémoire, les moins
+ * récemment authentifiés sont aussi déchargés. Un utilisateur déchargé est rechargé à sa prochaine lecture par login
+ * (connexion, <code>GET /users/{userId}</code>) ou modification ; les recherches et les parcours le lisent sur disque.
  *
  * @author Lionel Médini
  */
 @Component
-public class UserDao extends AbstractMapDao<User> {
+@ConditionalOnProperty(name = "users.store.type", havingValue = "memory", matchIfMissing = true)
+public class UserDao extends AbstractMapDao<User> implements UserQueryDao, MeterBinder {
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
+    @Autowired
+    private SessionRegistry sessionRegistry;
+    @Autowired(required = false)
+    private UserEventLog userEvents;
+    @Autowired(required = false)
+    private ReplicationLog replicationLog;
+    @Autowired(required = false)
+    private RevocationBus revocationBus;
+    @Value("${users.store.path:}")
+    private String storePath;
+    @Value("${users.store.compactionThresholdBytes:16777216}")
+    private long compactionThresholdBytes;
+    @Value("${users.tiering.path:}")
+    private String tieringPath;
+    @Value("${users.tiering.idleMs:3600000}")
+    private long tieringIdleMs;
+    @Value("${users.tiering.maxResident:0}")
+    private int tieringMaxResident;
+
+    private UserStore store;
+    private UserSpillFile spillFile;
+    // Date de la dernière authentification (ou du chargement) de chaque utilisateur en mémoire, si le déchargement est activé
+    private final Map<Serializable, Long> lastActive = new ConcurrentHashMap<>();
+
+    // Index secondaires (la structure de la Map est fixée à la construction, seuls les ensembles sont modifiés)
+    private final Map<Species, Set<Serializable>> bySpecies = new EnumMap<>(Species.class);
+    private final Set<Serializable> connected = ConcurrentHashMap.newKeySet();
+    private final NavigableSet<String> logins = new ConcurrentSkipListSet<>();
+
+    public UserDao() {
+        for (Species species : Species.values()) {
+            bySpecies.put(species, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Recharge les utilisateurs persistés, si la persistance est activée.
+     * @throws IOException Si le répertoire de stockage ne peut pas être lu
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        if (tieringPath != null && !tieringPath.isEmpty()) {
+            spillFile = new UserSpillFile(Path.of(tieringPath, "users.cold"));
+        }
+        if (storePath == null || storePath.isEmpty()) {
+            return;
+        }
+        store = new UserStore(Path.of(storePath));
+        store.recover().forEach((login, value) -> {
+            restore(login, value);
+            if (replicationLog != null) {
+                replicationLog.restored(login, value);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        if (spillFile != null) {
+            spillFile.close();
+        }
+    }
+
+    /**
+     * Décharge les utilisateurs inactifs (et les moins récemment actifs au-delà du nombre maximal d'utilisateurs en mémoire),
+     * puis libère dans le fichier les utilisateurs rechargés, modifiés ou supprimés depuis leur déchargement.
+     * Les utilisateurs connectés ne sont pas déchargés.
+     * @return Le nombre d'utilisateurs déchargés
+     * @throws IOException Si la compaction du fichier échoue
+     */
+    @Scheduled(fixedDelayString = "${users.tiering.intervalMs:60000}")
+    public int tier() throws IOException {
+        if (spillFile == null) {
+            return 0;
+        }
+        // Seules les versions visibles par tous les parcours peuvent être déchargées : l'horizon est avancé d'abord
+        // (les écritures postérieures au passage précédent de vacuum restent en mémoire)
+        vacuum();
+        long idleSince = System.currentTimeMillis() - tieringIdleMs;
+        List<Map.Entry<Serializable, Long>> candidates = new ArrayList<>();
+        for (Map.Entry<Serializable, Long> entry : lastActive.entrySet()) {
+            if (!connected.contains(entry.getKey())) {
+                candidates.add(Map.entry(entry.getKey(), entry.getValue()));
+            }
+        }
+        candidates.sort(Map.Entry.comparingByValue(Comparator.naturalOrder()));
+        int overBudget = tieringMaxResident > 0 ? lastActive.size() - tieringMaxResident : 0;
+        int spilled = 0;
+        for (Map.Entry<Serializable, Long> candidate : candidates) {
+            if (candidate.getValue() > idleSince && spilled >= overBudget) {
+                break;
+            }
+            Serializable id = candidate.getKey();
+            // Retiré avant le déchargement : un rechargement concurrent enregistre une nouvelle date
+            Long seen = lastActive.remove(id);
+            if (spill(id, value -> spillFile.write(id.toString(), value))) {
+                spilled++;
+            } else if (seen != null && !isSpilled(id) && latest(id) != null) {
+                lastActive.putIfAbsent(id, seen);
+            }
+        }
+        spillFile.sweep(this::holds);
+        return spilled;
+    }
+
+    /**
+     * Renvoie le nombre d'utilisateurs dont l'état est en mémoire.
+     */
+    public int getResidentCount() {
+        return spillFile == null ? logins.size() : lastActive.size();
+    }
+
+    /**
+     * Renvoie le nombre d'utilisateurs déchargés sur disque.
+     */
+    public int getSpilledCount() {
+        return spillFile == null ? 0 : Math.max(0, logins.size() - lastActive.size());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.tiering.resident", this, UserDao::getResidentCount)
+                .description("Nombre d'utilisateurs en mémoire")
+                .register(registry);
+        Gauge.builder("users.tiering.spilled", this, UserDao::getSpilledCount)
+                .description("Nombre d'utilisateurs déchargés sur disque")
+                .register(registry);
+        Gauge.builder("users.tiering.fileBytes", this, dao -> dao.spillFile == null ? 0 : dao.spillFile.getFileBytes())
+                .description("Taille du fichier des utilisateurs déchargés")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /**
+     * Oublie les versions des utilisateurs dont plus aucun parcours n'a besoin.
+     */
+    @Scheduled(fixedDelayString = "${users.store.vacuumIntervalMs:1000}")
+    @Override
+    public int vacuum() {
+        return super.vacuum();
+    }
+
+    /**
+     * Compacte le journal dans un snapshot lorsqu'il dépasse <code>users.store.compactionThresholdBytes</code>.
+     * @throws IOException Si la compaction échoue (le journal et le snapshot précédent restent alors utilisables)
+     */
+    @Scheduled(fixedDelayString = "${users.store.compactionIntervalMs:60000}")
+    public void compact() throws IOException {
+        if (store != null && store.getLogSize() >= compactionThresholdBytes) {
+            store.compact();
+        }
+    }
+
+    /**
+     * Recherche les utilisateurs correspondant à des critères, à partir du plus petit des index applicables.
+     * Sans espèce, la recherche des utilisateurs non connectés parcourt tous les utilisateurs (il n'y a pas d'index des
+     * utilisateurs non connectés).
+     */
+    @Override
+    public List<User> findBy(Species species, Boolean isConnected) {
+        Collection<Serializable> candidates = keys();
+        if (species != null) {
+            candidates = bySpecies.get(species);
+        }
+        if (Boolean.TRUE.equals(isConnected) && connected.size() < candidates.size()) {
+            candidates = connected;
+        }
+        // Les index peuvent précéder la Map de quelques instants : chaque candidat est vérifié
+        return candidates.stream()
+                .map(this::latest)
+                .filter(Objects::nonNull)
+                .map(Versioned::element)
+                .filter(user -> species == null || user.getSpecies() == species)
+                .filter(user -> isConnected == null || connected.contains(user.getLogin()) == isConnected)
+                .toList();
+    }
+
+    @Override
+    public List<User> findPage(String after, int limit) {
+        List<User> page = new ArrayList<>(Math.min(limit, logins.size()));
+        for (String login : after == null ? logins : logins.tailSet(after, false)) {
+            if (page.size() >= limit) {
+                break;
+            }
+            // Un login encore présent dans l'index peut appartenir à un utilisateur qui vient d'être supprimé
+            Versioned<User> user = latest(login);
+            if (user != null) {
+                page.add(user.element());
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Met à jour l'index des utilisateurs connectés, seul à conserver l'état de connexion : aucune nouvelle version
+     * de l'utilisateur n'est publiée, les connexions et déconnexions n'interfèrent donc pas avec les parcours.
+     * La mise à jour est ordonnée par rapport aux écritures de l'utilisateur (une suppression concurrente le retire de l'index).
+     */
+    @Override
+    public void setConnected(Serializable id, boolean isConnected) throws NameNotFoundException {
+        boolean found = atomically(id, user -> {
+            if (isConnected) {
+                connected.add(id);
+                if (spillFile != null) {
+                    lastActive.put(id, System.currentTimeMillis());
+                }
+            } else {
+                connected.remove(id);
+            }
+            if (userEvents != null) {
+                userEvents.connectionChanged(id.toString(), isConnected);
+            }
+        });
+        if (!found) {
+            throw new NameNotFoundException(id.toString());
+        }
+    }
+
+    @Override
+    public boolean isConnected(Serializable id) {
+        return connected.contains(id);
+    }
+
+    /**
+     * Renvoie l'index d'une espèce (pour les tests).
+     */
+    Set<Serializable> speciesIndex(Species species) {
+        return bySpecies.get(species);
+    }
+
+    @Override
+    protected void index(Serializable id, User previous, User value) {
+        Species before = previous == null ? null : previous.getSpecies();
+        Species after = value == null ? null : value.getSpecies();
+        if (before != after) {
+            if (before != null) {
+                bySpecies.get(before).remove(id);
+            }
+            if (after != null) {
+                bySpecies.get(after).add(id);
+            }
+        }
+        if (previous == null && value != null) {
+            logins.add(id.toString());
+            if (spillFile != null) {
+                lastActive.put(id, System.currentTimeMillis());
+            }
+        }
+        if (value == null) {
+            connected.remove(id);
+            logins.remove(id.toString());
+            lastActive.remove(id);
+        }
+    }
+
+    @Override
+    protected Versioned<User> readSpilled(Serializable id, long handle) {
+        return spillFile == null ? super.readSpilled(id, handle) : spillFile.read(id.toString(), handle);
+    }
+
+    @Override
+    protected void reloaded(Serializable id) {
+        lastActive.put(id, System.currentTimeMillis());
+    }
+
+    @Override
+    protected long journal(Serializable id, Versioned<User> value, boolean created) {
+        if (userEvents != null) {
+            if (created) {
+                userEvents.userCreated(id.toString(), value);
+            } else {
+                userEvents.userChanged(id.toString(), value);
+            }
+        }
+        if (replicationLog != null) {
+            replicationLog.append(id.toString(), value);
+        }
+        return store == null ? super.journal(id, value, created) : store.append(id.toString(), value);
+    }
+
+    @Override
+    protected void commit(long ticket) {
+        if (store == null) {
+            return;
+        }
+        try {
+            store.sync(ticket);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'écrire dans le journal des utilisateurs", e);
+        }
+    }
+
+    /**
+     * Les écritures attendent l'écriture du journal si la persistance est activée.
+     */
+    @Override
+    public boolean isNonBlocking() {
+        return store == null;
+    }
+
     @Override
     protected Serializable getKeyForElement(User element) {
         return element.getLogin();
     }
 
-    @Bean
-    public CommandLineRunner initAdminUser(UserDao userDao) {
-        return args -> {
-                User adminUser = new User("admin", "admin", Species.ADMIN, "12.png");
-                userDao.add(adminUser);
-                System.out.println("✅ Utilisateur ADMIN ajouté avec succès !");
-        };
+    /**
+     * Applique une modification reçue du leader (voir <code>ReplicationFollower</code>), avec la version décidée par le leader.
+     * Une modification déjà appliquée (même version, même état) est ignorée.
+     * @param login Le login de l'utilisateur
+     * @param value Son nouvel état, ou <code>null</code> s'il a été supprimé (ses sessions sur la réplique sont alors révoquées)
+     */
+    public void applyReplicated(String login, Versioned<User> value) {
+        Versioned<User> current = latest(login);
+        if (current == null ? value == null : value != null && current.version() == value.version() &&
+                Objects.equals(current.element().getPassword(), value.element().getPassword()) &&
+                current.element().getSpecies() == value.element().getSpecies() &&
+                Objects.equals(current.element().getImage(), value.element().getImage())) {
+            return;
+        }
+        install(login, value);
+        if (value == null) {
+            sessionRegistry.revokeAll(login);
+            verifiedTokenCache.evictSubject(login);
+        }
+    }
+
+    @Override
+    public void evict(Serializable id) throws NameNotFoundException {
+        super.evict(id);
+    }
+
+    /**
+     * Le retrait d'un utilisateur déplacé n'est écrit que dans le journal local (il ne doit pas être rechargé au démarrage) :
+     * ni le journal des événements ni les répliques ne le voient comme une suppression.
+     */
+    @Override
+    protected long forget(Serializable id) {
+        return store == null ? super.journal(id, null, false) : store.append(id.toString(), null);
+    }
+
+    /**
+     * Supprime un utilisateur, révoque ses sessions et évince du cache les tokens qui lui ont été délivrés.
+     * @param id Le login de l'utilisateur à supprimer
+     * @throws NameNotFoundException Si l'utilisateur n'existe pas
+     */
+    @Override
+    public void deleteById(Serializable id) throws NameNotFoundException {
+        super.deleteById(id);
+        sessionRegistry.revokeAll(id.toString());
+        verifiedTokenCache.evictSubject(id.toString());
+        if (revocationBus != null) {
+            revocationBus.revokeSubject(id.toString());
+        }
     }
 
 }
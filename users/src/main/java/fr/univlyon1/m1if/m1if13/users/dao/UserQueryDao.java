@@ -0,0 +1,56 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+
+import javax.naming.NameNotFoundException;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Méthodes métier des DAOs d'utilisateurs : recherche par espèce et par état de connexion, pagination.<br>
+ * Les implémentations maintiennent des index sur ces deux critères, pour que le coût d'une recherche dépende du nombre
+ * d'utilisateurs trouvés et non du nombre total d'utilisateurs.
+ */
+public interface UserQueryDao extends Dao<User> {
+    /**
+     * Recherche les utilisateurs correspondant à des critères.
+     * @param species L'espèce recherchée, ou <code>null</code> pour toutes les espèces
+     * @param connected L'état de connexion recherché, ou <code>null</code> pour les utilisateurs connectés ou non
+     * @return Les utilisateurs correspondant à tous les critères
+     */
+    List<User> findBy(Species species, Boolean connected);
+
+    /**
+     * Renvoie une page d'utilisateurs, dans l'ordre des logins (pagination par curseur : le coût d'une page ne dépend pas
+     * de sa position, et un utilisateur ajouté ou supprimé entre deux pages ne décale pas les suivantes).
+     * @param after Le login du dernier utilisateur de la page précédente, ou <code>null</code> pour la première page
+     * @param limit Le nombre maximal d'utilisateurs de la page
+     * @return Les utilisateurs dont le login suit <code>after</code>, au plus <code>limit</code>
+     */
+    List<User> findPage(String after, int limit);
+
+    /**
+     * Met à jour l'état de connexion d'un utilisateur. Ne modifie pas sa version : l'état de connexion ne fait pas partie
+     * de sa représentation.
+     * @param id Le login de l'utilisateur
+     * @param connected <code>true</code> à la connexion, <code>false</code> à la déconnexion de sa dernière session
+     * @throws NameNotFoundException Si l'utilisateur n'existe pas
+     */
+    void setConnected(Serializable id, boolean connected) throws NameNotFoundException;
+
+    /**
+     * Indique si un utilisateur est connecté.
+     * @param id Le login de l'utilisateur
+     * @return <code>true</code> si au moins une de ses sessions est ouverte, <code>false</code> sinon (ou s'il n'existe pas)
+     */
+    boolean isConnected(Serializable id);
+
+    /**
+     * Retire un utilisateur déplacé vers une autre instance : il disparaît de ce DAO et de ses index, mais ses sessions
+     * ne sont pas révoquées et aucune suppression n'est publiée (il existe toujours, sur l'instance qui l'a reçu).
+     * @param id Le login de l'utilisateur
+     * @throws NameNotFoundException Si l'utilisateur n'existe pas
+     */
+    void evict(Serializable id) throws NameNotFoundException;
+}
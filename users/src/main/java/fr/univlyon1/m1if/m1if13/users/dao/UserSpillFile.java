@@ -0,0 +1,328 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiPredicate;
+
+/**
+ * Fichier des utilisateurs déchargés par <code>UserDao</code> : les enregistrements sont ajoutés à la fin du fichier,
+ * et retrouvés grâce à une table d'emplacements en mémoire (position et longueur de chaque enregistrement).<br>
+ * Une référence (<code>handle</code>) est composée du numéro d'emplacement et de sa génération, incrémentée à chaque
+ * libération : une référence libérée n'est jamais confondue avec l'enregistrement qui réutilise son emplacement.<br>
+ * Les emplacements ne sont libérés que par <code>sweep</code> ; la place perdue dans le fichier est récupérée
+ * par compaction (réécriture des enregistrements utilisés) lorsqu'elle dépasse celle des enregistrements utilisés.<br>
+ * Le fichier n'est pas une sauvegarde : il est vidé à l'ouverture (les utilisateurs sont rechargés depuis <code>UserStore</code>).
+ */
+final class UserSpillFile implements Closeable {
+    private static final int INITIAL_SLOTS = 1024;
+    private static final long MIN_COMPACTION_BYTES = 1 << 20;
+
+    private final Path path;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private long end;
+
+    private long[] offsets = new long[INITIAL_SLOTS];
+    private int[] lengths = new int[INITIAL_SLOTS];
+    private int[] generations = new int[INITIAL_SLOTS];
+    private String[] logins = new String[INITIAL_SLOTS];
+    private int slotLimit;
+    private int[] freeSlots = new int[INITIAL_SLOTS];
+    private int freeCount;
+    private int live;
+    private long liveBytes;
+
+    /**
+     * Ouvre le fichier, vidé s'il existait.
+     * @param path Le chemin du fichier
+     * @throws IOException Si le fichier ne peut pas être créé
+     */
+    UserSpillFile(Path path) throws IOException {
+        this.path = path;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Écrit un utilisateur à la fin du fichier.
+     * @param login Le login de l'utilisateur
+     * @param value L'utilisateur et sa version
+     * @return La référence de l'enregistrement (jamais 0)
+     */
+    long write(String login, Versioned<User> value) {
+        byte[] record = encode(value);
+        lock.writeLock().lock();
+        try {
+            int slot = allocate();
+            writeFully(ByteBuffer.wrap(record), end);
+            offsets[slot] = end;
+            lengths[slot] = record.length;
+            logins[slot] = login;
+            end += record.length;
+            live++;
+            liveBytes += record.length;
+            return handle(slot);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'écrire dans " + path, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Relit un utilisateur.
+     * @param login Le login de l'utilisateur
+     * @param handle La référence renvoyée par <code>write</code>
+     * @return L'utilisateur et sa version, ou <code>null</code> si la référence a été libérée
+     */
+    Versioned<User> read(String login, long handle) {
+        int slot = (int) handle;
+        lock.readLock().lock();
+        try {
+            if (slot >= slotLimit || handle(slot) != handle || !login.equals(logins[slot])) {
+                return null;
+            }
+            ByteBuffer record = ByteBuffer.allocate(lengths[slot]);
+            long position = offsets[slot];
+            while (record.hasRemaining()) {
+                if (channel.read(record, position + record.position()) < 0) {
+                    throw new IOException("Fin de fichier inattendue dans " + path);
+                }
+            }
+            return decode(login, record.flip());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lire dans " + path, e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Libère les enregistrements qui ne sont plus utilisés, puis compacte le fichier si la place perdue le justifie.
+     * Le test n'est pas appelé sous le verrou du fichier : il peut donc utiliser des verrous qui sont pris avant
+     * celui du fichier lors d'une écriture.
+     * @param used Indique si la référence d'un enregistrement (login, référence) est toujours utilisée ; une référence qui
+     *             n'est plus utilisée ne doit plus jamais l'être
+     * @return Le nombre d'enregistrements libérés
+     * @throws IOException Si la compaction échoue (le fichier reste utilisable)
+     */
+    int sweep(BiPredicate<String, Long> used) throws IOException {
+        List<long[]> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slotLimit; slot++) {
+                if (logins[slot] != null) {
+                    candidates.add(new long[] {slot, handle(slot)});
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        int freed = 0;
+        for (long[] candidate : candidates) {
+            int slot = (int) candidate[0];
+            String login;
+            lock.readLock().lock();
+            try {
+                login = handle(slot) == candidate[1] ? logins[slot] : null;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (login == null || used.test(login, candidate[1])) {
+                continue;
+            }
+            lock.writeLock().lock();
+            try {
+                if (handle(slot) == candidate[1]) {
+                    free(slot);
+                    freed++;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        long garbage = getFileBytes() - getLiveBytes();
+        if (garbage >= MIN_COMPACTION_BYTES && garbage >= getLiveBytes()) {
+            compact();
+        }
+        return freed;
+    }
+
+    /**
+     * Renvoie le nombre d'enregistrements utilisés.
+     */
+    int getLiveCount() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getLiveBytes() {
+        lock.readLock().lock();
+        try {
+            return liveBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long getFileBytes() {
+        lock.readLock().lock();
+        try {
+            return end;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ferme et supprime le fichier.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Réécrit les enregistrements utilisés dans un nouveau fichier, qui remplace l'ancien. Les références ne changent pas.
+     */
+    private void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+            long[] newOffsets = new long[offsets.length];
+            long position = 0;
+            try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (int slot = 0; slot < slotLimit; slot++) {
+                    if (logins[slot] != null) {
+                        long copied = 0;
+                        while (copied < lengths[slot]) {
+                            copied += channel.transferTo(offsets[slot] + copied, lengths[slot] - copied, target);
+                        }
+                        newOffsets[slot] = position;
+                        position += lengths[slot];
+                    }
+                }
+            }
+            channel.close();
+            Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            offsets = newOffsets;
+            end = position;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotLimit == offsets.length) {
+            int capacity = offsets.length * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            logins = Arrays.copyOf(logins, capacity);
+        }
+        return slotLimit++;
+    }
+
+    private void free(int slot) {
+        generations[slot]++;
+        logins[slot] = null;
+        live--;
+        liveBytes -= lengths[slot];
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Référence d'un emplacement : génération (à partir de 1, pour qu'une référence ne soit jamais nulle) et numéro.
+     */
+    private long handle(int slot) {
+        return (long) (generations[slot] + 1) << 32 | slot;
+    }
+
+    private void writeFully(ByteBuffer record, long position) throws IOException {
+        while (record.hasRemaining()) {
+            channel.write(record, position + record.position());
+        }
+    }
+
+    /**
+     * Encode un utilisateur sans son login (conservé dans la table des emplacements) : version puis champs, chacun
+     * précédé d'un indicateur de présence.
+     */
+    private static byte[] encode(Versioned<User> value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            User user = value.element();
+            out.writeLong(value.version());
+            writeString(out, user.getPassword());
+            writeString(out, user.getSpecies() == null ? null : user.getSpecies().name());
+            writeString(out, user.getImage());
+        } catch (IOException e) {
+            // Écriture en mémoire
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] encoded = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded == null ? -1 : encoded.length);
+        if (encoded != null) {
+            out.write(encoded);
+        }
+    }
+
+    private static Versioned<User> decode(String login, ByteBuffer record) {
+        long version = record.getLong();
+        String password = readString(record);
+        String species = readString(record);
+        String image = readString(record);
+        return new Versioned<>(new User(login, password, species == null ? null : Species.valueOf(species), image), version);
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        record.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,294 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Stockage persistant des utilisateurs dans un répertoire : un journal des modifications (voir <code>WriteAheadLog</code>)
+ * et des snapshots <code>snapshot-&lt;génération&gt;.bin</code>.<br>
+ * Le snapshot de génération N contient l'état obtenu en rejouant tous les segments du journal de génération inférieure à N.
+ * Au démarrage, l'état est donc reconstruit en chargeant le dernier snapshot puis en rejouant les segments suivants.<br>
+ * Compaction : le segment courant est terminé, puis un nouveau snapshot est construit à partir du précédent et des segments
+ * terminés, sans consulter ni bloquer le DAO ; les fichiers devenus inutiles sont ensuite supprimés.
+ * Les snapshots sont écrits et relus par projection en mémoire (<code>FileChannel.map</code>), ce qui limite leur taille à 2 Go.
+ */
+public class UserStore implements Closeable {
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    // "USRS"
+    private static final int SNAPSHOT_MAGIC = 0x55535253;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private final Path directory;
+    private WriteAheadLog log;
+
+    /**
+     * Crée le stockage. Le répertoire est créé s'il n'existe pas ; <code>recover</code> doit être appelée avant toute écriture.
+     * @param directory Le répertoire des fichiers du stockage
+     * @throws IOException Si le répertoire ne peut pas être créé
+     */
+    public UserStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Reconstruit l'état enregistré (dernier snapshot et segments suivants), puis ouvre un nouveau segment pour les écritures.
+     * Les segments existants ne sont jamais complétés : un éventuel enregistrement incomplet en fin de segment est ignoré.
+     * @return Les utilisateurs enregistrés, avec leur version, indexés par login
+     * @throws IOException Si un fichier ne peut pas être lu
+     */
+    public synchronized Map<String, Versioned<User>> recover() throws IOException {
+        Map<String, Versioned<User>> state = load(Long.MAX_VALUE);
+        long next = Math.max(last(generations(WriteAheadLog.PREFIX, WriteAheadLog.SUFFIX)),
+                last(generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX))) + 1;
+        log = new WriteAheadLog(directory, next);
+        return state;
+    }
+
+    /**
+     * Enregistre une modification dans le journal (sans attendre l'écriture sur disque).
+     * @param login Le login de l'utilisateur modifié
+     * @param value Le nouvel état de l'utilisateur, ou <code>null</code> s'il est supprimé
+     * @return Le numéro de l'enregistrement, à passer à <code>sync</code>
+     */
+    public long append(String login, Versioned<User> value) {
+        return log.append(encode(login, value));
+    }
+
+    /**
+     * Attend que l'enregistrement indiqué soit durable.
+     * @param ticket Le numéro renvoyé par <code>append</code>
+     * @throws IOException Si l'écriture échoue
+     */
+    public void sync(long ticket) throws IOException {
+        log.sync(ticket);
+    }
+
+    /**
+     * Renvoie la taille du segment courant du journal, qui détermine l'opportunité d'une compaction.
+     * @return La taille en octets
+     */
+    public long getLogSize() {
+        return log.getSegmentBytes();
+    }
+
+    public long getSyncCount() {
+        return log.getSyncCount();
+    }
+
+    /**
+     * Construit un snapshot contenant toutes les modifications enregistrées jusqu'ici et supprime les fichiers antérieurs.
+     * @return Le nombre d'utilisateurs dans le snapshot
+     * @throws IOException Si un fichier ne peut pas être lu ou écrit
+     */
+    public synchronized int compact() throws IOException {
+        long generation = log.roll();
+        Map<String, Versioned<User>> state = load(generation);
+        writeSnapshot(generation, state);
+        for (long older : generations(WriteAheadLog.PREFIX, WriteAheadLog.SUFFIX)) {
+            if (older < generation) {
+                Files.deleteIfExists(WriteAheadLog.segment(directory, older));
+            }
+        }
+        for (long older : generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (older < generation) {
+                Files.deleteIfExists(snapshot(older));
+            }
+        }
+        return state.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Reconstruit l'état : dernier snapshot de génération inférieure ou égale à la limite, puis segments jusqu'à la limite (exclue).
+     */
+    private Map<String, Versioned<User>> load(long limit) throws IOException {
+        long snapshotGeneration = -1;
+        for (long generation : generations(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            if (generation <= limit) {
+                snapshotGeneration = generation;
+            }
+        }
+        Map<String, Versioned<User>> state = new HashMap<>();
+        if (snapshotGeneration >= 0) {
+            readSnapshot(snapshotGeneration, state);
+        }
+        for (long generation : generations(WriteAheadLog.PREFIX, WriteAheadLog.SUFFIX)) {
+            if (generation >= snapshotGeneration && generation < limit) {
+                try (FileChannel channel = FileChannel.open(WriteAheadLog.segment(directory, generation), StandardOpenOption.READ)) {
+                    MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    WriteAheadLog.read(segment, record -> apply(record, state));
+                }
+            }
+        }
+        return state;
+    }
+
+    private void readSnapshot(long generation, Map<String, Versioned<User>> state) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot(generation), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Snapshot invalide : " + snapshot(generation));
+            }
+            int expected = buffer.getInt();
+            if (WriteAheadLog.read(buffer, record -> apply(record, state)) != expected) {
+                throw new IOException("Snapshot incomplet : " + snapshot(generation));
+            }
+        }
+    }
+
+    /**
+     * Écrit un snapshot dans un fichier temporaire projeté en mémoire, puis le renomme de façon atomique :
+     * un snapshot présent sous son nom définitif est toujours complet.
+     */
+    private void writeSnapshot(long generation, Map<String, Versioned<User>> state) throws IOException {
+        List<byte[]> records = new ArrayList<>(state.size());
+        long size = 2L * Integer.BYTES;
+        for (Map.Entry<String, Versioned<User>> entry : state.entrySet()) {
+            byte[] record = encode(entry.getKey(), entry.getValue());
+            records.add(record);
+            size += WriteAheadLog.framedSize(record);
+        }
+        Path temporary = directory.resolve(SNAPSHOT_PREFIX + generation + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SNAPSHOT_MAGIC).putInt(records.size());
+            for (byte[] record : records) {
+                WriteAheadLog.frame(buffer, record);
+            }
+            buffer.force();
+        }
+        Files.move(temporary, snapshot(generation), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path snapshot(long generation) {
+        return directory.resolve(SNAPSHOT_PREFIX + generation + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Renvoie, dans l'ordre croissant, les générations des fichiers du répertoire ayant le préfixe et le suffixe indiqués.
+     */
+    private List<Long> generations(String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .map(name -> name.substring(prefix.length(), name.length() - suffix.length()))
+                    .filter(generation -> !generation.isEmpty() && generation.chars().allMatch(Character::isDigit))
+                    .map(Long::parseLong)
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long last(List<Long> generations) {
+        return generations.isEmpty() ? -1 : generations.get(generations.size() - 1);
+    }
+
+    /**
+     * Encode une modification : type, login, puis pour une création ou une mise à jour la version et les champs persistants
+     * de l'utilisateur (l'état de connexion n'est pas persisté : les sessions ne survivent pas à un redémarrage).
+     * Format partagé avec la réplication (voir <code>ReplicationServer</code>).
+     */
+    static byte[] encode(String login, Versioned<User> value) {
+        if (value == null) {
+            byte[] key = bytes(login);
+            return ByteBuffer.allocate(1 + size(key)).put(DELETE).put(withLength(key)).array();
+        }
+        User user = value.element();
+        byte[] key = bytes(login);
+        byte[] password = bytes(user.getPassword());
+        byte[] species = bytes(user.getSpecies() == null ? null : user.getSpecies().name());
+        byte[] image = bytes(user.getImage());
+        return ByteBuffer.allocate(1 + size(key) + Long.BYTES + size(password) + size(species) + size(image))
+                .put(PUT)
+                .put(withLength(key))
+                .putLong(value.version())
+                .put(withLength(password))
+                .put(withLength(species))
+                .put(withLength(image))
+                .array();
+    }
+
+    private static void apply(ByteBuffer record, Map<String, Versioned<User>> state) {
+        decode(record, (login, value) -> {
+            if (value == null) {
+                state.remove(login);
+            } else {
+                state.put(login, value);
+            }
+        });
+    }
+
+    /**
+     * Décode une modification encodée par <code>encode</code>.
+     * @param record Le contenu de l'enregistrement
+     * @param consumer Reçoit le login et le nouvel état de l'utilisateur (<code>null</code> s'il est supprimé)
+     */
+    static void decode(ByteBuffer record, BiConsumer<String, Versioned<User>> consumer) {
+        byte type = record.get();
+        String login = string(record);
+        if (type == DELETE) {
+            consumer.accept(login, null);
+            return;
+        }
+        long version = record.getLong();
+        String password = string(record);
+        String species = string(record);
+        String image = string(record);
+        consumer.accept(login, new Versioned<>(new User(login, password, species == null ? null : Species.valueOf(species), image), version));
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int size(byte[] value) {
+        return Integer.BYTES + (value == null ? 0 : value.length);
+    }
+
+    /**
+     * Préfixe une chaîne encodée par sa longueur (-1 pour <code>null</code>).
+     */
+    private static ByteBuffer withLength(byte[] value) {
+        ByteBuffer buffer = ByteBuffer.allocate(size(value)).putInt(value == null ? -1 : value.length);
+        if (value != null) {
+            buffer.put(value);
+        }
+        return buffer.flip();
+    }
+
+    private static String string(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        record.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,25 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+/**
+ * Élément stocké dans un DAO, accompagné de son numéro de version.<br>
+ * La version vaut 1 à la création de l'élément et augmente de 1 à chaque mise à jour :
+ * elle permet de détecter qu'un élément a été modifié entre sa lecture et sa mise à jour (verrouillage optimiste).
+ * @param element L'élément
+ * @param version Le numéro de version de l'élément
+ * @param <T> Le type de l'élément
+ */
+public record Versioned<T>(T element, long version) {
+    /**
+     * Version initiale d'un élément qui vient d'être ajouté.
+     */
+    public static final long INITIAL_VERSION = 1;
+
+    /**
+     * Renvoie la version suivante de l'élément.
+     * @param updated Le nouvel état de l'élément
+     * @return L'élément mis à jour, avec un numéro de version incrémenté
+     */
+    public Versioned<T> next(T updated) {
+        return new Versioned<>(updated, version + 1);
+    }
+}
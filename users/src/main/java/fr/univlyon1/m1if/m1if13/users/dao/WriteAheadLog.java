@@ -0,0 +1,203 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Journal des modifications (write-ahead log), découpé en segments numérotés : <code>wal-&lt;génération&gt;.log</code>.<br>
+ * Chaque enregistrement est précédé de sa longueur et de son CRC32 : un enregistrement incomplet en fin de segment
+ * (arrêt brutal pendant une écriture) est détecté, et la relecture s'arrête au dernier enregistrement intact.<br>
+ * Écritures groupées (group commit) : les enregistrements sont d'abord ajoutés à un tampon en mémoire. Le premier thread
+ * qui attend la durabilité de son enregistrement écrit tout le tampon et appelle fsync une seule fois pour tous les
+ * enregistrements en attente ; pendant ce temps, les threads suivants accumulent le lot suivant.
+ */
+final class WriteAheadLog implements Closeable {
+    static final String PREFIX = "wal-";
+    static final String SUFFIX = ".log";
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final Path directory;
+    // Protège le canal et l'ordre des écritures sur disque
+    private final Object flushLock = new Object();
+    // Tampon et numéro du dernier enregistrement ajouté (protégés par this)
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;
+    // Numéro du dernier enregistrement durable
+    private volatile long flushed;
+    private volatile long generation;
+    private volatile long segmentBytes;
+    private volatile long syncs;
+    private FileChannel channel;
+
+    /**
+     * Ouvre un nouveau segment.
+     * @param directory Le répertoire des segments
+     * @param generation Le numéro du segment à créer (il ne doit pas déjà exister)
+     * @throws IOException Si le segment ne peut pas être créé
+     */
+    WriteAheadLog(Path directory, long generation) throws IOException {
+        this.directory = directory;
+        this.generation = generation;
+        this.channel = open(directory, generation);
+    }
+
+    static Path segment(Path directory, long generation) {
+        return directory.resolve(PREFIX + generation + SUFFIX);
+    }
+
+    private static FileChannel open(Path directory, long generation) throws IOException {
+        return FileChannel.open(segment(directory, generation), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Ajoute un enregistrement au lot en cours. Ne bloque pas sur le disque.
+     * @param record Le contenu de l'enregistrement
+     * @return Le numéro de l'enregistrement, à passer à <code>sync</code> (toujours strictement positif)
+     */
+    synchronized long append(byte[] record) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(record.length).putInt(checksum(record));
+        pending.write(header.array(), 0, HEADER_BYTES);
+        pending.write(record, 0, record.length);
+        return ++appended;
+    }
+
+    /**
+     * Attend que l'enregistrement indiqué soit écrit sur disque (fsync).
+     * @param ticket Le numéro renvoyé par <code>append</code>
+     * @throws IOException Si l'écriture échoue
+     */
+    void sync(long ticket) throws IOException {
+        if (flushed >= ticket) {
+            return;
+        }
+        synchronized (flushLock) {
+            // Un autre thread a pu écrire le lot contenant cet enregistrement pendant l'attente du verrou
+            if (flushed < ticket) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Termine le segment courant (tous les enregistrements ajoutés sont écrits) et en ouvre un nouveau.
+     * @return Le numéro du nouveau segment : les segments précédents ne seront plus modifiés
+     * @throws IOException Si l'écriture ou la création du segment échoue
+     */
+    long roll() throws IOException {
+        synchronized (flushLock) {
+            flush();
+            channel.close();
+            channel = open(directory, generation + 1);
+            segmentBytes = 0;
+            generation++;
+            return generation;
+        }
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Renvoie la taille du segment courant.
+     * @return Le nombre d'octets écrits dans le segment courant
+     */
+    long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    /**
+     * Renvoie le nombre d'appels à fsync (chacun rend durable un lot d'enregistrements).
+     * @return Le nombre de lots écrits
+     */
+    long getSyncCount() {
+        return syncs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (flushLock) {
+            flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * Écrit le lot en cours et le rend durable. Doit être appelée avec <code>flushLock</code>.
+     */
+    private void flush() throws IOException {
+        ByteBuffer batch;
+        long last;
+        synchronized (this) {
+            if (pending.size() == 0) {
+                return;
+            }
+            batch = ByteBuffer.wrap(pending.toByteArray());
+            pending = new ByteArrayOutputStream();
+            last = appended;
+        }
+        int bytes = batch.remaining();
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        channel.force(false);
+        segmentBytes += bytes;
+        syncs++;
+        flushed = last;
+    }
+
+    /**
+     * Ajoute un enregistrement (longueur, CRC32 et contenu) à un buffer.
+     * @param target Le buffer de destination
+     * @param record Le contenu de l'enregistrement
+     */
+    static void frame(ByteBuffer target, byte[] record) {
+        target.putInt(record.length).putInt(checksum(record)).put(record);
+    }
+
+    static int framedSize(byte[] record) {
+        return HEADER_BYTES + record.length;
+    }
+
+    /**
+     * Relit les enregistrements d'un buffer, jusqu'au premier enregistrement incomplet ou corrompu.
+     * @param source Le contenu d'un segment ou d'un snapshot
+     * @param consumer Reçoit le contenu de chaque enregistrement intact
+     * @return Le nombre d'enregistrements relus
+     */
+    static int read(ByteBuffer source, Consumer<ByteBuffer> consumer) {
+        int count = 0;
+        while (source.remaining() >= HEADER_BYTES) {
+            int length = source.getInt();
+            int checksum = source.getInt();
+            if (length < 0 || length > source.remaining()) {
+                break;
+            }
+            ByteBuffer record = source.slice(source.position(), length);
+            if (checksum(record.duplicate()) != checksum) {
+                break;
+            }
+            source.position(source.position() + length);
+            consumer.accept(record);
+            count++;
+        }
+        return count;
+    }
+
+    private static int checksum(byte[] record) {
+        return checksum(ByteBuffer.wrap(record));
+    }
+
+    private static int checksum(ByteBuffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+}
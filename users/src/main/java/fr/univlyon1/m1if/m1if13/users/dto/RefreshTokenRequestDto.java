@@ -0,0 +1,7 @@
+package fr.univlyon1.m1if.m1if13.users.dto;
+
+/**
+ * DTO envoyé par le client pour obtenir un nouveau token d'accès sans refaire de login.
+ * @param refreshToken Le refresh token reçu lors du login (header "Refresh-Token") ou du dernier renouvellement
+ */
+public record RefreshTokenRequestDto(String refreshToken) {}
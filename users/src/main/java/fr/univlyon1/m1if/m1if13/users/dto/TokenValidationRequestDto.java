@@ -0,0 +1,8 @@
+package fr.univlyon1.m1if.m1if13.users.dto;
+
+/**
+ * DTO envoyé par le serveur de jeu pour faire vérifier un token.
+ * @param jwt Le token JWT d'un joueur
+ * @param origin L'origine du client du joueur (à comparer avec celle stockée dans le token)
+ */
+public record TokenValidationRequestDto(String jwt, String origin) {}
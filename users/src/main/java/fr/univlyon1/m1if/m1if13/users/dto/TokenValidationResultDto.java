@@ -0,0 +1,35 @@
+package fr.univlyon1.m1if.m1if13.users.dto;
+
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * DTO renvoyé pour chaque token d'une vérification par lot.
+ * @param valid Indique si le token est valide pour l'origine indiquée
+ * @param subject Le login de l'utilisateur, ou null si le token est invalide
+ * @param species L'espèce de l'utilisateur, ou null si le token est invalide
+ * @param ttl Le nombre de secondes restant avant l'expiration du token (0 si le token est invalide)
+ */
+public record TokenValidationResultDto(boolean valid, String subject, Species species, long ttl) {
+    private static final TokenValidationResultDto INVALID = new TokenValidationResultDto(false, null, null, 0);
+
+    public static TokenValidationResultDto invalid() {
+        return INVALID;
+    }
+
+    /**
+     * Construit le résultat correspondant à un token valide.
+     * @param authenticatedUser L'utilisateur authentifié par le token
+     * @param now L'instant de la vérification
+     * @return Le résultat de la vérification
+     */
+    public static TokenValidationResultDto of(AuthenticatedUser authenticatedUser, Instant now) {
+        return new TokenValidationResultDto(true,
+                authenticatedUser.login(),
+                authenticatedUser.species(),
+                Math.max(0, Duration.between(now, authenticatedUser.expiration()).toSeconds()));
+    }
+}
@@ -0,0 +1,10 @@
+package fr.univlyon1.m1if.m1if13.users.dto;
+
+/**
+ * DTO décrivant une ligne rejetée lors d'un import d'utilisateurs.
+ * @param line Le numéro de la ligne dans le corps de la requête (à partir de 1)
+ * @param login Le login lu sur la ligne, ou null si la ligne n'a pas pu être lue
+ * @param error La raison du rejet
+ */
+public record UserImportErrorDto(long line, String login, String error) {
+}
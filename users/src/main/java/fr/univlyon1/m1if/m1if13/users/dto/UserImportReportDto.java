@@ -0,0 +1,12 @@
+package fr.univlyon1.m1if.m1if13.users.dto;
+
+import java.util.List;
+
+/**
+ * DTO renvoyé à la fin d'un import d'utilisateurs.
+ * @param imported Le nombre d'utilisateurs créés
+ * @param rejected Le nombre de lignes rejetées
+ * @param errors Le détail des lignes rejetées, dans l'ordre des lignes (limité aux premières erreurs rencontrées)
+ */
+public record UserImportReportDto(long imported, long rejected, List<UserImportErrorDto> errors) {
+}
@@ -0,0 +1,15 @@
+package fr.univlyon1.m1if.m1if13.users.exception;
+
+/**
+ * Exception levée lorsque l'utilisateur à l'origine de la requête n'a pas le droit d'effectuer une modification
+ * (par exemple s'attribuer l'espèce ADMIN sans être administrateur).
+ */
+public class ForbiddenOperationException extends RuntimeException {
+    /**
+     * Crée l'exception.
+     * @param message La raison du refus
+     */
+    public ForbiddenOperationException(String message) {
+        super(message);
+    }
+}
@@ -1,5 +1,6 @@
 package fr.univlyon1.m1if.m1if13.users.exception;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -28,4 +29,16 @@ public class GlobalExceptionHandler {
     public ResponseEntity<String> handleUserNotFoundException(NameNotFoundException e) {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Utilisateur introuvable : " + e.getMessage()); //HTTP 404
     }
+
+    @ExceptionHandler(ForbiddenOperationException.class)
+    public ResponseEntity<String> handleForbiddenOperationException(ForbiddenOperationException e) {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Opération interdite : " + e.getMessage());    //HTTP 403
+    }
+
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<String> handleOverloadedException(OverloadedException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body("Service saturé : " + e.getMessage());    //HTTP 503
+    }
 }
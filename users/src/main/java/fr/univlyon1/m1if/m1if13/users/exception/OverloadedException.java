@@ -0,0 +1,16 @@
+package fr.univlyon1.m1if.m1if13.users.exception;
+
+/**
+ * Exception levée lorsqu'une opération coûteuse est refusée parce que les ressources qui lui sont réservées sont saturées
+ * (par exemple la file de vérification des mots de passe, voir <code>PasswordHasher</code>).
+ * Le client peut réessayer après un court délai.
+ */
+public class OverloadedException extends RuntimeException {
+    /**
+     * Crée l'exception.
+     * @param message La ressource saturée
+     */
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,30 @@
+package fr.univlyon1.m1if.m1if13.users.exception;
+
+/**
+ * Exception levée lorsqu'une mise à jour conditionnelle échoue parce que l'élément a été modifié depuis sa lecture
+ * (la version attendue n'est plus la version courante).
+ */
+public class StaleVersionException extends Exception {
+    private final long expectedVersion;
+    private final long currentVersion;
+
+    /**
+     * Crée l'exception.
+     * @param id La clé de l'élément
+     * @param expectedVersion La version sur laquelle était basée la mise à jour
+     * @param currentVersion La version courante de l'élément
+     */
+    public StaleVersionException(Object id, long expectedVersion, long currentVersion) {
+        super(id + " : version " + expectedVersion + " attendue, version courante " + currentVersion);
+        this.expectedVersion = expectedVersion;
+        this.currentVersion = currentVersion;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
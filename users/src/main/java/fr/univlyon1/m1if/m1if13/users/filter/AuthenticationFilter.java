@@ -18,6 +18,8 @@ import java.io.IOException;
  * N'autorise l'accès qu'aux clients déjà connectés ou ayant rempli le formulaire de la page <code>index.html</code>.
  * Dans ce dernier cas, le filtre crée la session / génère le token de l'utilisateur, crée un objet User et l'ajoute en attribut de la session.
  * Laisse toutefois passer les URLs "/" et "/index.html".
+ * La liste des utilisateurs est publique, mais pas la recherche par espèce ou par état de connexion, qui révèle
+ * les utilisateurs connectés et les administrateurs.
  */
 @Component
 @Order(1)
@@ -39,9 +41,9 @@ public class AuthenticationFilter extends HttpFilter {
                             origin.startsWith("https://192.168.75.94"))) {
             response.setHeader("Access-Control-Allow-Origin", origin);
             response.setHeader("Access-Control-Allow-Credentials", "true");
-            response.setHeader("Access-Control-Allow-Methods", "POST, GET, OPTIONS, DELETE, PUT");
+            response.setHeader("Access-Control-Allow-Methods", "POST, GET, OPTIONS, DELETE, PUT, PATCH");
             response.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization, Origin");
-            response.setHeader("Access-Control-Expose-Headers", "Authorization, Location");
+            response.setHeader("Access-Control-Expose-Headers", "Authorization, Location, Refresh-Token");
         }
 
         // Gestion explicite des requêtes OPTIONS pour CORS
@@ -52,12 +54,18 @@ public class AuthenticationFilter extends HttpFilter {
 
         // Laisse passer les URLs ne nécessitant pas d'authentification et les requêtes par des utilisateurs authentifiés
         if(
-                url.equals("/users")  ||
+                (url.equals("/users") && !isIndexQuery(request)) ||
                 (url.startsWith("/users/") && request.getMethod().equals("DELETE")) ||
                 (url.equals("/login") && request.getMethod().equals("POST")) ||
                 (url.equals("/authenticate") && request.getMethod().equals("GET")) ||
-                userTokenProvider.isUserConnected(request) ||
-                url.startsWith("/swagger-ui/") || url.startsWith("/v3/")
+                (url.equals("/authenticate/batch") && request.getMethod().equals("POST")) ||
+                (url.equals("/token/refresh") && request.getMethod().equals("POST")) ||
+                userTokenProvider.getAuthenticatedUser(request) != null ||
+                // Requêtes internes au cluster : le secret partagé est vérifié par ClusterController
+                url.startsWith("/cluster/") ||
+                // Seul l'état de santé est public : les métriques sont réservées aux administrateurs (AuthorizationFilter)
+                url.equals("/actuator/health") || url.startsWith("/actuator/health/") ||
+                url.startsWith("/swagger-ui/") || url.startsWith("/v3/") || url.startsWith("/.well-known/")
         ) {
             chain.doFilter(request, response);
             return;
@@ -66,4 +74,11 @@ public class AuthenticationFilter extends HttpFilter {
         // Bloque les autres requêtes
         response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Vous devez vous connecter pour accéder au site.");
     }
+
+    /**
+     * Indique si la requête est une recherche d'utilisateurs par critères (<code>GET /users?species=...&amp;connected=...</code>).
+     */
+    private static boolean isIndexQuery(HttpServletRequest request) {
+        return request.getMethod().equals("GET") && (request.getParameter("species") != null || request.getParameter("connected") != null);
+    }
 }
@@ -1,5 +1,7 @@
 package fr.univlyon1.m1if.m1if13.users.filter;
 
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
 import fr.univlyon1.m1if.m1if13.users.util.UrlDecomposer;
 import fr.univlyon1.m1if.m1if13.users.util.UserTokenProvider;
 import jakarta.servlet.FilterChain;
@@ -33,9 +35,19 @@ public class AuthorizationFilter extends HttpFilter {
     // Liste des ressources pour lesquelles renvoyer un 403 si l'utilisateur n'est pas le bon
     private static final String[][] RESOURCES_WITH_AUTHORIZATION = {
             {"PUT", "users", "*"},
+            {"PATCH", "users", "*"},
             {"GET", "users", "*"}
     };
 
+    // Liste des ressources réservées aux administrateurs (à tester avant la précédente, dont les patterns les incluent)
+    private static final String[][] RESOURCES_FOR_ADMINS = {
+            {"POST", "users", "bulk"},
+            {"GET", "users", "export"},
+            {"GET", "users", "events"},
+            {"GET", "actuator", "metrics"},
+            {"GET", "actuator", "metrics", "*"}
+    };
+
     public void init(FilterConfig config) throws ServletException {
         super.init(config);
     }
@@ -44,7 +56,9 @@ public class AuthorizationFilter extends HttpFilter {
     @SuppressWarnings("unchecked")
     public void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
         // Si l'utilisateur n'est pas authentifié (mais que la requête a passé le filtre d'authentification), c'est que ce filtre est sans objet
-        if(!userTokenProvider.isUserConnected(request)) {
+        // Le token a normalement déjà été analysé par le filtre d'authentification : l'appel ne fait que relire l'attribut de requête
+        AuthenticatedUser authenticatedUser = userTokenProvider.getAuthenticatedUser(request);
+        if(authenticatedUser == null) {
             chain.doFilter(request, response);
             return;
         }
@@ -52,8 +66,14 @@ public class AuthorizationFilter extends HttpFilter {
         String[] url = UrlDecomposer.getUrlParts(request);
 
         // Application du filtre
-        if (Stream.of(RESOURCES_WITH_AUTHORIZATION).anyMatch(pattern -> UrlDecomposer.matchRequest(request, pattern))) {
-            String userId = (String) request.getAttribute("username");
+        if (Stream.of(RESOURCES_FOR_ADMINS).anyMatch(pattern -> UrlDecomposer.matchRequest(request, pattern))) {
+            if (authenticatedUser.species() == Species.ADMIN) {
+                chain.doFilter(request, response);
+            } else {
+                response.sendError(HttpServletResponse.SC_FORBIDDEN, "Cette opération est réservée aux administrateurs.");
+            }
+        } else if (Stream.of(RESOURCES_WITH_AUTHORIZATION).anyMatch(pattern -> UrlDecomposer.matchRequest(request, pattern))) {
+            String userId = authenticatedUser.login();
             if (url[0].equals("users")) {
                 if (url[1].equals(userId)) {
                     chain.doFilter(request, response);
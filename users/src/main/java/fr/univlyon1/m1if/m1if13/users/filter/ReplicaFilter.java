@@ -0,0 +1,66 @@
+package fr.univlyon1.m1if.m1if13.users.filter;
+
+import fr.univlyon1.m1if.m1if13.users.dao.ReplicationFollower;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Filtre des répliques en lecture seule (<code>users.replication.role=follower</code>).<br>
+ * Les modifications de <code>/users</code> sont redirigées vers le leader (307, qui conserve la méthode et le corps),
+ * ou refusées (503) si son URL n'est pas configurée. Les connexions et déconnexions restent traitées par la réplique,
+ * qui tient sa propre table des sessions.<br>
+ * Les lectures de <code>/users</code> sont refusées (503, avec un header "Retry-After") tant que le retard de la réplique
+ * dépasse <code>users.replication.maxLagMs</code> : une réplique qui ne reçoit plus le journal du leader ne sert pas
+ * indéfiniment un état périmé.
+ */
+@Component
+@Order(0)
+@WebFilter
+@ConditionalOnProperty(name = "users.replication.role", havingValue = "follower")
+public class ReplicaFilter extends HttpFilter {
+    @Autowired
+    private ReplicationFollower follower;
+
+    @Value("${users.replication.leaderUrl:}")
+    private String leaderUrl;
+
+    @Value("${users.replication.maxLagMs:5000}")
+    private long maxLagMs;
+
+    @Override
+    protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (!path.equals("/users") && !path.startsWith("/users/")) {
+            chain.doFilter(request, response);
+            return;
+        }
+        String method = request.getMethod();
+        if (!method.equals("GET") && !method.equals("HEAD") && !method.equals("OPTIONS")) {
+            if (leaderUrl.isEmpty()) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Réplique en lecture seule.");
+                return;
+            }
+            String query = request.getQueryString();
+            response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
+            response.setHeader("Location", leaderUrl + request.getRequestURI() + (query == null ? "" : "?" + query));
+            return;
+        }
+        if (follower.getLagMs() > maxLagMs) {
+            response.setHeader("Retry-After", String.valueOf(Math.max(1, maxLagMs / 1000)));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Réplique en retard sur le leader.");
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+}
@@ -0,0 +1,266 @@
+package fr.univlyon1.m1if.m1if13.users.filter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import fr.univlyon1.m1if.m1if13.users.util.ClusterMembership;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Filtre de répartition des utilisateurs entre les instances du cluster (voir <code>ClusterMembership</code>).<br>
+ * Détermine le login concerné par la requête : dans l'URL (<code>/users/{userId}</code>), dans le corps
+ * (<code>POST /users</code>, <code>POST /login</code>), ou à défaut dans le token (paramètre <code>jwt</code> de
+ * <code>/authenticate</code>, puis header "Authorization"), dont le sujet est lu sans vérification : c'est l'instance
+ * destinataire qui vérifie le token, dans sa propre table des sessions.<br>
+ * Si ce login appartient à une autre instance, la requête lui est transmise telle quelle et sa réponse est renvoyée au client
+ * (les clients n'ont pas à connaître la composition du cluster). Une requête transmise porte le header
+ * <code>X-Users-Forwarded</code> et est toujours traitée par l'instance qui la reçoit : deux instances dont les anneaux
+ * diffèrent pendant un changement de composition ne se renvoient pas une requête indéfiniment.<br>
+ * Placé avant les filtres d'authentification et d'autorisation, qui s'appliquent sur l'instance qui traite la requête.
+ */
+@Component
+@Order(0)
+@WebFilter
+public class ShardRoutingFilter extends HttpFilter {
+    /**
+     * Header des requêtes transmises par une autre instance (contient l'URL de cette instance).
+     */
+    public static final String FORWARDED_HEADER = "X-Users-Forwarded";
+
+    // Ressources de /users qui ne désignent pas un utilisateur
+    private static final Set<String> COLLECTION_RESOURCES = Set.of("bulk", "export", "events");
+    // Headers propres à une connexion, ou que le client HTTP positionne lui-même
+    private static final Set<String> HOP_BY_HOP_HEADERS = Set.of("connection", "keep-alive", "transfer-encoding", "te", "trailer",
+            "upgrade", "host", "content-length", "expect", "date", "proxy-connection");
+    private static final XmlMapper XML_MAPPER = new XmlMapper();
+
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${users.cluster.forwardTimeoutMs:5000}")
+    private long forwardTimeoutMs;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+
+    @Override
+    protected void doFilter(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+        String url = request.getRequestURI().replaceFirst(request.getContextPath(), "");
+        if (!membership.isEnabled() || request.getHeader(FORWARDED_HEADER) != null ||
+                request.getMethod().equals("OPTIONS") || url.startsWith("/cluster/")) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        byte[] body = null;
+        String login = null;
+        String[] parts = url.substring(1).split("/");
+        if (parts.length == 2 && parts[0].equals("users") && !COLLECTION_RESOURCES.contains(parts[1])) {
+            login = URLDecoder.decode(parts[1], StandardCharsets.UTF_8);
+        } else if (request.getMethod().equals("POST") && (url.equals("/users") || url.equals("/login"))) {
+            if (isForm(request)) {
+                // Le conteneur lit lui-même le formulaire : le corps est reconstruit s'il faut transmettre la requête
+                login = request.getParameter("login");
+                body = encodeForm(request.getParameterMap());
+            } else {
+                body = request.getInputStream().readAllBytes();
+                login = loginFromBody(request.getContentType(), body);
+            }
+        }
+        if (login == null && url.equals("/authenticate")) {
+            login = subjectOf(request.getParameter("jwt"));
+        }
+        String authorization = request.getHeader("Authorization");
+        if (login == null && authorization != null && authorization.startsWith("Bearer ")) {
+            login = subjectOf(authorization.substring(7));
+        }
+
+        if (login == null || membership.isLocal(login)) {
+            chain.doFilter(body == null || isForm(request) ? request : new BufferedBodyRequest(request, body), response);
+        } else {
+            forward(membership.ownerOf(login), request, body, response);
+        }
+    }
+
+    /**
+     * Transmet la requête à l'instance responsable et recopie sa réponse.
+     */
+    private void forward(String owner, HttpServletRequest request, byte[] body, HttpServletResponse response) throws IOException {
+        String query = request.getQueryString();
+        HttpRequest.Builder forwarded = HttpRequest.newBuilder(URI.create(owner + request.getRequestURI() + (query == null ? "" : "?" + query)))
+                .timeout(Duration.ofMillis(forwardTimeoutMs))
+                .header(FORWARDED_HEADER, membership.getSelf());
+        for (String name : Collections.list(request.getHeaderNames())) {
+            if (!HOP_BY_HOP_HEADERS.contains(name.toLowerCase()) && !name.equalsIgnoreCase(FORWARDED_HEADER)) {
+                for (String value : Collections.list(request.getHeaders(name))) {
+                    forwarded.header(name, value);
+                }
+            }
+        }
+        byte[] payload = body != null ? body : request.getInputStream().readAllBytes();
+        forwarded.method(request.getMethod(), payload.length == 0 ?
+                HttpRequest.BodyPublishers.noBody() :
+                HttpRequest.BodyPublishers.ofByteArray(payload));
+
+        HttpResponse<InputStream> answer;
+        try {
+            answer = client.send(forwarded.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_BAD_GATEWAY, "Transmission interrompue vers " + owner);
+            return;
+        } catch (IOException e) {
+            response.sendError(HttpServletResponse.SC_BAD_GATEWAY, "Instance injoignable : " + owner);
+            return;
+        }
+        response.setStatus(answer.statusCode());
+        answer.headers().map().forEach((name, values) -> {
+            if (!HOP_BY_HOP_HEADERS.contains(name.toLowerCase()) && !name.startsWith(":")) {
+                values.forEach(value -> response.addHeader(name, value));
+            }
+        });
+        try (InputStream in = answer.body()) {
+            OutputStream out = response.getOutputStream();
+            in.transferTo(out);
+            out.flush();
+        }
+    }
+
+    private static boolean isForm(HttpServletRequest request) {
+        return request.getContentType() != null &&
+                request.getContentType().startsWith(MediaType.APPLICATION_FORM_URLENCODED_VALUE);
+    }
+
+    private static byte[] encodeForm(Map<String, String[]> parameters) {
+        StringJoiner form = new StringJoiner("&");
+        parameters.forEach((name, values) -> {
+            for (String value : values) {
+                form.add(URLEncoder.encode(name, StandardCharsets.UTF_8) + "=" + URLEncoder.encode(value, StandardCharsets.UTF_8));
+            }
+        });
+        return form.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lit le login dans un corps JSON ou XML.
+     * @return Le login, ou <code>null</code> si le corps ne peut pas être lu (la requête est alors traitée localement, qui la rejette)
+     */
+    private String loginFromBody(String contentType, byte[] body) {
+        try {
+            boolean xml = contentType != null && contentType.contains("xml");
+            JsonNode login = (xml ? XML_MAPPER.readTree(body) : objectMapper.readTree(body)).get("login");
+            return login != null && login.isValueNode() ? login.asText() : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Lit le sujet d'un JWT sans vérifier sa signature (la vérification est faite par l'instance qui traite la requête).
+     * @return Le sujet, ou <code>null</code> si le token n'est pas un JWT (token opaque, par exemple)
+     */
+    private String subjectOf(String token) {
+        if (token == null) {
+            return null;
+        }
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            JsonNode subject = objectMapper.readTree(Base64.getUrlDecoder().decode(parts[1])).get("sub");
+            return subject != null && subject.isTextual() ? subject.asText() : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Requête dont le corps, déjà lu pour trouver le login, est relu depuis un tableau.
+     */
+    private static final class BufferedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        BufferedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream in = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return in.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener listener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return in.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    return in.read(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding)));
+        }
+    }
+}
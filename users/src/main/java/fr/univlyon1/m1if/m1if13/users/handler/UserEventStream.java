@@ -0,0 +1,64 @@
+package fr.univlyon1.m1if.m1if13.users.handler;
+
+import fr.univlyon1.m1if.m1if13.users.model.UserEvent;
+import fr.univlyon1.m1if.m1if13.users.util.UserEventLog;
+import org.springframework.web.servlet.function.ServerResponse;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Envoi des événements d'un abonnement au journal des modifications sur une réponse Server-Sent Events.<br>
+ * Chaque événement est envoyé avec son numéro de séquence comme identifiant (repris par le client dans le header
+ * "Last-Event-ID" lorsqu'il se reconnecte) et son type comme nom d'événement ; les données sont l'événement en JSON.
+ * Si l'historique ne permet pas la reprise, un événement <code>reset</code> est envoyé en premier : le client doit relire
+ * l'état complet des utilisateurs (<code>GET /users/export</code>).<br>
+ * L'envoi est fait par un thread virtuel par abonné, qui attend les événements sans occuper de thread du conteneur.
+ * Si l'abonné ne lit pas assez vite et que sa file déborde, la réponse se termine après les événements de la file.
+ */
+final class UserEventStream {
+    private UserEventStream() {
+    }
+
+    /**
+     * Démarre l'envoi des événements.
+     * @param sse La réponse
+     * @param subscription L'abonnement, fermé à la fin de la réponse
+     * @param keepAlive La durée sans événement après laquelle un commentaire est envoyé (détecte les clients partis)
+     */
+    static void start(ServerResponse.SseBuilder sse, UserEventLog.Subscription subscription, Duration keepAlive) {
+        Thread sender = Thread.ofVirtual().name("user-events").unstarted(() -> send(sse, subscription, keepAlive));
+        Runnable stop = () -> {
+            subscription.close();
+            sender.interrupt();
+        };
+        sse.onComplete(stop);
+        sse.onTimeout(stop);
+        sse.onError(e -> stop.run());
+        sender.start();
+    }
+
+    private static void send(ServerResponse.SseBuilder sse, UserEventLog.Subscription subscription, Duration keepAlive) {
+        try (subscription) {
+            if (subscription.isHistoryLost()) {
+                sse.event("reset").data("Des événements ne sont plus disponibles : relire GET /users/export.");
+            }
+            while (!Thread.currentThread().isInterrupted()) {
+                UserEvent event = subscription.next(keepAlive);
+                if (event != null) {
+                    sse.id(String.valueOf(event.sequence())).event(event.type().name()).data(event);
+                } else if (subscription.isOverflowed()) {
+                    // Le client se reconnecte avec le dernier identifiant reçu et reprend dans l'historique
+                    sse.complete();
+                    return;
+                } else {
+                    sse.comment("keep-alive").send();
+                }
+            }
+        } catch (IOException e) {
+            // Client déconnecté
+        } catch (InterruptedException e) {
+            // Réponse terminée (délai dépassé ou erreur)
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package fr.univlyon1.m1if.m1if13.users.handler;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Écriture en flux des utilisateurs au format NDJSON (un objet JSON par ligne), pour l'export.<br>
+ * Chaque ligne contient la représentation publique de l'utilisateur (celle de <code>UserResponseDto</code>) :
+ * <code>{"login":"...","species":"...","image":"..."}</code>. Les mots de passe ne sont jamais exportés.<br>
+ * Comme pour <code>UserLinksWriter</code>, la mémoire utilisée ne dépend pas du nombre d'utilisateurs.
+ */
+final class UserExportWriter {
+    // Le flux de la réponse est fermé par le conteneur, pas par le générateur
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder().disable(StreamWriteFeature.AUTO_CLOSE_TARGET).build();
+
+    private UserExportWriter() {
+    }
+
+    /**
+     * Écrit les utilisateurs, une ligne par utilisateur.
+     * @param out Le flux de la réponse
+     * @param users Les utilisateurs ; le stream est fermé à la fin de l'écriture, même si le client se déconnecte
+     *              (voir <code>UserLinksWriter.write</code>)
+     * @throws IOException Si l'écriture échoue
+     */
+    static void write(OutputStream out, Stream<User> users) throws IOException {
+        try (users; JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            // Les lignes sont séparées par le retour à la ligne écrit après chaque objet
+            generator.setRootValueSeparator(null);
+            for (Iterator<User> iterator = users.iterator(); iterator.hasNext();) {
+                User user = iterator.next();
+                generator.writeStartObject();
+                generator.writeStringField("login", user.getLogin());
+                generator.writeStringField("species", user.getSpecies() == null ? null : user.getSpecies().name());
+                generator.writeStringField("image", user.getImage());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package fr.univlyon1.m1if.m1if13.users.handler;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.springframework.http.MediaType;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Écriture en flux d'une liste de liens vers des utilisateurs, au même format que <code>UsersResponseDto</code> :
+ * chaque lien est écrit dans la réponse dès que l'utilisateur est lu, sans construire la liste en mémoire.
+ * La mémoire utilisée ne dépend donc pas du nombre d'utilisateurs (seul le tampon de la réponse est conservé).<br>
+ * JSON : <code>{"users":[{"link":"users/..."}, ...], "next":"..."}</code> ;
+ * XML : <code>&lt;users&gt;&lt;link href="users/..."/&gt;...&lt;next&gt;...&lt;/next&gt;&lt;/users&gt;</code>.
+ */
+final class UserLinksWriter {
+    // Le flux de la réponse est fermé par le conteneur, pas par le générateur
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder().disable(StreamWriteFeature.AUTO_CLOSE_TARGET).build();
+    private static final XMLOutputFactory XML_FACTORY = XMLOutputFactory.newFactory();
+
+    private UserLinksWriter() {
+    }
+
+    /**
+     * Écrit les liens vers des utilisateurs.
+     * @param out Le flux de la réponse
+     * @param type <code>application/xml</code> ou <code>application/json</code>
+     * @param users Les utilisateurs ; le stream est fermé à la fin de l'écriture, même si le client se déconnecte
+     *              (ce qui libère la connexion d'un parcours en base, ou les versions retenues par un parcours en mémoire)
+     * @param next Le lien vers la page suivante, ou <code>null</code>
+     * @throws IOException Si l'écriture échoue
+     */
+    static void write(OutputStream out, MediaType type, Stream<User> users, String next) throws IOException {
+        try (users) {
+            if (MediaType.APPLICATION_XML.isCompatibleWith(type)) {
+                writeXml(out, users.iterator(), next);
+            } else {
+                writeJson(out, users.iterator(), next);
+            }
+        }
+    }
+
+    private static void writeJson(OutputStream out, Iterator<User> users, String next) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("users");
+            while (users.hasNext()) {
+                generator.writeStartObject();
+                generator.writeStringField("link", "users/" + users.next().getLogin());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            if (next != null) {
+                generator.writeStringField("next", next);
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeXml(OutputStream out, Iterator<User> users, String next) throws IOException {
+        try {
+            XMLStreamWriter writer = XML_FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            writer.writeStartElement("users");
+            while (users.hasNext()) {
+                writer.writeEmptyElement("link");
+                writer.writeAttribute("href", "users/" + users.next().getLogin());
+            }
+            if (next != null) {
+                writer.writeStartElement("next");
+                writer.writeCharacters(next);
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Erreur d'écriture de la liste des utilisateurs", e);
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package fr.univlyon1.m1if.m1if13.users.handler;
 
-import fr.univlyon1.m1if.m1if13.users.dto.UserResponseDto;
+import com.fasterxml.jackson.databind.JsonNode;
+import fr.univlyon1.m1if.m1if13.users.dao.Upserted;
+import fr.univlyon1.m1if.m1if13.users.dao.Versioned;
+import fr.univlyon1.m1if.m1if13.users.dto.UserImportReportDto;
 import fr.univlyon1.m1if.m1if13.users.dto.UsersResponseDto;
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
 import fr.univlyon1.m1if.m1if13.users.model.User;
 import fr.univlyon1.m1if.m1if13.users.service.UserResourceService;
+import fr.univlyon1.m1if.m1if13.users.util.UserEventLog;
 import jakarta.servlet.ServletException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
@@ -14,29 +22,115 @@ import org.springframework.web.servlet.function.ServerResponse;
 
 import javax.naming.NameAlreadyBoundException;
 import javax.naming.NameNotFoundException;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 
 /**
  * Handler qui contient la logique du contrôleur de ressources sur les utilisateurs.
  */
 @Component
 public class UserResourceHandler {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
 
     @Autowired
     private UserResourceService userResourceService;
+    @Autowired
+    private UserEventLog userEventLog;
+
+    @Value("${users.events.keepAliveMs:15000}")
+    private long eventsKeepAliveMs;
+    @Value("${users.events.streamTimeoutMs:1800000}")
+    private long eventsStreamTimeoutMs;
 
+    /**
+     * Liste les utilisateurs. Trois modes :
+     * <ul>
+     *     <li>avec <code>species</code> et/ou <code>connected</code> : recherche dans les index du DAO ;</li>
+     *     <li>avec <code>limit</code> (et <code>cursor</code>) : une page, avec le lien vers la page suivante dans le corps
+     *     (<code>next</code>) et dans le header "Link" ;</li>
+     *     <li>sinon : tous les utilisateurs, écrits en flux au fur et à mesure du parcours du DAO.</li>
+     * </ul>
+     */
     public ServerResponse getAllUsers(ServerRequest request) {
-        UsersResponseDto usersDto = userResourceService.getAllUsersDto();
+        Optional<String> species = request.param("species");
+        Optional<String> connected = request.param("connected");
+        Optional<String> limit = request.param("limit");
+        Optional<String> cursor = request.param("cursor");
+        if (species.isEmpty() && connected.isEmpty()) {
+            MediaType type = negotiate(request);
+            if (limit.isEmpty() && cursor.isEmpty()) {
+                Collection<User> users = userResourceService.getAllUsers();
+                return ServerResponse.ok()
+                        .contentType(type)
+                        .build((servletRequest, servletResponse) -> {
+                            UserLinksWriter.write(servletResponse.getOutputStream(), type, users.stream(), null);
+                            return null;
+                        });
+            }
+            int pageSize;
+            try {
+                pageSize = limit.map(Integer::parseInt).orElse(DEFAULT_PAGE_SIZE);
+            } catch (NumberFormatException e) {
+                pageSize = -1;
+            }
+            if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+                return ServerResponse.badRequest().body("Le paramètre limit doit être compris entre 1 et " + MAX_PAGE_SIZE + ".");
+            }
+            UserResourceService.Page page;
+            try {
+                page = userResourceService.getUsersPage(cursor.orElse(null), pageSize);
+            } catch (IllegalArgumentException e) {
+                return ServerResponse.badRequest().body("Curseur invalide.");
+            }
+            String next = page.nextCursor() == null ? null : "users?limit=" + pageSize + "&cursor=" + page.nextCursor();
+            ServerResponse.BodyBuilder response = ServerResponse.ok().contentType(type);
+            if (next != null) {
+                response.header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+            }
+            return response.build((servletRequest, servletResponse) -> {
+                UserLinksWriter.write(servletResponse.getOutputStream(), type, page.users().stream(), next);
+                return null;
+            });
+        }
+        // Recherche dans les index : les critères absents ne filtrent pas
+        Species speciesFilter;
+        try {
+            speciesFilter = species.map(value -> Species.valueOf(value.toUpperCase(Locale.ROOT))).orElse(null);
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().body("Espèce inconnue : " + species.get());
+        }
+        if (connected.isPresent() && !connected.get().equalsIgnoreCase("true") && !connected.get().equalsIgnoreCase("false")) {
+            return ServerResponse.badRequest().body("Le paramètre connected doit valoir true ou false.");
+        }
+        UsersResponseDto usersDto = userResourceService.findUsersDto(speciesFilter, connected.map(Boolean::parseBoolean).orElse(null));
         return ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(usersDto);
     }
 
+    /**
+     * Choisit le format d'une liste écrite en flux : XML seulement si le client l'accepte et n'accepte pas JSON.
+     */
+    private static MediaType negotiate(ServerRequest request) {
+        List<MediaType> accepted = request.headers().accept();
+        boolean json = accepted.isEmpty() || accepted.stream().anyMatch(MediaType.APPLICATION_JSON::isCompatibleWith);
+        boolean xml = accepted.stream().anyMatch(MediaType.APPLICATION_XML::isCompatibleWith);
+        return xml && !json ? MediaType.APPLICATION_XML : MediaType.APPLICATION_JSON;
+    }
+
     public ServerResponse createUser(ServerRequest request) throws ServletException, IOException {
         User user = request.body(User.class);
         try {
-            URI location = userResourceService.createUser(user);
+            URI location = userResourceService.createUser(user, request.servletRequest());
             return ServerResponse.created(location).build();
         } catch (NameAlreadyBoundException e) {
             return ServerResponse.status(HttpStatus.CONFLICT)
@@ -44,37 +138,135 @@ public class UserResourceHandler {
         }
     }
 
-    public ServerResponse getUser(ServerRequest request) {
-        String userId = request.pathVariable("userId");
+    /**
+     * Crée les utilisateurs décrits dans le corps de la requête, au format NDJSON (un utilisateur par ligne).
+     * Le corps est lu au fil de l'eau ; la réponse indique les lignes rejetées.
+     */
+    public ServerResponse importUsers(ServerRequest request) throws IOException {
+        BufferedReader lines = new BufferedReader(new InputStreamReader(request.servletRequest().getInputStream(), StandardCharsets.UTF_8));
+        UserImportReportDto report = userResourceService.importUsers(lines, request.servletRequest());
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(report);
+    }
+
+    /**
+     * Exporte tous les utilisateurs au format NDJSON, écrits en flux au fur et à mesure du parcours du DAO.
+     */
+    public ServerResponse exportUsers(ServerRequest request) {
+        Collection<User> users = userResourceService.getAllUsers();
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .build((servletRequest, servletResponse) -> {
+                    UserExportWriter.write(servletResponse.getOutputStream(), users.stream());
+                    return null;
+                });
+    }
+
+    /**
+     * Diffuse les modifications des utilisateurs (Server-Sent Events). Avec le header "Last-Event-ID",
+     * reprend après l'événement indiqué, s'il est encore dans l'historique.
+     */
+    public ServerResponse streamEvents(ServerRequest request) {
+        String lastEventId = request.headers().firstHeader("Last-Event-ID");
+        Long after;
         try {
-            UserResponseDto user = userResourceService.getUser(userId);
-            return ServerResponse.ok()
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(user);
-        } catch (NameNotFoundException e) {
-            return ServerResponse.notFound().build();
+            after = lastEventId == null ? null : Long.valueOf(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return ServerResponse.badRequest().body("Le header Last-Event-ID doit être un numéro d'événement.");
         }
+        return ServerResponse.sse(sse -> UserEventStream.start(sse, userEventLog.subscribe(after), Duration.ofMillis(eventsKeepAliveMs)),
+                Duration.ofMillis(eventsStreamTimeoutMs));
     }
 
-    public ServerResponse updateUser(ServerRequest request) throws ServletException, IOException, NameNotFoundException {
+    /**
+     * Renvoie un utilisateur sans bloquer le thread de la requête : la réponse est écrite quand la lecture est terminée
+     * (immédiatement pour les DAOs en mémoire).
+     */
+    public ServerResponse getUser(ServerRequest request) {
+        String userId = request.pathVariable("userId");
+        return ServerResponse.async(userResourceService.getVersionedUserAsync(userId).thenApply(found -> found
+                .map(user -> ServerResponse.ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .eTag(String.valueOf(user.version()))
+                        .body(user.element()))
+                .orElseGet(() -> ServerResponse.notFound().build())));
+    }
+
+    public ServerResponse updateUser(ServerRequest request) throws ServletException, IOException {
         String userId = request.pathVariable("userId");
         String origin = request.headers().firstHeader("Origin");
+        String ifMatch = request.headers().firstHeader(HttpHeaders.IF_MATCH);
         User user = request.body(User.class);
 
-        try {
-            userResourceService.createUser(user);
+        // Mise à jour conditionnelle : l'utilisateur doit exister et ne pas avoir été modifié depuis la lecture de son ETag
+        if (ifMatch != null) {
+            try {
+                long version = userResourceService.updateUser(userId, user, origin, parseVersion(ifMatch), request.servletRequest());
+                return ServerResponse.noContent().eTag(String.valueOf(version)).build();
+            } catch (NameNotFoundException | StaleVersionException e) {
+                return ServerResponse.status(HttpStatus.PRECONDITION_FAILED)
+                        .body("L'utilisateur " + userId + " a été modifié ou supprimé depuis sa lecture.");
+            }
+        }
+
+        // Création ou mise à jour, en une seule opération sur le DAO
+        Upserted<User> upserted = userResourceService.upsertUser(userId, user, request.servletRequest());
+        if (upserted.created()) {
             return ServerResponse.created(URI.create("users/" + userId)).build();
-        } catch (NameAlreadyBoundException e) {
-            userResourceService.updateUser(userId, user, origin, request.servletRequest());
-            return ServerResponse.noContent().build();
         }
+        return ServerResponse.noContent().eTag(String.valueOf(upserted.value().version())).build();
     }
 
-    public ServerResponse deleteUser(ServerRequest request) {
+    /**
+     * Modifie un utilisateur à partir d'un document JSON Merge Patch (<code>application/merge-patch+json</code>).
+     * Avec le header "If-Match", la modification n'est appliquée que si l'utilisateur n'a pas été modifié depuis sa lecture.
+     */
+    public ServerResponse patchUser(ServerRequest request) throws ServletException, IOException {
         String userId = request.pathVariable("userId");
+        String ifMatch = request.headers().firstHeader(HttpHeaders.IF_MATCH);
+        JsonNode patch = request.body(JsonNode.class);
         try {
-            userResourceService.deleteUser(userId);
-        } catch (NameNotFoundException ignored) {}
-        return ServerResponse.noContent().build();
+            Versioned<User> updated = userResourceService.patchUser(userId, patch, ifMatch == null ? null : parseVersion(ifMatch),
+                    request.servletRequest());
+            return ServerResponse.noContent().eTag(String.valueOf(updated.version())).build();
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().body(e.getMessage());
+        } catch (NameNotFoundException e) {
+            return ifMatch == null ? ServerResponse.notFound().build() :
+                    ServerResponse.status(HttpStatus.PRECONDITION_FAILED).body("L'utilisateur " + userId + " a été supprimé depuis sa lecture.");
+        } catch (StaleVersionException e) {
+            return ServerResponse.status(HttpStatus.PRECONDITION_FAILED)
+                    .body("L'utilisateur " + userId + " a été modifié depuis sa lecture.");
+        }
+    }
+
+    /**
+     * Extrait la version attendue d'un header "If-Match".
+     * @param ifMatch La valeur du header : <code>"3"</code>, <code>W/"3"</code> ou <code>*</code>
+     * @return La version, <code>null</code> pour <code>*</code> (n'importe quelle version), ou -1 si l'ETag n'est pas une version
+     * (aucun élément n'a cette version : la mise à jour échouera)
+     */
+    private static Long parseVersion(String ifMatch) {
+        String etag = ifMatch.trim();
+        if (etag.equals("*")) {
+            return null;
+        }
+        if (etag.startsWith("W/")) {
+            etag = etag.substring(2);
+        }
+        try {
+            return Long.parseLong(etag.replace("\"", ""));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Supprime un utilisateur sans bloquer le thread de la requête. La réponse est la même que l'utilisateur ait existé ou non.
+     */
+    public ServerResponse deleteUser(ServerRequest request) {
+        String userId = request.pathVariable("userId");
+        return ServerResponse.async(userResourceService.deleteUserAsync(userId).thenApply(deleted -> ServerResponse.noContent().build()));
     }
 }
@@ -0,0 +1,28 @@
+package fr.univlyon1.m1if.m1if13.users.model;
+
+import java.time.Instant;
+
+/**
+ * Utilisateur authentifié par le token d'une requête.<br>
+ * Construit une seule fois par requête par <code>UserTokenProvider</code>, puis placé en attribut de requête
+ * pour que les filtres, l'interceptor et les contrôleurs n'aient pas à décoder de nouveau le token.
+ * @param login Le login de l'utilisateur (claim "sub")
+ * @param species L'espèce de l'utilisateur au moment de la génération du token
+ * @param origin L'origine du client pour lequel le token a été généré
+ * @param sessionId L'identifiant de la session à laquelle appartient le token (voir SessionRegistry)
+ * @param node L'identifiant de l'instance qui a ouvert la session, ou 0 pour une session de cette instance
+ * @param expiration La date d'expiration du token
+ */
+public record AuthenticatedUser(String login, Species species, String origin, long sessionId, long node, Instant expiration) {
+    /**
+     * Nom de l'attribut de requête contenant l'utilisateur authentifié.
+     */
+    public static final String REQUEST_ATTRIBUTE = "authenticatedUser";
+
+    /**
+     * Crée l'utilisateur authentifié d'une session ouverte par cette instance.
+     */
+    public AuthenticatedUser(String login, Species species, String origin, long sessionId, Instant expiration) {
+        this(login, species, origin, sessionId, 0, expiration);
+    }
+}
@@ -0,0 +1,94 @@
+package fr.univlyon1.m1if.m1if13.users.model;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Format de stockage des mots de passe : <code>pbkdf2-sha256$itérations$sel$condensat</code> (sel et condensat en Base64),
+ * le condensat étant dérivé du mot de passe par PBKDF2-HMAC-SHA256.<br>
+ * Une valeur qui n'a pas ce format est un mot de passe enregistré en clair avant l'introduction du hachage : elle est encore
+ * acceptée, et remplacée par un condensat à la connexion suivante (voir <code>PasswordHasher</code>).
+ */
+public final class PasswordHash {
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private PasswordHash() {
+    }
+
+    /**
+     * Calcule le condensat d'un mot de passe, avec un sel aléatoire.
+     * @param password Le mot de passe en clair
+     * @param iterations Le nombre d'itérations de PBKDF2 (coût du calcul)
+     * @return La valeur à stocker
+     */
+    public static String encode(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+    /**
+     * Vérifie un mot de passe, en temps constant par rapport à la valeur stockée.
+     * @param password Le mot de passe fourni
+     * @param stored La valeur stockée (condensat, ou mot de passe en clair)
+     * @return <code>true</code> si le mot de passe correspond
+     */
+    public static boolean matches(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            return MessageDigest.isEqual(derive(password, salt, Integer.parseInt(parts[0])), expected);
+        } catch (IllegalArgumentException e) {
+            // Valeur stockée mal formée : aucun mot de passe ne correspond
+            return false;
+        }
+    }
+
+    /**
+     * Renvoie le nombre d'itérations d'une valeur stockée.
+     * @param stored La valeur stockée
+     * @return Le nombre d'itérations, ou 0 pour un mot de passe en clair ou une valeur mal formée
+     */
+    public static int iterations(String stored) {
+        if (stored == null || !stored.startsWith(PREFIX)) {
+            return 0;
+        }
+        int end = stored.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 ? 0 : Integer.parseInt(stored.substring(PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -4,16 +4,15 @@ import javax.naming.AuthenticationException;
 
 /**
  * Représentation interne d'un utilisateur.
- * Contient à la fois les données "métier" (login, species...) et les données de gestion de la connexion.
+ * Immuable : une modification de l'utilisateur est une nouvelle instance, publiée par le DAO comme nouvelle version.
+ * L'état de connexion n'en fait pas partie : il est géré par le DAO (voir <code>UserQueryDao.setConnected</code>).
  */
 public class User {
     private final String login;
-    private String password;
-    private Species species;
-    // Permet d'invalider une connexion même si le token est toujours valide
-    private boolean connected = false;
+    private final String password;
+    private final Species species;
     // Nom du fichier image qui représentera l'utilisateur sur la carte
-    private String image;
+    private final String image;
 
     public User(String login, String password, Species species, String image) {
         this.login = login;
@@ -29,39 +28,24 @@ public class User {
     public String getPassword() {
         return password;
     }
-    
-    public void setPassword(String password) {
-        this.password = password;
-    }
 
     public Species getSpecies() {
         return species;
     }
 
-    public void setSpecies(Species species) {
-        this.species = species;
-    }
-
     public String getImage() {
         return image;
     }
 
-    public void setImage(String image) {
-        this.image = image;
-    }
-
-    public boolean isConnected() {
-        return this.connected;
-    }
-
+    /**
+     * Vérifie le mot de passe de l'utilisateur, stocké sous forme de condensat (voir <code>PasswordHash</code>).
+     * Le calcul est coûteux : les requêtes le font exécuter par <code>PasswordHasher</code>.
+     * @param password Le mot de passe fourni
+     * @throws AuthenticationException Si le mot de passe est incorrect
+     */
     public void authenticate(String password) throws AuthenticationException {
-        if(!password.equals(this.password)) {
+        if(!PasswordHash.matches(password, this.password)) {
             throw new AuthenticationException("Erroneous password");
         }
-        this.connected = true;
-    }
-
-    public void disconnect() {
-        this.connected = false;
     }
 }
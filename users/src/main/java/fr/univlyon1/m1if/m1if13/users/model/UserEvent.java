@@ -0,0 +1,20 @@
+package fr.univlyon1.m1if.m1if13.users.model;
+
+/**
+ * Modification d'un utilisateur, publiée dans le journal des événements (voir <code>UserEventLog</code>).
+ * Ne contient jamais le mot de passe.
+ * @param sequence Le numéro de l'événement, attribué par le journal (croissant et sans trou)
+ * @param type Le type de modification
+ * @param login Le login de l'utilisateur
+ * @param species L'espèce de l'utilisateur après une création ou une mise à jour, null sinon
+ * @param image L'image de l'utilisateur après une création ou une mise à jour, null sinon
+ * @param version La version de l'utilisateur après une création ou une mise à jour, 0 sinon
+ */
+public record UserEvent(long sequence, Type type, String login, Species species, String image, long version) {
+    /**
+     * Types de modifications.
+     */
+    public enum Type {
+        CREATED, UPDATED, DELETED, CONNECTED, DISCONNECTED
+    }
+}
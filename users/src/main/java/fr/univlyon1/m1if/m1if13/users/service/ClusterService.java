@@ -0,0 +1,194 @@
+package fr.univlyon1.m1if.m1if13.users.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import fr.univlyon1.m1if.m1if13.users.dao.UserQueryDao;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.util.ClusterMembership;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Service de gestion du cluster : changement de composition et déplacement des utilisateurs vers l'instance responsable.<br>
+ * Un utilisateur déplacé est d'abord envoyé à sa nouvelle instance (<code>POST /cluster/users</code>), puis retiré
+ * de l'instance courante seulement si l'envoi a réussi : un utilisateur n'est jamais perdu, au pire présent sur deux
+ * instances jusqu'au passage suivant. Ce retrait n'est pas une suppression (voir <code>UserQueryDao.evict</code>) :
+ * les tokens déjà délivrés restent valides et les abonnés aux événements ne reçoivent pas de suppression.<br>
+ * Le déplacement est aussi exécuté périodiquement, pour les utilisateurs créés sur une autre instance que la leur
+ * (import en masse, envoi qui a échoué).
+ */
+@Service
+public class ClusterService {
+    @Autowired
+    private ClusterMembership membership;
+
+    @Autowired
+    private UserQueryDao userDao;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${users.cluster.transferBatchSize:500}")
+    private int transferBatchSize;
+
+    @Value("${users.cluster.forwardTimeoutMs:5000}")
+    private long timeoutMs;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+
+    // Sérialise les passages de déplacement (changement de composition et passage périodique)
+    private final Object rebalanceLock = new Object();
+
+    /**
+     * Change la composition du cluster, puis déplace les utilisateurs de cette instance qui appartiennent désormais à une autre.
+     * @param nodes Les URLs de base des instances
+     * @param propagate Si <code>true</code>, la nouvelle composition est aussi envoyée aux autres instances, anciennes et nouvelles
+     *                  (chacune déplace alors ses propres utilisateurs)
+     * @return Le nombre d'utilisateurs déplacés depuis cette instance
+     * @throws IOException Si une instance n'a pas pu être prévenue (les instances déjà prévenues gardent la nouvelle composition)
+     */
+    public int changeNodes(List<String> nodes, boolean propagate) throws IOException {
+        Set<String> targets = new LinkedHashSet<>(membership.getNodes());
+        membership.setNodes(nodes);
+        if (propagate) {
+            targets.addAll(membership.getNodes());
+            targets.remove(membership.getSelf());
+            byte[] body = objectMapper.writeValueAsBytes(membership.getNodes());
+            for (String target : targets) {
+                send(HttpRequest.newBuilder(URI.create(target + "/cluster/nodes?propagate=false"))
+                        .header("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(body)));
+            }
+        }
+        return rebalance();
+    }
+
+    /**
+     * Déplace les utilisateurs de cette instance qui appartiennent à une autre instance.
+     * Les envois qui échouent sont retentés au passage suivant.
+     * @return Le nombre d'utilisateurs déplacés
+     */
+    @Scheduled(fixedDelayString = "${users.cluster.rebalanceIntervalMs:60000}")
+    public int rebalance() {
+        if (!membership.isEnabled()) {
+            return 0;
+        }
+        synchronized (rebalanceLock) {
+            Map<String, List<User>> moves = new LinkedHashMap<>();
+            for (User user : userDao.findAll()) {
+                if (!membership.isLocal(user.getLogin())) {
+                    moves.computeIfAbsent(membership.ownerOf(user.getLogin()), owner -> new ArrayList<>()).add(user);
+                }
+            }
+            int moved = 0;
+            for (Map.Entry<String, List<User>> move : moves.entrySet()) {
+                List<User> users = move.getValue();
+                for (int start = 0; start < users.size(); start += transferBatchSize) {
+                    List<User> batch = users.subList(start, Math.min(users.size(), start + transferBatchSize));
+                    try {
+                        transfer(move.getKey(), batch);
+                    } catch (IOException e) {
+                        // Instance injoignable : les utilisateurs restent ici jusqu'au passage suivant
+                        break;
+                    }
+                    for (User user : batch) {
+                        try {
+                            userDao.evict(user.getLogin());
+                            moved++;
+                        } catch (NameNotFoundException ignored) {
+                            // Supprimé entre-temps
+                        }
+                    }
+                }
+            }
+            return moved;
+        }
+    }
+
+    /**
+     * Enregistre les utilisateurs envoyés par une autre instance, au format NDJSON (un utilisateur complet par ligne).
+     * Un utilisateur déjà présent est conservé dans son état actuel : il a été créé ou modifié ici après le changement de composition.
+     * @param lines Le corps de la requête
+     * @return Le nombre d'utilisateurs reçus
+     * @throws IOException Si la lecture du corps échoue
+     * @throws IllegalArgumentException Si une ligne n'est pas un utilisateur valide (l'instance émettrice conserve alors tout le lot)
+     */
+    public int receiveUsers(BufferedReader lines) throws IOException {
+        ObjectReader reader = objectMapper.readerFor(User.class);
+        int received = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            if (line.isBlank()) {
+                continue;
+            }
+            User user;
+            try {
+                user = reader.readValue(line);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Utilisateur invalide : " + e.getOriginalMessage());
+            }
+            if (user == null || user.getLogin() == null || user.getLogin().isBlank()) {
+                throw new IllegalArgumentException("Le login est obligatoire.");
+            }
+            try {
+                userDao.add(user);
+            } catch (NameAlreadyBoundException ignored) {
+                // L'état présent ici est plus récent que celui de l'instance émettrice
+            }
+            received++;
+        }
+        return received;
+    }
+
+    private void transfer(String owner, Collection<User> users) throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (User user : users) {
+            body.append(objectMapper.writeValueAsString(user)).append('\n');
+        }
+        send(HttpRequest.newBuilder(URI.create(owner + "/cluster/users"))
+                .header("Content-Type", MediaType.APPLICATION_NDJSON_VALUE)
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString())));
+    }
+
+    /**
+     * Envoie une requête interne au cluster.
+     * @throws IOException Si l'instance est injoignable ou ne répond pas par un succès
+     */
+    private void send(HttpRequest.Builder request) throws IOException {
+        HttpResponse<Void> response;
+        try {
+            response = client.send(request.timeout(Duration.ofMillis(timeoutMs))
+                    .header(ClusterMembership.SECRET_HEADER, membership.getSecret())
+                    .build(), HttpResponse.BodyHandlers.discarding());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Envoi interrompu", e);
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Réponse " + response.statusCode() + " de " + response.uri());
+        }
+    }
+}
@@ -1,15 +1,34 @@
 package fr.univlyon1.m1if.m1if13.users.service;
 
 import fr.univlyon1.m1if.m1if13.users.dto.LoginRequestDto;
+import fr.univlyon1.m1if.m1if13.users.dto.TokenValidationRequestDto;
+import fr.univlyon1.m1if.m1if13.users.dto.TokenValidationResultDto;
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
 import fr.univlyon1.m1if.m1if13.users.model.User;
-import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
+import fr.univlyon1.m1if.m1if13.users.dao.UserQueryDao;
+import fr.univlyon1.m1if.m1if13.users.util.PasswordHasher;
+import fr.univlyon1.m1if.m1if13.users.util.RefreshTokenStore;
+import fr.univlyon1.m1if.m1if13.users.util.RevocationBus;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
 import fr.univlyon1.m1if.m1if13.users.util.UserTokenProvider;
+import fr.univlyon1.m1if.m1if13.users.util.VerifiedTokenCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.naming.AuthenticationException;
 import javax.naming.NameNotFoundException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 /**
  * Méthodes de service du contrôleur d'opérations sur les utilisateurs.
@@ -20,34 +39,152 @@ public class UserOperationService {
     @Autowired
     private UserTokenProvider userTokenProvider;
     @Autowired
-    private UserDao userDao;
+    private UserQueryDao userDao;
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
+    @Autowired
+    private SessionRegistry sessionRegistry;
+    @Autowired
+    private RefreshTokenStore refreshTokenStore;
+    @Autowired(required = false)
+    private RevocationBus revocationBus;
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Value("${authenticate.batch.maxSize:1000}")
+    private int maxBatchSize;
+    @Value("${authenticate.batch.threads:0}")
+    private int batchThreads;
+    @Value("${users.replication.role:none}")
+    private String replicationRole;
+
+    // Pool des vérifications de lots de tokens, distinct du pool commun de la JVM et de celui des imports
+    private ThreadPoolExecutor batchExecutor;
+
+    /**
+     * Crée le pool des vérifications de lots : sa file est bornée à la taille maximale d'un lot, et quand elle est pleine,
+     * le thread de la requête vérifie lui-même ses tokens, ce qui ralentit l'appelant au lieu d'accumuler les tâches.
+     */
+    @PostConstruct
+    public void start() {
+        int poolSize = batchThreads > 0 ? batchThreads : Runtime.getRuntime().availableProcessors();
+        batchExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, maxBatchSize)),
+                Thread.ofPlatform().daemon().name("token-batch-", 0).factory(), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void stop() {
+        batchExecutor.shutdownNow();
+    }
 
     /**
-     * Méthode réalisant le login : valide le contenu de la requête et place les informations sur l'utilisateur dans une Map en attribut de requête.
+     * Méthode réalisant le login : valide le contenu de la requête et place les informations sur l'utilisateur dans une Map en attribut de requête.<br>
+     * Le mot de passe est vérifié par le pool de hachage (voir <code>PasswordHasher</code>) ; si son condensat doit être
+     * recalculé (mot de passe stocké en clair ou coût augmenté), le nouveau est enregistré, sauf si l'utilisateur a été modifié entre-temps.
+     * Si trop de vérifications sont en attente, la connexion est refusée (<code>OverloadedException</code>, réponse 503).
      * @param dto L'utilisateur trouvé dans le DAO
      * @param request La requête (nécessaire pour rajouter le header "Authorization" avec le token JWT via l'interceptor).
      * @throws NameNotFoundException Si le login de l'utilisateur ne correspond pas à un utilisateur existant
-     * @throws MatchException Si la vérification des credentials de l'utilisateur a échoué.
+     * @throws AuthenticationException Si la vérification des credentials de l'utilisateur a échoué.
      */
     public void login(LoginRequestDto dto, String origin, HttpServletRequest request) throws NameNotFoundException, AuthenticationException {
         User user = userDao.findOne(dto.login());
-        user.authenticate(dto.password());
+        PasswordHasher.Verification verification = passwordHasher.verify(dto.password(), user.getPassword());
+        if (!verification.matches()) {
+            throw new AuthenticationException("Erroneous password");
+        }
+        // Une réplique ne modifie pas les utilisateurs : le leader recalculera le condensat à la prochaine connexion qu'il traitera
+        if (verification.rehashed() != null && !"follower".equals(replicationRole)) {
+            User stored = user;
+            user = userDao.compute(dto.login(), current -> Objects.equals(current.getPassword(), stored.getPassword()) ?
+                    new User(current.getLogin(), verification.rehashed(), current.getSpecies(), current.getImage()) : current).element();
+        }
+        userDao.setConnected(dto.login(), true);
 
         request.setAttribute("generateToken", true);
-        request.setAttribute("userLogin", user.getLogin());
+        request.setAttribute("user", user);
+    }
+
+    /**
+     * Méthode réalisant la déconnexion : révoque uniquement la session du token utilisé pour la requête.
+     * Les autres sessions de l'utilisateur (autres appareils) restent valides ; l'utilisateur n'est marqué comme déconnecté
+     * que lorsque sa dernière session est fermée.<br>
+     * La fermeture est diffusée aux autres instances (voir <code>RevocationBus</code>), qui refusent alors le token,
+     * y compris si la session a été ouverte par l'une d'elles.
+     * @param authenticatedUser l'utilisateur à déconnecter (positionné dans les attributs de la requête par les filtres)
+     */
+    public void logout(AuthenticatedUser authenticatedUser) {
+        if (authenticatedUser.node() == 0) {
+            sessionRegistry.revoke(authenticatedUser.sessionId());
+        }
+        if (revocationBus != null) {
+            long node = authenticatedUser.node() == 0 ? sessionRegistry.getNodeId() : authenticatedUser.node();
+            revocationBus.revokeSession(node, authenticatedUser.sessionId());
+        }
+        String username = authenticatedUser.login();
+        if (!sessionRegistry.hasActiveSession(username)) {
+            try {
+                userDao.setConnected(username, false);
+                verifiedTokenCache.evictSubject(username);
+            } catch (NameNotFoundException ignored) {}
+        }
     }
 
     /**
-     * Méthode appelant la déconnexion dans le <code>ConnectionManager</code>.
-     * @param username le login de l'utilisateur à déconnecter (supposé positionné dans les attributs de la requête)
+     * Méthode réalisant le renouvellement d'une session : échange un refresh token contre un nouveau token d'accès.<br>
+     * Ne vérifie pas le mot de passe : le refresh token suffit. La recherche dans le DAO ne sert qu'à mettre à jour
+     * les claims du token d'accès (l'espèce de l'utilisateur a pu changer).
+     * @param refreshToken Le refresh token présenté par le client
+     * @return Le nouveau token d'accès et le nouveau refresh token
+     * @throws AuthenticationException Si le refresh token est invalide, déjà utilisé, ou si sa session a été fermée
      */
-    public void logout(String username) {
+    public UserTokenProvider.IssuedTokens refresh(String refreshToken) throws AuthenticationException {
+        RefreshTokenStore.Rotation rotation = refreshTokenStore.rotate(refreshToken);
+        UserTokenProvider.IssuedTokens tokens;
         try {
-            userDao.findOne(username).disconnect();
-        } catch (NameNotFoundException ignored) {}
+            tokens = userTokenProvider.refreshSession(userDao.findOne(rotation.login()), rotation);
+        } catch (NameNotFoundException e) {
+            tokens = null;
+        }
+        if (tokens == null) {
+            throw new AuthenticationException("Session fermée.");
+        }
+        return tokens;
     }
 
     public boolean authenticate(String jwt, String origin) {
         return userTokenProvider.validateToken(jwt, origin);
     }
+
+    /**
+     * Vérifie un lot de tokens en parallèle.<br>
+     * Les vérifications sont toutes lancées avant le retour de la méthode ; le flux renvoyé fournit les résultats dans l'ordre du lot,
+     * au fur et à mesure qu'ils sont disponibles.
+     * @param tokens Les couples token / origine à vérifier
+     * @return Un flux contenant un résultat par élément du lot, dans le même ordre
+     * @throws IllegalArgumentException Si le lot est vide ou dépasse la taille maximale autorisée
+     */
+    public Stream<TokenValidationResultDto> authenticateBatch(List<TokenValidationRequestDto> tokens) {
+        if (tokens == null || tokens.isEmpty()) {
+            throw new IllegalArgumentException("Le lot de tokens à vérifier est vide.");
+        }
+        if (tokens.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Le lot de tokens ne doit pas dépasser " + maxBatchSize + " éléments.");
+        }
+        List<CompletableFuture<TokenValidationResultDto>> results = tokens.stream()
+                .map(token -> CompletableFuture.supplyAsync(() -> introspect(token), batchExecutor))
+                .toList();
+        return results.stream().map(CompletableFuture::join);
+    }
+
+    private TokenValidationResultDto introspect(TokenValidationRequestDto token) {
+        if (token == null || token.jwt() == null || token.origin() == null) {
+            return TokenValidationResultDto.invalid();
+        }
+        AuthenticatedUser authenticatedUser = userTokenProvider.authenticate(token.jwt());
+        if (authenticatedUser == null || !authenticatedUser.origin().equals(token.origin())) {
+            return TokenValidationResultDto.invalid();
+        }
+        return TokenValidationResultDto.of(authenticatedUser, Instant.now());
+    }
 }
@@ -1,68 +1,497 @@
 package fr.univlyon1.m1if.m1if13.users.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import fr.univlyon1.m1if.m1if13.users.dto.UserImportErrorDto;
+import fr.univlyon1.m1if.m1if13.users.dto.UserImportReportDto;
 import fr.univlyon1.m1if.m1if13.users.dto.UserResponseDto;
 import fr.univlyon1.m1if.m1if13.users.dto.UsersResponseDto;
 import fr.univlyon1.m1if.m1if13.users.dto.LinkDto;
+import fr.univlyon1.m1if.m1if13.users.exception.ForbiddenOperationException;
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
 import fr.univlyon1.m1if.m1if13.users.model.User;
-import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
+import fr.univlyon1.m1if.m1if13.users.dao.AsyncDao;
+import fr.univlyon1.m1if.m1if13.users.dao.Upserted;
+import fr.univlyon1.m1if.m1if13.users.dao.UserQueryDao;
+import fr.univlyon1.m1if.m1if13.users.dao.Versioned;
+import fr.univlyon1.m1if.m1if13.users.util.PasswordHasher;
+import fr.univlyon1.m1if.m1if13.users.util.UserTokenProvider;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.naming.NameAlreadyBoundException;
 import javax.naming.NameNotFoundException;
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 /**
  * Méthodes de service du contrôleur de ressources sur les utilisateurs.
   */
 @Service
 public class UserResourceService {
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    // Champs d'un utilisateur dans un document JSON Merge Patch
+    private static final Set<String> PATCHABLE_FIELDS = Set.of("login", "password", "species", "image");
+    private static final String ADMIN_SPECIES_REFUSED = "L'espèce ADMIN ne peut être attribuée que par un administrateur.";
 
     @Autowired
-    private UserDao userDao;
+    private UserQueryDao userDao;
 
+    @Autowired
+    private AsyncDao<User> asyncUserDao;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private UserTokenProvider userTokenProvider;
+
+    @Value("${users.import.batchSize:500}")
+    private int importBatchSize;
+    @Value("${users.import.threads:0}")
+    private int importThreads;
+
+    // Pool des lots d'import, distinct du pool commun de la JVM et de celui des vérifications de lots de tokens
+    private ThreadPoolExecutor importExecutor;
+
+    /**
+     * Crée le pool des lots d'import. Chaque import borne déjà ses lots en cours ; si plusieurs imports simultanés
+     * remplissent la file, le thread de la requête importe lui-même son lot.
+     */
+    @PostConstruct
+    public void start() {
+        int poolSize = importThreads > 0 ? importThreads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        importExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(2 * poolSize),
+                Thread.ofPlatform().daemon().name("user-import-", 0).factory(), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void stop() {
+        importExecutor.shutdownNow();
+    }
+
+    /**
+     * Page d'utilisateurs.
+     * @param users Les utilisateurs de la page, dans l'ordre des logins
+     * @param nextCursor Le curseur de la page suivante, ou null s'il s'agit de la dernière page
+     */
+    public record Page(List<User> users, String nextCursor) {
+    }
+
+    /**
+     * Renvoie tous les utilisateurs, sans les copier : la collection est parcourue au fur et à mesure de l'écriture de la réponse.
+     * @return Les utilisateurs
+     */
     public Collection<User> getAllUsers() {
         return userDao.findAll();
     }
 
     public UsersResponseDto getAllUsersDto() {
-        return new UsersResponseDto(userDao
-                .findAll().stream()
-                .map(User::getLogin)
-                .map(s -> "users/" + s)
-                .map(LinkDto::new)
-                .toList()
-        );
+        return toDto(userDao.findAll());
     }
 
-    public URI createUser(User user) throws NameAlreadyBoundException {
-        userDao.add(user);
+    /**
+     * Renvoie une page d'utilisateurs.
+     * @param cursor Le curseur opaque renvoyé avec la page précédente, ou <code>null</code> pour la première page
+     * @param limit Le nombre maximal d'utilisateurs de la page
+     * @return La page et le curseur de la suivante
+     * @throws IllegalArgumentException Si le curseur n'a pas été produit par cette méthode
+     */
+    public Page getUsersPage(String cursor, int limit) {
+        String after = null;
+        if (cursor != null) {
+            after = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        }
+        // Un utilisateur de plus que demandé indique s'il existe une page suivante
+        List<User> users = userDao.findPage(after, limit + 1);
+        if (users.size() <= limit) {
+            return new Page(users, null);
+        }
+        List<User> page = users.subList(0, limit);
+        String last = page.get(limit - 1).getLogin();
+        return new Page(page, Base64.getUrlEncoder().withoutPadding().encodeToString(last.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Renvoie les liens vers les utilisateurs correspondant à des critères (recherche dans les index du DAO).
+     * @param species L'espèce recherchée, ou <code>null</code> pour toutes les espèces
+     * @param connected L'état de connexion recherché, ou <code>null</code> pour les utilisateurs connectés ou non
+     * @return Les liens vers les utilisateurs trouvés
+     */
+    public UsersResponseDto findUsersDto(Species species, Boolean connected) {
+        return toDto(userDao.findBy(species, connected));
+    }
+
+    private static UsersResponseDto toDto(Collection<User> users) {
+        // Le stream est fermé même si la construction échoue : un parcours du DAO ne retient pas ses ressources
+        try (Stream<User> stream = users.stream()) {
+            return new UsersResponseDto(stream
+                    .map(User::getLogin)
+                    .map(s -> "users/" + s)
+                    .map(LinkDto::new)
+                    .toList()
+            );
+        }
+    }
+
+    /**
+     * Crée un utilisateur, dont le mot de passe est haché par le pool dédié (voir <code>PasswordHasher</code>).
+     * @param user L'utilisateur à créer
+     * @param request La requête (la création est publique : seul un administrateur authentifié peut créer un administrateur)
+     * @return L'URL de l'utilisateur créé
+     * @throws NameAlreadyBoundException Si un utilisateur avec ce login existe déjà
+     * @throws ForbiddenOperationException Si l'espèce ADMIN est demandée par un utilisateur qui n'est pas administrateur
+     */
+    public URI createUser(User user, HttpServletRequest request) throws NameAlreadyBoundException {
+        checkSpecies(user == null ? null : user.getSpecies(), request);
+        userDao.add(withHashedPassword(user, passwordHasher::hash));
         return URI.create("users/" + user.getLogin());
     }
 
+    /**
+     * Importe des utilisateurs décrits au format NDJSON : un objet JSON par ligne, comme le corps de <code>POST /users</code>.<br>
+     * Les lignes sont lues au fil de l'eau et regroupées en lots, qui sont lus, validés et insérés en parallèle (les DAOs
+     * qui regroupent les écritures concurrentes, comme <code>JdbcUserDao</code>, les envoient alors par lots à la base).
+     * Le nombre de lots en cours est borné : la mémoire utilisée ne dépend pas de la taille du corps.<br>
+     * Une ligne invalide, ou dont le login existe déjà, est rejetée sans interrompre l'import.
+     * Les lots sont exécutés par un pool dédié (<code>users.import.threads</code>) et y hachent eux-mêmes les mots de passe,
+     * sans passer par la file bornée des requêtes interactives.
+     * Une ligne qui demande l'espèce ADMIN est rejetée si l'utilisateur à l'origine de la requête n'est pas administrateur.
+     * @param lines Le corps de la requête
+     * @param request La requête
+     * @return Le nombre d'utilisateurs créés et de lignes rejetées, avec le détail des rejets
+     * @throws IOException Si la lecture du corps échoue (les lots déjà lus sont tout de même importés)
+     */
+    public UserImportReportDto importUsers(BufferedReader lines, HttpServletRequest request) throws IOException {
+        ObjectReader reader = objectMapper.readerFor(User.class);
+        ImportProgress progress = new ImportProgress(isAdmin(request));
+        int maxInFlight = 2 * importExecutor.getMaximumPoolSize();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try {
+            List<String> batch = new ArrayList<>(importBatchSize);
+            long lineNumber = 0;
+            for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                lineNumber++;
+                batch.add(line);
+                if (batch.size() == importBatchSize) {
+                    submitBatch(reader, batch, lineNumber - batch.size() + 1, progress, inFlight);
+                    batch = new ArrayList<>(importBatchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submitBatch(reader, batch, lineNumber - batch.size() + 1, progress, inFlight);
+            }
+        } finally {
+            // Attente de la fin des lots en cours
+            inFlight.acquireUninterruptibly(maxInFlight);
+        }
+        return progress.report();
+    }
+
+    private void submitBatch(ObjectReader reader, List<String> batch, long firstLine, ImportProgress progress, Semaphore inFlight) {
+        inFlight.acquireUninterruptibly();
+        CompletableFuture.runAsync(() -> importBatch(reader, batch, firstLine, progress), importExecutor)
+                .whenComplete((ignored, e) -> inFlight.release());
+    }
+
+    private void importBatch(ObjectReader reader, List<String> batch, long firstLine, ImportProgress progress) {
+        for (int i = 0; i < batch.size(); i++) {
+            long lineNumber = firstLine + i;
+            if (batch.get(i).isBlank()) {
+                continue;
+            }
+            User user;
+            try {
+                user = reader.readValue(batch.get(i));
+            } catch (JsonProcessingException e) {
+                progress.reject(lineNumber, null, "Ligne JSON invalide : " + e.getOriginalMessage());
+                continue;
+            }
+            if (user == null || user.getLogin() == null || user.getLogin().isBlank()) {
+                progress.reject(lineNumber, null, "Le login est obligatoire.");
+            } else if (user.getPassword() == null || user.getPassword().isEmpty()) {
+                progress.reject(lineNumber, user.getLogin(), "Le mot de passe est obligatoire.");
+            } else if (user.getSpecies() == Species.ADMIN && !progress.admin) {
+                progress.reject(lineNumber, user.getLogin(), ADMIN_SPECIES_REFUSED);
+            } else {
+                try {
+                    userDao.add(withHashedPassword(user, passwordHasher::encode));
+                    progress.imported.increment();
+                } catch (NameAlreadyBoundException e) {
+                    progress.reject(lineNumber, user.getLogin(), "Un utilisateur avec ce login existe déjà.");
+                } catch (RuntimeException e) {
+                    progress.reject(lineNumber, user.getLogin(), "Erreur d'enregistrement : " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Avancement d'un import, mis à jour par les lots en parallèle.
+     */
+    private static final class ImportProgress {
+        private final boolean admin;
+        private final LongAdder imported = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final Queue<UserImportErrorDto> errors = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger reported = new AtomicInteger();
+
+        ImportProgress(boolean admin) {
+            this.admin = admin;
+        }
+
+        void reject(long line, String login, String error) {
+            rejected.increment();
+            if (reported.getAndIncrement() < MAX_REPORTED_ERRORS) {
+                errors.add(new UserImportErrorDto(line, login, error));
+            }
+        }
+
+        UserImportReportDto report() {
+            List<UserImportErrorDto> sorted = new ArrayList<>(errors);
+            sorted.sort(Comparator.comparingLong(UserImportErrorDto::line));
+            return new UserImportReportDto(imported.sum(), rejected.sum(), sorted);
+        }
+    }
+
     public UserResponseDto getUser(String login) throws NameNotFoundException {
         return UserResponseDto.of(userDao.findOne(login));
     }
 
-    public void updateUser(String login, User user, String origin, HttpServletRequest request) throws NameNotFoundException {
-        //teste si des champs de user sont vide et si oui on les remplace par ceux de l'utilisateur
-        if (user.getPassword() == null || user.getPassword().isEmpty()) {
-            user.setPassword(userDao.findOne(login).getPassword());
+    /**
+     * Renvoie un utilisateur avec sa version (utilisée comme ETag).
+     * @param login Le login de l'utilisateur
+     * @return La représentation de l'utilisateur et sa version
+     * @throws NameNotFoundException Si l'utilisateur n'existe pas
+     */
+    public Versioned<UserResponseDto> getVersionedUser(String login) throws NameNotFoundException {
+        Versioned<User> versioned = userDao.findVersioned(login);
+        return new Versioned<>(UserResponseDto.of(versioned.element()), versioned.version());
+    }
+
+    /**
+     * Version asynchrone de <code>getVersionedUser</code>, qui ne bloque pas le thread appelant pendant la lecture.
+     * @param login Le login de l'utilisateur
+     * @return La représentation de l'utilisateur et sa version, ou un <code>Optional</code> vide si l'utilisateur n'existe pas
+     */
+    public CompletableFuture<Optional<Versioned<UserResponseDto>>> getVersionedUserAsync(String login) {
+        return asyncUserDao.findVersioned(login)
+                .thenApply(found -> found.map(versioned -> new Versioned<>(UserResponseDto.of(versioned.element()), versioned.version())));
+    }
+
+    /**
+     * Met à jour un utilisateur. Les champs vides de <code>user</code> sont remplis avec ceux de l'utilisateur existant.
+     * @param login Le login de l'utilisateur
+     * @param user Le nouvel état de l'utilisateur
+     * @param origin L'origine de la requête
+     * @param expectedVersion La version de l'utilisateur sur laquelle le client a basé sa modification (header "If-Match"),
+     *                        ou <code>null</code> pour une mise à jour inconditionnelle
+     * @param request La requête (l'utilisateur mis à jour y est placé pour que l'interceptor génère un nouveau token)
+     * @return La nouvelle version de l'utilisateur
+     * @throws NameNotFoundException Si l'utilisateur n'existe pas
+     * @throws StaleVersionException Si l'utilisateur a été modifié depuis la version attendue
+     * @throws ForbiddenOperationException Si l'espèce ADMIN est demandée par un utilisateur qui n'est pas administrateur
+     */
+    public long updateUser(String login, User user, String origin, Long expectedVersion, HttpServletRequest request)
+            throws NameNotFoundException, StaleVersionException {
+        checkSpecies(user == null ? null : user.getSpecies(), request);
+        User hashed = withHashedPassword(user, passwordHasher::hash);
+        Versioned<User> updated;
+        if (expectedVersion == null) {
+            // Lecture de l'état courant et écriture du nouvel état en une seule opération atomique
+            updated = userDao.compute(login, current -> completeWith(hashed, current));
+        } else {
+            User completed = completeWith(hashed, userDao.findVersioned(login).element());
+            updated = new Versioned<>(completed, userDao.update(login, completed, expectedVersion));
         }
-        if (user.getSpecies() == null) {
-            user.setSpecies(userDao.findOne(login).getSpecies());
+        request.setAttribute("generateToken", true);
+        request.setAttribute("user", updated.element());
+        return updated.version();
+    }
+
+    /**
+     * Crée un utilisateur ou met à jour l'utilisateur existant (<code>PUT /users/{userId}</code>), en une seule opération sur le DAO.
+     * Lors d'une mise à jour, les champs vides de <code>user</code> sont remplis avec ceux de l'utilisateur existant.
+     * @param login Le login de l'utilisateur (celui de l'URL)
+     * @param user Le nouvel état de l'utilisateur
+     * @param request La requête (après une mise à jour, l'utilisateur y est placé pour que l'interceptor génère un nouveau token)
+     * @return Le nouvel état de l'utilisateur, avec sa version, et s'il a été créé
+     * @throws ForbiddenOperationException Si l'espèce ADMIN est demandée par un utilisateur qui n'est pas administrateur
+     */
+    public Upserted<User> upsertUser(String login, User user, HttpServletRequest request) {
+        checkSpecies(user == null ? null : user.getSpecies(), request);
+        // Le mot de passe est haché avant l'opération sur le DAO, qui peut être rejouée
+        User hashed = withHashedPassword(user, passwordHasher::hash);
+        Upserted<User> upserted = userDao.upsert(login, current -> current == null ?
+                new User(login, hashed.getPassword(), hashed.getSpecies(), hashed.getImage()) :
+                completeWith(hashed, current));
+        if (!upserted.created()) {
+            request.setAttribute("generateToken", true);
+            request.setAttribute("user", upserted.value().element());
         }
-        if (user.getImage() == null || user.getImage().isEmpty()) {
-            user.setImage(userDao.findOne(login).getImage());
+        return upserted;
+    }
+
+    /**
+     * Modifie un utilisateur à partir d'un document JSON Merge Patch (RFC 7396, <code>PATCH /users/{userId}</code>) :
+     * les champs présents remplacent ceux de l'utilisateur, un champ <code>null</code> est effacé (sauf le mot de passe et l'espèce),
+     * les champs absents sont conservés.
+     * Le document est vérifié avant l'accès au DAO ; sans version attendue, l'utilisateur est lu et modifié en une seule opération.
+     * @param login Le login de l'utilisateur
+     * @param patch Le document
+     * @param expectedVersion La version de l'utilisateur sur laquelle le client a basé sa modification (header "If-Match"),
+     *                        ou <code>null</code> pour une modification inconditionnelle
+     * @param request La requête (l'utilisateur modifié y est placé pour que l'interceptor génère un nouveau token)
+     * @return Le nouvel état de l'utilisateur, avec sa version
+     * @throws IllegalArgumentException Si le document n'est pas un objet, contient un champ inconnu ou une valeur invalide
+     * @throws NameNotFoundException Si l'utilisateur n'existe pas
+     * @throws StaleVersionException Si l'utilisateur a été modifié depuis la version attendue
+     * @throws ForbiddenOperationException Si l'espèce ADMIN est demandée par un utilisateur qui n'est pas administrateur
+     */
+    public Versioned<User> patchUser(String login, JsonNode patch, Long expectedVersion, HttpServletRequest request)
+            throws NameNotFoundException, StaleVersionException {
+        UnaryOperator<User> merge = mergePatch(login, patch, request);
+        Versioned<User> updated;
+        if (expectedVersion == null) {
+            updated = userDao.compute(login, merge);
+        } else {
+            User patched = merge.apply(userDao.findVersioned(login).element());
+            updated = new Versioned<>(patched, userDao.update(login, patched, expectedVersion));
         }
-        userDao.update(login, user);
         request.setAttribute("generateToken", true);
-        request.setAttribute("userLogin", user.getLogin());
+        request.setAttribute("user", updated.element());
+        return updated;
+    }
+
+    /**
+     * Vérifie un document JSON Merge Patch et renvoie la fonction qui l'applique à un utilisateur.
+     * Le login ne peut pas être modifié, le mot de passe et l'espèce ne peuvent pas être effacés, et l'espèce ADMIN n'est
+     * attribuée que par un administrateur ; un nouveau mot de passe est haché une fois le document vérifié.
+     */
+    private UnaryOperator<User> mergePatch(String login, JsonNode patch, HttpServletRequest request) {
+        if (patch == null || !patch.isObject()) {
+            throw new IllegalArgumentException("Le document doit être un objet JSON.");
+        }
+        for (Map.Entry<String, JsonNode> field : patch.properties()) {
+            if (!PATCHABLE_FIELDS.contains(field.getKey())) {
+                throw new IllegalArgumentException("Champ inconnu : " + field.getKey() + ".");
+            }
+        }
+        JsonNode newLogin = patch.get("login");
+        if (newLogin != null && !login.equals(newLogin.asText())) {
+            throw new IllegalArgumentException("Le login ne peut pas être modifié.");
+        }
+        JsonNode password = patch.get("password");
+        if (password != null && (!password.isTextual() || password.asText().isEmpty())) {
+            throw new IllegalArgumentException("Le mot de passe doit être une chaîne non vide.");
+        }
+        JsonNode species = patch.get("species");
+        if (species != null && species.isNull()) {
+            throw new IllegalArgumentException("L'espèce ne peut pas être effacée.");
+        }
+        Species newSpecies = species == null ? null : parseSpecies(species);
+        checkSpecies(newSpecies, request);
+        JsonNode image = patch.get("image");
+        if (image != null && !image.isNull() && !image.isTextual()) {
+            throw new IllegalArgumentException("L'image doit être une chaîne.");
+        }
+        String newImage = image == null || image.isNull() ? null : image.asText();
+        String newPassword = password == null ? null : passwordHasher.hash(password.asText());
+        return current -> new User(current.getLogin(),
+                password == null ? current.getPassword() : newPassword,
+                species == null ? current.getSpecies() : newSpecies,
+                image == null ? current.getImage() : newImage);
+    }
+
+    private static Species parseSpecies(JsonNode species) {
+        try {
+            if (species.isTextual()) {
+                return Species.valueOf(species.asText());
+            }
+        } catch (IllegalArgumentException e) {
+            // Espèce inconnue : même message qu'une valeur qui n'est pas une chaîne
+        }
+        throw new IllegalArgumentException("Espèce inconnue : " + species + ".");
+    }
+
+    /**
+     * Refuse l'espèce ADMIN si l'utilisateur à l'origine de la requête n'est pas lui-même administrateur : sans cette
+     * vérification, n'importe qui pourrait s'attribuer les ressources réservées aux administrateurs (voir <code>AuthorizationFilter</code>).
+     */
+    private void checkSpecies(Species species, HttpServletRequest request) {
+        if (species == Species.ADMIN && !isAdmin(request)) {
+            throw new ForbiddenOperationException(ADMIN_SPECIES_REFUSED);
+        }
+    }
+
+    private boolean isAdmin(HttpServletRequest request) {
+        AuthenticatedUser caller = userTokenProvider.getAuthenticatedUser(request);
+        return caller != null && caller.species() == Species.ADMIN;
+    }
+
+    /**
+     * Renvoie l'utilisateur avec son mot de passe haché. Un mot de passe absent ou vide est conservé : il est complété
+     * avec celui de l'utilisateur existant, ou refusé, par l'appelant.
+     */
+    private static User withHashedPassword(User user, UnaryOperator<String> hash) {
+        if (user == null || user.getPassword() == null || user.getPassword().isEmpty()) {
+            return user;
+        }
+        return new User(user.getLogin(), hash.apply(user.getPassword()), user.getSpecies(), user.getImage());
+    }
+
+    /**
+     * Construit le nouvel état d'un utilisateur : les champs vides de user sont remplacés par ceux de l'utilisateur existant.
+     */
+    private static User completeWith(User user, User current) {
+        return new User(current.getLogin(),
+                user.getPassword() == null || user.getPassword().isEmpty() ? current.getPassword() : user.getPassword(),
+                user.getSpecies() == null ? current.getSpecies() : user.getSpecies(),
+                user.getImage() == null || user.getImage().isEmpty() ? current.getImage() : user.getImage());
     }
 
     public void deleteUser(String login) throws NameNotFoundException {
         userDao.deleteById(login);
     }
+
+    /**
+     * Version asynchrone de <code>deleteUser</code>, qui ne bloque pas le thread appelant pendant la suppression.
+     * @param login Le login de l'utilisateur
+     * @return <code>true</code> si l'utilisateur a été supprimé, <code>false</code> s'il n'existait pas
+     */
+    public CompletableFuture<Boolean> deleteUserAsync(String login) {
+        return asyncUserDao.deleteById(login);
+    }
 }
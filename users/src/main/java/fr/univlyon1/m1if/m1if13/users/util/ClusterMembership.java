@@ -0,0 +1,125 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.naming.AuthenticationException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Composition du cluster d'instances entre lesquelles les utilisateurs sont répartis (<code>users.cluster.nodes</code>).<br>
+ * Chaque login appartient à une seule instance, désignée par un anneau de hachage cohérent (voir <code>HashRing</code>) ;
+ * les requêtes qui portent sur un login d'une autre instance lui sont transmises par <code>ShardRoutingFilter</code>.<br>
+ * Sans nœuds configurés, le cluster est désactivé : l'instance traite toutes les requêtes.
+ */
+@Component
+public class ClusterMembership {
+    /**
+     * Header des requêtes échangées entre les instances, qui contient le secret partagé.
+     */
+    public static final String SECRET_HEADER = "X-Cluster-Secret";
+
+    private final String self;
+    private final int virtualNodes;
+    private final byte[] secret;
+    private volatile HashRing ring;
+
+    /**
+     * Crée la composition initiale du cluster.
+     * @param self L'URL de base de cette instance, telle qu'elle apparaît dans la liste des nœuds
+     * @param nodes Les URLs de base des instances, séparées par des virgules (vide pour désactiver le cluster)
+     * @param virtualNodes Le nombre de points de chaque instance sur l'anneau
+     * @param secret Le secret partagé par les instances, exigé sur les requêtes internes au cluster
+     */
+    public ClusterMembership(@Value("${users.cluster.self:}") String self,
+                             @Value("${users.cluster.nodes:}") String nodes,
+                             @Value("${users.cluster.virtualNodes:128}") int virtualNodes,
+                             @Value("${users.cluster.secret:}") String secret) {
+        this.self = normalize(self);
+        this.virtualNodes = virtualNodes;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.ring = new HashRing(parse(nodes), virtualNodes);
+        if (isEnabled() && (this.self.isEmpty() || secret.isEmpty())) {
+            throw new IllegalStateException("users.cluster.self et users.cluster.secret sont obligatoires avec users.cluster.nodes.");
+        }
+    }
+
+    /**
+     * Indique si les utilisateurs sont répartis entre plusieurs instances.
+     */
+    public boolean isEnabled() {
+        return !ring.getNodes().isEmpty();
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    public Set<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * Renvoie l'instance responsable d'un login.
+     * @param login Le login
+     * @return L'URL de base de l'instance, ou <code>null</code> si le cluster est désactivé
+     */
+    public String ownerOf(String login) {
+        return ring.nodeFor(login);
+    }
+
+    /**
+     * Indique si un login appartient à cette instance (toujours vrai si le cluster est désactivé).
+     * @param login Le login
+     * @return <code>true</code> si l'utilisateur doit être stocké ici
+     */
+    public boolean isLocal(String login) {
+        String owner = ownerOf(login);
+        return owner == null || owner.equals(self);
+    }
+
+    /**
+     * Remplace la liste des instances. Les utilisateurs qui changent d'instance sont déplacés par <code>ClusterService</code>.
+     * @param nodes Les URLs de base des instances (la liste ne peut pas être vidée)
+     */
+    public void setNodes(Collection<String> nodes) {
+        List<String> normalized = nodes.stream().map(ClusterMembership::normalize).filter(node -> !node.isEmpty()).toList();
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Le cluster doit contenir au moins une instance.");
+        }
+        ring = new HashRing(normalized, virtualNodes);
+    }
+
+    /**
+     * Vérifie qu'une requête interne au cluster présente le secret partagé.
+     * @param presented Le contenu du header <code>X-Cluster-Secret</code>
+     * @throws AuthenticationException Si le cluster est désactivé ou si le secret est absent ou incorrect
+     */
+    public void checkSecret(String presented) throws AuthenticationException {
+        if (!isEnabled() || presented == null ||
+                !MessageDigest.isEqual(secret, presented.getBytes(StandardCharsets.UTF_8))) {
+            throw new AuthenticationException("Requête interne au cluster non autorisée.");
+        }
+    }
+
+    /**
+     * Renvoie le secret partagé, à placer dans le header <code>X-Cluster-Secret</code> des requêtes vers les autres instances.
+     */
+    public String getSecret() {
+        return new String(secret, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> parse(String nodes) {
+        return Arrays.stream(nodes.split(",")).map(ClusterMembership::normalize).filter(node -> !node.isEmpty()).toList();
+    }
+
+    private static String normalize(String node) {
+        String trimmed = node.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+}
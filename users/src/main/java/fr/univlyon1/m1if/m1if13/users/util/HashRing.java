@@ -0,0 +1,79 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Anneau de hachage cohérent : associe chaque clé (login) à un nœud.<br>
+ * Chaque nœud est placé en <code>virtualNodes</code> points de l'anneau ; une clé appartient au premier point qui suit son
+ * hash. Ajouter ou retirer un nœud ne déplace donc que les clés des intervalles qu'il gagne ou perd (environ 1/N des clés),
+ * et les points multiples répartissent ces clés entre tous les autres nœuds.<br>
+ * Immuable : un changement de composition du cluster construit un nouvel anneau.
+ */
+public final class HashRing {
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes;
+
+    /**
+     * Construit l'anneau.
+     * @param nodes Les nœuds (URLs de base des instances), dans un ordre quelconque
+     * @param virtualNodes Le nombre de points de chaque nœud sur l'anneau
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Le nombre de nœuds virtuels doit être positif.");
+        }
+        this.nodes = Collections.unmodifiableSet(new LinkedHashSet<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                // En cas de collision, le plus petit nœud l'emporte : l'anneau ne dépend pas de l'ordre des nœuds
+                points.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+    }
+
+    /**
+     * Renvoie le nœud responsable d'une clé.
+     * @param key La clé
+     * @return Le nœud, ou <code>null</code> si l'anneau est vide
+     */
+    public String nodeFor(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    /**
+     * Renvoie les nœuds de l'anneau.
+     */
+    public Set<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Hash 64 bits : FNV-1a sur l'UTF-8 de la chaîne, suivi du mélange final de MurmurHash3 (les chaînes proches,
+     * comme les points d'un même nœud, sont réparties sur tout l'anneau).
+     */
+    static long hash(String value) {
+        long h = FNV_OFFSET;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xFF)) * FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,88 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Transport des révocations entre les instances d'une même JVM (<code>users.revocation.transport=local</code>),
+ * pour les tests et le développement : les messages sont remis immédiatement, dans le thread de l'envoyeur,
+ * aux autres membres du même groupe.<br>
+ * Un membre peut être rendu injoignable (<code>setReachable</code>) pour simuler une partition : il n'envoie ni ne reçoit plus rien.
+ */
+@Component
+@ConditionalOnProperty(name = "users.revocation.transport", havingValue = "local")
+public class LocalRevocationTransport implements RevocationTransport {
+    private static final Map<String, List<LocalRevocationTransport>> GROUPS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_PORT = new AtomicInteger(1);
+
+    private final String group;
+    private final SocketAddress address;
+    private volatile BiConsumer<byte[], SocketAddress> receiver;
+    private volatile boolean reachable = true;
+
+    /**
+     * Crée un membre du groupe.
+     * @param group Le nom du groupe
+     */
+    public LocalRevocationTransport(@Value("${users.revocation.group:239.255.42.99}") String group) {
+        this.group = group;
+        this.address = InetSocketAddress.createUnresolved(group, NEXT_PORT.getAndIncrement());
+    }
+
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    public void setReachable(boolean reachable) {
+        this.reachable = reachable;
+    }
+
+    @Override
+    public void start(BiConsumer<byte[], SocketAddress> receiver) {
+        this.receiver = receiver;
+        GROUPS.computeIfAbsent(group, name -> new CopyOnWriteArrayList<>()).add(this);
+    }
+
+    @Override
+    public void broadcast(byte[] message) {
+        for (LocalRevocationTransport member : GROUPS.getOrDefault(group, List.of())) {
+            if (member != this) {
+                deliver(member, message);
+            }
+        }
+    }
+
+    @Override
+    public void send(SocketAddress address, byte[] message) {
+        for (LocalRevocationTransport member : GROUPS.getOrDefault(group, List.of())) {
+            if (member.address.equals(address)) {
+                deliver(member, message);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        List<LocalRevocationTransport> members = GROUPS.get(group);
+        if (members != null) {
+            members.remove(this);
+        }
+    }
+
+    private void deliver(LocalRevocationTransport member, byte[] message) {
+        if (reachable && member.reachable) {
+            member.receiver.accept(message.clone(), address);
+        }
+    }
+}
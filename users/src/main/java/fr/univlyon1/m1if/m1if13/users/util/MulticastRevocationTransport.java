@@ -0,0 +1,96 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Transport des révocations par multicast UDP (<code>users.revocation.transport=multicast</code>) : toutes les instances
+ * rejoignent le groupe <code>users.revocation.group</code> sur le port <code>users.revocation.port</code>.
+ * Les réponses aux demandes de synchronisation sont envoyées en unicast, depuis et vers le même socket.
+ */
+@Component
+@ConditionalOnProperty(name = "users.revocation.transport", havingValue = "multicast")
+public class MulticastRevocationTransport implements RevocationTransport {
+    // Assez pour un datagramme de RevocationBus (qui ne dépasse pas la MTU usuelle)
+    private static final int MAX_DATAGRAM_BYTES = 2048;
+
+    private final InetSocketAddress group;
+    private final String interfaceName;
+    private volatile MulticastSocket socket;
+    private Thread thread;
+
+    /**
+     * Crée le transport.
+     * @param group L'adresse du groupe multicast
+     * @param port Le port du groupe
+     * @param interfaceName L'interface réseau sur laquelle rejoindre le groupe (vide : interface par défaut)
+     */
+    public MulticastRevocationTransport(@Value("${users.revocation.group:239.255.42.99}") String group,
+                                        @Value("${users.revocation.port:7500}") int port,
+                                        @Value("${users.revocation.interface:}") String interfaceName) {
+        this.group = new InetSocketAddress(group, port);
+        this.interfaceName = interfaceName;
+    }
+
+    @Override
+    public void start(BiConsumer<byte[], SocketAddress> receiver) throws IOException {
+        MulticastSocket multicastSocket = new MulticastSocket(group.getPort());
+        // Sans interface, le groupe est rejoint sur l'interface par défaut du système
+        multicastSocket.joinGroup(group, interfaceName.isEmpty() ? null : NetworkInterface.getByName(interfaceName));
+        socket = multicastSocket;
+        thread = Thread.ofPlatform().daemon().name("revocation-receiver").start(() -> receive(multicastSocket, receiver));
+    }
+
+    @Override
+    public void broadcast(byte[] message) throws IOException {
+        send(group, message);
+    }
+
+    @Override
+    public void send(SocketAddress address, byte[] message) throws IOException {
+        socket.send(new DatagramPacket(message, message.length, address));
+    }
+
+    @Override
+    public void close() throws IOException {
+        MulticastSocket current = socket;
+        if (current != null) {
+            current.close();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void receive(MulticastSocket multicastSocket, BiConsumer<byte[], SocketAddress> receiver) {
+        byte[] buffer = new byte[MAX_DATAGRAM_BYTES];
+        while (!multicastSocket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                multicastSocket.receive(packet);
+            } catch (IOException e) {
+                // Socket fermé par close(), ou erreur de réception : le datagramme est perdu
+                continue;
+            }
+            try {
+                receiver.accept(Arrays.copyOf(packet.getData(), packet.getLength()), packet.getSocketAddress());
+            } catch (RuntimeException ignored) {
+                // Message invalide : ignoré, comme un datagramme perdu
+            }
+        }
+    }
+}
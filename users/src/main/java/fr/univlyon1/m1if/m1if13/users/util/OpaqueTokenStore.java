@@ -0,0 +1,160 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Table des tokens opaques (mode <code>token.mode=opaque</code>).<br>
+ * Un token opaque est une chaîne aléatoire qui ne contient aucune information : il est associé dans cette table à l'utilisateur
+ * authentifié qu'il représente. Vérifier un token revient à une seule recherche dans la table, sans vérification de signature
+ * ni analyse de JSON.<br>
+ * Les tokens expirés sont retirés par une roue temporelle (timing wheel) : chaque token est rangé dans la case correspondant
+ * à sa date d'expiration, et un balayage périodique ne parcourt que les cases dont l'échéance est passée.
+ * Le nombre de tokens est borné (<code>token.opaque.maxTokens</code>), ce qui borne la mémoire occupée par la table.
+ */
+@Component
+public class OpaqueTokenStore implements MeterBinder {
+    // 256 bits d'aléa : un token ne peut pas être deviné
+    private static final int TOKEN_BYTES = 32;
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, AuthenticatedUser> tokens = new ConcurrentHashMap<>();
+    private final Queue<String>[] wheel;
+    private final long tickMs;
+    private final int maxTokens;
+    // Prochaine case de la roue à balayer, en nombre de ticks depuis l'epoch (protégée par le verrou de sweep)
+    private long nextTick;
+
+    /**
+     * Crée la table.
+     * @param tickMs La durée couverte par une case de la roue (précision du retrait des tokens expirés)
+     * @param ttlMs La durée de validité des tokens (détermine le nombre de cases de la roue)
+     * @param maxTokens Le nombre maximal de tokens simultanés
+     */
+    @SuppressWarnings("unchecked")
+    public OpaqueTokenStore(@Value("${token.opaque.tickMs:1000}") long tickMs,
+                            @Value("${jwt.expirationMs}") long ttlMs,
+                            @Value("${token.opaque.maxTokens:100000}") int maxTokens) {
+        this.tickMs = tickMs;
+        this.maxTokens = maxTokens;
+        this.wheel = new Queue[(int) (ttlMs / tickMs) + 2];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.nextTick = System.currentTimeMillis() / tickMs;
+    }
+
+    /**
+     * Émet un nouveau token opaque pour un utilisateur authentifié.
+     * @param user L'utilisateur représenté par le token (sa date d'expiration est celle du token)
+     * @return Le token généré
+     * @throws IllegalStateException Si le nombre maximal de tokens simultanés est atteint
+     */
+    public String issue(AuthenticatedUser user) {
+        if (tokens.size() >= maxTokens) {
+            throw new IllegalStateException("Nombre maximal de tokens opaques atteint (" + maxTokens + ").");
+        }
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        tokens.put(token, user);
+        bucket(user.expiration().toEpochMilli()).add(token);
+        return token;
+    }
+
+    /**
+     * Recherche l'utilisateur représenté par un token.
+     * @param token Un token opaque
+     * @return L'utilisateur authentifié, ou <code>null</code> si le token est inconnu ou expiré
+     */
+    public AuthenticatedUser lookup(String token) {
+        AuthenticatedUser user = tokens.get(token);
+        if (user == null || user.expiration().toEpochMilli() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return user;
+    }
+
+    /**
+     * Retire un token de la table.
+     * @param token Le token à retirer
+     */
+    public void revoke(String token) {
+        tokens.remove(token);
+    }
+
+    /**
+     * Retire les tokens expirés. Appelée à chaque tick.
+     * @return Le nombre de tokens retirés
+     */
+    @Scheduled(fixedRateString = "${token.opaque.tickMs:1000}")
+    public int sweep() {
+        return sweep(System.currentTimeMillis());
+    }
+
+    /**
+     * Balaye les cases de la roue dont l'échéance est passée.
+     * @param now La date courante, en millisecondes depuis l'epoch
+     * @return Le nombre de tokens retirés
+     */
+    synchronized int sweep(long now) {
+        long currentTick = now / tickMs;
+        // Après une longue interruption, un seul tour de roue suffit à tout balayer
+        long tick = Math.max(nextTick, currentTick - wheel.length + 1);
+        int removed = 0;
+        for (; tick <= currentTick; tick++) {
+            Queue<String> bucket = wheel[(int) (tick % wheel.length)];
+            // Tokens rangés dans cette case mais dont l'échéance est dans un tour de roue ultérieur
+            List<String> notDue = new ArrayList<>();
+            for (String token = bucket.poll(); token != null; token = bucket.poll()) {
+                AuthenticatedUser user = tokens.get(token);
+                if (user == null) {
+                    continue;
+                }
+                if (user.expiration().toEpochMilli() <= now) {
+                    if (tokens.remove(token, user)) {
+                        removed++;
+                    }
+                } else {
+                    notDue.add(token);
+                }
+            }
+            bucket.addAll(notDue);
+        }
+        nextTick = currentTick + 1;
+        return removed;
+    }
+
+    public int size() {
+        return tokens.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.tokens.opaque.active", this, OpaqueTokenStore::size)
+                .description("Nombre de tokens opaques dans la table")
+                .register(registry);
+    }
+
+    /**
+     * Renvoie la case de la roue où ranger un token : celle du premier tick qui suit son expiration.
+     */
+    private Queue<String> bucket(long expiresAt) {
+        long tick = (expiresAt + tickMs - 1) / tickMs;
+        return wheel[(int) (tick % wheel.length)];
+    }
+}
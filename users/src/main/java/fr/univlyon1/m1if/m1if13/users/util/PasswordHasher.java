@@ -0,0 +1,169 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import fr.univlyon1.m1if.m1if13.users.exception.OverloadedException;
+import fr.univlyon1.m1if.m1if13.users.model.PasswordHash;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Hachage et vérification des mots de passe (voir <code>PasswordHash</code>), dont le coût est réglé par
+ * <code>users.password.iterations</code>.<br>
+ * Les calculs des requêtes sont exécutés par un pool de threads dédié (<code>users.password.threads</code>, par défaut
+ * un par processeur) dont la file est bornée (<code>users.password.queueCapacity</code>) : une vague de connexions
+ * n'occupe qu'un nombre limité de threads de requêtes, les autres continuant à servir les lectures. Lorsque la file
+ * est pleine, la requête est refusée immédiatement (<code>OverloadedException</code>, réponse 503) au lieu d'attendre.<br>
+ * Un mot de passe stocké en clair, ou haché avec moins d'itérations que le réglage courant, est haché à nouveau
+ * lorsqu'il est vérifié avec succès : le service de connexion enregistre alors le nouveau condensat.
+ */
+@Component
+public class PasswordHasher implements MeterBinder {
+    /**
+     * Résultat d'une vérification.
+     * @param matches Indique si le mot de passe correspond
+     * @param rehashed Le nouveau condensat à enregistrer, ou null si la valeur stockée est à jour
+     */
+    public record Verification(boolean matches, String rehashed) {
+    }
+
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+
+    /**
+     * Crée le pool de hachage.
+     * @param iterations Le nombre d'itérations de PBKDF2 des nouveaux condensats
+     * @param threads Le nombre de threads du pool (0 : un par processeur)
+     * @param queueCapacity Le nombre maximal de calculs en attente d'un thread
+     */
+    public PasswordHasher(@Value("${users.password.iterations:600000}") int iterations,
+                          @Value("${users.password.threads:0}") int threads,
+                          @Value("${users.password.queueCapacity:64}") int queueCapacity) {
+        this.iterations = iterations;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                Thread.ofPlatform().daemon().name("password-hasher-", 0).factory(), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Hache un mot de passe sur le pool dédié.
+     * @param password Le mot de passe en clair
+     * @return La valeur à stocker
+     * @throws OverloadedException Si la file du pool est pleine
+     */
+    public String hash(String password) {
+        return run(() -> encode(password));
+    }
+
+    /**
+     * Hache un mot de passe dans le thread appelant, pour les traitements qui ne servent pas de requête interactive
+     * (import en masse, utilisateurs créés au démarrage) et ne doivent pas être refusés.
+     * @param password Le mot de passe en clair
+     * @return La valeur à stocker
+     */
+    public String encode(String password) {
+        return timed(() -> PasswordHash.encode(password, iterations));
+    }
+
+    /**
+     * Vérifie un mot de passe sur le pool dédié.
+     * @param password Le mot de passe fourni
+     * @param stored La valeur stockée
+     * @return Le résultat, avec le nouveau condensat si la valeur stockée doit être remplacée
+     * @throws OverloadedException Si la file du pool est pleine
+     */
+    public Verification verify(String password, String stored) {
+        return run(() -> {
+            if (!timed(() -> PasswordHash.matches(password, stored))) {
+                return new Verification(false, null);
+            }
+            return new Verification(true, PasswordHash.iterations(stored) < iterations ? encode(password) : null);
+        });
+    }
+
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.password.queue", this, PasswordHasher::getQueueSize)
+                .description("Nombre de hachages de mots de passe en attente d'un thread")
+                .register(registry);
+        Gauge.builder("users.password.active", this, PasswordHasher::getActiveCount)
+                .description("Nombre de hachages de mots de passe en cours")
+                .register(registry);
+        FunctionCounter.builder("users.password.rejected", this, PasswordHasher::getRejectedCount)
+                .description("Nombre de requêtes refusées parce que la file de hachage était pleine")
+                .register(registry);
+        FunctionTimer.builder("users.password.hash", this, hasher -> hasher.hashes.sum(), hasher -> hasher.hashNanos.sum(),
+                        TimeUnit.NANOSECONDS)
+                .description("Durée d'un calcul de condensat de mot de passe")
+                .register(registry);
+    }
+
+    /**
+     * Exécute un calcul sur le pool et attend son résultat.
+     */
+    private <T> T run(Callable<T> task) {
+        Future<T> result;
+        try {
+            result = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new OverloadedException("trop de vérifications de mots de passe en attente.");
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Hachage du mot de passe interrompu.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private <T> T timed(Supplier<T> computation) {
+        long start = System.nanoTime();
+        try {
+            return computation.get();
+        } finally {
+            hashes.increment();
+            hashNanos.add(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.naming.AuthenticationException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Table des refresh tokens, qui permettent d'obtenir un nouveau token d'accès sans refaire de login.<br>
+ * Un refresh token est rattaché à une session (voir <code>SessionRegistry</code>) et contient l'identifiant de cette session,
+ * un numéro de rotation et un code d'authentification (HMAC) calculé sur ces deux valeurs. La table ne conserve donc,
+ * pour chaque session, que le login, l'origine et le numéro de rotation courant : aucun secret n'y est stocké.<br>
+ * Rotation : chaque utilisation d'un refresh token le remplace par le suivant (numéro de rotation incrémenté).
+ * Détection de réutilisation : présenter un refresh token déjà remplacé signifie qu'il a été copié ;
+ * la session est alors révoquée, ce qui invalide à la fois les tokens d'accès et le dernier refresh token émis.
+ * La révocation est diffusée aux autres instances (voir <code>RevocationBus</code>), qui acceptent les tokens d'accès de la session.
+ */
+@Component
+public class RefreshTokenStore implements MeterBinder {
+    private static final int MAC_BYTES = 16;
+    private static final int TOKEN_BYTES = Long.BYTES + Integer.BYTES + MAC_BYTES;
+
+    /**
+     * Famille de refresh tokens d'une session.
+     * @param login Le login de l'utilisateur
+     * @param origin L'origine du client pour lequel la session a été ouverte
+     * @param rotation Le numéro de rotation du seul refresh token valide de la session
+     */
+    private record Family(String login, String origin, int rotation) {
+    }
+
+    /**
+     * Résultat de l'utilisation d'un refresh token.
+     * @param login Le login de l'utilisateur
+     * @param origin L'origine du client
+     * @param sessionId La session à laquelle appartient le token
+     * @param refreshToken Le nouveau refresh token, qui remplace celui qui vient d'être utilisé
+     */
+    public record Rotation(String login, String origin, long sessionId, String refreshToken) {
+    }
+
+    private final Map<Long, Family> families = new ConcurrentHashMap<>();
+    private final SecretKeySpec macKey;
+    private final LongAdder reuseDetections = new LongAdder();
+
+    @Autowired
+    private SessionRegistry sessionRegistry;
+    @Autowired(required = false)
+    private RevocationBus revocationBus;
+
+    /**
+     * Crée la table, avec une clé HMAC aléatoire (la table n'est pas persistée, la clé n'a pas à l'être non plus).
+     */
+    public RefreshTokenStore() {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.macKey = new SecretKeySpec(key, "HmacSHA256");
+    }
+
+    /**
+     * Émet le premier refresh token d'une session qui vient d'être ouverte.
+     * @param sessionId L'identifiant de la session
+     * @param login Le login de l'utilisateur
+     * @param origin L'origine du client
+     * @return Le refresh token
+     */
+    public String open(long sessionId, String login, String origin) {
+        families.put(sessionId, new Family(login, origin, 0));
+        return encode(sessionId, 0);
+    }
+
+    /**
+     * Utilise un refresh token : vérifie qu'il est authentique et qu'il est le dernier émis pour sa session, puis le remplace.
+     * @param refreshToken Le refresh token présenté par le client
+     * @return Les informations de la session et le nouveau refresh token
+     * @throws AuthenticationException Si le token est invalide, si sa session a été fermée, ou s'il a déjà été utilisé
+     * (dans ce dernier cas, la session est révoquée)
+     */
+    public Rotation rotate(String refreshToken) throws AuthenticationException {
+        ByteBuffer decoded = decode(refreshToken);
+        long sessionId = decoded.getLong();
+        int rotation = decoded.getInt();
+        if (!sessionRegistry.isActive(sessionId)) {
+            families.remove(sessionId);
+            throw new AuthenticationException("Session expirée ou fermée.");
+        }
+        Family[] rotated = new Family[1];
+        Family current = families.computeIfPresent(sessionId, (sid, family) -> {
+            if (family.rotation() == rotation) {
+                rotated[0] = new Family(family.login(), family.origin(), rotation + 1);
+                return rotated[0];
+            }
+            return family;
+        });
+        if (current == null) {
+            throw new AuthenticationException("Refresh token inconnu.");
+        }
+        if (rotated[0] == null && rotation < current.rotation()) {
+            // Un refresh token déjà remplacé a été présenté : il a été copié, la session entière est compromise
+            reuseDetections.increment();
+            families.remove(sessionId);
+            sessionRegistry.revoke(sessionId);
+            if (revocationBus != null) {
+                revocationBus.revokeSession(sessionRegistry.getNodeId(), sessionId);
+            }
+            throw new AuthenticationException("Refresh token déjà utilisé.");
+        }
+        if (rotated[0] == null) {
+            throw new AuthenticationException("Refresh token invalide.");
+        }
+        return new Rotation(current.login(), current.origin(), sessionId, encode(sessionId, current.rotation()));
+    }
+
+    /**
+     * Retire les familles dont la session a été fermée (déconnexion, expiration, suppression de l'utilisateur).
+     * Appelée périodiquement, au même rythme que la collecte des sessions expirées.
+     * @return Le nombre de familles retirées
+     */
+    @Scheduled(fixedDelayString = "${session.gcIntervalMs:60000}")
+    public int collectClosed() {
+        int before = families.size();
+        families.keySet().removeIf(sessionId -> !sessionRegistry.isActive(sessionId));
+        return before - families.size();
+    }
+
+    public int size() {
+        return families.size();
+    }
+
+    public long getReuseDetectionCount() {
+        return reuseDetections.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.refresh.families", this, RefreshTokenStore::size)
+                .description("Nombre de sessions disposant d'un refresh token")
+                .register(registry);
+        FunctionCounter.builder("users.refresh.reuse", this, RefreshTokenStore::getReuseDetectionCount)
+                .description("Nombre de réutilisations de refresh tokens détectées (sessions révoquées)")
+                .register(registry);
+    }
+
+    private String encode(long sessionId, int rotation) {
+        ByteBuffer buffer = ByteBuffer.allocate(TOKEN_BYTES);
+        buffer.putLong(sessionId).putInt(rotation).put(mac(sessionId, rotation));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Décode un refresh token et vérifie son code d'authentification.
+     * @return Un buffer positionné sur l'identifiant de session, suivi du numéro de rotation
+     */
+    private ByteBuffer decode(String refreshToken) throws AuthenticationException {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(refreshToken == null ? "" : refreshToken);
+        } catch (IllegalArgumentException e) {
+            throw new AuthenticationException("Refresh token invalide.");
+        }
+        if (bytes.length != TOKEN_BYTES) {
+            throw new AuthenticationException("Refresh token invalide.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte[] expected = mac(buffer.getLong(0), buffer.getInt(Long.BYTES));
+        byte[] actual = Arrays.copyOfRange(bytes, Long.BYTES + Integer.BYTES, TOKEN_BYTES);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            throw new AuthenticationException("Refresh token invalide.");
+        }
+        return buffer;
+    }
+
+    private byte[] mac(long sessionId, int rotation) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(macKey);
+            mac.update(ByteBuffer.allocate(Long.BYTES + Integer.BYTES).putLong(sessionId).putInt(rotation).array());
+            return Arrays.copyOf(mac.doFinal(), MAC_BYTES);
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256 fait partie des algorithmes que toute JVM doit fournir
+            throw new IllegalStateException(e);
+        }
+    }
+}
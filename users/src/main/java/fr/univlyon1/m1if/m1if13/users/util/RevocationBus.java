@@ -0,0 +1,515 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Diffusion des révocations de sessions entre les instances (<code>users.revocation.transport</code>) : une déconnexion
+ * ou la suppression d'un utilisateur sur une instance est envoyée aux autres par un datagramme, sans attendre de réponse.<br>
+ * Chaque instance tient la liste des révocations reçues (sessions, et utilisateurs supprimés avec leur date de suppression) :
+ * un token ouvert par une autre instance est vérifié localement dans cette liste, sans appel à l'instance qui l'a émis
+ * (voir <code>UserTokenProvider.authenticate</code>). Une révocation est conservée pendant la durée de validité d'un token
+ * (<code>jwt.expirationMs</code>) : au-delà, les tokens qu'elle concerne ont expiré.<br>
+ * Seuls sont acceptés les tokens des instances dont un message a été reçu pendant cette même durée : l'identifiant d'une
+ * instance change à chaque démarrage, et les sessions d'une instance arrêtée (ou celles de cette instance avant son
+ * redémarrage) ne sont plus vérifiables.<br>
+ * Les datagrammes perdus sont rattrapés par anti-entropie : chaque instance diffuse régulièrement un condensat de sa liste
+ * (<code>users.revocation.heartbeatMs</code>) ; une instance dont la liste diffère de celle d'une autre pendant deux battements
+ * consécutifs lui demande toutes ses révocations. Une instance qui démarre fait la même demande à tout le groupe.<br>
+ * Si un secret est configuré (<code>users.revocation.secret</code>, par défaut <code>users.cluster.secret</code>),
+ * les messages sont authentifiés par HMAC-SHA256 et ceux qui ne le sont pas sont ignorés.
+ */
+@Component
+@ConditionalOnExpression("'${users.revocation.transport:none}' != 'none'")
+public class RevocationBus implements MeterBinder {
+    private static final int MAGIC = 0x52564B31;
+    private static final byte RECORDS = 'R';
+    private static final byte SYNC_RECORDS = 'Y';
+    private static final byte DIGEST = 'D';
+    private static final byte SYNC_REQUEST = 'Q';
+    private static final byte SESSION = 'S';
+    private static final byte SUBJECT = 'U';
+    private static final int HEADER_BYTES = 4 + 1 + 8 + 4;
+    private static final int MAC_BYTES = 16;
+    // Taille maximale d'un datagramme, sous la MTU usuelle pour ne pas être fragmenté
+    private static final int MAX_MESSAGE_BYTES = 1200;
+    private static final int MISMATCHES_BEFORE_SYNC = 2;
+
+    /**
+     * Session révoquée.
+     * @param node L'identifiant de l'instance qui a ouvert la session
+     * @param sessionId L'identifiant de la session dans la table de cette instance
+     */
+    private record SessionKey(long node, long sessionId) {
+    }
+
+    /**
+     * Révocation d'une session ou d'un utilisateur (dates en millisecondes depuis l'epoch).
+     * @param revokedAt La date de la révocation
+     * @param expiresAt La date à partir de laquelle elle peut être oubliée
+     */
+    private record Revocation(long revokedAt, long expiresAt) {
+    }
+
+    private final SessionRegistry sessionRegistry;
+    private final VerifiedTokenCache verifiedTokenCache;
+    private final RevocationTransport transport;
+    private final SecretKeySpec macKey;
+    private final long retentionMs;
+    private final long nodeId;
+
+    private final Map<SessionKey, Revocation> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Revocation> subjects = new ConcurrentHashMap<>();
+    // OU exclusif des condensats des révocations, mis à jour à chaque modification de la liste
+    private final AtomicLong digest = new AtomicLong();
+    private final Map<Long, Integer> mismatches = new ConcurrentHashMap<>();
+    // Date de réception (en millisecondes depuis l'epoch) du dernier message authentifié de chaque autre instance
+    private final Map<Long, Long> peers = new ConcurrentHashMap<>();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder syncRequests = new LongAdder();
+    private final LongAdder propagated = new LongAdder();
+    private final LongAdder propagationMs = new LongAdder();
+
+    /**
+     * Crée le bus.
+     * @param sessionRegistry La table des sessions de cette instance
+     * @param verifiedTokenCache Le cache des tokens vérifiés, vidé des tokens des utilisateurs supprimés
+     * @param transport Le transport des messages
+     * @param secret Le secret partagé par les instances (vide : messages non authentifiés)
+     * @param retentionMs La durée de conservation d'une révocation (durée de validité d'un token)
+     */
+    public RevocationBus(SessionRegistry sessionRegistry, VerifiedTokenCache verifiedTokenCache, RevocationTransport transport,
+                         @Value("${users.revocation.secret:${users.cluster.secret:}}") String secret,
+                         @Value("${jwt.expirationMs}") long retentionMs) {
+        this.sessionRegistry = sessionRegistry;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.transport = transport;
+        this.macKey = secret.isEmpty() ? null : new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        this.retentionMs = retentionMs;
+        this.nodeId = sessionRegistry.getNodeId();
+    }
+
+    /**
+     * Rejoint le groupe et demande leurs révocations aux autres instances.
+     * @throws IOException Si le groupe ne peut pas être rejoint
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        transport.start(this::receive);
+        broadcast(message(SYNC_REQUEST, 0, null));
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        transport.close();
+    }
+
+    /**
+     * Indique si une autre instance a envoyé un message pendant la durée de validité d'un token : les sessions qu'elle a
+     * ouvertes peuvent alors être vérifiées dans la liste des révocations. Un identifiant inconnu est celui d'une instance
+     * arrêtée ou redémarrée depuis, dont les révocations ne sont plus diffusées.
+     * @param node L'identifiant de l'instance qui a ouvert la session
+     * @return <code>true</code> si l'instance fait partie du groupe
+     */
+    public boolean isPeer(long node) {
+        Long lastHeard = peers.get(node);
+        return lastHeard != null && System.currentTimeMillis() - lastHeard < retentionMs;
+    }
+
+    /**
+     * Indique si une session ouverte par une autre instance a été révoquée.
+     * @param node L'identifiant de l'instance qui a ouvert la session
+     * @param sessionId L'identifiant de la session
+     * @param login Le login de l'utilisateur
+     * @param issuedAt La date d'émission du token (millisecondes depuis l'epoch)
+     * @return <code>true</code> si la session a été fermée, ou si l'utilisateur a été supprimé après l'émission du token
+     */
+    public boolean isRevoked(long node, long sessionId, String login, long issuedAt) {
+        if (sessions.containsKey(new SessionKey(node, sessionId))) {
+            return true;
+        }
+        Revocation subject = subjects.get(login);
+        // La date d'émission d'un JWT est arrondie à la seconde inférieure : un token émis pendant la seconde de la suppression est refusé
+        return subject != null && issuedAt <= subject.revokedAt();
+    }
+
+    /**
+     * Enregistre la fermeture d'une session et la diffuse aux autres instances.
+     * La session doit déjà être révoquée dans la table de cette instance si elle y a été ouverte.
+     * @param node L'identifiant de l'instance qui a ouvert la session
+     * @param sessionId L'identifiant de la session
+     */
+    public void revokeSession(long node, long sessionId) {
+        long now = System.currentTimeMillis();
+        Revocation revocation = new Revocation(now, now + retentionMs);
+        mergeSession(new SessionKey(node, sessionId), revocation);
+        broadcast(message(RECORDS, 1, out -> writeSession(out, new SessionKey(node, sessionId), revocation)));
+    }
+
+    /**
+     * Enregistre la suppression d'un utilisateur et la diffuse aux autres instances : les tokens émis jusqu'ici pour
+     * ce login sont refusés partout. Ses sessions doivent déjà être révoquées dans la table de cette instance.
+     * @param login Le login de l'utilisateur
+     */
+    public void revokeSubject(String login) {
+        long now = System.currentTimeMillis();
+        Revocation revocation = new Revocation(now, now + retentionMs);
+        mergeSubject(login, revocation);
+        broadcast(message(RECORDS, 1, out -> writeSubject(out, login, revocation)));
+    }
+
+    /**
+     * Oublie les révocations expirées et les instances silencieuses, et diffuse le condensat de la liste.
+     */
+    @Scheduled(fixedDelayString = "${users.revocation.heartbeatMs:1000}")
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+        peers.values().removeIf(lastHeard -> now - lastHeard >= retentionMs);
+        sessions.forEach((key, revocation) -> {
+            if (revocation.expiresAt() <= now && sessions.remove(key, revocation)) {
+                digest.getAndUpdate(value -> value ^ hash(key, revocation));
+            }
+        });
+        subjects.forEach((login, revocation) -> {
+            if (revocation.expiresAt() <= now && subjects.remove(login, revocation)) {
+                digest.getAndUpdate(value -> value ^ hash(login, revocation));
+            }
+        });
+        broadcast(message(DIGEST, size(), out -> out.writeLong(digest.get())));
+    }
+
+    /**
+     * Renvoie le nombre de révocations conservées.
+     */
+    public int size() {
+        return sessions.size() + subjects.size();
+    }
+
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getSyncRequestCount() {
+        return syncRequests.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.revocation.records", this, RevocationBus::size)
+                .description("Nombre de révocations de sessions et d'utilisateurs conservées")
+                .register(registry);
+        FunctionCounter.builder("users.revocation.received", this, RevocationBus::getReceivedCount)
+                .description("Nombre de révocations reçues des autres instances")
+                .register(registry);
+        FunctionCounter.builder("users.revocation.rejected", this, RevocationBus::getRejectedCount)
+                .description("Nombre de messages de révocation ignorés (invalides ou non authentifiés)")
+                .register(registry);
+        FunctionCounter.builder("users.revocation.syncs", this, RevocationBus::getSyncRequestCount)
+                .description("Nombre de synchronisations complètes demandées à une autre instance")
+                .register(registry);
+        FunctionTimer.builder("users.revocation.propagation", this, bus -> bus.propagated.sum(), bus -> bus.propagationMs.sum(),
+                        TimeUnit.MILLISECONDS)
+                .description("Délai entre une révocation et sa réception (horloges des deux instances)")
+                .register(registry);
+    }
+
+    /**
+     * Traite un message reçu d'une autre instance.
+     */
+    private void receive(byte[] message, SocketAddress sender) {
+        DataInputStream in = authenticate(message);
+        if (in == null) {
+            rejected.increment();
+            return;
+        }
+        try {
+            byte type = in.readByte();
+            long origin = in.readLong();
+            int count = in.readInt();
+            if (origin == nodeId) {
+                // Message de cette instance, renvoyé par le multicast
+                return;
+            }
+            peers.put(origin, System.currentTimeMillis());
+            switch (type) {
+                case RECORDS, SYNC_RECORDS -> readRecords(in, count, type == RECORDS);
+                case DIGEST -> compareDigest(origin, count, in.readLong(), sender);
+                case SYNC_REQUEST -> sendAll(sender);
+                default -> rejected.increment();
+            }
+        } catch (IOException e) {
+            rejected.increment();
+        }
+    }
+
+    private void readRecords(DataInputStream in, int count, boolean live) throws IOException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            byte kind = in.readByte();
+            boolean applied;
+            long revokedAt;
+            if (kind == SESSION) {
+                SessionKey key = new SessionKey(in.readLong(), in.readLong());
+                Revocation revocation = new Revocation(in.readLong(), in.readLong());
+                revokedAt = revocation.revokedAt();
+                applied = revocation.expiresAt() > now && mergeSession(key, revocation);
+                if (applied && sessionRegistry.isLocal(key.node())) {
+                    sessionRegistry.revoke(key.sessionId());
+                }
+            } else if (kind == SUBJECT) {
+                Revocation revocation = new Revocation(in.readLong(), in.readLong());
+                String login = in.readUTF();
+                revokedAt = revocation.revokedAt();
+                applied = revocation.expiresAt() > now && mergeSubject(login, revocation);
+                if (applied) {
+                    sessionRegistry.revokeAll(login);
+                    verifiedTokenCache.evictSubject(login);
+                }
+            } else {
+                throw new IOException("Type de révocation inconnu : " + kind);
+            }
+            if (applied) {
+                received.increment();
+                if (live) {
+                    propagated.increment();
+                    propagationMs.add(Math.max(0, now - revokedAt));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare le condensat d'une autre instance à celui de cette instance, et lui demande ses révocations
+     * si les deux diffèrent pendant plusieurs battements consécutifs (un écart ponctuel vient d'un message en cours d'envoi).
+     */
+    private void compareDigest(long origin, int count, long peerDigest, SocketAddress sender) {
+        if (count == size() && peerDigest == digest.get()) {
+            mismatches.remove(origin);
+            return;
+        }
+        if (mismatches.merge(origin, 1, Integer::sum) >= MISMATCHES_BEFORE_SYNC) {
+            mismatches.remove(origin);
+            syncRequests.increment();
+            send(sender, message(SYNC_REQUEST, 0, null));
+        }
+    }
+
+    /**
+     * Envoie toutes les révocations à une instance, en autant de messages que nécessaire.
+     */
+    private void sendAll(SocketAddress address) {
+        List<byte[]> records = new ArrayList<>(size());
+        sessions.forEach((key, revocation) -> records.add(record(out -> writeSession(out, key, revocation))));
+        subjects.forEach((login, revocation) -> records.add(record(out -> writeSubject(out, login, revocation))));
+        int start = 0;
+        while (start < records.size()) {
+            int end = start;
+            int bytes = HEADER_BYTES + (macKey == null ? 0 : MAC_BYTES);
+            while (end < records.size() && (end == start || bytes + records.get(end).length <= MAX_MESSAGE_BYTES)) {
+                bytes += records.get(end).length;
+                end++;
+            }
+            List<byte[]> batch = records.subList(start, end);
+            send(address, message(SYNC_RECORDS, batch.size(), out -> {
+                for (byte[] record : batch) {
+                    out.write(record);
+                }
+            }));
+            start = end;
+        }
+    }
+
+    /**
+     * Ajoute ou fusionne la révocation d'une session : la première date de révocation et la dernière date d'expiration
+     * sont conservées, pour que toutes les instances convergent vers la même liste.
+     * @return <code>true</code> si la session n'était pas encore révoquée
+     */
+    private boolean mergeSession(SessionKey key, Revocation revocation) {
+        boolean[] added = {false};
+        sessions.compute(key, (k, current) -> {
+            Revocation merged = current == null ? revocation :
+                    new Revocation(Math.min(current.revokedAt(), revocation.revokedAt()), Math.max(current.expiresAt(), revocation.expiresAt()));
+            added[0] = current == null;
+            updateDigest(current == null ? 0 : hash(key, current), hash(key, merged));
+            return merged;
+        });
+        return added[0];
+    }
+
+    /**
+     * Ajoute ou fusionne la suppression d'un utilisateur : la dernière date de suppression est conservée.
+     * @return <code>true</code> si la date de suppression a changé (les tokens émis avant elle sont refusés)
+     */
+    private boolean mergeSubject(String login, Revocation revocation) {
+        boolean[] changed = {false};
+        subjects.compute(login, (k, current) -> {
+            Revocation merged = current == null ? revocation :
+                    new Revocation(Math.max(current.revokedAt(), revocation.revokedAt()), Math.max(current.expiresAt(), revocation.expiresAt()));
+            changed[0] = current == null || merged.revokedAt() != current.revokedAt();
+            updateDigest(current == null ? 0 : hash(login, current), hash(login, merged));
+            return merged;
+        });
+        return changed[0];
+    }
+
+    private void updateDigest(long removed, long added) {
+        digest.getAndUpdate(value -> value ^ removed ^ added);
+    }
+
+    private static long hash(SessionKey key, Revocation revocation) {
+        return mix(mix(key.node() ^ SESSION) ^ key.sessionId() ^ mix(revocation.revokedAt()));
+    }
+
+    private static long hash(String login, Revocation revocation) {
+        long h = SUBJECT;
+        for (byte b : login.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ b) * 0x100000001B3L;
+        }
+        return mix(mix(h) ^ mix(revocation.revokedAt()));
+    }
+
+    private static long mix(long value) {
+        long h = (value ^ (value >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static void writeSession(DataOutputStream out, SessionKey key, Revocation revocation) throws IOException {
+        out.writeByte(SESSION);
+        out.writeLong(key.node());
+        out.writeLong(key.sessionId());
+        out.writeLong(revocation.revokedAt());
+        out.writeLong(revocation.expiresAt());
+    }
+
+    private static void writeSubject(DataOutputStream out, String login, Revocation revocation) throws IOException {
+        out.writeByte(SUBJECT);
+        out.writeLong(revocation.revokedAt());
+        out.writeLong(revocation.expiresAt());
+        out.writeUTF(login);
+    }
+
+    /**
+     * Écriture d'une partie d'un message.
+     */
+    @FunctionalInterface
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] record(Writer writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            // Écriture en mémoire
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Construit un message : en-tête (type, instance d'origine, nombre d'éléments), contenu, puis HMAC si un secret est configuré.
+     */
+    private byte[] message(byte type, int count, Writer payload) {
+        byte[] body = record(out -> {
+            out.writeInt(MAGIC);
+            out.writeByte(type);
+            out.writeLong(nodeId);
+            out.writeInt(count);
+            if (payload != null) {
+                payload.write(out);
+            }
+        });
+        if (macKey == null) {
+            return body;
+        }
+        byte[] message = Arrays.copyOf(body, body.length + MAC_BYTES);
+        System.arraycopy(mac(body, body.length), 0, message, body.length, MAC_BYTES);
+        return message;
+    }
+
+    /**
+     * Vérifie l'en-tête et le HMAC d'un message.
+     * @return Le message positionné après le nombre magique, ou <code>null</code> s'il est invalide
+     */
+    private DataInputStream authenticate(byte[] message) {
+        int length = message.length - (macKey == null ? 0 : MAC_BYTES);
+        if (length < HEADER_BYTES) {
+            return null;
+        }
+        if (macKey != null && !MessageDigest.isEqual(Arrays.copyOf(mac(message, length), MAC_BYTES),
+                Arrays.copyOfRange(message, length, message.length))) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(message, 0, length));
+        try {
+            return in.readInt() == MAGIC ? in : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private byte[] mac(byte[] message, int length) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(macKey);
+            mac.update(message, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void broadcast(byte[] message) {
+        try {
+            transport.broadcast(message);
+        } catch (IOException ignored) {
+            // Message perdu : rattrapé par la comparaison des condensats
+        }
+    }
+
+    private void send(SocketAddress address, byte[] message) {
+        try {
+            transport.send(address, message);
+        } catch (IOException ignored) {
+            // Message perdu : rattrapé par la comparaison des condensats
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.function.BiConsumer;
+
+/**
+ * Transport des messages de révocation échangés entre les instances (voir <code>RevocationBus</code>) :
+ * diffusion à toutes les instances du groupe, et envoi à une seule instance (réponse à une demande de synchronisation).<br>
+ * Les messages sont des datagrammes : ils peuvent être perdus, dupliqués ou reçus dans le désordre.
+ */
+public interface RevocationTransport extends Closeable {
+    /**
+     * Rejoint le groupe et commence à recevoir les messages.
+     * @param receiver Appelé pour chaque message reçu, avec l'adresse de l'instance qui l'a envoyé
+     * @throws IOException Si le groupe ne peut pas être rejoint
+     */
+    void start(BiConsumer<byte[], SocketAddress> receiver) throws IOException;
+
+    /**
+     * Envoie un message à toutes les instances du groupe.
+     * @param message Le message
+     * @throws IOException Si le message ne peut pas être envoyé
+     */
+    void broadcast(byte[] message) throws IOException;
+
+    /**
+     * Envoie un message à une seule instance.
+     * @param address L'adresse de l'instance, telle que reçue avec un de ses messages
+     * @param message Le message
+     * @throws IOException Si le message ne peut pas être envoyé
+     */
+    void send(SocketAddress address, byte[] message) throws IOException;
+}
@@ -0,0 +1,291 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table des sessions ouvertes (une session par login réussi), utilisée pour révoquer un token avant son expiration.<br>
+ * Chaque session occupe un emplacement dans des tableaux de types primitifs. Un emplacement porte un numéro de génération :
+ * impair si la session est active, pair si l'emplacement est libre. Le token contient l'identifiant de session
+ * (<code>sid</code>), qui combine le numéro d'emplacement et la génération au moment de l'ouverture.
+ * Révoquer une session revient à incrémenter la génération de son emplacement : tous les tokens émis pour cette session deviennent invalides,
+ * sans toucher aux autres sessions du même utilisateur.<br>
+ * La vérification (<code>isActive</code>) ne prend pas de verrou et n'alloue aucun objet ; les modifications sont sérialisées par un verrou.<br>
+ * Les identifiants de session n'ont de sens que dans cette table : la table porte un identifiant d'instance, tiré au hasard
+ * au démarrage et placé dans les tokens, qui permet de reconnaître les sessions ouvertes par une autre instance (voir <code>RevocationBus</code>).
+ */
+@Component
+public class SessionRegistry implements MeterBinder {
+    /**
+     * Tableaux de la table. Remplacés en bloc (sous verrou) lorsque la table doit grandir.
+     * @param generations La génération de chaque emplacement (impaire si la session est active)
+     * @param expirations La date d'expiration de chaque session active, en millisecondes depuis l'epoch
+     * @param owners Le login du propriétaire de chaque session active
+     */
+    private record Table(AtomicIntegerArray generations, AtomicLongArray expirations, AtomicReferenceArray<String> owners) {
+        Table(int capacity) {
+            this(new AtomicIntegerArray(capacity), new AtomicLongArray(capacity), new AtomicReferenceArray<>(capacity));
+        }
+
+        int capacity() {
+            return generations.length();
+        }
+    }
+
+    private final Object lock = new Object();
+    private volatile Table table;
+    // Pile des emplacements libérés, réutilisés en priorité (protégée par le verrou)
+    private int[] freeSlots;
+    private int freeCount;
+    // Premier emplacement jamais utilisé (protégé par le verrou)
+    private int nextUnusedSlot;
+    private volatile int activeCount;
+    private final int maxCapacity;
+    private final long nodeId;
+
+    /**
+     * Crée la table avec une capacité initiale et une capacité maximale configurables.
+     * @param initialCapacity Le nombre d'emplacements alloués au démarrage
+     * @param maxCapacity Le nombre maximal de sessions simultanées (borne la mémoire occupée par la table)
+     */
+    public SessionRegistry(@Value("${session.initialCapacity:1024}") int initialCapacity,
+                           @Value("${session.maxCapacity:1048576}") int maxCapacity) {
+        this.table = new Table(initialCapacity);
+        this.freeSlots = new int[initialCapacity];
+        this.maxCapacity = maxCapacity;
+        long random;
+        do {
+            random = new SecureRandom().nextLong();
+        } while (random == 0);
+        // 0 désigne une session de cette instance dans AuthenticatedUser
+        this.nodeId = random;
+    }
+
+    /**
+     * Renvoie l'identifiant de l'instance qui ouvre les sessions de cette table (jamais 0).
+     */
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Indique si une session a été ouverte par cette instance.
+     * @param node L'identifiant d'instance contenu dans le token, ou 0 pour une session de cette instance
+     * @return <code>true</code> si la session appartient à cette table
+     */
+    public boolean isLocal(long node) {
+        return node == 0 || node == nodeId;
+    }
+
+    /**
+     * Ouvre une nouvelle session.
+     * @param login Le login de l'utilisateur qui s'est connecté
+     * @param expiresAt La date d'expiration de la session, en millisecondes depuis l'epoch
+     * @return L'identifiant de session à placer dans le token
+     * @throws IllegalStateException Si le nombre maximal de sessions simultanées est atteint
+     */
+    public long open(String login, long expiresAt) {
+        synchronized (lock) {
+            int slot = allocateSlot();
+            Table current = table;
+            current.owners().set(slot, login);
+            current.expirations().set(slot, expiresAt);
+            int generation = current.generations().incrementAndGet(slot);
+            activeCount++;
+            return sessionId(slot, generation);
+        }
+    }
+
+    /**
+     * Indique si une session est toujours active.
+     * @param sessionId L'identifiant de session contenu dans le token
+     * @return <code>true</code> si la session n'a été ni révoquée ni collectée
+     */
+    public boolean isActive(long sessionId) {
+        Table current = table;
+        int slot = slotOf(sessionId);
+        return slot >= 0 && slot < current.capacity() && current.generations().get(slot) == generationOf(sessionId);
+    }
+
+    /**
+     * Repousse la date d'expiration d'une session active (renouvellement du token).
+     * @param sessionId L'identifiant de la session
+     * @param expiresAt La nouvelle date d'expiration, en millisecondes depuis l'epoch
+     * @return <code>true</code> si la session était active et a été prolongée
+     */
+    public boolean extend(long sessionId, long expiresAt) {
+        synchronized (lock) {
+            if (!isActive(sessionId)) {
+                return false;
+            }
+            table.expirations().set(slotOf(sessionId), expiresAt);
+            return true;
+        }
+    }
+
+    /**
+     * Révoque une session : les tokens émis pour cette session ne sont plus acceptés.
+     * @param sessionId L'identifiant de la session à révoquer
+     * @return <code>true</code> si la session était active
+     */
+    public boolean revoke(long sessionId) {
+        synchronized (lock) {
+            if (!isActive(sessionId)) {
+                return false;
+            }
+            release(slotOf(sessionId));
+            return true;
+        }
+    }
+
+    /**
+     * Révoque toutes les sessions d'un utilisateur (par exemple lors de sa suppression).
+     * @param login Le login de l'utilisateur
+     * @return Le nombre de sessions révoquées
+     */
+    public int revokeAll(String login) {
+        synchronized (lock) {
+            Table current = table;
+            int revoked = 0;
+            for (int slot = 0; slot < nextUnusedSlot; slot++) {
+                if (isActiveSlot(current, slot) && login.equals(current.owners().get(slot))) {
+                    release(slot);
+                    revoked++;
+                }
+            }
+            return revoked;
+        }
+    }
+
+    /**
+     * Indique si un utilisateur a encore au moins une session active.
+     * @param login Le login de l'utilisateur
+     * @return <code>true</code> si une session active appartient à cet utilisateur
+     */
+    public boolean hasActiveSession(String login) {
+        Table current = table;
+        long now = System.currentTimeMillis();
+        for (int slot = 0; slot < current.capacity(); slot++) {
+            if (isActiveSlot(current, slot) && current.expirations().get(slot) > now && login.equals(current.owners().get(slot))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Libère les emplacements des sessions expirées. Appelée périodiquement.
+     * @return Le nombre de sessions collectées
+     */
+    @Scheduled(fixedDelayString = "${session.gcIntervalMs:60000}")
+    public int collectExpired() {
+        synchronized (lock) {
+            return collectExpiredLocked(System.currentTimeMillis());
+        }
+    }
+
+    public int getActiveCount() {
+        return activeCount;
+    }
+
+    public int getCapacity() {
+        return table.capacity();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.sessions.active", this, SessionRegistry::getActiveCount)
+                .description("Nombre de sessions actives")
+                .register(registry);
+        Gauge.builder("users.sessions.capacity", this, SessionRegistry::getCapacity)
+                .description("Nombre d'emplacements alloués dans la table des sessions")
+                .register(registry);
+    }
+
+    private int collectExpiredLocked(long now) {
+        Table current = table;
+        int collected = 0;
+        for (int slot = 0; slot < nextUnusedSlot; slot++) {
+            if (isActiveSlot(current, slot) && current.expirations().get(slot) <= now) {
+                release(slot);
+                collected++;
+            }
+        }
+        return collected;
+    }
+
+    /**
+     * Trouve un emplacement libre, en collectant les sessions expirées puis en agrandissant la table si nécessaire.
+     * Doit être appelée avec le verrou.
+     */
+    private int allocateSlot() {
+        if (freeCount == 0 && nextUnusedSlot == table.capacity()) {
+            collectExpiredLocked(System.currentTimeMillis());
+            if (freeCount == 0) {
+                grow();
+            }
+        }
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        return nextUnusedSlot++;
+    }
+
+    /**
+     * Double la capacité de la table. Doit être appelée avec le verrou.
+     */
+    private void grow() {
+        Table current = table;
+        int capacity = current.capacity();
+        if (capacity >= maxCapacity) {
+            throw new IllegalStateException("Nombre maximal de sessions simultanées atteint (" + maxCapacity + ").");
+        }
+        int newCapacity = (int) Math.min((long) maxCapacity, Math.max(2L * capacity, 1));
+        Table grown = new Table(newCapacity);
+        for (int slot = 0; slot < capacity; slot++) {
+            grown.generations().set(slot, current.generations().get(slot));
+            grown.expirations().set(slot, current.expirations().get(slot));
+            grown.owners().set(slot, current.owners().get(slot));
+        }
+        int[] grownFreeSlots = new int[newCapacity];
+        System.arraycopy(freeSlots, 0, grownFreeSlots, 0, freeCount);
+        freeSlots = grownFreeSlots;
+        table = grown;
+    }
+
+    /**
+     * Révoque la session d'un emplacement et le rend réutilisable. Doit être appelée avec le verrou.
+     */
+    private void release(int slot) {
+        Table current = table;
+        current.generations().incrementAndGet(slot);
+        current.owners().set(slot, null);
+        freeSlots[freeCount++] = slot;
+        activeCount--;
+    }
+
+    private static boolean isActiveSlot(Table table, int slot) {
+        return (table.generations().get(slot) & 1) == 1;
+    }
+
+    private static long sessionId(int slot, int generation) {
+        return ((long) slot << Integer.SIZE) | (generation & 0xFFFFFFFFL);
+    }
+
+    private static int slotOf(long sessionId) {
+        return (int) (sessionId >>> Integer.SIZE);
+    }
+
+    private static int generationOf(long sessionId) {
+        return (int) sessionId;
+    }
+}
@@ -0,0 +1,432 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.LocatorAdapter;
+import io.jsonwebtoken.security.Jwk;
+import io.jsonwebtoken.security.JwkSet;
+import io.jsonwebtoken.security.Jwks;
+import io.jsonwebtoken.security.KeyException;
+import io.jsonwebtoken.security.PrivateJwk;
+import io.jsonwebtoken.security.PublicJwk;
+import io.jsonwebtoken.security.SecretJwk;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.Key;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trousseau des clés utilisées pour signer et vérifier les tokens JWT.<br>
+ * Les clés sont lues dans un fichier JWK Set (RFC 7517) partagé entre les instances du service
+ * (propriété <code>jwt.keyring.path</code>) : la signature d'un token émis par une instance peut être vérifiée par toutes
+ * les autres, et reste valide après un redémarrage. La validité du token dépend aussi de sa session, propre à l'instance
+ * qui l'a ouverte (voir <code>UserTokenProvider.authenticate</code>). Sans fichier, le trousseau est conservé en mémoire (une seule instance).<br>
+ * Chaque token porte dans son header l'identifiant de la clé qui l'a signé (<code>kid</code>), calculé à partir de son empreinte (RFC 7638).
+ * Le trousseau peut contenir plusieurs clés de vérification : la clé active signe les nouveaux tokens,
+ * les précédentes restent acceptées jusqu'à l'expiration des tokens qu'elles ont signés.<br>
+ * L'algorithme des nouvelles clés est choisi par la propriété <code>jwt.algorithm</code> :
+ * <ul>
+ *     <li><code>HS512</code> (par défaut) : clé secrète partagée, seules les instances de ce service peuvent vérifier les tokens ;</li>
+ *     <li><code>EdDSA</code> (Ed25519) ou <code>ES256</code> (P-256) : paire de clés asymétriques, la clé publique est publiée
+ *     au format JWKS pour que les autres services vérifient les tokens localement.</li>
+ * </ul>
+ * Rotation : lorsque la clé la plus récente est plus ancienne que <code>jwt.keyring.rotationIntervalMs</code>, une instance génère
+ * une nouvelle clé et l'ajoute au fichier (sous verrou : une seule instance effectue la rotation). La nouvelle clé n'est utilisée
+ * pour signer qu'après <code>jwt.keyring.publicationDelayMs</code>, le temps que toutes les instances relisent le fichier
+ * et que les caches JWKS des autres services expirent.
+ */
+@Component
+public class TokenSigningKeys {
+    /**
+     * Algorithmes de signature supportés.
+     */
+    public enum Algorithm {
+        HS512, EdDSA, ES256
+    }
+
+    // Paramètre JWK (non standard) contenant la date de création de la clé, en millisecondes depuis l'epoch
+    private static final String CREATED_PARAMETER = "created";
+    // Intervalle minimal entre deux relectures du fichier déclenchées par un kid inconnu
+    private static final long MIN_RELOAD_INTERVAL_MS = 1000;
+    // Algorithme à annoncer dans le JWK Set, en fonction de la courbe de la clé
+    private static final Map<String, String> CURVE_ALGORITHMS = Map.of(
+            "Ed25519", "EdDSA", "Ed448", "EdDSA", "P-256", "ES256", "P-384", "ES384", "P-521", "ES512");
+    // Le fichier contient les clés privées et secrètes : il n'est lisible que par le compte du service
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    /**
+     * Clé du trousseau, avec les objets dérivés pré-calculés.
+     * @param id L'identifiant de la clé (kid)
+     * @param createdAt La date de création de la clé, en millisecondes depuis l'epoch
+     * @param signingKey La clé de signature (clé secrète ou clé privée)
+     * @param verificationKey La clé de vérification (clé secrète ou clé publique)
+     * @param jwk La clé complète, telle qu'enregistrée dans le fichier
+     * @param publicJwk La clé publique à publier, ou null pour une clé secrète
+     */
+    private record RingKey(String id, long createdAt, Key signingKey, Key verificationKey, Jwk<?> jwk, Map<String, Object> publicJwk) {
+    }
+
+    /**
+     * État immuable du trousseau, remplacé en bloc à chaque rechargement ou rotation.
+     * @param keys Les clés, de la plus récente à la plus ancienne
+     * @param keysById Les clés de vérification indexées par kid
+     * @param jwks Le JWK Set public (clés asymétriques uniquement)
+     * @param source Le contenu du fichier dont le trousseau est issu (null pour un trousseau en mémoire)
+     */
+    private record KeyRing(List<RingKey> keys, Map<String, Key> keysById, Map<String, Object> jwks, String source) {
+        static KeyRing of(List<RingKey> keys, String source) {
+            List<RingKey> sorted = new ArrayList<>(keys);
+            sorted.sort(Comparator.comparingLong(RingKey::createdAt).reversed());
+            Map<String, Key> keysById = new HashMap<>();
+            List<Map<String, Object>> published = new ArrayList<>();
+            for (RingKey key : sorted) {
+                keysById.put(key.id(), key.verificationKey());
+                if (key.publicJwk() != null) {
+                    published.add(key.publicJwk());
+                }
+            }
+            return new KeyRing(List.copyOf(sorted), Map.copyOf(keysById), Map.of("keys", List.copyOf(published)), source);
+        }
+    }
+
+    private final Algorithm algorithm;
+    private final Path path;
+    private final long rotationIntervalMs;
+    private final long publicationDelayMs;
+    private final long jwtExpirationMs;
+    private final Object lock = new Object();
+    private volatile KeyRing ring;
+    private volatile long lastReload;
+    // Le parser est immuable et thread-safe : il retrouve la clé de vérification à partir du kid, dans le trousseau courant
+    private final JwtParser parser;
+
+    /**
+     * Crée un trousseau en mémoire contenant une seule clé, sans rotation.
+     * @param algorithm L'algorithme de signature des tokens
+     */
+    public TokenSigningKeys(Algorithm algorithm) {
+        this(algorithm, "", 0, 0, 0);
+    }
+
+    /**
+     * Charge (ou crée) le trousseau.
+     * @param algorithm L'algorithme des clés générées
+     * @param path Le chemin du fichier JWK Set partagé entre les instances ; vide pour un trousseau en mémoire
+     * @param rotationIntervalMs L'âge à partir duquel la clé la plus récente est remplacée (0 pour désactiver la rotation)
+     * @param publicationDelayMs Le délai entre l'ajout d'une clé au trousseau et son utilisation pour signer
+     * @param jwtExpirationMs La durée de validité des tokens (une clé remplacée est conservée au moins pendant cette durée)
+     */
+    @Autowired
+    public TokenSigningKeys(@Value("${jwt.algorithm:HS512}") Algorithm algorithm,
+                            @Value("${jwt.keyring.path:}") String path,
+                            @Value("${jwt.keyring.rotationIntervalMs:0}") long rotationIntervalMs,
+                            @Value("${jwt.keyring.publicationDelayMs:300000}") long publicationDelayMs,
+                            @Value("${jwt.expirationMs}") long jwtExpirationMs) {
+        this.algorithm = algorithm;
+        this.path = path.isBlank() ? null : Path.of(path);
+        this.rotationIntervalMs = rotationIntervalMs;
+        this.publicationDelayMs = publicationDelayMs;
+        this.jwtExpirationMs = jwtExpirationMs;
+        this.parser = Jwts.parser().keyLocator(new LocatorAdapter<>() {
+            @Override
+            protected Key locate(JwsHeader header) {
+                return verificationKey(header.getKeyId());
+            }
+        }).build();
+        if (this.path == null) {
+            this.ring = KeyRing.of(List.of(generateKey(System.currentTimeMillis())), null);
+        } else {
+            initializeFile();
+        }
+    }
+
+    /**
+     * Signe un token en cours de construction avec la clé active, en indiquant l'identifiant de la clé dans son header.
+     * @param builder Le token à signer
+     * @return Le builder, prêt à être compacté
+     */
+    public JwtBuilder sign(JwtBuilder builder) {
+        RingKey key = activeKey(ring, System.currentTimeMillis());
+        return builder.header().keyId(key.id()).and().signWith(key.signingKey());
+    }
+
+    /**
+     * Renvoie le parser qui vérifie la signature des tokens, avec la clé désignée par leur kid.
+     * @return Un parser configuré avec le trousseau
+     */
+    public JwtParser getParser() {
+        return parser;
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Renvoie l'identifiant de la clé utilisée actuellement pour signer les tokens.
+     * @return Le kid de la clé active
+     */
+    public String getKeyId() {
+        return activeKey(ring, System.currentTimeMillis()).id();
+    }
+
+    /**
+     * Renvoie les identifiants de toutes les clés acceptées pour vérifier un token.
+     * @return Les kids, de la clé la plus récente à la plus ancienne
+     */
+    public List<String> getKeyIds() {
+        return ring.keys().stream().map(RingKey::id).toList();
+    }
+
+    /**
+     * Renvoie l'ensemble des clés publiques de vérification, au format JWK Set (RFC 7517).
+     * L'instance renvoyée ne change que lorsque le trousseau change.
+     * Vide si les tokens sont signés avec des clés secrètes.
+     * @return Une <code>Map</code> contenant un unique membre "keys"
+     */
+    public Map<String, Object> getJwks() {
+        return ring.jwks();
+    }
+
+    /**
+     * Relit le fichier du trousseau (clés ajoutées par une autre instance), puis effectue la rotation si elle est due.
+     * Appelée périodiquement.
+     * En cas d'erreur, le trousseau courant reste utilisable et l'opération est retentée au rafraîchissement suivant.
+     * @throws UncheckedIOException Si le fichier ne peut pas être lu ou écrit
+     * @throws IllegalStateException Si le fichier ne contient aucune clé
+     */
+    @Scheduled(fixedDelayString = "${jwt.keyring.refreshIntervalMs:60000}")
+    public void refresh() {
+        if (path != null) {
+            reload();
+        }
+        if (rotationIntervalMs > 0 && System.currentTimeMillis() - ring.keys().get(0).createdAt() >= rotationIntervalMs) {
+            rotate();
+        }
+    }
+
+    /**
+     * Ajoute une nouvelle clé au trousseau et retire les clés qui ne peuvent plus avoir signé de token valide.
+     * Si le trousseau est partagé, la rotation est faite sous verrou de fichier et n'a pas lieu si une autre instance vient de l'effectuer.
+     */
+    public void rotate() {
+        synchronized (lock) {
+            if (path == null) {
+                long now = System.currentTimeMillis();
+                ring = KeyRing.of(prune(withNewKey(ring.keys(), now), now), null);
+                return;
+            }
+            withFileLock(() -> {
+                long now = System.currentTimeMillis();
+                KeyRing current = read();
+                if (current != ring && rotationIntervalMs > 0 && now - current.keys().get(0).createdAt() < rotationIntervalMs) {
+                    // Une autre instance vient d'effectuer la rotation
+                    ring = current;
+                    return;
+                }
+                write(prune(withNewKey(current.keys(), now), now));
+                ring = read();
+            });
+        }
+    }
+
+    private Key verificationKey(String keyId) {
+        Key key = keyId == null ? null : ring.keysById().get(keyId);
+        if (key == null && keyId != null && path != null && System.currentTimeMillis() - lastReload >= MIN_RELOAD_INTERVAL_MS) {
+            // Le token a peut-être été signé avec une clé que vient d'ajouter une autre instance
+            reload();
+            key = ring.keysById().get(keyId);
+        }
+        if (key == null) {
+            throw new KeyException("Clé de signature inconnue : " + keyId);
+        }
+        return key;
+    }
+
+    /**
+     * Renvoie la clé à utiliser pour signer : la plus récente des clés publiées depuis au moins <code>publicationDelayMs</code>,
+     * ou la plus ancienne si aucune ne l'est encore (trousseau qui vient d'être créé).
+     */
+    private RingKey activeKey(KeyRing current, long now) {
+        for (RingKey key : current.keys()) {
+            if (now - key.createdAt() >= publicationDelayMs) {
+                return key;
+            }
+        }
+        return current.keys().get(current.keys().size() - 1);
+    }
+
+    private List<RingKey> withNewKey(List<RingKey> keys, long now) {
+        List<RingKey> rotated = new ArrayList<>(keys.size() + 1);
+        rotated.add(generateKey(now));
+        rotated.addAll(keys);
+        return rotated;
+    }
+
+    /**
+     * Retire les clés remplacées depuis plus longtemps que la durée de validité d'un token.
+     * Une clé est remplacée lorsque la clé suivante devient active (création + délai de publication).
+     * @param keys Les clés, de la plus récente à la plus ancienne
+     */
+    private List<RingKey> prune(List<RingKey> keys, long now) {
+        List<RingKey> kept = new ArrayList<>(keys.size());
+        kept.add(keys.get(0));
+        for (int i = 1; i < keys.size(); i++) {
+            long replacedAt = keys.get(i - 1).createdAt() + publicationDelayMs;
+            if (replacedAt + jwtExpirationMs > now) {
+                kept.add(keys.get(i));
+            }
+        }
+        return kept;
+    }
+
+    private RingKey generateKey(long createdAt) {
+        return switch (algorithm) {
+            case HS512 -> toRingKey(Jwks.builder().key(Jwts.SIG.HS512.key().build())
+                    .add(CREATED_PARAMETER, createdAt).idFromThumbprint().build());
+            case EdDSA -> toRingKey(keyPairJwk(Jwks.CRV.Ed25519.keyPair().build(), createdAt));
+            case ES256 -> toRingKey(keyPairJwk(Jwts.SIG.ES256.keyPair().build(), createdAt));
+        };
+    }
+
+    private static Jwk<?> keyPairJwk(KeyPair keyPair, long createdAt) {
+        return Jwks.builder().keyPair(keyPair).add(CREATED_PARAMETER, createdAt).idFromThumbprint().build();
+    }
+
+    private static RingKey toRingKey(Jwk<?> jwk) {
+        if (jwk.getId() == null || !(jwk.get(CREATED_PARAMETER) instanceof Number createdAt)) {
+            throw new IllegalStateException("Clé sans \"kid\" ou sans \"" + CREATED_PARAMETER + "\" dans le trousseau.");
+        }
+        if (jwk instanceof SecretJwk secretJwk) {
+            return new RingKey(jwk.getId(), createdAt.longValue(), secretJwk.toKey(), secretJwk.toKey(), jwk, null);
+        }
+        if (jwk instanceof PrivateJwk<?, ?, ?> privateJwk) {
+            PublicJwk<?> publicJwk = privateJwk.toPublicJwk();
+            Map<String, Object> published = new LinkedHashMap<>(publicJwk);
+            published.remove(CREATED_PARAMETER);
+            published.put("use", "sig");
+            if (publicJwk.getAlgorithm() == null && CURVE_ALGORITHMS.containsKey(publicJwk.get("crv"))) {
+                published.put("alg", CURVE_ALGORITHMS.get(publicJwk.get("crv")));
+            }
+            return new RingKey(jwk.getId(), createdAt.longValue(), privateJwk.toKey(), publicJwk.toKey(), jwk, published);
+        }
+        throw new IllegalStateException("La clé " + jwk.getId() + " du trousseau ne permet pas de signer (clé publique seule).");
+    }
+
+    /**
+     * Charge le fichier du trousseau, ou le crée avec une première clé s'il n'existe pas encore.
+     */
+    private void initializeFile() {
+        synchronized (lock) {
+            withFileLock(() -> {
+                if (!Files.exists(path)) {
+                    write(List.of(generateKey(System.currentTimeMillis())));
+                }
+                ring = read();
+            });
+        }
+    }
+
+    /**
+     * Relit le fichier et remplace le trousseau si son contenu a changé.
+     */
+    private void reload() {
+        synchronized (lock) {
+            lastReload = System.currentTimeMillis();
+            ring = read();
+        }
+    }
+
+    /**
+     * Lit le fichier du trousseau. Renvoie le trousseau courant si le contenu du fichier n'a pas changé.
+     */
+    private KeyRing read() {
+        try {
+            String content = Files.readString(path, StandardCharsets.UTF_8);
+            KeyRing current = ring;
+            if (current != null && content.equals(current.source())) {
+                return current;
+            }
+            JwkSet jwkSet = Jwks.setParser().build().parse(content);
+            List<RingKey> keys = new ArrayList<>();
+            for (Jwk<?> jwk : jwkSet.getKeys()) {
+                keys.add(toRingKey(jwk));
+            }
+            if (keys.isEmpty()) {
+                throw new IllegalStateException("Le trousseau " + path + " ne contient aucune clé.");
+            }
+            return KeyRing.of(keys, content);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de lire le trousseau " + path, e);
+        }
+    }
+
+    /**
+     * Écrit le trousseau de façon atomique (fichier temporaire puis renommage), pour que les autres instances
+     * ne lisent jamais un fichier partiellement écrit. Le fichier temporaire est créé avec des droits réservés au propriétaire
+     * avant d'y écrire les clés (sur les systèmes de fichiers POSIX).
+     */
+    private void write(List<RingKey> keys) {
+        StringBuilder json = new StringBuilder("{\"keys\":[");
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(Jwks.UNSAFE_JSON(keys.get(i).jwk()));
+        }
+        json.append("]}");
+        try {
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.deleteIfExists(temporary);
+            if (temporary.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Files.createFile(temporary, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            }
+            Files.writeString(temporary, json, StandardCharsets.UTF_8);
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible d'écrire le trousseau " + path, e);
+        }
+    }
+
+    /**
+     * Exécute une opération sous verrou exclusif du fichier <code>&lt;trousseau&gt;.lock</code>, partagé entre les instances.
+     */
+    private void withFileLock(Runnable operation) {
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path lockFile = path.resolveSibling(path.getFileName() + ".lock");
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                operation.run();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Impossible de verrouiller le trousseau " + path, e);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import fr.univlyon1.m1if.m1if13.users.dao.Versioned;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.model.UserEvent;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Journal des modifications des utilisateurs (change data capture), alimenté par les DAOs et diffusé par <code>GET /users/events</code>.<br>
+ * Chaque événement reçoit un numéro de séquence. Les <code>users.events.retention</code> derniers événements sont conservés
+ * dans un tampon circulaire, pour qu'un abonné qui se reconnecte reprenne après le dernier événement qu'il a reçu.<br>
+ * Chaque abonné a sa propre file, bornée (<code>users.events.subscriberBuffer</code>). La publication ne bloque jamais :
+ * un abonné dont la file est pleine est désabonné ; il reçoit encore les événements de sa file, puis doit se reconnecter
+ * (il reprend alors dans l'historique). Un abonné lent ne ralentit donc ni les écritures, ni les autres abonnés.<br>
+ * Les DAOs en mémoire publient pendant l'opération atomique sur l'utilisateur : l'ordre des événements d'un utilisateur
+ * est celui de ses modifications. Le DAO en base publie après l'écriture : la version des événements permet d'ignorer
+ * un état plus ancien que celui déjà reçu. Seules les modifications faites par cette instance sont publiées.
+ */
+@Component
+public class UserEventLog implements MeterBinder {
+    // Protège la séquence, l'historique et la liste des abonnés : l'ordre des files est celui de la séquence
+    private final Object lock = new Object();
+    private final UserEvent[] history;
+    private long lastSequence;
+    private final int subscriberBuffer;
+    private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+    private final LongAdder overflows = new LongAdder();
+
+    /**
+     * Crée le journal.
+     * @param retention Le nombre d'événements conservés pour les reprises
+     * @param subscriberBuffer La taille de la file de chaque abonné
+     */
+    public UserEventLog(@Value("${users.events.retention:10000}") int retention,
+                        @Value("${users.events.subscriberBuffer:1000}") int subscriberBuffer) {
+        this.history = new UserEvent[retention];
+        this.subscriberBuffer = subscriberBuffer;
+    }
+
+    /**
+     * Publie la création d'un utilisateur. Un utilisateur recréé après sa suppression n'a pas la version initiale.
+     * @param login Le login de l'utilisateur
+     * @param value Son état et sa version
+     */
+    public void userCreated(String login, Versioned<User> value) {
+        publish(UserEvent.Type.CREATED, login, value);
+    }
+
+    /**
+     * Publie la mise à jour ou la suppression d'un utilisateur.
+     * @param login Le login de l'utilisateur
+     * @param value Son nouvel état et sa version, ou <code>null</code> s'il a été supprimé
+     */
+    public void userChanged(String login, Versioned<User> value) {
+        publish(value == null ? UserEvent.Type.DELETED : UserEvent.Type.UPDATED, login, value);
+    }
+
+    /**
+     * Publie l'authentification ou la déconnexion d'un utilisateur.
+     * @param login Le login de l'utilisateur
+     * @param connected <code>true</code> à l'authentification, <code>false</code> à la déconnexion
+     */
+    public void connectionChanged(String login, boolean connected) {
+        publish(connected ? UserEvent.Type.CONNECTED : UserEvent.Type.DISCONNECTED, login, null);
+    }
+
+    private void publish(UserEvent.Type type, String login, Versioned<User> value) {
+        synchronized (lock) {
+            UserEvent event = value == null ?
+                    new UserEvent(++lastSequence, type, login, null, null, 0) :
+                    new UserEvent(++lastSequence, type, login, value.element().getSpecies(), value.element().getImage(), value.version());
+            history[(int) (event.sequence() % history.length)] = event;
+            for (Subscription subscription : subscribers) {
+                if (!subscription.live.offer(event)) {
+                    subscription.overflowed = true;
+                    subscribers.remove(subscription);
+                    overflows.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Abonne un client aux événements.
+     * @param lastEventId Le numéro du dernier événement reçu par le client (header "Last-Event-ID"),
+     *                    ou <code>null</code> pour ne recevoir que les événements à venir
+     * @return L'abonnement, à fermer lorsque le client se déconnecte
+     */
+    public Subscription subscribe(Long lastEventId) {
+        synchronized (lock) {
+            long oldest = Math.max(1, lastSequence - history.length + 1);
+            long from = lastEventId == null ? lastSequence + 1 : Math.max(lastEventId + 1, oldest);
+            Subscription subscription = new Subscription(lastEventId != null && lastEventId + 1 < oldest);
+            for (long sequence = from; sequence <= lastSequence; sequence++) {
+                subscription.replay.add(history[(int) (sequence % history.length)]);
+            }
+            subscribers.add(subscription);
+            return subscription;
+        }
+    }
+
+    public long getLastSequence() {
+        synchronized (lock) {
+            return lastSequence;
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getOverflowCount() {
+        return overflows.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.events.published", this, UserEventLog::getLastSequence)
+                .description("Nombre d'événements publiés dans le journal des modifications des utilisateurs")
+                .register(registry);
+        Gauge.builder("users.events.subscribers", this, UserEventLog::getSubscriberCount)
+                .description("Nombre d'abonnés au journal des modifications")
+                .register(registry);
+        FunctionCounter.builder("users.events.overflows", this, UserEventLog::getOverflowCount)
+                .description("Nombre d'abonnés désabonnés parce que leur file était pleine")
+                .register(registry);
+    }
+
+    /**
+     * Abonnement d'un client : les événements de l'historique à rejouer, puis ceux publiés depuis l'abonnement.
+     * Lu par un seul thread.
+     */
+    public final class Subscription implements AutoCloseable {
+        private final Queue<UserEvent> replay = new ArrayDeque<>();
+        private final BlockingQueue<UserEvent> live = new ArrayBlockingQueue<>(subscriberBuffer);
+        private final boolean historyLost;
+        private volatile boolean overflowed;
+
+        private Subscription(boolean historyLost) {
+            this.historyLost = historyLost;
+        }
+
+        /**
+         * Indique si des événements postérieurs au dernier événement reçu par le client ne sont plus dans l'historique :
+         * le client doit alors relire l'état complet des utilisateurs.
+         */
+        public boolean isHistoryLost() {
+            return historyLost;
+        }
+
+        /**
+         * Indique si l'abonnement a été interrompu parce que la file était pleine. Les événements de la file restent à lire.
+         */
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+
+        /**
+         * Renvoie l'événement suivant, en l'attendant si nécessaire.
+         * @param timeout La durée maximale d'attente
+         * @return L'événement, ou <code>null</code> si aucun événement n'a été publié pendant l'attente,
+         * ou si l'abonnement a été interrompu et que sa file est vide
+         * @throws InterruptedException Si le thread est interrompu pendant l'attente
+         */
+        public UserEvent next(Duration timeout) throws InterruptedException {
+            UserEvent event = replay.poll();
+            if (event != null) {
+                return event;
+            }
+            return overflowed ? live.poll() : live.poll(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void close() {
+            subscribers.remove(this);
+        }
+    }
+}
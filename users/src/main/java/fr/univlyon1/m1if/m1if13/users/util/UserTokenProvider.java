@@ -1,6 +1,7 @@
 package fr.univlyon1.m1if.m1if13.users.util;
 
-import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
 import fr.univlyon1.m1if.m1if13.users.model.User;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jwts;
@@ -9,62 +10,158 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import javax.crypto.SecretKey;
 import java.util.Date;
 import java.util.Map;
 
 /**
- * Classe utilitaire qui fournit le token JWT, le décode, et le modifie.
+ * Classe utilitaire qui fournit le token JWT, le décode, et le modifie.<br>
+ * Le type de token est choisi par la propriété <code>token.mode</code> :
+ * <ul>
+ *     <li><code>jwt</code> (par défaut) : token JWT signé, vérifiable par les autres services ;</li>
+ *     <li><code>opaque</code> : chaîne aléatoire associée à l'utilisateur dans <code>OpaqueTokenStore</code>, réservée aux clients internes.</li>
+ * </ul>
+ * Dans les deux modes, l'authentification produit le même <code>AuthenticatedUser</code> : les filtres et l'interceptor n'en dépendent pas.
  */
 @Component
 public class UserTokenProvider {
+    /**
+     * Types de tokens émis.
+     */
+    public enum TokenMode {
+        JWT, OPAQUE
+    }
+
+    /**
+     * Tokens émis à l'ouverture d'une session.
+     * @param accessToken Le token d'accès, à placer dans le header "Authorization" des requêtes
+     * @param refreshToken Le refresh token, qui permet d'obtenir un nouveau token d'accès sans refaire de login
+     */
+    public record IssuedTokens(String accessToken, String refreshToken) {
+    }
+
     private static final String ISSUER_NAME = "m1if13-user-api";
     public static final String SPECIES_CLAIM_NAME = "species";
     private static final String ORIGIN_CLAIM_NAME = "origin";
-    private final SecretKey key = Jwts.SIG.HS512.key().build();
+    private static final String SESSION_CLAIM_NAME = "sid";
+    private static final String NODE_CLAIM_NAME = "nid";
+    /**
+     * Header de réponse contenant le refresh token.
+     */
+    public static final String REFRESH_TOKEN_HEADER = "Refresh-Token";
+    // Attribut de requête indiquant que le token de la requête a déjà été analysé (avec ou sans succès)
+    private static final String RESOLVED_ATTRIBUTE = UserTokenProvider.class.getName() + ".resolved";
+    @Autowired
+    private TokenSigningKeys signingKeys;
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
     @Autowired
-    private UserDao userDao;
+    private SessionRegistry sessionRegistry;
+    @Autowired
+    private OpaqueTokenStore opaqueTokenStore;
+    @Autowired
+    private RefreshTokenStore refreshTokenStore;
+    @Autowired(required = false)
+    private RevocationBus revocationBus;
 
     @Value("${jwt.expirationMs}")
     private int jwtExpirationMs;
+    @Value("${token.mode:jwt}")
+    private TokenMode tokenMode;
+    @Value("${token.refresh.expirationMs:604800000}")
+    private long refreshExpirationMs;
 
     public UserTokenProvider() {
     }
 
     /**
-     * Génère un token pour un utilisateur "simple".
+     * Génère un token pour un utilisateur "simple", dans une nouvelle session.
      * @param user L'utilisateur (login et d'autres claims seront dans le token).
      * @return Le token généré.
      */
     public String generateToken(User user, String origin) {
+        return openSession(user, origin).accessToken();
+    }
+
+    /**
+     * Ouvre une nouvelle session (login) et génère son token d'accès et son premier refresh token.<br>
+     * La session dure tant que le refresh token est utilisable : le token d'accès, lui, expire après <code>jwt.expirationMs</code>.
+     * @param user L'utilisateur qui vient de s'authentifier
+     * @param origin L'origine du client
+     * @return Le token d'accès et le refresh token
+     */
+    public IssuedTokens openSession(User user, String origin) {
+        Date now = new Date();
+        Date expiryDate = new Date(now.getTime() + jwtExpirationMs);
+        long sessionId = sessionRegistry.open(user.getLogin(), sessionExpiry(now));
+        String refreshToken = refreshTokenStore.open(sessionId, user.getLogin(), origin);
+        return new IssuedTokens(buildToken(user, origin, sessionId, 0, now, expiryDate), refreshToken);
+    }
+
+    /**
+     * Génère un nouveau token dans la session d'un utilisateur déjà authentifié, et prolonge cette session.
+     * Utilisé lorsque les informations contenues dans le token doivent être mises à jour (modification de l'utilisateur).<br>
+     * Une session ouverte par une autre instance n'est pas prolongée (elle n'est pas dans la table de cette instance) :
+     * le nouveau token reste rattaché à cette session et à son instance, et sa révocation a déjà été vérifiée par l'authentification.
+     * @param user L'utilisateur, dans son état à jour
+     * @param authenticatedUser L'utilisateur authentifié par le token courant (fournit l'origine et la session)
+     * @return Le token généré, ou <code>null</code> si la session a été révoquée entre-temps
+     */
+    public String renewToken(User user, AuthenticatedUser authenticatedUser) {
         Date now = new Date();
         Date expiryDate = new Date(now.getTime() + jwtExpirationMs);
+        if (authenticatedUser.node() == 0 && !sessionRegistry.extend(authenticatedUser.sessionId(), sessionExpiry(now))) {
+            return null;
+        }
+        return buildToken(user, authenticatedUser.origin(), authenticatedUser.sessionId(), authenticatedUser.node(), now, expiryDate);
+    }
+
+    /**
+     * Échange un refresh token contre un nouveau token d'accès et un nouveau refresh token, dans la même session.
+     * Ni le mot de passe ni le token d'accès précédent ne sont vérifiés.
+     * @param user L'utilisateur, dans son état à jour (fournit les claims du token d'accès)
+     * @param rotation Le résultat de la rotation du refresh token (voir <code>RefreshTokenStore.rotate</code>)
+     * @return Les nouveaux tokens, ou <code>null</code> si la session a été révoquée entre-temps
+     */
+    public IssuedTokens refreshSession(User user, RefreshTokenStore.Rotation rotation) {
+        AuthenticatedUser session = new AuthenticatedUser(user.getLogin(), user.getSpecies(), rotation.origin(), rotation.sessionId(), null);
+        String accessToken = renewToken(user, session);
+        return accessToken == null ? null : new IssuedTokens(accessToken, rotation.refreshToken());
+    }
 
-        return Jwts.builder()
+    private long sessionExpiry(Date now) {
+        return now.getTime() + Math.max(jwtExpirationMs, refreshExpirationMs);
+    }
+
+    private String buildToken(User user, String origin, long sessionId, long node, Date now, Date expiryDate) {
+        if (tokenMode == TokenMode.OPAQUE) {
+            return opaqueTokenStore.issue(new AuthenticatedUser(user.getLogin(), user.getSpecies(), origin, sessionId, expiryDate.toInstant()));
+        }
+        return signingKeys.sign(Jwts.builder()
                 .subject(user.getLogin())
                 .issuer(ISSUER_NAME)
                 .issuedAt(now)
                 .expiration(expiryDate)
                 .claim(SPECIES_CLAIM_NAME, user.getSpecies())
                 .claim(ORIGIN_CLAIM_NAME, origin)
-                .signWith(key)
+                .claim(SESSION_CLAIM_NAME, sessionId)
+                .claim(NODE_CLAIM_NAME, node == 0 ? sessionRegistry.getNodeId() : node))
                 .compact();
     }
 
     /**
      * Génère un token avec les propriétés passées en paramètres.
+     * Ce token n'est rattaché à aucune session : il n'est pas accepté pour authentifier un utilisateur.
      * @param claims Une <code>Map&lt;String, Object&gt;</code> contenant les propriétés à ajouter comme claims.
      * @return Le token généré.
      */
     public String generateToken(Map<String, Object> claims) {
         Date now = new Date();
         Date expiryDate = new Date(now.getTime() + jwtExpirationMs);
-        return Jwts.builder()
+        return signingKeys.sign(Jwts.builder()
                 .claims(claims)
                 .issuer(ISSUER_NAME)
                 .issuedAt(now)
-                .expiration(expiryDate)
-                .signWith(key)
+                .expiration(expiryDate))
                 .compact();
     }
 
@@ -74,43 +171,75 @@ public class UserTokenProvider {
      * @return True si le paramètre est bien un token JWT et s'il a pu être correctement vérifié, false sinon.
      */
     public boolean validateToken(String token, String origin) {
+        AuthenticatedUser authenticatedUser = authenticate(token);
+        return authenticatedUser != null && authenticatedUser.origin().equals(origin);
+    }
+
+    /**
+     * Vérifie un token et construit l'utilisateur authentifié correspondant.<br>
+     * C'est le seul endroit où le token est décodé (ou recherché dans la table des tokens opaques). La révocation
+     * (déconnexion, suppression de l'utilisateur) est vérifiée dans la table des sessions, sans recherche dans le DAO.<br>
+     * Les sessions ne sont ni partagées ni persistées : un JWT désigne (claim <code>nid</code>) l'instance qui l'a émis,
+     * et un redémarrage ferme toutes les sessions ouvertes par l'instance.
+     * Un JWT ouvert par une autre instance n'est accepté que si cette instance fait partie du groupe et que sa session
+     * n'est pas dans la liste des révocations reçues (voir <code>RevocationBus</code>) ; sans bus de révocation, il est refusé.
+     * @param token Une <code>String</code> contenant un JWT ou un token opaque, selon le mode
+     * @return L'utilisateur authentifié, ou <code>null</code> si le token est invalide ou si sa session a été révoquée
+     */
+    public AuthenticatedUser authenticate(String token) {
+        if (tokenMode == TokenMode.OPAQUE) {
+            AuthenticatedUser authenticatedUser = opaqueTokenStore.lookup(token);
+            return authenticatedUser != null && sessionRegistry.isActive(authenticatedUser.sessionId()) ? authenticatedUser : null;
+        }
         try {
-            Claims claims = (Claims) Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parse(token)
-                    .getPayload();
-
-            String username = claims.getSubject(); // extraction de l'identifiant
-
-            User extractedUser = null;
-            try {
-                extractedUser = userDao.findOne(username);
-            } catch (Exception ex) {
-                System.out.println("Erreur lors de la recherche de l'utilisateur : " + ex.getMessage());
+            Claims claims = getClaimsFromToken(token);
+            Long sessionId = claims.get(SESSION_CLAIM_NAME, Long.class);
+            Long claimedNode = claims.get(NODE_CLAIM_NAME, Long.class);
+            // Un identifiant de session n'a de sens que dans la table de l'instance qui l'a ouvert : un token qui ne
+            // désigne pas cette instance ne doit pas être vérifié dans la table locale, où le même identifiant peut exister
+            if (sessionId == null || claimedNode == null) {
+                return null;
             }
-
-            if (extractedUser != null && extractedUser.isConnected()) {
-                return claims.get(ORIGIN_CLAIM_NAME, String.class).equals(origin);
-            } else {
-                return false;
+            long node = sessionRegistry.isLocal(claimedNode) ? 0 : claimedNode;
+            if (!isActive(node, sessionId, claims)) {
+                return null;
             }
+            // Un utilisateur sans espèce a un token sans claim "species"
+            String species = claims.get(SPECIES_CLAIM_NAME, String.class);
+            return new AuthenticatedUser(
+                    claims.getSubject(),
+                    species == null ? null : Species.valueOf(species),
+                    claims.get(ORIGIN_CLAIM_NAME, String.class),
+                    sessionId,
+                    node,
+                    claims.getExpiration().toInstant());
         } catch (Exception e) {
-            return false;
+            return null;
+        }
+    }
+
+    private boolean isActive(long node, long sessionId, Claims claims) {
+        if (node == 0) {
+            return sessionRegistry.isActive(sessionId);
         }
+        // Une instance inconnue du bus est arrêtée, ou c'est cette instance avant son redémarrage : ses révocations ne sont plus reçues
+        return revocationBus != null && revocationBus.isPeer(node) &&
+                !revocationBus.isRevoked(node, sessionId, claims.getSubject(), claims.getIssuedAt().getTime());
     }
 
     /**
      * Renvoie l'ensemble des claims contenus dans le token.
+     * La signature n'est vérifiée que si le token n'est pas déjà présent dans le cache des tokens vérifiés.
      * @param token Le JWT à analyser
      * @return Un ensemble de <code>Claims</code> (hérite de <code>Map&lt;String, Object&gt;</code>)
      */
     public Claims getClaimsFromToken(String token) {
-        return Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+        Claims claims = verifiedTokenCache.get(token);
+        if (claims == null) {
+            claims = signingKeys.getParser().parseSignedClaims(token).getPayload();
+            verifiedTokenCache.put(token, claims);
+        }
+        return claims;
     }
 
     /**
@@ -153,25 +282,26 @@ public class UserTokenProvider {
     }
 
     /**
-     * Indique si l'utilisateur est déjà connecté.
-     * Si c'est le cas, ajoute un attribut "username" à la requête pour simplifier les traitements ultérieurs.
+     * Renvoie l'utilisateur authentifié par le header "Authorization" de la requête.<br>
+     * Le token n'est analysé qu'au premier appel pour une requête donnée : le résultat est placé en attribut de requête
+     * (<code>AuthenticatedUser.REQUEST_ATTRIBUTE</code>) et réutilisé par les appels suivants.
      * @param request la requête contenant les informations de connexion éventuelle
-     * @return un booléen ...
+     * @return l'utilisateur authentifié, ou <code>null</code> si la requête ne contient pas de token valide
      */
-    public boolean isUserConnected(HttpServletRequest request) {
+    public AuthenticatedUser getAuthenticatedUser(HttpServletRequest request) {
+        if (request.getAttribute(RESOLVED_ATTRIBUTE) != null) {
+            return (AuthenticatedUser) request.getAttribute(AuthenticatedUser.REQUEST_ATTRIBUTE);
+        }
+        request.setAttribute(RESOLVED_ATTRIBUTE, Boolean.TRUE);
+
         String jwt = request.getHeader("Authorization");
-        if(jwt != null && jwt.startsWith("Bearer ")) {
-            try {
-                jwt = jwt.substring(7);
-                String origin = extractClaim(jwt, ORIGIN_CLAIM_NAME, String.class);
-                if (validateToken(jwt, origin)) {
-                    request.setAttribute("username", extractUsername(jwt));
-                    return true;
-                }
-            } catch (Exception e) {
-                return false;
-            }
+        if (jwt == null || !jwt.startsWith("Bearer ")) {
+            return null;
+        }
+        AuthenticatedUser authenticatedUser = authenticate(jwt.substring(7));
+        if (authenticatedUser != null) {
+            request.setAttribute(AuthenticatedUser.REQUEST_ATTRIBUTE, authenticatedUser);
         }
-        return false;
+        return authenticatedUser;
     }
 }
@@ -0,0 +1,184 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache des tokens JWT déjà vérifiés, partagé entre les requêtes.<br>
+ * Les entrées sont indexées par un condensat SHA-256 du token (le token lui-même n'est pas conservé)
+ * et contiennent les claims extraits lors de la vérification de la signature.<br>
+ * Une entrée est évincée dès que la date d'expiration du token est dépassée, ou dès que l'utilisateur concerné est déconnecté ou supprimé.
+ */
+@Component
+public class VerifiedTokenCache implements MeterBinder {
+    // Proportion des entrées supprimées lorsque le cache est plein et qu'aucune entrée n'a expiré
+    private static final int OVERFLOW_EVICTION_RATIO = 10;
+
+    private final Map<String, CachedClaims> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Value("${jwt.cache.maxSize:10000}")
+    private int maxSize;
+
+    /**
+     * Claims d'un token vérifié, avec sa date d'expiration pré-calculée pour éviter de la relire dans les claims.
+     * @param claims Les claims du token
+     * @param expiresAt La date d'expiration du token, en millisecondes depuis l'epoch
+     */
+    private record CachedClaims(Claims claims, long expiresAt) {
+        boolean isExpired(long now) {
+            return expiresAt <= now;
+        }
+    }
+
+    /**
+     * Renvoie les claims d'un token s'il a déjà été vérifié et n'a pas expiré.
+     * @param token Un token JWT
+     * @return Les claims du token, ou <code>null</code> si le token n'est pas dans le cache
+     */
+    public Claims get(String token) {
+        String digest = digest(token);
+        CachedClaims cached = entries.get(digest);
+        if (cached == null) {
+            misses.increment();
+            return null;
+        }
+        if (cached.isExpired(System.currentTimeMillis())) {
+            if (entries.remove(digest, cached)) {
+                evictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return cached.claims();
+    }
+
+    /**
+     * Ajoute au cache les claims d'un token dont la signature vient d'être vérifiée.
+     * Les tokens sans date d'expiration ne sont pas mis en cache.
+     * @param token Le token JWT vérifié
+     * @param claims Les claims extraits du token
+     */
+    public void put(String token, Claims claims) {
+        Date expiration = claims.getExpiration();
+        if (expiration == null) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            makeRoom();
+        }
+        entries.put(digest(token), new CachedClaims(claims, expiration.getTime()));
+    }
+
+    /**
+     * Évince toutes les entrées correspondant à un utilisateur (déconnexion ou suppression).
+     * @param login Le login de l'utilisateur, tel que présent dans le claim "sub"
+     */
+    public void evictSubject(String login) {
+        entries.values().removeIf(cached -> {
+            if (login.equals(cached.claims().getSubject())) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Vide le cache.
+     */
+    public void clear() {
+        evictions.add(entries.size());
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.token.cache.hits", this, VerifiedTokenCache::getHitCount)
+                .description("Nombre de tokens trouvés dans le cache des tokens vérifiés")
+                .register(registry);
+        FunctionCounter.builder("users.token.cache.misses", this, VerifiedTokenCache::getMissCount)
+                .description("Nombre de tokens absents du cache (signature à vérifier)")
+                .register(registry);
+        FunctionCounter.builder("users.token.cache.evictions", this, VerifiedTokenCache::getEvictionCount)
+                .description("Nombre d'entrées évincées (expiration, déconnexion, suppression ou cache plein)")
+                .register(registry);
+        Gauge.builder("users.token.cache.size", this, VerifiedTokenCache::size)
+                .description("Nombre de tokens actuellement dans le cache")
+                .register(registry);
+    }
+
+    /**
+     * Libère de la place dans le cache : supprime d'abord les entrées expirées, puis une fraction des entrées restantes si cela ne suffit pas.
+     */
+    private void makeRoom() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(cached -> {
+            if (cached.isExpired(now)) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        });
+        if (entries.size() < maxSize) {
+            return;
+        }
+        int toEvict = entries.size() - maxSize + Math.max(1, maxSize / OVERFLOW_EVICTION_RATIO);
+        Iterator<CachedClaims> iterator = entries.values().iterator();
+        while (toEvict > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+            toEvict--;
+        }
+    }
+
+    /**
+     * Calcule la clé d'un token dans le cache.
+     * @param token Un token JWT
+     * @return Le condensat SHA-256 du token, encodé en Base64
+     */
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 fait partie des algorithmes que toute JVM doit fournir
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package fr.univlyon1.m1if.m1if13.users.benchmark;
+
+import fr.univlyon1.m1if.m1if13.users.dao.AbstractMapDao;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mesure le débit du DAO en mémoire (90 % de lectures, 10 % de mises à jour) en fonction du nombre de threads.<br>
+ * Exclu de la phase de test par défaut : <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+class MapDaoThroughputBenchmark {
+    private static final int USERS = 10_000;
+    private static final long DURATION_MS = 1_000;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 4, 8, 16, 32, 64})
+    void readMostlyThroughput(int threads) throws Exception {
+        AbstractMapDao<User> dao = new AbstractMapDao<>() {
+            @Override
+            protected Serializable getKeyForElement(User element) {
+                return element.getLogin();
+            }
+        };
+        for (int i = 0; i < USERS; i++) {
+            dao.add(new User("user" + i, "password", Species.VOLEUR, null));
+        }
+
+        LongAdder operations = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (System.nanoTime() < deadline[0]) {
+                    String login = "user" + random.nextInt(USERS);
+                    if (random.nextInt(10) == 0) {
+                        dao.compute(login, user -> new User(login, user.getPassword(), Species.POLICIER, null));
+                    } else {
+                        dao.findOne(login);
+                    }
+                    count++;
+                }
+                operations.add(count);
+                return null;
+            });
+        }
+        deadline[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(DURATION_MS * 10, TimeUnit.MILLISECONDS);
+
+        System.out.printf("%2d threads : %,12.0f opérations/s%n", threads, operations.sum() * 1000.0 / DURATION_MS);
+    }
+}
@@ -0,0 +1,80 @@
+package fr.univlyon1.m1if.m1if13.users.benchmark;
+
+import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
+import fr.univlyon1.m1if.m1if13.users.util.VerifiedTokenCache;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mesure la durée d'un parcours complet des utilisateurs (liste de <code>GET /users</code>) pendant un trafic de connexions,
+ * déconnexions et mises à jour de profils, en fonction du nombre de threads qui génèrent ce trafic.<br>
+ * Exclu de la phase de test par défaut : <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+class SnapshotScanBenchmark {
+    private static final int USERS = 100_000;
+    private static final int SCANS = 50;
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 4, 16})
+    void scanDurationUnderWriteTraffic(int writers) throws Exception {
+        UserDao dao = new UserDao();
+        ReflectionTestUtils.setField(dao, "sessionRegistry", Mockito.mock(SessionRegistry.class));
+        ReflectionTestUtils.setField(dao, "verifiedTokenCache", Mockito.mock(VerifiedTokenCache.class));
+        for (int i = 0; i < USERS; i++) {
+            dao.add(new User("user" + i, "password", Species.VOLEUR, null));
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder writes = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < writers; t++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    String login = "user" + random.nextInt(USERS);
+                    try {
+                        if (random.nextInt(10) == 0) {
+                            dao.compute(login, user -> new User(login, user.getPassword(), Species.POLICIER, null));
+                        } else {
+                            dao.setConnected(login, random.nextBoolean());
+                        }
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    writes.increment();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < SCANS; i++) {
+            sink += dao.findAll().stream().filter(user -> user.getSpecies() == Species.POLICIER).count();
+        }
+        long elapsed = System.nanoTime() - start;
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        dao.vacuum();
+
+        assert sink >= 0;
+        System.out.printf("%2d écrivains   parcours : %,8.2f ms   écritures pendant les parcours : %,11d%n",
+                writers, elapsed / 1_000_000.0 / SCANS, writes.sum());
+    }
+}
@@ -0,0 +1,60 @@
+package fr.univlyon1.m1if.m1if13.users.benchmark;
+
+import fr.univlyon1.m1if.m1if13.users.util.TokenSigningKeys;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.Date;
+import java.util.function.Supplier;
+
+/**
+ * Compare le débit de signature et de vérification des tokens pour chaque algorithme supporté (HS512, EdDSA, ES256).<br>
+ * Exclu de la phase de test par défaut : <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+class TokenSigningBenchmark {
+    private static final int WARMUP_ITERATIONS = 2_000;
+    private static final int MEASURED_ITERATIONS = 10_000;
+
+    @ParameterizedTest
+    @EnumSource(TokenSigningKeys.Algorithm.class)
+    void signAndVerify(TokenSigningKeys.Algorithm algorithm) {
+        TokenSigningKeys keys = new TokenSigningKeys(algorithm);
+        Supplier<String> sign = () -> keys.sign(Jwts.builder()
+                        .subject("benchmarkUser")
+                        .issuer("m1if13-user-api")
+                        .expiration(new Date(System.currentTimeMillis() + 60_000))
+                        .claim("species", "VOLEUR")
+                        .claim("origin", "http://localhost")
+                        .claim("sid", 42L))
+                .compact();
+        String token = sign.get();
+
+        double signRate = measure(() -> sign.get().length());
+        double verifyRate = measure(() -> keys.getParser().parseSignedClaims(token).getPayload().size());
+
+        System.out.printf("%-6s  signature : %,10.0f tokens/s   vérification : %,10.0f tokens/s   taille : %d octets%n",
+                algorithm, signRate, verifyRate, token.length());
+    }
+
+    /**
+     * Mesure le débit d'une opération, après une phase de chauffe.
+     * @param operation L'opération à mesurer (son résultat est consommé pour éviter qu'elle soit éliminée par le JIT)
+     * @return Le nombre d'opérations par seconde
+     */
+    private static double measure(Supplier<Integer> operation) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += operation.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink += operation.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        assert sink > 0;
+        return MEASURED_ITERATIONS * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,63 @@
+package fr.univlyon1.m1if.m1if13.users.benchmark;
+
+import fr.univlyon1.m1if.m1if13.users.dao.OffHeapUserDao;
+import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
+import fr.univlyon1.m1if.m1if13.users.dao.UserQueryDao;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Compare l'occupation mémoire par utilisateur du DAO en Map (sur le tas) et du DAO hors du tas, ainsi que la durée
+ * d'une recherche par espèce qui parcourt tous les utilisateurs.<br>
+ * Exclu de la phase de test par défaut : <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+class UserFootprintBenchmark {
+    private static final int IMAGES = 20;
+
+    @ParameterizedTest
+    @ValueSource(ints = {100_000, 1_000_000})
+    void bytesPerUser(int users) throws Exception {
+        long mapHeap = heapUsedBy(users, new UserDao());
+
+        OffHeapUserDao offHeap = new OffHeapUserDao();
+        long offHeapHeap = heapUsedBy(users, offHeap);
+
+        System.out.printf("%,9d utilisateurs   Map : %6.1f octets/utilisateur (tas)   " +
+                        "hors du tas : %6.1f octets/utilisateur (%6.1f réservés) + %5.1f sur le tas%n",
+                users, (double) mapHeap / users, (double) offHeap.getUsedBytes() / users,
+                (double) offHeap.getAllocatedBytes() / users, (double) offHeapHeap / users);
+    }
+
+    /**
+     * Remplit un DAO et mesure l'augmentation du tas après ramasse-miettes (le DAO reste atteignable pendant la mesure).
+     * @return L'augmentation en octets
+     */
+    private static long heapUsedBy(int users, UserQueryDao dao) throws Exception {
+        long before = usedHeap();
+        for (int i = 0; i < users; i++) {
+            dao.add(new User("user" + i, "password" + i, Species.values()[i % 2], "image" + (i % IMAGES) + ".png"));
+        }
+        long after = usedHeap();
+        long start = System.nanoTime();
+        int found = dao.findBy(Species.POLICIER, null).size();
+        System.out.printf("%s : recherche par espèce en %,.1f ms (%,d trouvés)%n",
+                dao.getClass().getSimpleName(), (System.nanoTime() - start) / 1_000_000.0, found);
+        return after - before;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,70 @@
+package fr.univlyon1.m1if.m1if13.users.benchmark;
+
+import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.function.Supplier;
+
+/**
+ * Compare le coût d'une recherche par espèce et état de connexion, par les index et par parcours de tous les utilisateurs,
+ * lorsque le nombre total d'utilisateurs augmente et que le nombre d'utilisateurs trouvés reste constant
+ * (100 policiers, dont 10 connectés).<br>
+ * Exclu de la phase de test par défaut : <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+class UserIndexLookupBenchmark {
+    private static final int POLICE = 100;
+    private static final int CONNECTED = 10;
+    private static final int ITERATIONS = 1_000;
+
+    @ParameterizedTest
+    @ValueSource(ints = {10_000, 100_000, 1_000_000})
+    void lookupCostDoesNotDependOnTotalUsers(int users) throws Exception {
+        UserDao dao = new UserDao();
+        for (int i = 0; i < users; i++) {
+            dao.add(new User("thief" + i, "pwd", Species.VOLEUR, null));
+        }
+        for (int i = 0; i < POLICE; i++) {
+            dao.add(new User("cop" + i, "pwd", Species.POLICIER, null));
+            if (i < CONNECTED) {
+                dao.setConnected("cop" + i, true);
+            }
+        }
+
+        double indexed = measure(() -> dao.findBy(Species.POLICIER, true).size());
+        double scan = measure(() -> (int) dao.findAll().stream()
+                .filter(user -> user.getSpecies() == Species.POLICIER && dao.isConnected(user.getLogin()))
+                .count());
+
+        System.out.printf("%,9d utilisateurs   index : %,10.1f µs/recherche   parcours : %,12.1f µs/recherche%n",
+                users + POLICE, indexed, scan);
+    }
+
+    /**
+     * Mesure la durée moyenne d'une recherche, après une phase de chauffe.
+     * @return La durée en microsecondes
+     */
+    private static double measure(Supplier<Integer> lookup) {
+        int iterations = ITERATIONS;
+        long sink = 0;
+        for (int i = 0; i < 10; i++) {
+            sink += lookup.get();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += lookup.get();
+            // Les parcours complets sont longs : on arrête dès qu'on a une mesure significative
+            if (System.nanoTime() - start > 2_000_000_000L) {
+                iterations = i + 1;
+                break;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assert sink >= 0;
+        return elapsed / 1_000.0 / iterations;
+    }
+}
@@ -0,0 +1,67 @@
+package fr.univlyon1.m1if.m1if13.users.benchmark;
+
+import fr.univlyon1.m1if.m1if13.users.dao.UserStore;
+import fr.univlyon1.m1if.m1if13.users.dao.Versioned;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Mesure le temps de redémarrage du stockage persistant avec un million d'utilisateurs :
+ * chargement du snapshot projeté en mémoire, puis relecture d'un journal de 100 000 modifications.<br>
+ * Exclu de la phase de test par défaut : <code>mvn test -Pbenchmark</code>.
+ */
+@Tag("benchmark")
+class UserStoreRecoveryBenchmark {
+    private static final int USERS = 1_000_000;
+    private static final int LOG_TAIL = 100_000;
+    private static final int BATCH = 1_000;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void recoverOneMillionUsers() throws Exception {
+        try (UserStore store = new UserStore(directory)) {
+            store.recover();
+            long start = System.nanoTime();
+            long ticket = 0;
+            for (int i = 0; i < USERS; i++) {
+                ticket = store.append("user" + i, user(i, Species.VOLEUR, 1));
+                if (i % BATCH == BATCH - 1) {
+                    store.sync(ticket);
+                }
+            }
+            store.sync(ticket);
+            System.out.printf("écriture du journal : %,d utilisateurs en %d ms (%d fsync)%n",
+                    USERS, (System.nanoTime() - start) / 1_000_000, store.getSyncCount());
+
+            start = System.nanoTime();
+            store.compact();
+            System.out.printf("compaction : %d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+            for (int i = 0; i < LOG_TAIL; i++) {
+                ticket = store.append("user" + i, user(i, Species.POLICIER, 2));
+            }
+            store.sync(ticket);
+        }
+
+        long start = System.nanoTime();
+        Map<String, Versioned<User>> state;
+        try (UserStore restarted = new UserStore(directory)) {
+            state = restarted.recover();
+        }
+        System.out.printf("redémarrage : %,d utilisateurs (snapshot + %,d modifications) en %d ms%n",
+                state.size(), LOG_TAIL, (System.nanoTime() - start) / 1_000_000);
+        assert state.size() == USERS;
+    }
+
+    private static Versioned<User> user(int index, Species species, long version) {
+        return new Versioned<>(new User("user" + index, "password" + index, species, index % 20 + ".png"), version);
+    }
+}
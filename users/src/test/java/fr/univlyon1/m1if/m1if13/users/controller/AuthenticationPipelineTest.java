@@ -0,0 +1,103 @@
+package fr.univlyon1.m1if.m1if13.users.controller;
+
+import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
+import fr.univlyon1.m1if.m1if13.users.util.UserTokenProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Vérifie que le token d'une requête authentifiée n'est décodé et vérifié qu'une seule fois,
+ * quel que soit le nombre de composants (filtres, interceptor, contrôleurs) qui ont besoin de l'utilisateur authentifié.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class AuthenticationPipelineTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoSpyBean
+    private UserTokenProvider userTokenProvider;
+
+    @MockitoSpyBean
+    private UserDao userDao;
+
+    private static final String ORIGIN = "http://localhost";
+    private static final String USER_JSON = """
+            {
+                "login": "pipelineUser",
+                "password": "password",
+                "species": "POLICIER",
+                "image": "pipeline.png"
+            }""";
+
+    private String token;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(USER_JSON));
+        token = mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"pipelineUser\",\"password\":\"password\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getHeader("Authorization");
+        clearInvocations(userTokenProvider, userDao);
+    }
+
+    /**
+     * Les deux filtres ont besoin de l'utilisateur authentifié : le token ne doit être vérifié qu'une fois.
+     * L'authentification ne sollicite pas le DAO : seul le handler y recherche l'utilisateur.
+     */
+    @Test
+    void getUserVerifiesTokenOnce() throws Exception {
+        mockMvc.perform(get("/users/pipelineUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        verify(userTokenProvider, times(1)).authenticate(anyString());
+        verify(userTokenProvider, times(1)).getClaimsFromToken(anyString());
+        verify(userDao, times(1)).find(any());
+    }
+
+    /**
+     * La mise à jour passe par les deux filtres puis par l'interceptor qui génère un nouveau token :
+     * le token d'origine n'est vérifié qu'une fois, et ni l'authentification ni l'interceptor ne font de recherche dans le DAO.
+     */
+    @Test
+    void updateUserVerifiesTokenOnce() throws Exception {
+        mockMvc.perform(put("/users/pipelineUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(USER_JSON))
+                .andExpect(status().isNoContent())
+                .andExpect(header().exists("Authorization"));
+
+        verify(userTokenProvider, times(1)).authenticate(anyString());
+        verify(userTokenProvider, times(1)).getClaimsFromToken(anyString());
+        verify(userDao, never()).findOne(any());
+    }
+}
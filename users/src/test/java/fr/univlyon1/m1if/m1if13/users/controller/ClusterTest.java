@@ -0,0 +1,208 @@
+package fr.univlyon1.m1if.m1if13.users.controller;
+
+import fr.univlyon1.m1if.m1if13.users.UsersApplication;
+import fr.univlyon1.m1if.m1if13.users.dao.UserQueryDao;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.model.UserEvent;
+import fr.univlyon1.m1if.m1if13.users.util.ClusterMembership;
+import fr.univlyon1.m1if.m1if13.users.util.HashRing;
+import fr.univlyon1.m1if.m1if13.users.util.RevocationBus;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
+import fr.univlyon1.m1if.m1if13.users.util.UserEventLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Vérifie la répartition des utilisateurs entre plusieurs instances démarrées sur localhost : transmission des requêtes
+ * à l'instance responsable et déplacement des utilisateurs lors de l'ajout et du retrait d'une instance, sans révoquer
+ * leurs sessions ni publier leur suppression.
+ */
+class ClusterTest {
+    private static final String ORIGIN = "http://localhost";
+    private static final String SECRET = "cluster-test-secret";
+    private static final int USERS = 30;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final Map<String, ConfigurableApplicationContext> nodes = new LinkedHashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        nodes.values().forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void usersAreRoutedToTheirNodeAndMovedWhenTheClusterChanges() throws Exception {
+        List<String> urls = List.of(freeUrl(), freeUrl(), freeUrl(), freeUrl());
+        List<String> initial = urls.subList(0, 3);
+        for (String url : initial) {
+            start(url, initial);
+        }
+
+        // Créations envoyées à n'importe quelle instance : chaque utilisateur est stocké par l'instance responsable
+        for (int i = 0; i < USERS; i++) {
+            HttpResponse<String> created = send(urls.get(i % 3), "POST", "/users",
+                    "{\"login\":\"user" + i + "\",\"password\":\"pwd" + i + "\",\"species\":\"VOLEUR\"}", null);
+            assertThat(created.statusCode()).isEqualTo(201);
+        }
+        int total = assertPlacement(initial);
+
+        // Connexion sur une instance, lecture et vérification du token sur les autres
+        String token = login(urls.get(1), "user7", "pwd7");
+        HttpResponse<String> read = send(urls.get(2), "GET", "/users/user7", null, token);
+        assertThat(read.statusCode()).isEqualTo(200);
+        assertThat(read.body()).contains("\"login\":\"user7\"");
+        assertThat(send(urls.get(0), "GET", "/authenticate?jwt=" + token.substring(7) + "&origin=" + ORIGIN, null, null).statusCode())
+                .isEqualTo(204);
+
+        // Ajout d'une instance : la nouvelle composition est propagée et les utilisateurs qui lui reviennent y sont déplacés
+        start(urls.get(3), urls);
+        assertThat(send(urls.get(0), "PUT", "/cluster/nodes", toJson(urls), null).statusCode()).isEqualTo(204);
+        assertThat(assertPlacement(urls)).isEqualTo(total);
+        assertThat(users(urls.get(3))).isNotEmpty();
+        for (int i = 0; i < USERS; i++) {
+            login(urls.get(i % 4), "user" + i, "pwd" + i);
+        }
+
+        // Retrait de l'instance : elle rend tous ses utilisateurs
+        assertThat(send(urls.get(1), "PUT", "/cluster/nodes", toJson(initial), null).statusCode()).isEqualTo(204);
+        assertThat(users(urls.get(3))).isEmpty();
+        assertThat(assertPlacement(initial)).isEqualTo(total);
+
+        // Les opérations internes exigent le secret partagé
+        HttpResponse<String> refused = client.send(HttpRequest.newBuilder(URI.create(urls.get(0) + "/cluster/nodes")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(refused.statusCode()).isEqualTo(401);
+    }
+
+    @Test
+    void movedUserKeepsItsSessionsAndIsNotPublishedAsDeleted(@TempDir Path directory) throws Exception {
+        String first = freeUrl();
+        String second = freeUrl();
+        // Trousseau partagé et bus de révocation : un token ouvert sur une instance est vérifié par les autres
+        String[] shared = {"--jwt.keyring.path=" + directory.resolve("keyring.json"), "--users.revocation.transport=local",
+            "--users.revocation.group=cluster-test-" + System.nanoTime()};
+        start(first, List.of(first), shared);
+        for (int i = 0; i < USERS; i++) {
+            assertThat(send(first, "POST", "/users", "{\"login\":\"user" + i + "\",\"password\":\"pwd" + i + "\",\"species\":\"VOLEUR\"}",
+                    null).statusCode()).isEqualTo(201);
+        }
+        HashRing ring = new HashRing(List.of(first, second), 128);
+        int moved = 0;
+        while (!ring.nodeFor("user" + moved).equals(second)) {
+            moved++;
+        }
+        String token = login(first, "user" + moved, "pwd" + moved);
+        UserEventLog.Subscription events = nodes.get(first).getBean(UserEventLog.class).subscribe(null);
+
+        start(second, List.of(first, second), shared);
+        assertThat(send(first, "PUT", "/cluster/nodes", toJson(List.of(first, second)), null).statusCode()).isEqualTo(204);
+        assertThat(users(second)).contains("user" + moved);
+        assertThat(users(first)).doesNotContain("user" + moved);
+
+        // Le retrait n'est ni une suppression publiée ni une révocation diffusée
+        for (UserEvent event = events.next(Duration.ZERO); event != null; event = events.next(Duration.ZERO)) {
+            assertThat(event.type()).isNotEqualTo(UserEvent.Type.DELETED);
+        }
+        RevocationBus bus = nodes.get(second).getBean(RevocationBus.class);
+        assertThat(bus.size()).isZero();
+        assertThat(nodes.get(first).getBean(RevocationBus.class).size()).isZero();
+
+        // Le token ouvert avant le déplacement reste accepté, y compris par la nouvelle instance
+        long origin = nodes.get(first).getBean(SessionRegistry.class).getNodeId();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!bus.isPeer(origin) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(send(first, "GET", "/authenticate?jwt=" + token.substring(7) + "&origin=" + ORIGIN, null, null).statusCode())
+                .isEqualTo(204);
+        assertThat(send(second, "GET", "/users/user" + moved, null, token).statusCode()).isEqualTo(200);
+    }
+
+    /**
+     * Vérifie que chaque utilisateur (y compris ceux créés au démarrage) est présent une seule fois, sur l'instance désignée par l'anneau.
+     * @return Le nombre d'utilisateurs du cluster
+     */
+    private int assertPlacement(List<String> members) {
+        HashRing ring = new HashRing(members, 128);
+        Set<String> all = new HashSet<>();
+        for (String url : members) {
+            List<String> logins = users(url);
+            assertThat(logins).allSatisfy(login -> assertThat(ring.nodeFor(login)).isEqualTo(url));
+            assertThat(logins).allSatisfy(login -> assertThat(all.add(login)).isTrue());
+        }
+        assertThat(all).contains("admin", "user0", "user" + (USERS - 1));
+        return all.size();
+    }
+
+    private List<String> users(String url) {
+        List<String> logins = new ArrayList<>();
+        for (User user : nodes.get(url).getBean(UserQueryDao.class).findAll()) {
+            logins.add(user.getLogin());
+        }
+        return logins;
+    }
+
+    private String login(String url, String login, String password) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(url, "POST", "/login", "{\"login\":\"" + login + "\",\"password\":\"" + password + "\"}", null);
+        assertThat(response.statusCode()).isEqualTo(204);
+        return response.headers().firstValue("Authorization").orElseThrow();
+    }
+
+    private HttpResponse<String> send(String url, String method, String path, String json, String token)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url + path))
+                .header("Origin", ORIGIN)
+                .header("Accept", "application/json")
+                .header(ClusterMembership.SECRET_HEADER, path.startsWith("/cluster/") ? SECRET : "")
+                .method(method, json == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(json));
+        if (json != null) {
+            request.header("Content-Type", "application/json");
+        }
+        if (token != null) {
+            request.header("Authorization", token);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private void start(String url, List<String> members, String... properties) {
+        List<String> args = new ArrayList<>(List.of(
+                "--server.port=" + URI.create(url).getPort(),
+                "--users.cluster.self=" + url,
+                "--users.cluster.nodes=" + String.join(",", members),
+                "--users.cluster.secret=" + SECRET,
+                // Déplacements déclenchés uniquement par les changements de composition
+                "--users.cluster.rebalanceIntervalMs=3600000"));
+        args.addAll(List.of(properties));
+        nodes.put(url, new SpringApplicationBuilder(UsersApplication.class).run(args.toArray(String[]::new)));
+    }
+
+    private static String toJson(List<String> urls) {
+        return "[\"" + String.join("\",\"", urls) + "\"]";
+    }
+
+    private static String freeUrl() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return "http://localhost:" + socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package fr.univlyon1.m1if.m1if13.users.controller;
+
+import fr.univlyon1.m1if.m1if13.users.dao.CachingUserDao;
+import fr.univlyon1.m1if.m1if13.users.dao.Dao;
+import fr.univlyon1.m1if.m1if13.users.dao.JdbcUserDao;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Vérifie que les services fonctionnent sans modification avec le DAO en base de données.
+ */
+@SpringBootTest(properties = {"users.store.type=jdbc", "users.store.jdbc.url=jdbc:h2:mem:users;DB_CLOSE_DELAY=-1"})
+@AutoConfigureMockMvc
+class JdbcStoreTest {
+    private static final String ORIGIN = "http://localhost";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private Dao<User> userDao;
+
+    @Autowired
+    private JdbcUserDao jdbcUserDao;
+
+    @Test
+    void userLifecycleUsesTheDatabase() throws Exception {
+        // Les services lisent la base à travers le cache des utilisateurs
+        assertThat(userDao).isInstanceOf(CachingUserDao.class);
+
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"jdbcUser\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isCreated());
+        String token = mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"jdbcUser\",\"password\":\"pwd\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getHeader("Authorization");
+
+        MvcResult read = performAsync(get("/users/jdbcUser")
+                .header("Authorization", token)
+                .header("Origin", ORIGIN));
+        status().isOk().match(read);
+        jsonPath("$.species").value("VOLEUR").match(read);
+        mockMvc.perform(get("/users").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        status().isNoContent().match(performAsync(delete("/users/jdbcUser")));
+        assertThat(jdbcUserDao.findMany(List.of("jdbcUser"))).isEmpty();
+        assertThat(((CachingUserDao) userDao).getHitCount()).isPositive();
+        mockMvc.perform(get("/authenticate")
+                        .param("jwt", token.replace("Bearer ", ""))
+                        .param("origin", ORIGIN))
+                .andExpect(status().isUnauthorized());
+    }
+
+    /**
+     * Exécute une requête dont la réponse peut être asynchrone : les accès à la base ne bloquent pas le thread de la requête,
+     * la réponse est écrite par le thread qui termine l'accès (ou immédiatement si l'accès est terminé avant la fin du handler).
+     */
+    private MvcResult performAsync(RequestBuilder request) throws Exception {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        return result.getRequest().isAsyncStarted() ? mockMvc.perform(asyncDispatch(result)).andReturn() : result;
+    }
+}
@@ -0,0 +1,77 @@
+package fr.univlyon1.m1if.m1if13.users.controller;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Jwk;
+import io.jsonwebtoken.security.JwkSet;
+import io.jsonwebtoken.security.Jwks;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.security.PublicKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Vérifie qu'un service tiers peut vérifier localement un token signé en EdDSA, à partir du JWK Set publié.
+ */
+@SpringBootTest(properties = "jwt.algorithm=EdDSA")
+@AutoConfigureMockMvc
+class JwksControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private static final String ORIGIN = "http://localhost";
+
+    @Test
+    void tokenCanBeVerifiedOfflineWithPublishedKey() throws Exception {
+        mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"login\":\"jwksUser\",\"password\":\"password\",\"species\":\"VOLEUR\"}"));
+        String token = mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"jwksUser\",\"password\":\"password\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getHeader("Authorization").replace("Bearer ", "");
+
+        // Le JWK Set est accessible sans authentification
+        String jwksJson = mockMvc.perform(get("/.well-known/jwks.json"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", JwksController.JWK_SET_MEDIA_TYPE))
+                .andReturn().getResponse().getContentAsString();
+
+        JwkSet jwks = Jwks.setParser().build().parse(jwksJson);
+        assertThat(jwks.getKeys()).hasSize(1);
+        Jwk<?> jwk = jwks.getKeys().iterator().next();
+        assertThat(jwk.getAlgorithm()).isEqualTo("EdDSA");
+
+        Jws<Claims> verified = Jwts.parser().verifyWith((PublicKey) jwk.toKey()).build().parseSignedClaims(token);
+        assertThat(verified.getHeader().getKeyId()).isEqualTo(jwk.getId());
+        assertThat(verified.getPayload().getSubject()).isEqualTo("jwksUser");
+    }
+
+    @Test
+    void jwksIsCacheableAndSupportsConditionalRequests() throws Exception {
+        MvcResult result = mockMvc.perform(get("/.well-known/jwks.json"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "max-age=300, public"))
+                .andExpect(header().exists("ETag"))
+                .andReturn();
+        String etag = result.getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/.well-known/jwks.json").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+    }
+}
@@ -0,0 +1,88 @@
+package fr.univlyon1.m1if.m1if13.users.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Vérifie que les filtres, l'interceptor et les opérations fonctionnent à l'identique avec des tokens opaques.
+ */
+@SpringBootTest(properties = "token.mode=opaque")
+@AutoConfigureMockMvc
+class OpaqueTokenModeTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private static final String ORIGIN = "http://localhost";
+    private static final String USER_JSON = """
+            {
+                "login": "opaqueUser",
+                "password": "password",
+                "species": "POLICIER"
+            }""";
+
+    @Test
+    void opaqueTokenLifecycle() throws Exception {
+        mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(USER_JSON));
+        String token = mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"opaqueUser\",\"password\":\"password\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getHeader("Authorization");
+        // Un token opaque n'est pas un JWT (pas de header ni de payload décodables)
+        assertThat(token).startsWith("Bearer ").doesNotContain(".");
+
+        mockMvc.perform(get("/users/opaqueUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.login").value("opaqueUser"));
+
+        mockMvc.perform(get("/authenticate")
+                        .param("jwt", token.substring(7))
+                        .param("origin", ORIGIN))
+                .andExpect(status().isNoContent());
+
+        // La mise à jour émet un nouveau token opaque dans la même session
+        String renewed = mockMvc.perform(put("/users/opaqueUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(USER_JSON))
+                .andExpect(status().isNoContent())
+                .andExpect(header().exists("Authorization"))
+                .andReturn().getResponse().getHeader("Authorization");
+        assertThat(renewed).isNotEqualTo(token);
+
+        mockMvc.perform(post("/logout")
+                        .header("Authorization", renewed)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent());
+
+        // La déconnexion révoque la session : aucun des tokens de la session n'est plus accepté
+        mockMvc.perform(get("/users/opaqueUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/authenticate")
+                        .param("jwt", renewed.substring(7))
+                        .param("origin", ORIGIN))
+                .andExpect(status().isUnauthorized());
+    }
+}
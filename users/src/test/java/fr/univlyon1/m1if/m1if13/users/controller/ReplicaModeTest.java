@@ -0,0 +1,49 @@
+package fr.univlyon1.m1if.m1if13.users.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Vérifie le comportement d'une réplique qui n'a jamais reçu le journal du leader (leader injoignable) :
+ * modifications redirigées vers le leader, lectures refusées tant que la réplique est en retard.
+ */
+@SpringBootTest(properties = {
+        "users.replication.role=follower",
+        "users.replication.leader=127.0.0.1:1",
+        "users.replication.leaderUrl=http://leader.example"
+})
+@AutoConfigureMockMvc
+class ReplicaModeTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void writesAreRedirectedToTheLeader() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"replicaUser\",\"password\":\"password\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isTemporaryRedirect())
+                .andExpect(header().string("Location", "http://leader.example/users"));
+        mockMvc.perform(delete("/users/replicaUser?force=true"))
+                .andExpect(status().isTemporaryRedirect())
+                .andExpect(header().string("Location", "http://leader.example/users/replicaUser?force=true"));
+    }
+
+    @Test
+    void staleReplicaRefusesReads() throws Exception {
+        mockMvc.perform(get("/users").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists("Retry-After"));
+    }
+}
@@ -0,0 +1,148 @@
+package fr.univlyon1.m1if.m1if13.users.controller;
+
+import fr.univlyon1.m1if.m1if13.users.util.LocalRevocationTransport;
+import fr.univlyon1.m1if.m1if13.users.util.RevocationBus;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
+import fr.univlyon1.m1if.m1if13.users.util.UserTokenProvider;
+import fr.univlyon1.m1if.m1if13.users.util.VerifiedTokenCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Vérifie qu'un token ouvert par une autre instance (simulée par une table des sessions et un bus de révocation
+ * sur le transport local) est accepté, puis refusé dès que sa session est fermée sur l'une ou l'autre instance.
+ * Un token d'une instance dont le bus n'a jamais rien reçu est refusé.
+ */
+@SpringBootTest(properties = {
+        "users.revocation.transport=local",
+        "users.revocation.group=propagation-test",
+        "users.revocation.secret=test-secret"
+})
+@AutoConfigureMockMvc
+class RevocationPropagationTest {
+    private static final String ORIGIN = "http://localhost";
+    private static final long IN_ONE_HOUR = System.currentTimeMillis() + 3_600_000;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private UserTokenProvider userTokenProvider;
+    @Autowired
+    private SessionRegistry sessionRegistry;
+
+    private SessionRegistry peerRegistry;
+    private RevocationBus peerBus;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"login\":\"remoteUser\",\"password\":\"password\",\"species\":\"POLICIER\"}"));
+        peerRegistry = new SessionRegistry(4, 16);
+        peerBus = new RevocationBus(peerRegistry, new VerifiedTokenCache(), new LocalRevocationTransport("propagation-test"),
+                "test-secret", 1_800_000);
+        peerBus.start();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        peerBus.stop();
+    }
+
+    /**
+     * Token tel que l'aurait émis l'autre instance (le trousseau de clés est partagé).
+     */
+    private String peerToken(long sessionId) {
+        return tokenOf(peerRegistry.getNodeId(), sessionId);
+    }
+
+    private String tokenOf(long node, long sessionId) {
+        return "Bearer " + userTokenProvider.generateToken(Map.of(
+                "sub", "remoteUser",
+                "species", "POLICIER",
+                "origin", ORIGIN,
+                "sid", sessionId,
+                "nid", node));
+    }
+
+    @Test
+    void tokenOfAnUnknownNodeIsRefused() throws Exception {
+        // Instance arrêtée, ou cette instance avant un redémarrage : son identifiant n'est connu d'aucun bus
+        SessionRegistry silentRegistry = new SessionRegistry(4, 16);
+        long sid = silentRegistry.open("remoteUser", IN_ONE_HOUR);
+
+        mockMvc.perform(get("/users/remoteUser")
+                        .header("Authorization", tokenOf(silentRegistry.getNodeId(), sid))
+                        .header("Origin", ORIGIN)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void refreshTokenReuseHereRevokesTheSessionOnPeers() throws Exception {
+        MvcResult login = mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"remoteUser\",\"password\":\"password\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andReturn();
+        String refreshToken = login.getResponse().getHeader("Refresh-Token");
+        long sid = userTokenProvider.getClaimsFromToken(login.getResponse().getHeader("Authorization").substring(7))
+                .get("sid", Long.class);
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(post("/token/refresh")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content("{\"refreshToken\":\"" + refreshToken + "\"}"));
+        }
+
+        assertThat(sessionRegistry.isActive(sid)).isFalse();
+        assertThat(peerBus.isRevoked(sessionRegistry.getNodeId(), sid, "remoteUser", System.currentTimeMillis())).isTrue();
+    }
+
+    @Test
+    void logoutOnPeerRevokesTokenHere() throws Exception {
+        long sid = peerRegistry.open("remoteUser", IN_ONE_HOUR);
+        String token = peerToken(sid);
+        mockMvc.perform(get("/users/remoteUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        peerRegistry.revoke(sid);
+        peerBus.revokeSession(peerRegistry.getNodeId(), sid);
+
+        mockMvc.perform(get("/users/remoteUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void logoutHereRevokesPeerSession() throws Exception {
+        long sid = peerRegistry.open("remoteUser", IN_ONE_HOUR);
+
+        mockMvc.perform(post("/logout")
+                        .header("Authorization", peerToken(sid))
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent());
+
+        assertThat(peerRegistry.isActive(sid)).isFalse();
+    }
+}
@@ -1,5 +1,10 @@
 package fr.univlyon1.m1if.m1if13.users.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.univlyon1.m1if.m1if13.users.dao.UserQueryDao;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -8,12 +13,19 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 
@@ -24,7 +36,11 @@ class UserIntegrationTest {
     @Autowired
     private MockMvc mockMvc;
 
+    @Autowired
+    private UserQueryDao userDao;
+
     private static final String ORIGIN = "http://localhost";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     private static final String TEST_USER_JSON = """
             {
                 "login": "testUser",
@@ -66,6 +82,22 @@ class UserIntegrationTest {
                         .param("origin", ORIGIN))
                 .andExpect(status().isNoContent());
 
+        // 3b. Verify a batch of tokens (valid token, wrong origin, invalid token)
+        MvcResult batchResult = mockMvc.perform(post("/authenticate/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"jwt\":\"" + token + "\",\"origin\":\"" + ORIGIN + "\"}," +
+                                "{\"jwt\":\"" + token + "\",\"origin\":\"http://evil.example\"}," +
+                                "{\"jwt\":\"invalid.token\",\"origin\":\"" + ORIGIN + "\"}]"))
+                .andReturn();
+        String batchLines = mockMvc.perform(asyncDispatch(batchResult))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String[] results = batchLines.split("\n");
+        assert results.length == 3;
+        assert results[0].startsWith("{\"valid\":true,\"subject\":\"testUser\",\"species\":\"VOLEUR\"");
+        assert results[1].startsWith("{\"valid\":false");
+        assert results[2].startsWith("{\"valid\":false");
+
         // 4. Update user password
         mockMvc.perform(put("/users/testUser")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -128,4 +160,558 @@ class UserIntegrationTest {
                         .header("Origin", ORIGIN))
                 .andExpect(status().isUnauthorized());
     }
+
+    @Test
+    void logoutOnlyRevokesCurrentSession() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"twoDevices\",\"password\":\"pwd\",\"species\":\"POLICIER\"}"))
+                .andExpect(status().isCreated());
+
+        String phoneToken = login("twoDevices", "pwd");
+        String laptopToken = login("twoDevices", "pwd");
+
+        // Logout from the phone only
+        mockMvc.perform(post("/logout")
+                        .header("Authorization", phoneToken)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/users/twoDevices")
+                        .header("Authorization", phoneToken)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/users/twoDevices")
+                        .header("Authorization", laptopToken)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isOk());
+
+        // Deleting the user revokes the remaining session
+        mockMvc.perform(delete("/users/twoDevices"))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/authenticate")
+                        .param("jwt", laptopToken.replace("Bearer ", ""))
+                        .param("origin", ORIGIN))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void refreshTokenRenewsSessionAndDetectsReuse() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"refreshUser\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isCreated());
+        String refreshToken = mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"refreshUser\",\"password\":\"pwd\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andExpect(header().exists("Refresh-Token"))
+                .andReturn().getResponse().getHeader("Refresh-Token");
+
+        // Exchange the refresh token for a new access token, without credentials
+        MvcResult refreshResult = mockMvc.perform(post("/token/refresh")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"refreshToken\":\"" + refreshToken + "\"}"))
+                .andExpect(status().isNoContent())
+                .andExpect(header().exists("Authorization"))
+                .andExpect(header().exists("Refresh-Token"))
+                .andReturn();
+        String accessToken = refreshResult.getResponse().getHeader("Authorization");
+        String rotatedRefreshToken = refreshResult.getResponse().getHeader("Refresh-Token");
+
+        mockMvc.perform(get("/users/refreshUser")
+                        .header("Authorization", accessToken)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isOk());
+
+        // Replaying the first refresh token is detected as a reuse: the whole session is revoked
+        mockMvc.perform(post("/token/refresh")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"refreshToken\":\"" + refreshToken + "\"}"))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/users/refreshUser")
+                        .header("Authorization", accessToken)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(post("/token/refresh")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"refreshToken\":\"" + rotatedRefreshToken + "\"}"))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void conditionalUpdateRejectsStaleVersion() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"etagUser\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isCreated());
+        String token = login("etagUser", "pwd");
+
+        String etag = mockMvc.perform(get("/users/etagUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        // First writer based on the current version wins and gets the new version
+        String newEtag = mockMvc.perform(put("/users/etagUser")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"etagUser\",\"species\":\"POLICIER\"}")
+                        .header("If-Match", etag)
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getHeader("ETag");
+        assert !etag.equals(newEtag);
+
+        // Second writer based on the same (now stale) version is rejected
+        mockMvc.perform(put("/users/etagUser")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"etagUser\",\"species\":\"VOLEUR\"}")
+                        .header("If-Match", etag)
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(get("/users/etagUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(header().string("ETag", newEtag))
+                .andExpect(jsonPath("$.species").value("POLICIER"));
+    }
+
+    @Test
+    void versionOfADeletedUserDoesNotMatchTheRecreatedUser() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"recreatedUser\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isCreated());
+        String etag = mockMvc.perform(get("/users/recreatedUser")
+                        .header("Authorization", login("recreatedUser", "pwd"))
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(delete("/users/recreatedUser")).andExpect(status().isNoContent());
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"recreatedUser\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isCreated());
+        String token = login("recreatedUser", "pwd");
+
+        // La numérotation reprend après la dernière version de l'utilisateur supprimé : son ETag est périmé
+        mockMvc.perform(put("/users/recreatedUser")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"recreatedUser\",\"species\":\"POLICIER\"}")
+                        .header("If-Match", etag)
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(get("/users/recreatedUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(header().string("ETag", "\"2\""))
+                .andExpect(jsonPath("$.species").value("VOLEUR"));
+    }
+
+    @Test
+    void passwordsAreStoredHashedAndPlaintextOnesRehashedOnLogin() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"hashedUser\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isCreated());
+        assertThat(userDao.findOne("hashedUser").getPassword()).startsWith("pbkdf2-sha256$1000$");
+        login("hashedUser", "pwd");
+
+        // Mot de passe enregistré en clair avant le hachage : accepté, puis remplacé par un condensat
+        userDao.add(new User("legacyUser", "legacyPwd", Species.POLICIER, null));
+        login("legacyUser", "legacyPwd");
+        String rehashed = userDao.findOne("legacyUser").getPassword();
+        assertThat(rehashed).startsWith("pbkdf2-sha256$1000$");
+        login("legacyUser", "legacyPwd");
+        assertThat(userDao.findOne("legacyUser").getPassword()).isEqualTo(rehashed);
+        mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"legacyUser\",\"password\":\"" + rehashed + "\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void mergePatchUpdatesOnlyGivenFields() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"patchUser\",\"password\":\"pwd\",\"species\":\"VOLEUR\",\"image\":\"patch.png\"}"))
+                .andExpect(status().isCreated());
+        String token = login("patchUser", "pwd");
+
+        // Champ modifié, champ effacé (null), champs absents conservés
+        String etag = mockMvc.perform(patch("/users/patchUser")
+                        .contentType("application/merge-patch+json")
+                        .content("{\"species\":\"POLICIER\",\"image\":null}")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string("ETag", "\"2\""))
+                .andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/users/patchUser")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(jsonPath("$.species").value("POLICIER"))
+                .andExpect(jsonPath("$.image").doesNotExist());
+        mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"patchUser\",\"password\":\"pwd\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent());
+
+        // Documents invalides : rejetés sans modifier l'utilisateur
+        for (String invalid : new String[] {"{\"login\":\"other\"}", "{\"password\":null}", "{\"species\":null}", "{\"species\":\"PIRATE\"}",
+                "{\"age\":3}", "[]"}) {
+            mockMvc.perform(patch("/users/patchUser")
+                            .contentType("application/merge-patch+json")
+                            .content(invalid)
+                            .header("Authorization", token)
+                            .header("Origin", ORIGIN))
+                    .andExpect(status().isBadRequest());
+        }
+        assertThat(userDao.findOne("patchUser").getSpecies()).isEqualTo(Species.POLICIER);
+
+        // Modification conditionnelle sur une version périmée
+        mockMvc.perform(patch("/users/patchUser")
+                        .contentType("application/merge-patch+json")
+                        .content("{\"image\":\"new.png\"}")
+                        .header("If-Match", "\"1\"")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(patch("/users/patchUser")
+                        .contentType("application/merge-patch+json")
+                        .content("{\"image\":\"new.png\"}")
+                        .header("If-Match", etag)
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string("ETag", "\"3\""));
+    }
+
+    @Test
+    void usersCanBeFilteredBySpeciesAndConnectionState() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"searchCop\",\"password\":\"pwd\",\"species\":\"POLICIER\"}"))
+                .andExpect(status().isCreated());
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"searchThief\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isCreated());
+        String token = login("searchCop", "pwd");
+
+        // La recherche révèle les utilisateurs connectés et les administrateurs : elle n'est pas publique
+        mockMvc.perform(get("/users").param("connected", "true").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/users").param("species", "ADMIN").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isUnauthorized());
+
+        String connectedCops = mockMvc.perform(get("/users")
+                        .param("species", "policier")
+                        .param("connected", "true")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assert connectedCops.contains("users/searchCop");
+        assert !connectedCops.contains("users/searchThief");
+
+        mockMvc.perform(post("/logout")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent());
+        String thief = login("searchThief", "pwd");
+        String disconnected = mockMvc.perform(get("/users")
+                        .param("connected", "false")
+                        .header("Authorization", thief)
+                        .header("Origin", ORIGIN)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        assert disconnected.contains("users/searchCop") && !disconnected.contains("users/searchThief");
+
+        mockMvc.perform(get("/users").param("species", "DRAGON").header("Authorization", thief).header("Origin", ORIGIN)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/users").param("connected", "maybe").header("Authorization", thief).header("Origin", ORIGIN)
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void usersCanBeListedPageByPage() throws Exception {
+        for (String suffix : new String[] {"c", "a", "e", "b", "d"}) {
+            mockMvc.perform(post("/users")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"login\":\"page-" + suffix + "\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                    .andExpect(status().isCreated());
+        }
+        String all = mockMvc.perform(get("/users").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_JSON_VALUE))
+                .andReturn().getResponse().getContentAsString();
+        List<String> expected = new ArrayList<>();
+        OBJECT_MAPPER.readTree(all).get("users").forEach(link -> expected.add(link.get("link").asText()));
+
+        // Parcours de toutes les pages en suivant les liens "next"
+        List<String> paged = new ArrayList<>();
+        String next = "users?limit=2";
+        int pages = 0;
+        while (next != null) {
+            MvcResult result = mockMvc.perform(get("/" + next).accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andReturn();
+            JsonNode page = OBJECT_MAPPER.readTree(result.getResponse().getContentAsString());
+            assert page.get("users").size() <= 2;
+            page.get("users").forEach(link -> paged.add(link.get("link").asText()));
+            next = page.hasNonNull("next") ? page.get("next").asText() : null;
+            assert next == null || result.getResponse().getHeader("Link").equals("<" + next + ">; rel=\"next\"");
+            pages++;
+        }
+        assert pages == (expected.size() + 1) / 2;
+        assert paged.equals(expected.stream().sorted().toList());
+        assert paged.indexOf("users/page-a") + 4 == paged.indexOf("users/page-e");
+
+        String xml = mockMvc.perform(get("/users").param("limit", "1000").accept(MediaType.APPLICATION_XML))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_XML_VALUE))
+                .andReturn().getResponse().getContentAsString();
+        assert xml.startsWith("<users>") && xml.contains("<link href=\"users/page-c\"/>") && !xml.contains("<next>");
+
+        mockMvc.perform(get("/users").param("limit", "0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/users").param("limit", "many")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/users").param("limit", "2").param("cursor", "not base64!")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void usersCanBeImportedAndExportedAsNdjson() throws Exception {
+        String body = "{\"login\":\"bulk-1\",\"password\":\"pwd\",\"species\":\"VOLEUR\",\"image\":\"3.png\"}\n" +
+                "{\"login\":\"bulk-2\",\"password\":\"pwd\",\"species\":\"POLICIER\"}\n" +
+                "\n" +
+                "not json\n" +
+                "{\"login\":\"bulk-3\"}\n" +
+                "{\"login\":\"bulk-1\",\"password\":\"other\",\"species\":\"VOLEUR\"}\n";
+        String admin = login("admin", "admin");
+
+        String report = mockMvc.perform(post("/users/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(body)
+                        .header("Authorization", admin)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(2))
+                .andExpect(jsonPath("$.rejected").value(3))
+                .andReturn().getResponse().getContentAsString();
+        JsonNode errors = OBJECT_MAPPER.readTree(report).get("errors");
+        assert errors.get(0).get("line").asInt() == 4 && errors.get(0).get("login").isNull();
+        assert errors.get(1).get("line").asInt() == 5 && errors.get(1).get("login").asText().equals("bulk-3");
+        assert errors.get(2).get("line").asInt() == 6 && errors.get(2).get("error").asText().contains("existe déjà");
+        login("bulk-2", "pwd");
+
+        String export = mockMvc.perform(get("/users/export")
+                        .header("Authorization", admin)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", MediaType.APPLICATION_NDJSON_VALUE))
+                .andReturn().getResponse().getContentAsString();
+        List<String> lines = List.of(export.split("\n"));
+        assert lines.contains("{\"login\":\"bulk-1\",\"species\":\"VOLEUR\",\"image\":\"3.png\"}");
+        assert lines.contains("{\"login\":\"bulk-2\",\"species\":\"POLICIER\",\"image\":null}");
+        assert !export.contains("password");
+
+        // Réservé aux administrateurs
+        String player = login("bulk-1", "pwd");
+        mockMvc.perform(get("/users/export")
+                        .header("Authorization", player)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(post("/users/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(body))
+                .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void onlyAnAdministratorCanGrantTheAdminSpecies() throws Exception {
+        // Inscription publique en tant qu'administrateur : refusée
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"usurper\",\"password\":\"pwd\",\"species\":\"ADMIN\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+
+        // Promotion par PUT de son propre compte : refusée, avec ou sans If-Match
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"usurper\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isCreated());
+        String player = login("usurper", "pwd");
+        mockMvc.perform(put("/users/usurper")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"usurper\",\"species\":\"ADMIN\"}")
+                        .header("Authorization", player)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(put("/users/usurper")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"usurper\",\"species\":\"ADMIN\"}")
+                        .header("If-Match", "*")
+                        .header("Authorization", player)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+        assertThat(userDao.findOne("usurper").getSpecies()).isEqualTo(Species.VOLEUR);
+
+        // Les ressources réservées aux administrateurs restent inaccessibles
+        mockMvc.perform(post("/users/bulk")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"login\":\"usurper-2\",\"password\":\"pwd\",\"species\":\"ADMIN\"}\n")
+                        .header("Authorization", player)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/users/export")
+                        .header("Authorization", player)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+
+        // Un administrateur peut créer un administrateur
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"admin-2\",\"password\":\"pwd\",\"species\":\"ADMIN\"}")
+                        .header("Authorization", login("admin", "admin"))
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isCreated());
+        assertThat(userDao.findOne("admin-2").getSpecies()).isEqualTo(Species.ADMIN);
+    }
+
+    @Test
+    void userChangesAreStreamedAsServerSentEvents() throws Exception {
+        String admin = login("admin", "admin");
+        // Reprise depuis le début de l'historique
+        MvcResult stream = mockMvc.perform(get("/users/events")
+                        .header("Authorization", admin)
+                        .header("Origin", ORIGIN)
+                        .header("Last-Event-ID", "0"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"sse-user\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isCreated());
+        String player = login("sse-user", "pwd");
+        mockMvc.perform(delete("/users/sse-user")).andExpect(status().isNoContent());
+
+        String events = "";
+        for (int i = 0; i < 100 && !events.contains("event:DELETED\ndata:{\"sequence\""); i++) {
+            Thread.sleep(50);
+            events = stream.getResponse().getContentAsString();
+        }
+        int created = events.indexOf("event:CREATED\ndata:{\"sequence\"");
+        int connected = events.indexOf("\"type\":\"CONNECTED\",\"login\":\"sse-user\"");
+        int deleted = events.indexOf("\"type\":\"DELETED\",\"login\":\"sse-user\"");
+        assert events.contains("\"type\":\"CREATED\",\"login\":\"sse-user\",\"species\":\"VOLEUR\"");
+        assert created >= 0 && created < connected && connected < deleted;
+        assert events.startsWith("id:1\n");
+        assert !events.contains("pwd");
+
+        mockMvc.perform(get("/users/events")
+                        .header("Authorization", player)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/users/events")
+                        .header("Authorization", admin)
+                        .header("Origin", ORIGIN)
+                        .header("Last-Event-ID", "last"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void playerCannotPromoteItselfToFollowTheEventStream() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"eavesdropper\",\"password\":\"pwd\",\"species\":\"POLICIER\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isCreated());
+        String player = login("eavesdropper", "pwd");
+
+        // Promotion par PATCH de son propre compte : refusée, avec ou sans If-Match
+        mockMvc.perform(patch("/users/eavesdropper")
+                        .contentType("application/merge-patch+json")
+                        .content("{\"species\":\"ADMIN\"}")
+                        .header("Authorization", player)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(patch("/users/eavesdropper")
+                        .contentType("application/merge-patch+json")
+                        .content("{\"species\":\"ADMIN\"}")
+                        .header("If-Match", "*")
+                        .header("Authorization", player)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+        assertThat(userDao.findOne("eavesdropper").getSpecies()).isEqualTo(Species.POLICIER);
+
+        // L'espèce est inchangée : même avec un nouveau token, le flux d'événements reste inaccessible
+        mockMvc.perform(get("/users/events")
+                        .header("Authorization", login("eavesdropper", "pwd"))
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+    }
+
+    @Test
+    void userWithoutSpeciesCanUseItsToken() throws Exception {
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"noSpecies\",\"password\":\"pwd\"}"))
+                .andExpect(status().isCreated());
+        String token = login("noSpecies", "pwd");
+
+        mockMvc.perform(get("/users/noSpecies")
+                        .header("Authorization", token)
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.species").doesNotExist());
+        mockMvc.perform(get("/authenticate")
+                        .param("jwt", token.replace("Bearer ", ""))
+                        .param("origin", ORIGIN))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void onlyHealthIsPublicAmongActuatorEndpoints() throws Exception {
+        mockMvc.perform(get("/actuator/health")).andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/metrics")).andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/actuator/metrics/users.sessions.active")).andExpect(status().isUnauthorized());
+
+        mockMvc.perform(post("/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"metricsUser\",\"password\":\"pwd\",\"species\":\"VOLEUR\"}"))
+                .andExpect(status().isCreated());
+        mockMvc.perform(get("/actuator/metrics")
+                        .header("Authorization", login("metricsUser", "pwd"))
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isForbidden());
+        mockMvc.perform(get("/actuator/metrics")
+                        .header("Authorization", login("admin", "admin"))
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isOk());
+    }
+
+    private String login(String login, String password) throws Exception {
+        return mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"login\":\"" + login + "\",\"password\":\"" + password + "\"}")
+                        .header("Origin", ORIGIN))
+                .andExpect(status().isNoContent())
+                .andReturn().getResponse().getHeader("Authorization");
+    }
 }
@@ -1,6 +1,10 @@
 package fr.univlyon1.m1if.m1if13.users.controller;
 
 import fr.univlyon1.m1if.m1if13.users.dto.LoginRequestDto;
+import fr.univlyon1.m1if.m1if13.users.dto.TokenValidationResultDto;
+import fr.univlyon1.m1if.m1if13.users.exception.OverloadedException;
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
 import fr.univlyon1.m1if.m1if13.users.service.UserOperationService;
 import fr.univlyon1.m1if.m1if13.users.util.UserTokenProvider;
 import jakarta.servlet.http.HttpServletRequest;
@@ -11,18 +15,26 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import javax.naming.AuthenticationException;
 import javax.naming.NameNotFoundException;
+import java.time.Instant;
+import java.util.stream.Stream;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.doAnswer;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /** Tests unitaires pour le contrôleur UsersOperationsController.
@@ -94,18 +106,37 @@ class UsersOperationsControllerTest {
                 .andExpect(status().isNotFound());
     }
 
+    /** Teste la méthode login lorsque la file de vérification des mots de passe est pleine.
+     * Vérifie que la réponse HTTP est un code 503 avec le header Retry-After.
+     */
+    @Test
+    void loginWhenPasswordQueueIsFullShouldReturn503() throws Exception {
+        String loginJson = "{\"login\":\"testUser\",\"password\":\"password\"}";
+
+        doThrow(new OverloadedException("file pleine"))
+                .when(userOperationService)
+                .login(any(LoginRequestDto.class), anyString(), any(HttpServletRequest.class));
+
+        mockMvc.perform(post("/login")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(loginJson)
+                        .header("Origin", "http://localhost"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
     /** Teste la déconnexion d'un utilisateur.
      * Vérifie que la réponse HTTP est un code 204.
      */
     @Test
     void logoutShouldReturn204() throws Exception {
-        when(userTokenProvider.isUserConnected(any(HttpServletRequest.class))).thenReturn(true);
+        AuthenticatedUser authenticatedUser = new AuthenticatedUser("testUser", Species.VOLEUR, "http://localhost", 1L, Instant.now().plusSeconds(60));
         doAnswer(invocation -> {
             HttpServletRequest request = invocation.getArgument(0);
-            request.setAttribute("username", "testUser");
-            return true;
-        }).when(userTokenProvider).isUserConnected(any(HttpServletRequest.class));
-        doNothing().when(userOperationService).logout(anyString());
+            request.setAttribute(AuthenticatedUser.REQUEST_ATTRIBUTE, authenticatedUser);
+            return authenticatedUser;
+        }).when(userTokenProvider).getAuthenticatedUser(any(HttpServletRequest.class));
+        doNothing().when(userOperationService).logout(any(AuthenticatedUser.class));
 
         mockMvc.perform(post("/logout")
                         .header("Authorization", "Bearer mock.jwt.token"))
@@ -149,4 +180,41 @@ class UsersOperationsControllerTest {
                         .param("origin", "http://localhost"))
                 .andExpect(status().isUnauthorized());
     }
+
+    /** Teste la vérification d'un lot de tokens.
+     * Vérifie que la réponse contient une ligne JSON par token, dans l'ordre de la requête.
+     */
+    @Test
+    void authenticateBatchShouldStreamOneResultPerToken() throws Exception {
+        when(userOperationService.authenticateBatch(anyList())).thenReturn(Stream.of(
+                new TokenValidationResultDto(true, "testUser", Species.VOLEUR, 120),
+                TokenValidationResultDto.invalid()));
+
+        MvcResult result = mockMvc.perform(post("/authenticate/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"jwt\":\"valid.jwt.token\",\"origin\":\"http://localhost\"}," +
+                                "{\"jwt\":\"invalid.jwt.token\",\"origin\":\"http://localhost\"}]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(
+                        "{\"valid\":true,\"subject\":\"testUser\",\"species\":\"VOLEUR\",\"ttl\":120}\n" +
+                        "{\"valid\":false,\"subject\":null,\"species\":null,\"ttl\":0}\n"));
+    }
+
+    /** Teste la vérification d'un lot vide.
+     * Vérifie que la réponse HTTP est un code 400.
+     */
+    @Test
+    void authenticateBatchWithEmptyBatchShouldReturn400() throws Exception {
+        when(userOperationService.authenticateBatch(anyList())).thenThrow(new IllegalArgumentException("Lot vide"));
+
+        mockMvc.perform(post("/authenticate/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+    }
 }
@@ -1,7 +1,9 @@
 package fr.univlyon1.m1if.m1if13.users.controller;
 
+import fr.univlyon1.m1if.m1if13.users.dao.Upserted;
+import fr.univlyon1.m1if.m1if13.users.dao.Versioned;
 import fr.univlyon1.m1if.m1if13.users.dto.UserResponseDto;
-import fr.univlyon1.m1if.m1if13.users.dto.UsersResponseDto;
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
 import fr.univlyon1.m1if.m1if13.users.model.Species;
 import fr.univlyon1.m1if.m1if13.users.model.User;
 import fr.univlyon1.m1if.m1if13.users.service.UserResourceService;
@@ -18,10 +20,13 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import javax.naming.NameAlreadyBoundException;
-import javax.naming.NameNotFoundException;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -50,6 +55,19 @@ class UserResourceControllerTest {
 
     private User testUser;
 
+    /**
+     * Simule l'authentification de la requête par les filtres pour un utilisateur donné.
+     * @param login Le login de l'utilisateur authentifié
+     */
+    private void authenticateAs(String login) {
+        AuthenticatedUser authenticatedUser = new AuthenticatedUser(login, Species.VOLEUR, "http://localhost", 1L, Instant.now().plusSeconds(60));
+        doAnswer(invocation -> {
+            HttpServletRequest request = invocation.getArgument(0);
+            request.setAttribute(AuthenticatedUser.REQUEST_ATTRIBUTE, authenticatedUser);
+            return authenticatedUser;
+        }).when(userTokenProvider).getAuthenticatedUser(any(HttpServletRequest.class));
+    }
+
     /**
      * Configuration initiale avant chaque test.
      * Prépare un utilisateur de test et configure les comportements par défaut des mocks.
@@ -58,15 +76,10 @@ class UserResourceControllerTest {
     void setUp() {
         testUser = new User("testUser", "password", Species.VOLEUR, "image.png");
 
-        when(userTokenProvider.isUserConnected(any(HttpServletRequest.class))).thenReturn(true);
         when(userTokenProvider.validateToken(anyString(), anyString())).thenReturn(true);
         when(userTokenProvider.extractUsername(anyString())).thenReturn("testUser");
 
-        doAnswer(invocation -> {
-            HttpServletRequest request = invocation.getArgument(0);
-            request.setAttribute("username", "testUser");
-            return true;
-        }).when(userTokenProvider).isUserConnected(any(HttpServletRequest.class));
+        authenticateAs("testUser");
     }
 
     /**
@@ -75,7 +88,7 @@ class UserResourceControllerTest {
      */
     @Test
     void getAllUsersShouldReturn200AndUsersList() throws Exception {
-        when(userResourceService.getAllUsersDto()).thenReturn(new UsersResponseDto(java.util.Collections.emptyList()));
+        when(userResourceService.getAllUsers()).thenReturn(java.util.Collections.emptyList());
 
         mockMvc.perform(get("/users")
                         .accept(MediaType.APPLICATION_JSON))
@@ -91,7 +104,7 @@ class UserResourceControllerTest {
     void createUserShouldReturn201() throws Exception {
         String userJson = "{\"login\":\"testUser\",\"password\":\"password\",\"species\":\"VOLEUR\"}";
 
-        when(userResourceService.createUser(any(User.class)))
+        when(userResourceService.createUser(any(User.class), any(HttpServletRequest.class)))
                 .thenReturn(java.net.URI.create("users/testUser"));
 
         mockMvc.perform(post("/users")
@@ -108,7 +121,7 @@ class UserResourceControllerTest {
     @Test
     void createUserWithExistingLoginShouldReturn409() throws Exception {
         String userJson = "{\"login\":\"testUser\",\"password\":\"password\",\"species\":\"VOLEUR\"}";
-        when(userResourceService.createUser(any(User.class)))
+        when(userResourceService.createUser(any(User.class), any(HttpServletRequest.class)))
                 .thenThrow(new NameAlreadyBoundException("User already exists"));
 
         mockMvc.perform(post("/users")
@@ -124,13 +137,15 @@ class UserResourceControllerTest {
     @Test
     void getUserShouldReturn200AndCorrectContent() throws Exception {
         UserResponseDto expectedUser = new UserResponseDto("testUser", Species.VOLEUR, "12.png");
-        when(userResourceService.getUser("testUser")).thenReturn(expectedUser);
+        when(userResourceService.getVersionedUserAsync("testUser"))
+                .thenReturn(CompletableFuture.completedFuture(Optional.of(new Versioned<>(expectedUser, 3))));
 
         mockMvc.perform(get("/users/testUser")
                         .header("Authorization", "Bearer mock.jwt.token")
                         .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
                 .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string("ETag", "\"3\""))
                 .andExpect(MockMvcResultMatchers.jsonPath("$.login").value("testUser"))
                 .andExpect(MockMvcResultMatchers.jsonPath("$.species").value("VOLEUR"));
     }
@@ -141,15 +156,10 @@ class UserResourceControllerTest {
      */
     @Test
     void getUserWhenUserDoesNotExistShouldReturn404() throws Exception {
-        when(userResourceService.getUser("nonexistent"))
-                .thenThrow(new NameNotFoundException("User not found"));
+        when(userResourceService.getVersionedUserAsync("nonexistent"))
+                .thenReturn(CompletableFuture.completedFuture(Optional.empty()));
 
-        when(userTokenProvider.isUserConnected(any(HttpServletRequest.class))).thenReturn(true);
-        doAnswer(invocation -> {
-            HttpServletRequest request = invocation.getArgument(0);
-            request.setAttribute("username", "nonexistent");
-            return true;
-        }).when(userTokenProvider).isUserConnected(any(HttpServletRequest.class));
+        authenticateAs("nonexistent");
 
         mockMvc.perform(get("/users/nonexistent")
                         .header("Authorization", "Bearer mock.jwt.token")
@@ -165,6 +175,9 @@ class UserResourceControllerTest {
     void updateUserShouldReturn201() throws Exception {
         String userJson = "{\"login\":\"testUser\",\"password\":\"newpass\",\"species\":\"POLICIER\"}";
 
+        when(userResourceService.upsertUser(eq("testUser"), any(User.class), any(HttpServletRequest.class)))
+                .thenReturn(new Upserted<>(new Versioned<>(testUser, Versioned.INITIAL_VERSION), true));
+
         mockMvc.perform(put("/users/testUser")
                         .header("Authorization", "Bearer mock.jwt.token")
                         .header("Origin", "http://localhost")
@@ -181,15 +194,16 @@ class UserResourceControllerTest {
     void updateUserWithoutChangesShouldReturn204() throws Exception {
         String userJson = "{\"login\":\"testUser\",\"password\":\"password\",\"species\":\"VOLEUR\"}";
 
-        when(userResourceService.createUser(any(User.class)))
-                .thenThrow(new NameAlreadyBoundException("User already exists"));
+        when(userResourceService.upsertUser(eq("testUser"), any(User.class), any(HttpServletRequest.class)))
+                .thenReturn(new Upserted<>(new Versioned<>(testUser, 2), false));
 
         mockMvc.perform(put("/users/testUser")
                         .header("Authorization", "Bearer mock.jwt.token")
                         .header("Origin", "http://localhost")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(userJson))
-                .andExpect(status().isNoContent());
+                .andExpect(status().isNoContent())
+                .andExpect(header().string("ETag", "\"2\""));
     }
 
     /**
@@ -198,6 +212,8 @@ class UserResourceControllerTest {
      */
     @Test
     void deleteUserShouldReturn204() throws Exception {
+        when(userResourceService.deleteUserAsync("testUser")).thenReturn(CompletableFuture.completedFuture(true));
+
         mockMvc.perform(delete("/users/testUser")
                         .header("Authorization", "Bearer mock.jwt.token"))
                 .andExpect(status().isNoContent());
@@ -0,0 +1,266 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Test;
+
+import javax.naming.NameAlreadyBoundException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests de l'atomicité des opérations du DAO lorsqu'il est utilisé par plusieurs threads simultanément.
+ */
+class AbstractMapDaoTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 2_000;
+
+    private final AbstractMapDao<User> dao = new AbstractMapDao<>() {
+        @Override
+        protected Serializable getKeyForElement(User element) {
+            return element.getLogin();
+        }
+    };
+
+    /**
+     * Exécute une tâche dans plusieurs threads démarrés simultanément et renvoie la somme de leurs résultats.
+     */
+    private static int runConcurrently(Callable<Integer> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return task.call();
+                }));
+            }
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> result : results) {
+                total += result.get();
+            }
+            return total;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void concurrentAddsOfTheSameLoginHaveASingleWinner() throws Exception {
+        int added = runConcurrently(() -> {
+            int count = 0;
+            for (int i = 0; i < OPERATIONS; i++) {
+                try {
+                    dao.add(new User("user" + i, "password", Species.VOLEUR, null));
+                    count++;
+                } catch (NameAlreadyBoundException e) {
+                    // Un autre thread a créé cet utilisateur en premier
+                }
+            }
+            return count;
+        });
+
+        assertThat(added).isEqualTo(OPERATIONS);
+        assertThat(dao.findAll()).hasSize(OPERATIONS);
+    }
+
+    @Test
+    void concurrentComputesDoNotLoseUpdates() throws Exception {
+        dao.add(new User("counter", "0", Species.VOLEUR, null));
+
+        runConcurrently(() -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                dao.compute("counter", user -> new User("counter", String.valueOf(Integer.parseInt(user.getPassword()) + 1), Species.VOLEUR, null));
+            }
+            return 0;
+        });
+
+        Versioned<User> counter = dao.findVersioned("counter");
+        assertThat(counter.element().getPassword()).isEqualTo(String.valueOf(THREADS * OPERATIONS));
+        assertThat(counter.version()).isEqualTo(Versioned.INITIAL_VERSION + THREADS * OPERATIONS);
+    }
+
+    @Test
+    void concurrentUpsertsCreateOnceAndDoNotLoseUpdates() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        runConcurrently(() -> {
+            for (int i = 0; i < OPERATIONS; i++) {
+                Upserted<User> upserted = dao.upsert("counter", user -> new User("counter",
+                        user == null ? "1" : String.valueOf(Integer.parseInt(user.getPassword()) + 1), Species.VOLEUR, null));
+                if (upserted.created()) {
+                    created.incrementAndGet();
+                }
+            }
+            return 0;
+        });
+
+        assertThat(created).hasValue(1);
+        Versioned<User> counter = dao.find("counter").orElseThrow();
+        assertThat(counter.element().getPassword()).isEqualTo(String.valueOf(THREADS * OPERATIONS));
+        assertThat(counter.version()).isEqualTo(THREADS * OPERATIONS);
+        assertThat(dao.find("missing")).isEmpty();
+    }
+
+    @Test
+    void conditionalUpdatesSucceedOnlyOnTheCurrentVersion() throws Exception {
+        dao.add(new User("alice", "password", Species.VOLEUR, null));
+        AtomicInteger stale = new AtomicInteger();
+
+        int succeeded = runConcurrently(() -> {
+            int count = 0;
+            for (int i = 0; i < OPERATIONS; i++) {
+                long version = dao.findVersioned("alice").version();
+                try {
+                    dao.update("alice", new User("alice", "password", Species.POLICIER, null), version);
+                    count++;
+                } catch (StaleVersionException e) {
+                    stale.incrementAndGet();
+                }
+            }
+            return count;
+        });
+
+        assertThat(succeeded + stale.get()).isEqualTo(THREADS * OPERATIONS);
+        assertThat(dao.findVersioned("alice").version()).isEqualTo(Versioned.INITIAL_VERSION + succeeded);
+    }
+
+    @Test
+    void conditionalUpdateRejectsStaleAndMissingElements() throws Exception {
+        dao.add(new User("alice", "password", Species.VOLEUR, null));
+        long version = dao.findVersioned("alice").version();
+        dao.update("alice", new User("alice", "other", Species.VOLEUR, null));
+
+        assertThatThrownBy(() -> dao.update("alice", new User("alice", "lost", Species.VOLEUR, null), version))
+                .isInstanceOf(StaleVersionException.class);
+        assertThat(dao.findOne("alice").getPassword()).isEqualTo("other");
+        assertThatThrownBy(() -> dao.update("bob", new User("bob", "password", Species.VOLEUR, null), 1))
+                .isInstanceOf(javax.naming.NameNotFoundException.class);
+    }
+
+    @Test
+    void iterationSeesTheStateAtItsStart() throws Exception {
+        dao.add(new User("a", "pwd", Species.VOLEUR, null));
+        dao.add(new User("b", "pwd", Species.VOLEUR, null));
+        Iterator<User> snapshot = dao.findAll().iterator();
+
+        dao.add(new User("c", "pwd", Species.VOLEUR, null));
+        dao.deleteById("a");
+        dao.update("b", new User("b", "pwd", Species.POLICIER, null));
+
+        List<User> seen = new ArrayList<>();
+        snapshot.forEachRemaining(seen::add);
+        assertThat(seen).extracting(User::getLogin).containsExactlyInAnyOrder("a", "b");
+        assertThat(seen).extracting(User::getSpecies).containsOnly(Species.VOLEUR);
+        assertThat(dao.findAll()).extracting(User::getLogin).containsExactlyInAnyOrder("b", "c");
+        assertThat(dao.findOne("b").getSpecies()).isEqualTo(Species.POLICIER);
+
+        // Le parcours terminé est désinscrit : la suppression peut être retirée de la Map
+        assertThat(dao.activeSnapshots()).isZero();
+        dao.vacuum();
+        assertThat(dao.vacuum()).isEqualTo(1);
+        assertThat(dao.keys()).containsExactlyInAnyOrder("b", "c");
+        // Recréé après le retrait de la suppression : la numérotation reprend après la dernière version
+        dao.add(new User("a", "pwd", Species.VOLEUR, null));
+        assertThat(dao.findVersioned("a").version()).isEqualTo(Versioned.INITIAL_VERSION + 1);
+    }
+
+    @Test
+    void sizeIsMaintainedWithoutIterating() throws Exception {
+        dao.add(new User("a", "pwd", Species.VOLEUR, null));
+        dao.add(new User("b", "pwd", Species.VOLEUR, null));
+        dao.update("c", new User("c", "pwd", Species.VOLEUR, null));
+        dao.upsert("d", current -> new User("d", "pwd", Species.POLICIER, null));
+        dao.upsert("d", current -> current);
+        dao.update("a", new User("a", "other", Species.VOLEUR, null));
+        dao.deleteById("b");
+        assertThatThrownBy(() -> dao.add(new User("a", "pwd", Species.VOLEUR, null))).isInstanceOf(NameAlreadyBoundException.class);
+
+        assertThat(dao.findAll().size()).isEqualTo(3);
+        // size() ne démarre aucun parcours
+        assertThat(dao.activeSnapshots()).isZero();
+    }
+
+    @Test
+    void closingAnAbandonedStreamReleasesItsSnapshot() throws Exception {
+        dao.add(new User("a", "pwd", Species.VOLEUR, null));
+        dao.add(new User("b", "pwd", Species.VOLEUR, null));
+
+        try (Stream<User> users = dao.findAll().stream()) {
+            assertThat(users.findFirst()).isPresent();
+            assertThat(dao.activeSnapshots()).isEqualTo(1);
+        }
+        assertThat(dao.activeSnapshots()).isZero();
+    }
+
+    @Test
+    void openIterationKeepsTheVersionsItNeeds() throws Exception {
+        dao.add(new User("a", "0", Species.VOLEUR, null));
+        Iterator<User> snapshot = dao.findAll().iterator();
+        for (int i = 1; i <= 100; i++) {
+            dao.update("a", new User("a", String.valueOf(i), Species.VOLEUR, null));
+            dao.vacuum();
+        }
+        assertThat(snapshot.next().getPassword()).isEqualTo("0");
+        assertThat(snapshot.hasNext()).isFalse();
+        assertThat(dao.findOne("a").getPassword()).isEqualTo("100");
+    }
+
+    @Test
+    void concurrentIterationsSeeConsistentSnapshots() throws Exception {
+        int keys = 20;
+        for (int k = 0; k < keys; k++) {
+            dao.add(new User("key" + k, "0", Species.VOLEUR, null));
+        }
+        // Un seul écrivain met à jour les clés dans l'ordre, tour après tour : dans tout état cohérent,
+        // les tours vus sont décroissants dans l'ordre des clés et diffèrent d'au plus un
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int round = 1; !stop.get(); round++) {
+                for (int k = 0; k < keys; k++) {
+                    String password = String.valueOf(round);
+                    dao.update("key" + k, new User("key" + k, password, Species.VOLEUR, null));
+                }
+            }
+        });
+        writer.start();
+        try {
+            int inconsistent = runConcurrently(() -> {
+                int failures = 0;
+                for (int i = 0; i < OPERATIONS; i++) {
+                    int[] rounds = new int[keys];
+                    for (User user : dao.findAll()) {
+                        rounds[Integer.parseInt(user.getLogin().substring(3))] = Integer.parseInt(user.getPassword());
+                    }
+                    for (int k = 1; k < keys; k++) {
+                        if (rounds[k] > rounds[k - 1] || rounds[0] - rounds[k] > 1) {
+                            failures++;
+                            break;
+                        }
+                    }
+                }
+                return failures;
+            });
+            assertThat(inconsistent).isZero();
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        assertThat(dao.activeSnapshots()).isZero();
+    }
+}
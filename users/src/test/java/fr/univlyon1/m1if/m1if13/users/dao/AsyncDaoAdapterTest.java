@@ -0,0 +1,67 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Test;
+
+import javax.naming.NameAlreadyBoundException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests de l'adaptateur asynchrone : absences signalées par des <code>Optional</code>, erreurs transmises par les futures,
+ * et choix entre exécution immédiate (DAO en mémoire) et exécution sur l'executor (DAO bloquant).
+ */
+class AsyncDaoAdapterTest {
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final Executor executor = task -> {
+        submitted.incrementAndGet();
+        new Thread(task).start();
+    };
+
+    @Test
+    void inMemoryDaoCompletesInline() throws Exception {
+        AsyncDao<User> dao = new AsyncDaoAdapter<>(new UserDao(), executor);
+
+        CompletableFuture<Serializable> added = dao.add(new User("alice", "pwd", Species.VOLEUR, null));
+        assertThat(added).isCompletedWithValue("alice");
+        assertThat(dao.findOne("nobody")).isCompletedWithValue(Optional.empty());
+        assertThat(dao.compute("nobody", user -> user)).isCompletedWithValue(Optional.empty());
+        assertThat(dao.deleteById("nobody")).isCompletedWithValue(false);
+        assertThat(submitted).hasValue(0);
+    }
+
+    @Test
+    void blockingDaoRunsOnTheExecutor() throws Exception {
+        OffHeapUserDao blocking = new OffHeapUserDao() {
+            @Override
+            public boolean isNonBlocking() {
+                return false;
+            }
+        };
+        AsyncDao<User> dao = new AsyncDaoAdapter<>(blocking, executor);
+
+        dao.add(new User("alice", "pwd", Species.VOLEUR, null)).get();
+        dao.add(new User("bob", "pwd", Species.POLICIER, null)).get();
+        assertThatThrownBy(() -> dao.add(new User("alice", "other", Species.VOLEUR, null)).get())
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(NameAlreadyBoundException.class);
+        assertThatThrownBy(() -> dao.update("alice", new User("alice", "lost", Species.VOLEUR, null), 7).get())
+                .hasCauseInstanceOf(StaleVersionException.class);
+
+        assertThat(dao.findOne("alice").get()).map(User::getSpecies).contains(Species.VOLEUR);
+        assertThat(dao.findMany(List.of("alice", "bob", "nobody")).get()).containsOnlyKeys("alice", "bob");
+        assertThat(dao.deleteById("alice").get()).isTrue();
+        assertThat(dao.findVersioned("alice").get()).isEmpty();
+        assertThat(submitted).hasValue(8);
+    }
+}
@@ -0,0 +1,107 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Test;
+
+import javax.naming.NameNotFoundException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests du cache W-TinyLFU : écritures transmises et répercutées dans le cache, admission selon la fréquence d'accès,
+ * expiration des entrées.
+ */
+class CachingDaoTest {
+    private final AtomicInteger storeReads = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong();
+
+    /**
+     * DAO décoré qui compte ses lectures par clé.
+     */
+    private final OffHeapUserDao store = new OffHeapUserDao() {
+        @Override
+        public Optional<Versioned<User>> find(Serializable id) {
+            storeReads.incrementAndGet();
+            return super.find(id);
+        }
+    };
+
+    private CachingDao<User> cache(int maxSize) {
+        return new CachingDao<>(store, maxSize, 60_000, now::get);
+    }
+
+    @Test
+    void writesGoThroughAndUpdateTheCache() throws Exception {
+        CachingDao<User> dao = cache(100);
+        // La version d'un utilisateur créé n'est pas connue du cache (il a pu être supprimé puis recréé) : il est relu une fois
+        dao.add(new User("alice", "pwd", Species.VOLEUR, null));
+        assertThat(dao.findOne("alice").getSpecies()).isEqualTo(Species.VOLEUR);
+        assertThat(dao.findOne("alice").getSpecies()).isEqualTo(Species.VOLEUR);
+        assertThat(storeReads).hasValue(1);
+
+        Versioned<User> computed = dao.compute("alice", user -> new User("alice", "pwd", Species.POLICIER, null));
+        assertThat(dao.findVersioned("alice")).isEqualTo(computed);
+        assertThatThrownBy(() -> dao.update("alice", new User("alice", "lost", Species.VOLEUR, null), 1))
+                .isInstanceOf(StaleVersionException.class);
+        // La mise à jour refusée invalide l'entrée : l'utilisateur est relu une fois
+        assertThat(dao.findOne("alice").getSpecies()).isEqualTo(Species.POLICIER);
+        assertThat(dao.findOne("alice").getSpecies()).isEqualTo(Species.POLICIER);
+        assertThat(storeReads).hasValue(2);
+
+        dao.deleteById("alice");
+        assertThatThrownBy(() -> dao.findOne("alice")).isInstanceOf(NameNotFoundException.class);
+        assertThat(store.findAll()).isEmpty();
+        assertThat(dao.getHitCount()).isEqualTo(3);
+        assertThat(dao.getMissCount()).isEqualTo(3);
+    }
+
+    @Test
+    void frequentlyReadUsersSurviveAScan() throws Exception {
+        CachingDao<User> dao = cache(100);
+        for (int i = 0; i < 1000; i++) {
+            store.add(new User("user" + i, "pwd", Species.VOLEUR, null));
+        }
+        List<String> hot = List.of("user0", "user1", "user2", "user3", "user4", "user5", "user6", "user7", "user8", "user9");
+        for (int round = 0; round < 5; round++) {
+            for (String login : hot) {
+                dao.findOne(login);
+            }
+        }
+        // Lecture ponctuelle de tous les utilisateurs : les utilisateurs fréquents restent en cache
+        for (int i = 10; i < 1000; i++) {
+            dao.findOne("user" + i);
+        }
+        assertThat(dao.size()).isLessThanOrEqualTo(100);
+        storeReads.set(0);
+        for (String login : hot) {
+            dao.findOne(login);
+        }
+        assertThat(storeReads).hasValue(0);
+        assertThat(dao.findMany(List.of("user0", "user999", "nobody"))).containsOnlyKeys("user0", "user999");
+    }
+
+    @Test
+    void entriesExpireAfterWrite() throws Exception {
+        CachingDao<User> dao = cache(100);
+        store.add(new User("alice", "pwd", Species.VOLEUR, null));
+        dao.findOne("alice");
+        dao.findOne("alice");
+        assertThat(storeReads).hasValue(1);
+
+        // Modification faite sans passer par le cache (autre instance)
+        store.update("alice", new User("alice", "pwd", Species.POLICIER, null));
+        now.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        assertThat(dao.findOne("alice").getSpecies()).isEqualTo(Species.POLICIER);
+        assertThat(storeReads).hasValue(2);
+        assertThat(dao.getEvictionCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,176 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests du DAO en base de données, sur une base H2 embarquée dans un fichier temporaire.
+ */
+class JdbcUserDaoTest {
+    private static final int POOL_SIZE = 2;
+
+    @TempDir
+    private Path directory;
+
+    private JdbcUserDao dao;
+
+    private JdbcUserDao open() {
+        return new JdbcUserDao("jdbc:h2:file:" + directory.resolve("users") + ";QUERY_CACHE_SIZE=64", "", "", POOL_SIZE, 100, 10);
+    }
+
+    @BeforeEach
+    void setUp() {
+        dao = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        dao.close();
+    }
+
+    @Test
+    void writesFollowTheDaoContract() throws Exception {
+        dao.add(new User("alice", "password", Species.VOLEUR, "alice.png"));
+        assertThatThrownBy(() -> dao.add(new User("alice", "other", Species.POLICIER, null)))
+                .isInstanceOf(NameAlreadyBoundException.class);
+
+        long version = dao.findVersioned("alice").version();
+        assertThat(dao.update("alice", new User("alice", "password", Species.POLICIER, "alice.png"), version)).isEqualTo(version + 1);
+        assertThatThrownBy(() -> dao.update("alice", new User("alice", "lost", Species.VOLEUR, null), version))
+                .isInstanceOf(StaleVersionException.class);
+
+        Versioned<User> computed = dao.compute("alice", user -> new User("alice", "changed", user.getSpecies(), user.getImage()));
+        assertThat(computed.version()).isEqualTo(version + 2);
+        assertThat(dao.findOne("alice").getPassword()).isEqualTo("changed");
+        assertThat(dao.findOne("alice").getSpecies()).isEqualTo(Species.POLICIER);
+
+        dao.update("bob", new User("bob", "password", null, null));
+        assertThat(dao.findVersioned("bob").version()).isEqualTo(Versioned.INITIAL_VERSION);
+
+        dao.deleteById("alice");
+        assertThatThrownBy(() -> dao.findOne("alice")).isInstanceOf(NameNotFoundException.class);
+        assertThatThrownBy(() -> dao.deleteById("alice")).isInstanceOf(NameNotFoundException.class);
+        // Recréé : la numérotation reprend après la dernière version de l'utilisateur supprimé
+        dao.add(new User("alice", "password", Species.VOLEUR, null));
+        assertThat(dao.findVersioned("alice").version()).isEqualTo(version + 3);
+        dao.deleteById("alice");
+    }
+
+    @Test
+    void findAllStreamsRowsAndReleasesConnections() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            dao.add(new User("user" + i, "password", Species.VOLEUR, null));
+        }
+
+        // Plus de parcours que de connexions dans le pool : chaque parcours doit rendre la sienne
+        for (int i = 0; i < POOL_SIZE * 5; i++) {
+            assertThat(dao.findAll()).hasSize(50);
+            int count = 0;
+            for (User ignored : dao.findAll()) {
+                count++;
+            }
+            assertThat(count).isEqualTo(50);
+        }
+        // Parcours interrompu : la fermeture du stream rend la connexion
+        for (int i = 0; i < POOL_SIZE * 5; i++) {
+            try (Stream<User> users = dao.findAll().stream()) {
+                assertThat(users.limit(3).count()).isEqualTo(3);
+            }
+        }
+    }
+
+    @Test
+    void concurrentWritesAreBatched() throws Exception {
+        int threads = 8;
+        int writesPerThread = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < writesPerThread; i++) {
+                        dao.add(new User("user" + thread + "-" + i, "password", Species.VOLEUR, null));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(dao.findAll()).hasSize(threads * writesPerThread);
+        assertThat(dao.getBatchCount()).isLessThanOrEqualTo(threads * writesPerThread);
+    }
+
+    @Test
+    void queriesUseSpeciesAndConnectionState() throws Exception {
+        dao.add(new User("thief", "pwd", Species.VOLEUR, null));
+        dao.add(new User("cop", "pwd", Species.POLICIER, null));
+        dao.setConnected("cop", true);
+
+        assertThat(dao.findBy(Species.POLICIER, true)).extracting(User::getLogin).containsExactly("cop");
+        assertThat(dao.findBy(null, false)).extracting(User::getLogin).containsExactly("thief");
+        assertThat(dao.findBy(Species.VOLEUR, true)).isEmpty();
+        assertThatThrownBy(() -> dao.setConnected("nobody", true)).isInstanceOf(NameNotFoundException.class);
+    }
+
+    @Test
+    void pagesFollowLoginOrder() throws Exception {
+        for (String login : new String[] {"c", "a", "b"}) {
+            dao.add(new User(login, "pwd", Species.VOLEUR, null));
+        }
+        assertThat(dao.findPage(null, 2)).extracting(User::getLogin).containsExactly("a", "b");
+        assertThat(dao.findPage("b", 2)).extracting(User::getLogin).containsExactly("c");
+        assertThat(dao.findPage("c", 2)).isEmpty();
+    }
+
+    @Test
+    void findManyReadsSeveralUsersPerQuery() throws Exception {
+        List<String> logins = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            dao.add(new User("user" + i, "pwd", Species.VOLEUR, null));
+            logins.add("user" + i);
+        }
+        logins.add("unknown");
+
+        // Plus de logins que de paramètres par requête : plusieurs requêtes IN
+        var found = dao.findMany(logins);
+        assertThat(found).hasSize(1200).doesNotContainKey("unknown");
+        assertThat(found.get("user1199").version()).isEqualTo(Versioned.INITIAL_VERSION);
+    }
+
+    @Test
+    void usersSurviveARestart() throws Exception {
+        dao.add(new User("alice", "password", Species.VOLEUR, "alice.png"));
+        dao.compute("alice", user -> new User("alice", "password", Species.POLICIER, user.getImage()));
+        dao.close();
+
+        dao = open();
+        Versioned<User> alice = dao.findVersioned("alice");
+        assertThat(alice.version()).isEqualTo(2);
+        assertThat(alice.element().getSpecies()).isEqualTo(Species.POLICIER);
+        assertThat(alice.element().getImage()).isEqualTo("alice.png");
+    }
+}
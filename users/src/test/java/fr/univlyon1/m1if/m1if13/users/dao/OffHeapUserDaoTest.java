@@ -0,0 +1,110 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.exception.StaleVersionException;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Test;
+
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests du DAO hors du tas : contrat du DAO, puis croissance de l'index, réutilisation des enregistrements
+ * et compaction des chaînes.
+ */
+class OffHeapUserDaoTest {
+    private final OffHeapUserDao dao = new OffHeapUserDao();
+
+    @Test
+    void writesFollowTheDaoContract() throws Exception {
+        dao.add(new User("alice", "password", Species.VOLEUR, "alice.png"));
+        assertThatThrownBy(() -> dao.add(new User("alice", "other", Species.POLICIER, null)))
+                .isInstanceOf(NameAlreadyBoundException.class);
+
+        long version = dao.findVersioned("alice").version();
+        assertThat(dao.update("alice", new User("alice", "password", Species.POLICIER, "alice.png"), version)).isEqualTo(version + 1);
+        assertThatThrownBy(() -> dao.update("alice", new User("alice", "lost", Species.VOLEUR, null), version))
+                .isInstanceOf(StaleVersionException.class);
+
+        Versioned<User> computed = dao.compute("alice", user -> new User("alice", "changed", user.getSpecies(), user.getImage()));
+        assertThat(computed.version()).isEqualTo(version + 2);
+        User alice = dao.findOne("alice");
+        assertThat(alice.getPassword()).isEqualTo("changed");
+        assertThat(alice.getSpecies()).isEqualTo(Species.POLICIER);
+        assertThat(alice.getImage()).isEqualTo("alice.png");
+
+        dao.update("bob", new User("bob", null, null, null));
+        assertThat(dao.findVersioned("bob").version()).isEqualTo(Versioned.INITIAL_VERSION);
+        assertThat(dao.findOne("bob").getPassword()).isNull();
+        assertThat(dao.findOne("bob").getSpecies()).isNull();
+
+        dao.deleteById("alice");
+        assertThatThrownBy(() -> dao.findOne("alice")).isInstanceOf(NameNotFoundException.class);
+        assertThatThrownBy(() -> dao.deleteById("alice")).isInstanceOf(NameNotFoundException.class);
+        // Recréé : la numérotation reprend après la dernière version de l'utilisateur supprimé
+        dao.add(new User("alice", "password", Species.VOLEUR, null));
+        assertThat(dao.findVersioned("alice").version()).isEqualTo(version + 3);
+        dao.deleteById("alice");
+        assertThat(dao.findAll()).extracting(User::getLogin).containsExactly("bob");
+    }
+
+    @Test
+    void queriesUseSpeciesAndConnectionState() throws Exception {
+        dao.add(new User("thief", "pwd", Species.VOLEUR, null));
+        dao.add(new User("cop", "pwd", Species.POLICIER, null));
+        dao.setConnected("cop", true);
+        // L'état de connexion survit aux mises à jour du profil
+        dao.compute("cop", user -> new User("cop", "new password", user.getSpecies(), "cop.png"));
+
+        assertThat(dao.isConnected("cop")).isTrue();
+        assertThat(dao.findBy(Species.POLICIER, true)).extracting(User::getLogin).containsExactly("cop");
+        assertThat(dao.findBy(null, false)).extracting(User::getLogin).containsExactly("thief");
+        assertThat(dao.findBy(Species.VOLEUR, true)).isEmpty();
+        assertThatThrownBy(() -> dao.setConnected("nobody", true)).isInstanceOf(NameNotFoundException.class);
+    }
+
+    @Test
+    void pagesFollowLoginOrder() throws Exception {
+        for (String login : new String[] {"c", "a", "b"}) {
+            dao.add(new User(login, "pwd", Species.VOLEUR, null));
+        }
+        assertThat(dao.findPage(null, 2)).extracting(User::getLogin).containsExactly("a", "b");
+        assertThat(dao.findPage("b", 2)).extracting(User::getLogin).containsExactly("c");
+        assertThat(dao.findPage("c", 2)).isEmpty();
+    }
+
+    @Test
+    void tableGrowsAndReusesSpace() throws Exception {
+        int users = 20_000;
+        for (int i = 0; i < users; i++) {
+            dao.add(new User("user" + i, "password" + i, Species.values()[i % 2], "image" + (i % 10) + ".png"));
+        }
+        assertThat(dao.findAll()).hasSize(users);
+        for (int i = 0; i < users; i += 2) {
+            dao.deleteById("user" + i);
+        }
+        // Les enregistrements libérés sont réutilisés
+        long used = dao.getUsedBytes();
+        for (int i = 0; i < users; i += 2) {
+            dao.add(new User("again" + i, "password", Species.VOLEUR, null));
+        }
+        // Nouveaux mots de passe : les anciennes chaînes sont compactées
+        for (int round = 0; round < 20; round++) {
+            for (int i = 1; i < users; i += 2) {
+                int generation = round;
+                dao.compute("user" + i, user -> new User(user.getLogin(), "round" + generation, user.getSpecies(), user.getImage()));
+            }
+        }
+
+        assertThat(dao.findAll()).hasSize(users);
+        assertThat(dao.getUsedBytes()).isLessThan(2 * used);
+        assertThat(dao.findOne("user19999").getPassword()).isEqualTo("round19");
+        assertThat(dao.findOne("user19999").getImage()).isEqualTo("image9.png");
+        assertThat(dao.findOne("again0").getSpecies()).isEqualTo(Species.VOLEUR);
+        assertThatThrownBy(() -> dao.findOne("user0")).isInstanceOf(NameNotFoundException.class);
+        assertThat(dao.findBy(Species.POLICIER, null)).hasSize(users / 2);
+    }
+}
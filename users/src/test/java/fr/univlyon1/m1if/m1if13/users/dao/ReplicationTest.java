@@ -0,0 +1,163 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
+import fr.univlyon1.m1if.m1if13.users.util.VerifiedTokenCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.naming.NameNotFoundException;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests de la réplication leader / réplique : synchronisation initiale, diffusion des modifications, reprise à l'offset
+ * enregistré après un redémarrage, et nouveau snapshot lorsque l'offset n'est plus conservé par le leader.
+ */
+class ReplicationTest {
+    @TempDir
+    private Path leaderDirectory;
+    @TempDir
+    private Path followerDirectory;
+
+    private UserDao leaderDao;
+    private ReplicationLog log;
+    private ReplicationServer server;
+    private UserDao followerDao;
+    private ReplicationFollower follower;
+
+    private void startLeader(int retention) throws Exception {
+        log = new ReplicationLog(retention);
+        leaderDao = dao(leaderDirectory);
+        ReflectionTestUtils.setField(leaderDao, "replicationLog", log);
+        leaderDao.open();
+        server = new ReplicationServer(log, "127.0.0.1", 0, 50, 500);
+        server.start();
+    }
+
+    private void startFollower() throws Exception {
+        followerDao = dao(followerDirectory);
+        followerDao.open();
+        follower = new ReplicationFollower(followerDao, "127.0.0.1:" + server.getPort(), followerDirectory.toString(), 50);
+        follower.start();
+    }
+
+    private void stopFollower() throws Exception {
+        follower.stop();
+        followerDao.close();
+        follower = null;
+    }
+
+    private static UserDao dao(Path directory) {
+        UserDao dao = new UserDao();
+        ReflectionTestUtils.setField(dao, "sessionRegistry", Mockito.mock(SessionRegistry.class));
+        ReflectionTestUtils.setField(dao, "verifiedTokenCache", Mockito.mock(VerifiedTokenCache.class));
+        ReflectionTestUtils.setField(dao, "storePath", directory.toString());
+        return dao;
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (follower != null) {
+            stopFollower();
+        }
+        server.stop();
+        leaderDao.close();
+    }
+
+    @Test
+    void followerSynchronizesThenStreamsChanges() throws Exception {
+        startLeader(1000);
+        for (int i = 0; i < 50; i++) {
+            leaderDao.add(new User("user" + i, "password" + i, Species.values()[i % 2], "user" + i + ".png"));
+        }
+        startFollower();
+        awaitCaughtUp();
+        assertThat(follower.getSnapshotCount()).isEqualTo(1);
+        assertThat(followerDao.findAll()).hasSize(50);
+
+        leaderDao.update("user1", new User("user1", "changed", Species.POLICIER, "new.png"));
+        leaderDao.deleteById("user2");
+        leaderDao.add(new User("user50", "password50", Species.VOLEUR, null));
+        awaitCaughtUp();
+
+        // Les versions du leader sont conservées, les modifications sont diffusées sans nouveau snapshot
+        Versioned<User> replicated = followerDao.findVersioned("user1");
+        assertThat(replicated.version()).isEqualTo(leaderDao.findVersioned("user1").version());
+        assertThat(replicated.element().getPassword()).isEqualTo("changed");
+        assertThat(replicated.element().getImage()).isEqualTo("new.png");
+        assertThatThrownBy(() -> followerDao.findVersioned("user2")).isInstanceOf(NameNotFoundException.class);
+        assertThat(followerDao.findAll()).hasSize(50);
+        assertThat(follower.getSnapshotCount()).isEqualTo(1);
+        assertThat(follower.getLagRecords()).isZero();
+        assertThat(follower.getLagMs()).isLessThan(5000);
+    }
+
+    @Test
+    void restartedFollowerResumesFromItsOffset() throws Exception {
+        startLeader(1000);
+        for (int i = 0; i < 10; i++) {
+            leaderDao.add(new User("user" + i, "password" + i, Species.VOLEUR, null));
+        }
+        startFollower();
+        awaitCaughtUp();
+        stopFollower();
+
+        for (int i = 10; i < 20; i++) {
+            leaderDao.add(new User("user" + i, "password" + i, Species.VOLEUR, null));
+        }
+        leaderDao.deleteById("user0");
+        startFollower();
+        assertThat(follower.getLagMs()).isEqualTo(Long.MAX_VALUE);
+        awaitCaughtUp();
+
+        assertThat(follower.getSnapshotCount()).isZero();
+        assertThat(follower.getAppliedOffset()).isEqualTo(log.getLastOffset());
+        assertThat(followerDao.findAll()).hasSize(19);
+        assertThatThrownBy(() -> followerDao.findVersioned("user0")).isInstanceOf(NameNotFoundException.class);
+    }
+
+    @Test
+    void followerBehindRetentionIsResynchronized() throws Exception {
+        startLeader(5);
+        for (int i = 0; i < 10; i++) {
+            leaderDao.add(new User("user" + i, "password" + i, Species.VOLEUR, null));
+        }
+        startFollower();
+        awaitCaughtUp();
+        stopFollower();
+
+        for (int i = 0; i < 5; i++) {
+            leaderDao.deleteById("user" + i);
+        }
+        for (int i = 10; i < 20; i++) {
+            leaderDao.add(new User("user" + i, "password" + i, Species.POLICIER, null));
+        }
+        startFollower();
+        awaitCaughtUp();
+
+        // Les utilisateurs supprimés pendant l'arrêt disparaissent avec le snapshot
+        assertThat(follower.getSnapshotCount()).isEqualTo(1);
+        assertThat(followerDao.findAll()).extracting(User::getLogin)
+                .containsExactlyInAnyOrderElementsOf(leaderDao.findAll().stream().map(User::getLogin).toList());
+    }
+
+    private void awaitCaughtUp() throws InterruptedException {
+        awaitUntil(() -> follower.getAppliedOffset() == log.getLastOffset() && follower.getLagMs() < 1000);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("délai d'attente dépassé").isLessThan(deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
+import fr.univlyon1.m1if.m1if13.users.util.VerifiedTokenCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.naming.NameAlreadyBoundException;
+import javax.naming.NameNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests des index secondaires du DAO des utilisateurs (espèce et état de connexion).
+ */
+class UserDaoIndexTest {
+    private final UserDao dao = new UserDao();
+
+    @BeforeEach
+    void setUp() {
+        // La suppression d'un utilisateur révoque ses sessions : ces composants ne sont pas testés ici
+        ReflectionTestUtils.setField(dao, "sessionRegistry", mock(SessionRegistry.class));
+        ReflectionTestUtils.setField(dao, "verifiedTokenCache", mock(VerifiedTokenCache.class));
+    }
+
+    private static List<String> logins(List<User> users) {
+        return users.stream().map(User::getLogin).sorted().toList();
+    }
+
+    @Test
+    void queriesCombineSpeciesAndConnectionState() throws Exception {
+        dao.add(new User("thief1", "pwd", Species.VOLEUR, null));
+        dao.add(new User("thief2", "pwd", Species.VOLEUR, null));
+        dao.add(new User("cop1", "pwd", Species.POLICIER, null));
+        dao.setConnected("thief1", true);
+        dao.setConnected("cop1", true);
+
+        assertThat(logins(dao.findBy(Species.VOLEUR, null))).containsExactly("thief1", "thief2");
+        assertThat(logins(dao.findBy(null, true))).containsExactly("cop1", "thief1");
+        assertThat(logins(dao.findBy(Species.VOLEUR, true))).containsExactly("thief1");
+        assertThat(logins(dao.findBy(Species.VOLEUR, false))).containsExactly("thief2");
+        assertThat(logins(dao.findBy(null, null))).containsExactly("cop1", "thief1", "thief2");
+
+        // Une mise à jour déplace l'utilisateur dans l'index de sa nouvelle espèce, sans changer son état de connexion
+        dao.compute("thief1", user -> new User("thief1", "pwd", Species.POLICIER, null));
+        assertThat(logins(dao.findBy(Species.POLICIER, true))).containsExactly("cop1", "thief1");
+        assertThat(logins(dao.findBy(Species.VOLEUR, null))).containsExactly("thief2");
+
+        dao.setConnected("cop1", false);
+        dao.deleteById("thief1");
+        assertThat(dao.findBy(null, true)).isEmpty();
+        assertThat(dao.speciesIndex(Species.POLICIER)).containsExactly("cop1");
+        assertThatThrownBy(() -> dao.setConnected("thief1", true)).isInstanceOf(NameNotFoundException.class);
+    }
+
+    @Test
+    void pagesFollowLoginOrder() throws Exception {
+        for (String login : new String[] {"d", "b", "e", "a", "c"}) {
+            dao.add(new User(login, "pwd", Species.VOLEUR, null));
+        }
+        assertThat(logins(dao.findPage(null, 2))).containsExactly("a", "b");
+        assertThat(logins(dao.findPage("b", 2))).containsExactly("c", "d");
+        assertThat(logins(dao.findPage("d", 2))).containsExactly("e");
+
+        // Le curseur est une position dans l'ordre des logins : il reste valide si son utilisateur est supprimé
+        dao.deleteById("b");
+        dao.add(new User("bb", "pwd", Species.VOLEUR, null));
+        assertThat(logins(dao.findPage("b", 10))).containsExactly("bb", "c", "d", "e");
+        assertThat(dao.findPage("e", 10)).isEmpty();
+    }
+
+    @Test
+    void indexesStayConsistentUnderConcurrentUpdatesAndDeletes() throws Exception {
+        int threads = 8;
+        int logins = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 5_000; i++) {
+                        String login = "user" + random.nextInt(logins);
+                        Species species = Species.values()[random.nextInt(Species.values().length)];
+                        try {
+                            switch (random.nextInt(5)) {
+                                case 0 -> dao.add(new User(login, "pwd", species, null));
+                                case 1 -> dao.deleteById(login);
+                                case 2 -> dao.setConnected(login, random.nextBoolean());
+                                case 3 -> dao.update(login, new User(login, "pwd", species, null));
+                                default -> dao.compute(login, user -> new User(login, "pwd", species, null));
+                            }
+                        } catch (NameAlreadyBoundException | NameNotFoundException e) {
+                            // Opération concurrente sur le même login
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Une fois les écritures terminées, chaque index contient exactement les utilisateurs correspondants
+        for (Species species : Species.values()) {
+            List<String> expected = dao.findAll().stream().filter(user -> user.getSpecies() == species).map(User::getLogin).sorted().toList();
+            assertThat(dao.speciesIndex(species).stream().map(Object::toString).sorted().toList()).isEqualTo(expected);
+        }
+        assertThat(logins(dao.findBy(null, true))).isSubsetOf(logins(new ArrayList<>(dao.findAll())));
+        assertThat(logins(dao.findPage(null, logins))).isEqualTo(dao.findAll().stream().map(User::getLogin).sorted().toList());
+    }
+}
@@ -0,0 +1,141 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests du stockage persistant des utilisateurs : rechargement après redémarrage, compaction et arrêt brutal.
+ */
+class UserStoreTest {
+    @TempDir
+    private Path directory;
+
+    private static Versioned<User> user(String login, Species species, long version) {
+        return new Versioned<>(new User(login, "password", species, login + ".png"), version);
+    }
+
+    private static void write(UserStore store, String login, Versioned<User> value) throws IOException {
+        store.sync(store.append(login, value));
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    @Test
+    void restartRecoversUsersVersionsAndDeletions() throws Exception {
+        try (UserStore store = new UserStore(directory)) {
+            assertThat(store.recover()).isEmpty();
+            write(store, "alice", user("alice", Species.VOLEUR, 1));
+            write(store, "bob", user("bob", Species.POLICIER, 1));
+            write(store, "alice", user("alice", Species.POLICIER, 2));
+            write(store, "bob", null);
+        }
+
+        try (UserStore restarted = new UserStore(directory)) {
+            Map<String, Versioned<User>> state = restarted.recover();
+            assertThat(state).containsOnlyKeys("alice");
+            assertThat(state.get("alice").version()).isEqualTo(2);
+            assertThat(state.get("alice").element().getSpecies()).isEqualTo(Species.POLICIER);
+            assertThat(state.get("alice").element().getImage()).isEqualTo("alice.png");
+        }
+    }
+
+    @Test
+    void compactionReplacesTheLogWithASnapshot() throws Exception {
+        try (UserStore store = new UserStore(directory)) {
+            store.recover();
+            for (int i = 0; i < 100; i++) {
+                write(store, "user" + i, user("user" + i, Species.VOLEUR, 1));
+            }
+            assertThat(store.compact()).isEqualTo(100);
+            // Modifications postérieures au snapshot : elles sont dans le nouveau segment
+            write(store, "user0", null);
+            write(store, "user1", user("user1", Species.POLICIER, 2));
+        }
+        assertThat(files()).containsExactly("snapshot-1.bin", "wal-1.log");
+
+        try (UserStore restarted = new UserStore(directory)) {
+            Map<String, Versioned<User>> state = restarted.recover();
+            assertThat(state).hasSize(99).doesNotContainKey("user0");
+            assertThat(state.get("user1").version()).isEqualTo(2);
+            restarted.compact();
+        }
+        // Les fichiers couverts par le dernier snapshot sont supprimés
+        assertThat(files()).containsExactly("snapshot-3.bin", "wal-3.log");
+    }
+
+    @Test
+    void tornRecordAtTheEndOfTheLogIsIgnored() throws Exception {
+        try (UserStore store = new UserStore(directory)) {
+            store.recover();
+            write(store, "alice", user("alice", Species.VOLEUR, 1));
+            write(store, "bob", user("bob", Species.VOLEUR, 1));
+        }
+        // Arrêt brutal pendant l'écriture du dernier enregistrement
+        Path segment = directory.resolve("wal-0.log");
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (UserStore restarted = new UserStore(directory)) {
+            assertThat(restarted.recover()).containsOnlyKeys("alice");
+            // Le segment abîmé n'est pas complété : les nouvelles écritures vont dans un nouveau segment
+            write(restarted, "carol", user("carol", Species.VOLEUR, 1));
+        }
+        try (UserStore restarted = new UserStore(directory)) {
+            assertThat(restarted.recover()).containsOnlyKeys("alice", "carol");
+        }
+    }
+
+    @Test
+    void concurrentWritesAreGroupedIntoFewerSyncs() throws Exception {
+        int threads = 8;
+        int writesPerThread = 200;
+        try (UserStore store = new UserStore(directory)) {
+            store.recover();
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> results = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    results.add(executor.submit(() -> {
+                        for (int i = 0; i < writesPerThread; i++) {
+                            String login = "user" + thread + "-" + i;
+                            write(store, login, user(login, Species.VOLEUR, 1));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    result.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            assertThat(store.getSyncCount()).isLessThanOrEqualTo(threads * writesPerThread);
+        }
+        try (UserStore restarted = new UserStore(directory)) {
+            assertThat(restarted.recover()).hasSize(threads * writesPerThread);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package fr.univlyon1.m1if.m1if13.users.dao;
+
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.util.SessionRegistry;
+import fr.univlyon1.m1if.m1if13.users.util.VerifiedTokenCache;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.naming.NameNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests du déchargement des utilisateurs inactifs : lecture transparente, rechargement, modifications
+ * et libération de la place dans le fichier.
+ */
+class UserTieringTest {
+    @TempDir
+    private Path directory;
+
+    private UserDao dao;
+
+    private UserDao open(long idleMs, int maxResident) throws Exception {
+        dao = new UserDao();
+        ReflectionTestUtils.setField(dao, "sessionRegistry", Mockito.mock(SessionRegistry.class));
+        ReflectionTestUtils.setField(dao, "verifiedTokenCache", Mockito.mock(VerifiedTokenCache.class));
+        ReflectionTestUtils.setField(dao, "tieringPath", directory.toString());
+        ReflectionTestUtils.setField(dao, "tieringIdleMs", idleMs);
+        ReflectionTestUtils.setField(dao, "tieringMaxResident", maxResident);
+        dao.open();
+        return dao;
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        dao.close();
+    }
+
+    @Test
+    void idleUsersAreSpilledAndFaultedBackIn() throws Exception {
+        open(0, 0);
+        for (int i = 0; i < 100; i++) {
+            dao.add(new User("user" + i, "password" + i, Species.values()[i % 2], "user" + i + ".png"));
+        }
+        dao.setConnected("user0", true);
+        dao.vacuum();
+
+        assertThat(dao.tier()).isEqualTo(99);
+        assertThat(dao.getResidentCount()).isEqualTo(1);
+        assertThat(dao.getSpilledCount()).isEqualTo(99);
+        assertThat(Files.size(directory.resolve("users.cold"))).isPositive();
+
+        // Les recherches et les parcours lisent le fichier sans recharger les utilisateurs
+        assertThat(dao.findBy(Species.POLICIER, null)).hasSize(50);
+        assertThat(dao.findAll()).hasSize(100);
+        assertThat(dao.findPage("user98", 10)).extracting(User::getLogin).containsExactly("user99");
+        assertThat(dao.getResidentCount()).isEqualTo(1);
+
+        // Lecture par login : rechargement
+        Versioned<User> user = dao.findVersioned("user42");
+        assertThat(user.element().getPassword()).isEqualTo("password42");
+        assertThat(user.element().getImage()).isEqualTo("user42.png");
+        assertThat(user.version()).isEqualTo(Versioned.INITIAL_VERSION);
+        assertThat(dao.getResidentCount()).isEqualTo(2);
+
+        // Modification et suppression d'utilisateurs déchargés
+        assertThat(dao.compute("user43", u -> new User("user43", "changed", u.getSpecies(), u.getImage())).version()).isEqualTo(2);
+        dao.deleteById("user44");
+        assertThatThrownBy(() -> dao.findOne("user44")).isInstanceOf(NameNotFoundException.class);
+        assertThat(dao.findOne("user43").getPassword()).isEqualTo("changed");
+        assertThat(dao.findAll()).hasSize(99);
+    }
+
+    @Test
+    void scansSeeUsersReloadedDuringTheScan() throws Exception {
+        open(0, 0);
+        for (int i = 0; i < 10; i++) {
+            dao.add(new User("user" + i, "pwd", Species.VOLEUR, null));
+        }
+        dao.vacuum();
+        dao.tier();
+        Iterator<User> scan = dao.findAll().iterator();
+        scan.next();
+        // Rechargement puis libération de toutes les références pendant le parcours
+        for (int i = 0; i < 10; i++) {
+            dao.findOne("user" + i);
+        }
+        dao.compute("user5", u -> new User("user5", "new", Species.POLICIER, null));
+        dao.vacuum();
+        dao.tier();
+
+        int seen = 1;
+        while (scan.hasNext()) {
+            User user = scan.next();
+            // Le parcours voit l'état à la date où il a commencé
+            assertThat(user.getSpecies()).isEqualTo(Species.VOLEUR);
+            seen++;
+        }
+        assertThat(seen).isEqualTo(10);
+    }
+
+    @Test
+    void residentUsersAreBoundedByTheBudget() throws Exception {
+        open(Long.MAX_VALUE / 2, 10);
+        for (int i = 0; i < 30; i++) {
+            dao.add(new User("user" + i, "pwd", Species.VOLEUR, null));
+        }
+        dao.vacuum();
+        dao.tier();
+        assertThat(dao.getResidentCount()).isEqualTo(10);
+        assertThat(dao.getSpilledCount()).isEqualTo(20);
+
+        // Les utilisateurs rechargés, modifiés ou supprimés libèrent leur place dans le fichier au passage suivant
+        for (int i = 0; i < 30; i++) {
+            dao.deleteById("user" + i);
+        }
+        dao.vacuum();
+        dao.tier();
+        assertThat(dao.getSpilledCount()).isZero();
+        assertThat(dao.findAll()).isEmpty();
+    }
+}
@@ -32,25 +32,19 @@ class UserTest {
     }
 
     @Test
-    void setPassword() {
-        arsene.setPassword("ectoplasme");
+    void newPassword() {
+        User updated = new User(arsene.getLogin(), "ectoplasme", arsene.getSpecies(), arsene.getImage());
         try {
-            arsene.authenticate("ectoplasme");
+            updated.authenticate("ectoplasme");
             assert(true);
         } catch (AuthenticationException e) {
             fail(e.getMessage());
         }
-    }
-
-    @Test
-    void isConnected() {
         try {
-            arsene.authenticate("montenlair");
-            assert(arsene.isConnected());
-            arsene.disconnect();
-            assert(!arsene.isConnected());
+            arsene.authenticate("ectoplasme");
+            fail("L'ancienne version ne doit pas être modifiée");
         } catch (AuthenticationException e) {
-            fail(e.getMessage());
+            assert(true);
         }
     }
 
@@ -70,15 +64,4 @@ class UserTest {
             assert(true);
         }
     }
-
-    @Test
-    void disconnect() {
-        try {
-            arsene.authenticate("montenlair");
-            arsene.disconnect();
-            assert(!arsene.isConnected());
-        } catch (AuthenticationException e) {
-            fail(e.getMessage());
-        }
-    }
 }
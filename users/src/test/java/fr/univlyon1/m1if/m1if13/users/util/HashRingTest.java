@@ -0,0 +1,50 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests de l'anneau de hachage cohérent : répartition des clés et clés déplacées par un changement de composition.
+ */
+class HashRingTest {
+    private static final int KEYS = 20_000;
+    private static final List<String> NODES = List.of("http://localhost:8081", "http://localhost:8082", "http://localhost:8083");
+
+    @Test
+    void keysAreSpreadOverAllNodes() {
+        HashRing ring = new HashRing(NODES, 128);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.nodeFor("user" + i), 1, Integer::sum);
+        }
+        assertThat(counts).containsOnlyKeys(NODES);
+        // Avec 128 points par nœud, chaque nœud reçoit un tiers des clés à ±20 % près
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(KEYS / 3 * 8 / 10, KEYS / 3 * 12 / 10));
+        // L'ordre des nœuds ne change pas l'anneau
+        HashRing reversed = new HashRing(NODES.reversed(), 128);
+        assertThat(reversed.nodeFor("user42")).isEqualTo(ring.nodeFor("user42"));
+    }
+
+    @Test
+    void addingOrRemovingANodeOnlyMovesItsKeys() {
+        HashRing three = new HashRing(NODES, 128);
+        HashRing four = new HashRing(List.of(NODES.get(0), NODES.get(1), NODES.get(2), "http://localhost:8084"), 128);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String before = three.nodeFor("user" + i);
+            String after = four.nodeFor("user" + i);
+            if (!before.equals(after)) {
+                // Les seules clés déplacées le sont vers le nouveau nœud (et, en le retirant, seules ses clés sont déplacées)
+                assertThat(after).isEqualTo("http://localhost:8084");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(KEYS / 4 * 8 / 10, KEYS / 4 * 12 / 10);
+        assertThat(new HashRing(List.of(), 128).nodeFor("user")).isNull();
+    }
+}
@@ -0,0 +1,69 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import fr.univlyon1.m1if.m1if13.users.model.AuthenticatedUser;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests de la table des tokens opaques et de sa roue temporelle.
+ */
+class OpaqueTokenStoreTest {
+    private static final long TICK_MS = 1000;
+    private static final long TTL_MS = 10_000;
+
+    private OpaqueTokenStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new OpaqueTokenStore(TICK_MS, TTL_MS, 3);
+    }
+
+    private static AuthenticatedUser user(String login, long expiresAt) {
+        return new AuthenticatedUser(login, Species.VOLEUR, "http://localhost", 1L, Instant.ofEpochMilli(expiresAt));
+    }
+
+    @Test
+    void issuedTokenIsFoundUntilRevoked() {
+        AuthenticatedUser alice = user("alice", System.currentTimeMillis() + TTL_MS);
+        String token = store.issue(alice);
+
+        assertThat(token).doesNotContain(".").hasSize(43);
+        assertThat(store.lookup(token)).isEqualTo(alice);
+        assertThat(store.lookup("unknown")).isNull();
+
+        store.revoke(token);
+        assertThat(store.lookup(token)).isNull();
+    }
+
+    @Test
+    void expiredTokensAreSweptByTheWheel() {
+        long now = System.currentTimeMillis();
+        String shortLived = store.issue(user("alice", now + 2 * TICK_MS));
+        String longLived = store.issue(user("bob", now + TTL_MS));
+
+        assertThat(store.sweep(now + TICK_MS)).isZero();
+        assertThat(store.sweep(now + 3 * TICK_MS)).isEqualTo(1);
+        assertThat(store.size()).isEqualTo(1);
+        assertThat(store.lookup(longLived)).isNotNull();
+        assertThat(store.lookup(shortLived)).isNull();
+
+        // Un balayage très tardif parcourt toute la roue une seule fois
+        assertThat(store.sweep(now + 100 * TTL_MS)).isEqualTo(1);
+        assertThat(store.size()).isZero();
+    }
+
+    @Test
+    void tableIsBounded() {
+        long expiresAt = System.currentTimeMillis() + TTL_MS;
+        for (int i = 0; i < 3; i++) {
+            store.issue(user("user" + i, expiresAt));
+        }
+        assertThatThrownBy(() -> store.issue(user("overflow", expiresAt))).isInstanceOf(IllegalStateException.class);
+    }
+}
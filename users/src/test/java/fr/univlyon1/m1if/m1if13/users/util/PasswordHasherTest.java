@@ -0,0 +1,88 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import fr.univlyon1.m1if.m1if13.users.exception.OverloadedException;
+import fr.univlyon1.m1if.m1if13.users.model.PasswordHash;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests du hachage des mots de passe et de la file bornée du pool de hachage.
+ */
+class PasswordHasherTest {
+    private PasswordHasher hasher;
+
+    @AfterEach
+    void tearDown() {
+        hasher.stop();
+    }
+
+    @Test
+    void hashedPasswordIsVerifiedWithoutRehash() {
+        hasher = new PasswordHasher(1000, 1, 4);
+        String stored = hasher.hash("secret");
+
+        assertThat(stored).startsWith("pbkdf2-sha256$1000$").doesNotContain("secret");
+        assertThat(hasher.hash("secret")).isNotEqualTo(stored);
+        assertThat(hasher.verify("secret", stored)).isEqualTo(new PasswordHasher.Verification(true, null));
+        assertThat(hasher.verify("other", stored)).isEqualTo(new PasswordHasher.Verification(false, null));
+    }
+
+    @Test
+    void plaintextAndCheaperHashesAreRehashedOnSuccess() {
+        hasher = new PasswordHasher(2000, 1, 4);
+
+        PasswordHasher.Verification plaintext = hasher.verify("secret", "secret");
+        assertThat(plaintext.matches()).isTrue();
+        assertThat(PasswordHash.iterations(plaintext.rehashed())).isEqualTo(2000);
+        assertThat(PasswordHash.matches("secret", plaintext.rehashed())).isTrue();
+
+        PasswordHasher.Verification cheaper = hasher.verify("secret", PasswordHash.encode("secret", 1000));
+        assertThat(cheaper.matches()).isTrue();
+        assertThat(PasswordHash.iterations(cheaper.rehashed())).isEqualTo(2000);
+
+        // Un mot de passe incorrect n'est jamais haché à nouveau
+        assertThat(hasher.verify("other", "secret")).isEqualTo(new PasswordHasher.Verification(false, null));
+    }
+
+    @Test
+    void fullQueueRejectsImmediately() {
+        // Un thread et une place dans la file : sur huit demandes simultanées, au moins six sont refusées
+        hasher = new PasswordHasher(200_000, 1, 1);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return hasher.hash("secret");
+            }, callers));
+        }
+        start.countDown();
+        long rejected = results.stream().filter(result -> {
+            try {
+                result.join();
+                return false;
+            } catch (CompletionException e) {
+                return e.getCause() instanceof OverloadedException;
+            }
+        }).count();
+        callers.shutdown();
+
+        assertThat(rejected).isGreaterThanOrEqualTo(6);
+        assertThat(hasher.getRejectedCount()).isEqualTo(rejected);
+    }
+}
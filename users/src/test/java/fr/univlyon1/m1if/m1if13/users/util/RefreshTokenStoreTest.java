@@ -0,0 +1,78 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.naming.AuthenticationException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests de la rotation des refresh tokens et de la détection de réutilisation.
+ */
+class RefreshTokenStoreTest {
+    private static final long IN_ONE_HOUR = System.currentTimeMillis() + 3_600_000;
+
+    private SessionRegistry sessionRegistry;
+    private RefreshTokenStore store;
+
+    @BeforeEach
+    void setUp() {
+        sessionRegistry = new SessionRegistry(4, 16);
+        store = new RefreshTokenStore();
+        ReflectionTestUtils.setField(store, "sessionRegistry", sessionRegistry);
+    }
+
+    @Test
+    void refreshTokenIsRotatedOnEachUse() throws AuthenticationException {
+        long sid = sessionRegistry.open("alice", IN_ONE_HOUR);
+        String first = store.open(sid, "alice", "http://localhost");
+
+        RefreshTokenStore.Rotation rotation = store.rotate(first);
+
+        assertThat(rotation.login()).isEqualTo("alice");
+        assertThat(rotation.origin()).isEqualTo("http://localhost");
+        assertThat(rotation.sessionId()).isEqualTo(sid);
+        assertThat(rotation.refreshToken()).isNotEqualTo(first);
+        assertThat(store.rotate(rotation.refreshToken()).sessionId()).isEqualTo(sid);
+    }
+
+    @Test
+    void reusingAReplacedTokenRevokesTheSession() throws AuthenticationException {
+        long sid = sessionRegistry.open("alice", IN_ONE_HOUR);
+        String stolen = store.open(sid, "alice", "http://localhost");
+        String latest = store.rotate(stolen).refreshToken();
+
+        assertThatThrownBy(() -> store.rotate(stolen)).isInstanceOf(AuthenticationException.class);
+
+        assertThat(sessionRegistry.isActive(sid)).isFalse();
+        assertThat(store.getReuseDetectionCount()).isEqualTo(1);
+        assertThatThrownBy(() -> store.rotate(latest)).isInstanceOf(AuthenticationException.class);
+    }
+
+    @Test
+    void forgedTokenIsRejectedWithoutRevokingTheSession() {
+        long sid = sessionRegistry.open("alice", IN_ONE_HOUR);
+        String token = store.open(sid, "alice", "http://localhost");
+        // Modifie un caractère du code d'authentification (le dernier caractère ne porte que des bits de remplissage)
+        int position = token.length() - 5;
+        String forged = token.substring(0, position) + (token.charAt(position) == 'A' ? 'B' : 'A') + token.substring(position + 1);
+
+        assertThatThrownBy(() -> store.rotate(forged)).isInstanceOf(AuthenticationException.class);
+        assertThatThrownBy(() -> store.rotate("not-a-token")).isInstanceOf(AuthenticationException.class);
+        assertThat(sessionRegistry.isActive(sid)).isTrue();
+    }
+
+    @Test
+    void closedSessionsAreCollected() {
+        long sid = sessionRegistry.open("alice", IN_ONE_HOUR);
+        String token = store.open(sid, "alice", "http://localhost");
+        sessionRegistry.revoke(sid);
+
+        assertThat(store.collectClosed()).isEqualTo(1);
+        assertThat(store.size()).isZero();
+        assertThatThrownBy(() -> store.rotate(token)).isInstanceOf(AuthenticationException.class);
+    }
+}
@@ -0,0 +1,151 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests de la diffusion des révocations entre plusieurs instances, reliées par le transport local.
+ */
+class RevocationBusTest {
+    private static final long IN_ONE_HOUR = System.currentTimeMillis() + 3_600_000;
+    private static final long RETENTION_MS = 1_800_000;
+
+    private String group;
+    private final List<RevocationBus> buses = new ArrayList<>();
+
+    /**
+     * Instance simulée.
+     * @param registry Sa table des sessions
+     * @param transport Son transport
+     * @param bus Son bus de révocation
+     */
+    private record Node(SessionRegistry registry, LocalRevocationTransport transport, RevocationBus bus) {
+    }
+
+    @BeforeEach
+    void setUp() {
+        group = UUID.randomUUID().toString();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (RevocationBus bus : buses) {
+            bus.stop();
+        }
+    }
+
+    private Node start(String secret) throws IOException {
+        SessionRegistry registry = new SessionRegistry(4, 16);
+        LocalRevocationTransport transport = new LocalRevocationTransport(group);
+        RevocationBus bus = new RevocationBus(registry, new VerifiedTokenCache(), transport, secret, RETENTION_MS);
+        bus.start();
+        buses.add(bus);
+        return new Node(registry, transport, bus);
+    }
+
+    @Test
+    void sessionRevocationReachesEveryNode() throws IOException {
+        Node a = start("secret");
+        Node b = start("secret");
+        Node c = start("secret");
+        long sid = a.registry().open("alice", IN_ONE_HOUR);
+        long nodeA = a.registry().getNodeId();
+        assertThat(c.bus().isRevoked(nodeA, sid, "alice", System.currentTimeMillis())).isFalse();
+
+        // Déconnexion sur B d'une session ouverte par A
+        b.bus().revokeSession(nodeA, sid);
+
+        assertThat(a.registry().isActive(sid)).isFalse();
+        assertThat(c.bus().isRevoked(nodeA, sid, "alice", System.currentTimeMillis())).isTrue();
+        assertThat(c.bus().getReceivedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void subjectRevocationRefusesOnlyTokensIssuedBefore() throws IOException, InterruptedException {
+        Node a = start("secret");
+        Node b = start("secret");
+        long localSid = b.registry().open("bob", IN_ONE_HOUR);
+        long issuedBefore = System.currentTimeMillis();
+
+        a.bus().revokeSubject("bob");
+        Thread.sleep(5);
+
+        assertThat(b.registry().isActive(localSid)).isFalse();
+        assertThat(b.bus().isRevoked(a.registry().getNodeId(), 42, "bob", issuedBefore)).isTrue();
+        assertThat(b.bus().isRevoked(a.registry().getNodeId(), 42, "bob", System.currentTimeMillis())).isFalse();
+        assertThat(b.bus().isRevoked(a.registry().getNodeId(), 42, "carol", issuedBefore)).isFalse();
+    }
+
+    @Test
+    void nodeStartedLaterReceivesEarlierRevocations() throws IOException {
+        Node a = start("secret");
+        a.bus().revokeSession(a.registry().getNodeId(), 7);
+        a.bus().revokeSubject("dave");
+
+        Node late = start("secret");
+
+        assertThat(late.bus().size()).isEqualTo(2);
+        assertThat(late.bus().isRevoked(a.registry().getNodeId(), 7, "eve", 0)).isTrue();
+    }
+
+    @Test
+    void partitionedNodeCatchesUpThroughDigests() throws IOException {
+        Node a = start("secret");
+        Node b = start("secret");
+        b.transport().setReachable(false);
+        a.bus().revokeSession(a.registry().getNodeId(), 7);
+        b.transport().setReachable(true);
+        assertThat(b.bus().size()).isZero();
+
+        // Un seul écart peut venir d'un message en cours d'envoi : la synchronisation attend le second
+        a.bus().heartbeat();
+        assertThat(b.bus().size()).isZero();
+        a.bus().heartbeat();
+
+        assertThat(b.bus().size()).isEqualTo(1);
+        assertThat(b.bus().getSyncRequestCount()).isEqualTo(1);
+        a.bus().heartbeat();
+        b.bus().heartbeat();
+        assertThat(a.bus().getSyncRequestCount()).isZero();
+    }
+
+    @Test
+    void messagesWithAnotherSecretAreIgnored() throws IOException {
+        Node a = start("secret");
+        Node intruder = start("other");
+
+        intruder.bus().revokeSession(a.registry().getNodeId(), 7);
+        long sid = a.registry().open("frank", IN_ONE_HOUR);
+        intruder.bus().revokeSession(a.registry().getNodeId(), sid);
+
+        assertThat(a.registry().isActive(sid)).isTrue();
+        assertThat(a.bus().size()).isZero();
+        assertThat(a.bus().getRejectedCount()).isGreaterThanOrEqualTo(2);
+        assertThat(a.bus().isPeer(intruder.registry().getNodeId())).isFalse();
+    }
+
+    @Test
+    void onlyNodesHeardFromArePeers() throws IOException {
+        Node a = start("secret");
+        // La demande de synchronisation envoyée au démarrage fait connaître B à A, mais A n'a encore rien envoyé à B
+        Node b = start("secret");
+        long nodeA = a.registry().getNodeId();
+        long nodeB = b.registry().getNodeId();
+        assertThat(a.bus().isPeer(nodeB)).isTrue();
+        assertThat(b.bus().isPeer(nodeA)).isFalse();
+
+        a.bus().heartbeat();
+
+        assertThat(b.bus().isPeer(nodeA)).isTrue();
+        // Identifiant d'une instance arrêtée ou redémarrée : jamais reçu
+        assertThat(b.bus().isPeer(new SessionRegistry(4, 16).getNodeId())).isFalse();
+    }
+}
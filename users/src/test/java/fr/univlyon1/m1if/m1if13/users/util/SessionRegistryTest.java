@@ -0,0 +1,101 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests de la table des sessions.
+ */
+class SessionRegistryTest {
+    private static final long IN_ONE_HOUR = System.currentTimeMillis() + 3_600_000;
+
+    private SessionRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SessionRegistry(2, 4);
+    }
+
+    @Test
+    void openedSessionIsActiveUntilRevoked() {
+        long sid = registry.open("a", IN_ONE_HOUR);
+        assertThat(registry.isActive(sid)).isTrue();
+
+        assertThat(registry.revoke(sid)).isTrue();
+        assertThat(registry.isActive(sid)).isFalse();
+        assertThat(registry.revoke(sid)).isFalse();
+    }
+
+    @Test
+    void revokeOnlyAffectsOneSession() {
+        long phone = registry.open("a", IN_ONE_HOUR);
+        long laptop = registry.open("a", IN_ONE_HOUR);
+
+        registry.revoke(phone);
+
+        assertThat(registry.isActive(phone)).isFalse();
+        assertThat(registry.isActive(laptop)).isTrue();
+        assertThat(registry.hasActiveSession("a")).isTrue();
+    }
+
+    @Test
+    void reusedSlotDoesNotReviveRevokedSession() {
+        long first = registry.open("a", IN_ONE_HOUR);
+        registry.revoke(first);
+        long second = registry.open("b", IN_ONE_HOUR);
+
+        assertThat(registry.isActive(first)).isFalse();
+        assertThat(registry.isActive(second)).isTrue();
+    }
+
+    @Test
+    void revokeAllRevokesEverySessionOfUser() {
+        long a1 = registry.open("a", IN_ONE_HOUR);
+        long a2 = registry.open("a", IN_ONE_HOUR);
+        long b = registry.open("b", IN_ONE_HOUR);
+
+        assertThat(registry.revokeAll("a")).isEqualTo(2);
+
+        assertThat(registry.isActive(a1)).isFalse();
+        assertThat(registry.isActive(a2)).isFalse();
+        assertThat(registry.isActive(b)).isTrue();
+        assertThat(registry.hasActiveSession("a")).isFalse();
+    }
+
+    @Test
+    void expiredSessionsAreCollected() {
+        long expired = registry.open("a", System.currentTimeMillis() - 1);
+        long active = registry.open("b", IN_ONE_HOUR);
+
+        assertThat(registry.collectExpired()).isEqualTo(1);
+        assertThat(registry.isActive(expired)).isFalse();
+        assertThat(registry.isActive(active)).isTrue();
+        assertThat(registry.getActiveCount()).isEqualTo(1);
+    }
+
+    @Test
+    void tableGrowsUpToMaxCapacity() {
+        long[] sids = new long[4];
+        for (int i = 0; i < sids.length; i++) {
+            sids[i] = registry.open("user" + i, IN_ONE_HOUR);
+        }
+        assertThat(registry.getCapacity()).isEqualTo(4);
+        for (long sid : sids) {
+            assertThat(registry.isActive(sid)).isTrue();
+        }
+        assertThatThrownBy(() -> registry.open("user4", IN_ONE_HOUR)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void extendOnlyAppliesToActiveSessions() {
+        long sid = registry.open("a", System.currentTimeMillis() - 1);
+        assertThat(registry.extend(sid, IN_ONE_HOUR)).isTrue();
+        assertThat(registry.collectExpired()).isZero();
+
+        registry.revoke(sid);
+        assertThat(registry.extend(sid, IN_ONE_HOUR)).isFalse();
+    }
+}
@@ -0,0 +1,102 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests du trousseau de clés partagé entre plusieurs instances du service.
+ */
+class TokenSigningKeysTest {
+    private static final long ONE_HOUR = 3_600_000;
+
+    @TempDir
+    private Path directory;
+
+    private static String sign(TokenSigningKeys keys, String subject) {
+        return keys.sign(Jwts.builder().subject(subject)).compact();
+    }
+
+    private static String verify(TokenSigningKeys keys, String token) {
+        return keys.getParser().parseSignedClaims(token).getPayload().getSubject();
+    }
+
+    @Test
+    void instancesSharingTheKeyringVerifyEachOthersTokens() throws Exception {
+        Path keyring = directory.resolve("keyring.jwks");
+        TokenSigningKeys first = new TokenSigningKeys(TokenSigningKeys.Algorithm.HS512, keyring.toString(), 0, 0, ONE_HOUR);
+        TokenSigningKeys second = new TokenSigningKeys(TokenSigningKeys.Algorithm.HS512, keyring.toString(), 0, 0, ONE_HOUR);
+
+        assertThat(Files.exists(keyring)).isTrue();
+        // Le fichier contient les clés secrètes : il n'est lisible que par son propriétaire
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(keyring))).isEqualTo("rw-------");
+        assertThat(second.getKeyId()).isEqualTo(first.getKeyId());
+        assertThat(verify(second, sign(first, "alice"))).isEqualTo("alice");
+
+        // Un redémarrage ne change pas les clés : la signature des tokens déjà émis reste valide
+        TokenSigningKeys restarted = new TokenSigningKeys(TokenSigningKeys.Algorithm.HS512, keyring.toString(), 0, 0, ONE_HOUR);
+        assertThat(verify(restarted, sign(second, "bob"))).isEqualTo("bob");
+    }
+
+    @Test
+    void rotationKeepsPreviousKeysAndOtherInstancesPickUpTheNewOne() {
+        Path keyring = directory.resolve("keyring.jwks");
+        TokenSigningKeys first = new TokenSigningKeys(TokenSigningKeys.Algorithm.EdDSA, keyring.toString(), ONE_HOUR, 0, ONE_HOUR);
+        TokenSigningKeys second = new TokenSigningKeys(TokenSigningKeys.Algorithm.EdDSA, keyring.toString(), ONE_HOUR, 0, ONE_HOUR);
+        String oldKeyId = first.getKeyId();
+        String oldToken = sign(first, "alice");
+
+        first.rotate();
+
+        assertThat(first.getKeyId()).isNotEqualTo(oldKeyId);
+        assertThat(first.getKeyIds()).containsExactly(first.getKeyId(), oldKeyId);
+        // Les tokens signés avant la rotation restent valides
+        assertThat(verify(first, oldToken)).isEqualTo("alice");
+        // L'autre instance relit le trousseau lorsqu'elle rencontre un kid inconnu
+        assertThat(verify(second, sign(first, "bob"))).isEqualTo("bob");
+        assertThat(second.getKeyIds()).containsExactly(first.getKeyId(), oldKeyId);
+        assertThat(second.getJwks().get("keys")).asList().hasSize(2);
+    }
+
+    @Test
+    void newKeyIsOnlyUsedAfterThePublicationDelay() {
+        TokenSigningKeys keys = new TokenSigningKeys(TokenSigningKeys.Algorithm.ES256,
+                directory.resolve("keyring.jwks").toString(), ONE_HOUR, ONE_HOUR, ONE_HOUR);
+        String activeKeyId = keys.getKeyId();
+
+        keys.rotate();
+
+        // La nouvelle clé est publiée mais ne signe pas encore
+        assertThat(keys.getKeyIds()).hasSize(2).contains(activeKeyId);
+        assertThat(keys.getKeyId()).isEqualTo(activeKeyId);
+        assertThat(keys.getJwks().get("keys")).asList().hasSize(2);
+    }
+
+    @Test
+    void expiredKeysArePrunedOnRotation() {
+        TokenSigningKeys keys = new TokenSigningKeys(TokenSigningKeys.Algorithm.HS512,
+                directory.resolve("keyring.jwks").toString(), ONE_HOUR, 0, 0);
+        String oldToken = sign(keys, "alice");
+
+        keys.rotate();
+
+        assertThat(keys.getKeyIds()).hasSize(1);
+        assertThatThrownBy(() -> verify(keys, oldToken)).isInstanceOf(io.jsonwebtoken.security.SecurityException.class);
+    }
+
+    @Test
+    void unknownKeyIdIsRejected() {
+        TokenSigningKeys keys = new TokenSigningKeys(TokenSigningKeys.Algorithm.HS512);
+        TokenSigningKeys other = new TokenSigningKeys(TokenSigningKeys.Algorithm.HS512);
+
+        assertThatThrownBy(() -> verify(keys, sign(other, "mallory"))).isInstanceOf(io.jsonwebtoken.security.SecurityException.class);
+        assertThat(keys.getJwks().get("keys")).asList().isEmpty();
+    }
+}
@@ -0,0 +1,85 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import fr.univlyon1.m1if.m1if13.users.dao.UserDao;
+import fr.univlyon1.m1if.m1if13.users.dao.Versioned;
+import fr.univlyon1.m1if.m1if13.users.model.Species;
+import fr.univlyon1.m1if.m1if13.users.model.User;
+import fr.univlyon1.m1if.m1if13.users.model.UserEvent;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests du journal des modifications des utilisateurs.
+ */
+class UserEventLogTest {
+    private static final Duration NO_WAIT = Duration.ZERO;
+
+    private final UserEventLog log = new UserEventLog(4, 2);
+
+    @Test
+    void daoWritesArePublishedInOrder() throws Exception {
+        UserDao dao = new UserDao();
+        ReflectionTestUtils.setField(dao, "sessionRegistry", Mockito.mock(SessionRegistry.class));
+        ReflectionTestUtils.setField(dao, "verifiedTokenCache", Mockito.mock(VerifiedTokenCache.class));
+        ReflectionTestUtils.setField(dao, "userEvents", log);
+        UserEventLog.Subscription subscription = log.subscribe(null);
+
+        dao.add(new User("alice", "pwd", Species.VOLEUR, null));
+        dao.setConnected("alice", true);
+        dao.compute("alice", user -> new User("alice", "pwd", Species.POLICIER, "1.png"));
+
+        List<UserEvent> events = drain(subscription);
+        assertThat(events).extracting(UserEvent::type)
+                .containsExactly(UserEvent.Type.CREATED, UserEvent.Type.CONNECTED);
+        // File pleine à la troisième écriture : l'abonné est désabonné, l'écriture n'attend pas
+        assertThat(subscription.isOverflowed()).isTrue();
+        assertThat(log.getSubscriberCount()).isZero();
+
+        // Reprise après le dernier événement reçu
+        UserEventLog.Subscription resumed = log.subscribe(events.get(1).sequence());
+        UserEvent updated = resumed.next(NO_WAIT);
+        assertThat(updated.type()).isEqualTo(UserEvent.Type.UPDATED);
+        assertThat(updated.sequence()).isEqualTo(3);
+        assertThat(updated.species()).isEqualTo(Species.POLICIER);
+        assertThat(updated.image()).isEqualTo("1.png");
+        assertThat(updated.version()).isEqualTo(2);
+        assertThat(resumed.isHistoryLost()).isFalse();
+    }
+
+    @Test
+    void resumingBeforeTheRetainedHistoryIsReported() throws Exception {
+        for (int i = 1; i <= 6; i++) {
+            log.userCreated("user" + i, new Versioned<>(new User("user" + i, "pwd", null, null), Versioned.INITIAL_VERSION));
+        }
+
+        // Seuls les 4 derniers événements sont conservés
+        UserEventLog.Subscription late = log.subscribe(1L);
+        assertThat(late.isHistoryLost()).isTrue();
+        assertThat(drain(late)).extracting(UserEvent::sequence).containsExactly(3L, 4L, 5L, 6L);
+
+        UserEventLog.Subscription upToDate = log.subscribe(2L);
+        assertThat(upToDate.isHistoryLost()).isFalse();
+
+        UserEventLog.Subscription live = log.subscribe(null);
+        log.userChanged("user1", null);
+        assertThat(drain(live)).extracting(UserEvent::type).containsExactly(UserEvent.Type.DELETED);
+        assertThat(live.isOverflowed()).isFalse();
+        live.close();
+        assertThat(log.getSubscriberCount()).isEqualTo(2);
+    }
+
+    private static List<UserEvent> drain(UserEventLog.Subscription subscription) throws InterruptedException {
+        List<UserEvent> events = new ArrayList<>();
+        for (UserEvent event = subscription.next(NO_WAIT); event != null; event = subscription.next(NO_WAIT)) {
+            events.add(event);
+        }
+        return events;
+    }
+}
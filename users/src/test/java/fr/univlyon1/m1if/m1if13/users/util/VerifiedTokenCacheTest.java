@@ -0,0 +1,74 @@
+package fr.univlyon1.m1if.m1if13.users.util;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests du cache des tokens vérifiés.
+ */
+class VerifiedTokenCacheTest {
+    private VerifiedTokenCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new VerifiedTokenCache();
+        ReflectionTestUtils.setField(cache, "maxSize", 3);
+    }
+
+    private static Claims claims(String subject, long ttlMs) {
+        return Jwts.claims()
+                .subject(subject)
+                .expiration(new Date(System.currentTimeMillis() + ttlMs))
+                .build();
+    }
+
+    @Test
+    void getReturnsCachedClaimsAndCountsHits() {
+        Claims claims = claims("a", 60_000);
+        assertThat(cache.get("token-a")).isNull();
+        cache.put("token-a", claims);
+
+        assertThat(cache.get("token-a")).isSameAs(claims);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    void expiredEntriesAreEvicted() {
+        cache.put("token-a", claims("a", -1));
+
+        assertThat(cache.get("token-a")).isNull();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void evictSubjectRemovesAllTokensOfUser() {
+        cache.put("token-a1", claims("a", 60_000));
+        cache.put("token-a2", claims("a", 60_000));
+        cache.put("token-b", claims("b", 60_000));
+
+        cache.evictSubject("a");
+
+        assertThat(cache.get("token-a1")).isNull();
+        assertThat(cache.get("token-a2")).isNull();
+        assertThat(cache.get("token-b")).isNotNull();
+        assertThat(cache.getEvictionCount()).isEqualTo(2);
+    }
+
+    @Test
+    void sizeIsBounded() {
+        for (int i = 0; i < 10; i++) {
+            cache.put("token-" + i, claims("user" + i, 60_000));
+        }
+        assertThat(cache.size()).isLessThanOrEqualTo(3);
+        assertThat(cache.get("token-9")).isNotNull();
+    }
+}